@@ -23,4 +23,12 @@ import java.util.List;
 public interface DataSeries<E> {
 
   List<SeriesData<E>> getDataForXRange(Range xRange);
+
+  /**
+   * Same as {@link #getDataForXRange(Range)}, but lets the series reduce the data to about {@code maxPointCount} points when it can do so
+   * cheaply, e.g. when the caller only has that many pixels to draw them on. Series that cannot reduce their data return all of it.
+   */
+  default List<SeriesData<E>> getDataForXRange(Range xRange, int maxPointCount) {
+    return getDataForXRange(xRange);
+  }
 }
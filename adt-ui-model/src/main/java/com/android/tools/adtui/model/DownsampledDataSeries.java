@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.adtui.model;
+
+import gnu.trove.TLongArrayList;
+import java.util.ArrayList;
+import java.util.List;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A {@link DataSeries} that caches the data of another series in a level-of-detail pyramid, so that charts can ask for no more points
+ * than they have pixels through {@link #getDataForXRange(Range, int)}, or without boxing through
+ * {@link #getDataForXRange(Range, int, LongSeriesData)}. Full resolution queries are served from the same cache, so lines that cannot be
+ * downsampled do not fetch the data a second time.
+ * <p>
+ * Level 0 holds the raw points. Each bucket of level {@code k} covers {@code FANOUT^k} consecutive raw points and keeps the points with
+ * the minimum and maximum value among them, which preserves the envelope of the line at every zoom level.
+ * <p>
+ * The cache grows in both directions: points after the cached range are appended to its tail as they arrive, and points before it are
+ * prepended to its head when the view pans back, so either way only the uncached part of a range is fetched, at constant work per point.
+ * Raw points are addressed by an index relative to the first point ever cached, which is negative for the head. Buckets are aligned on
+ * index 0, so the head and the tail each have their own buckets and neither has to be rebuilt when the other grows.
+ */
+public class DownsampledDataSeries implements PrimitiveLongDataSeries {
+  private static final int FANOUT = 4;
+  private static final int MAX_LEVELS = 10;
+
+  @NotNull private final DataSeries<Long> mySource;
+
+  // Points at index 0 and up, in increasing x.
+  @NotNull private final Side myTail = new Side();
+
+  // Points at index -1 and down, in decreasing x: position p of the head is index -1 - p.
+  @NotNull private final Side myHead = new Side();
+
+  // Reused across fetches, so that sources implementing PrimitiveLongDataSeries are read without boxing.
+  @NotNull private final LongSeriesData myFetchBuffer = new LongSeriesData();
+
+  private double myCachedMin = Double.MAX_VALUE;
+  private double myCachedMax = -Double.MAX_VALUE;
+
+  public DownsampledDataSeries(@NotNull DataSeries<Long> source) {
+    mySource = source;
+  }
+
+  @Override
+  public void getDataForXRange(@NotNull Range xRange, int maxPointCount, @NotNull LongSeriesData data) {
+    data.clear();
+    if (xRange.isEmpty()) {
+      return;
+    }
+    fetch(xRange);
+    if (myHead.size() + myTail.size() == 0) {
+      return;
+    }
+
+    // Include one point on each side of the range so lines reach the edges of the chart.
+    int from = Math.max(getFirstIndex(), getNearestIndex((long)xRange.getMin()));
+    int to = Math.min(getLastIndex(), getNearestIndex((long)xRange.getMax()) + 1);
+    int level = 0;
+    // Each bucket yields up to two points, and the range may end in a partial bucket on both sides of index 0.
+    while (level < MAX_LEVELS && ((to - from) / getBucketSize(level) + 2) * 2 > maxPointCount) {
+      level++;
+    }
+    if (level == 0) {
+      for (int i = from; i <= to; i++) {
+        data.add(getX(i), getY(i));
+      }
+      return;
+    }
+
+    int bucketSize = getBucketSize(level);
+    if (from < 0) {
+      // Head buckets are stored from index -1 down, so walk them backwards to keep the points in increasing x.
+      int firstBucket = toHeadPosition(Math.min(to, -1)) / bucketSize;
+      for (int bucket = toHeadPosition(from) / bucketSize; bucket >= firstBucket; bucket--) {
+        addBucket(data, toHeadIndex(myHead.getMinPosition(level, bucket)), toHeadIndex(myHead.getMaxPosition(level, bucket)));
+      }
+    }
+    if (to >= 0) {
+      for (int bucket = Math.max(from, 0) / bucketSize; bucket <= to / bucketSize; bucket++) {
+        addBucket(data, myTail.getMinPosition(level, bucket), myTail.getMaxPosition(level, bucket));
+      }
+    }
+  }
+
+  private void addBucket(@NotNull LongSeriesData data, int minIndex, int maxIndex) {
+    int firstIndex = Math.min(minIndex, maxIndex);
+    int secondIndex = Math.max(minIndex, maxIndex);
+    data.add(getX(firstIndex), getY(firstIndex));
+    if (secondIndex != firstIndex) {
+      data.add(getX(secondIndex), getY(secondIndex));
+    }
+  }
+
+  /**
+   * Makes sure the pyramid covers the given range, fetching only what has not been cached yet.
+   */
+  private void fetch(@NotNull Range xRange) {
+    if (myCachedMin > myCachedMax) {
+      appendToTail(new Range(xRange.getMin(), xRange.getMax()));
+      myCachedMin = xRange.getMin();
+      myCachedMax = xRange.getMax();
+      return;
+    }
+    if (xRange.getMin() < myCachedMin) {
+      // Refetch up to the first cached point rather than up to the cached min, for the same reason as the tail below.
+      double headMax = isEmpty() ? myCachedMin : getX(getFirstIndex());
+      prependToHead(new Range(xRange.getMin(), headMax));
+      myCachedMin = xRange.getMin();
+    }
+    if (xRange.getMax() > myCachedMax) {
+      // Refetch from the last cached point rather than from the cached max, to pick up points that arrived late.
+      double tailMin = isEmpty() ? myCachedMax : getX(getLastIndex());
+      appendToTail(new Range(tailMin, xRange.getMax()));
+      myCachedMax = xRange.getMax();
+    }
+  }
+
+  private void appendToTail(@NotNull Range sourceRange) {
+    // The source is asked for all of its points, since they are what the pyramid is built from.
+    PrimitiveLongDataSeries.getLongData(mySource, sourceRange, Integer.MAX_VALUE, myFetchBuffer);
+    for (int i = 0; i < myFetchBuffer.size(); i++) {
+      long x = myFetchBuffer.getX(i);
+      if (!isEmpty() && x <= getX(getLastIndex())) {
+        continue;
+      }
+      myTail.add(x, myFetchBuffer.getValue(i));
+    }
+    myFetchBuffer.clear();
+  }
+
+  private void prependToHead(@NotNull Range sourceRange) {
+    PrimitiveLongDataSeries.getLongData(mySource, sourceRange, Integer.MAX_VALUE, myFetchBuffer);
+    for (int i = myFetchBuffer.size() - 1; i >= 0; i--) {
+      long x = myFetchBuffer.getX(i);
+      if (!isEmpty() && x >= getX(getFirstIndex())) {
+        continue;
+      }
+      myHead.add(x, myFetchBuffer.getValue(i));
+    }
+    myFetchBuffer.clear();
+  }
+
+  private boolean isEmpty() {
+    return myHead.size() + myTail.size() == 0;
+  }
+
+  private int getFirstIndex() {
+    return -myHead.size();
+  }
+
+  private int getLastIndex() {
+    return myTail.size() - 1;
+  }
+
+  private long getX(int index) {
+    return index < 0 ? myHead.getX(toHeadPosition(index)) : myTail.getX(index);
+  }
+
+  private long getY(int index) {
+    return index < 0 ? myHead.getY(toHeadPosition(index)) : myTail.getY(index);
+  }
+
+  /**
+   * @return the index of the last point whose x is not greater than the given one, or {@code getFirstIndex() - 1} if there is none.
+   */
+  private int getNearestIndex(long x) {
+    int low = getFirstIndex();
+    int high = getLastIndex();
+    while (low <= high) {
+      int mid = Math.floorDiv(low + high, 2);
+      long midX = getX(mid);
+      if (midX < x) {
+        low = mid + 1;
+      }
+      else if (midX > x) {
+        high = mid - 1;
+      }
+      else {
+        return mid;
+      }
+    }
+    return high;
+  }
+
+  private static int toHeadPosition(int index) {
+    return -1 - index;
+  }
+
+  private static int toHeadIndex(int position) {
+    return -1 - position;
+  }
+
+  /**
+   * @return the number of raw points covered by a bucket of the given level.
+   */
+  private static int getBucketSize(int level) {
+    int size = 1;
+    for (int i = 0; i < level; i++) {
+      size *= FANOUT;
+    }
+    return size;
+  }
+
+  /**
+   * The raw points and the buckets of levels 1 to {@link #MAX_LEVELS} of one direction of the cache, in the order the points were added.
+   * Each bucket stores the positions of its minimum and maximum points.
+   */
+  private static final class Side {
+    @NotNull private final TLongArrayList myX = new TLongArrayList();
+    @NotNull private final TLongArrayList myY = new TLongArrayList();
+    @NotNull private final List<TLongArrayList> myMinPositions = new ArrayList<>();
+    @NotNull private final List<TLongArrayList> myMaxPositions = new ArrayList<>();
+
+    private Side() {
+      for (int level = 1; level <= MAX_LEVELS; level++) {
+        myMinPositions.add(new TLongArrayList());
+        myMaxPositions.add(new TLongArrayList());
+      }
+    }
+
+    private int size() {
+      return myX.size();
+    }
+
+    private long getX(int position) {
+      return myX.get(position);
+    }
+
+    private long getY(int position) {
+      return myY.get(position);
+    }
+
+    private int getMinPosition(int level, int bucket) {
+      return (int)myMinPositions.get(level - 1).get(bucket);
+    }
+
+    private int getMaxPosition(int level, int bucket) {
+      return (int)myMaxPositions.get(level - 1).get(bucket);
+    }
+
+    private void add(long x, long y) {
+      int position = myX.size();
+      myX.add(x);
+      myY.add(y);
+      for (int level = 1; level <= MAX_LEVELS; level++) {
+        TLongArrayList minPositions = myMinPositions.get(level - 1);
+        TLongArrayList maxPositions = myMaxPositions.get(level - 1);
+        int bucket = position / getBucketSize(level);
+        if (bucket == minPositions.size()) {
+          // The point starts a new bucket.
+          minPositions.add(position);
+          maxPositions.add(position);
+          continue;
+        }
+        if (y < myY.get((int)minPositions.get(bucket))) {
+          minPositions.set(bucket, position);
+        }
+        if (y >= myY.get((int)maxPositions.get(bucket))) {
+          maxPositions.set(bucket, position);
+        }
+      }
+    }
+  }
+}
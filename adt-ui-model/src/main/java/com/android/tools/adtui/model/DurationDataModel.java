@@ -48,6 +48,21 @@ public class DurationDataModel<E extends DurationData> extends AspectModel<Durat
     return myAttachedLineSeries;
   }
 
+  /**
+   * Replaces the content of {@code data} with the points of the attached series in its current x range, without boxing them when the
+   * series supports it.
+   *
+   * @return false, leaving {@code data} empty, if no series has been attached.
+   */
+  public boolean getAttachedSeriesData(@NotNull LongSeriesData data) {
+    if (myAttachedLineSeries == null) {
+      data.clear();
+      return false;
+    }
+    myAttachedLineSeries.getSeries(Integer.MAX_VALUE, data);
+    return true;
+  }
+
   @Nullable
   public Predicate<SeriesData<E>> getAttachPredicate() {
     return myAttachPredicate;
@@ -33,6 +33,18 @@ public class LineChartModel extends AspectModel<LineChartModel.Aspect> implement
   @NotNull
   private final List<RangedContinuousSeries> mySeries = new ArrayList<>();
 
+  /**
+   * The number of points to ask downsampled series for when computing the max of the y range. Downsampling keeps the extremes of the data,
+   * so this does not affect the result.
+   */
+  private static final int MAX_POINTS_FOR_Y_RANGE = 1024;
+
+  /**
+   * Reused by every update, so that computing the y ranges of primitive series does not allocate.
+   */
+  @NotNull
+  private final LongSeriesData mySeriesData = new LongSeriesData();
+
   /**
    * During the first update, skip the y range interpolation and snap to the initial max value.
    */
@@ -47,13 +59,13 @@ public class LineChartModel extends AspectModel<LineChartModel.Aspect> implement
       Range range = ranged.getYRange();
       double yMax = -Double.MAX_VALUE;
 
-      List<SeriesData<Long>> seriesList = ranged.getSeries();
-      if (seriesList.isEmpty()) {
+      ranged.getSeries(MAX_POINTS_FOR_Y_RANGE, mySeriesData);
+      if (mySeriesData.isEmpty()) {
         continue;
       }
 
-      for (SeriesData<Long> series : seriesList) {
-        double value = series.value;
+      for (int i = 0; i < mySeriesData.size(); i++) {
+        double value = mySeriesData.getValue(i);
         if (yMax < value) {
           yMax = value;
         }
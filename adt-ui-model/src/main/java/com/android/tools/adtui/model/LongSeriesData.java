@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.adtui.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A growable list of (x, value) pairs stored in primitive arrays. It is the unboxed counterpart of a {@code List<SeriesData<Long>>}:
+ * callers keep one instance around and let {@link PrimitiveLongDataSeries} refill it, so that reading a range of data does not allocate
+ * anything per point once the arrays have grown to the size of the data.
+ */
+public final class LongSeriesData {
+  private static final int DEFAULT_CAPACITY = 16;
+
+  @NotNull private long[] myX;
+  @NotNull private long[] myValues;
+  private int mySize;
+
+  public LongSeriesData() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  public LongSeriesData(int initialCapacity) {
+    myX = new long[Math.max(1, initialCapacity)];
+    myValues = new long[myX.length];
+  }
+
+  public void add(long x, long value) {
+    if (mySize == myX.length) {
+      int capacity = myX.length * 2;
+      myX = Arrays.copyOf(myX, capacity);
+      myValues = Arrays.copyOf(myValues, capacity);
+    }
+    myX[mySize] = x;
+    myValues[mySize] = value;
+    mySize++;
+  }
+
+  public void addAll(@NotNull List<SeriesData<Long>> data) {
+    for (SeriesData<Long> point : data) {
+      add(point.x, point.value);
+    }
+  }
+
+  /**
+   * Removes all the points, but keeps the arrays so that they can be refilled without allocating.
+   */
+  public void clear() {
+    mySize = 0;
+  }
+
+  public int size() {
+    return mySize;
+  }
+
+  public boolean isEmpty() {
+    return mySize == 0;
+  }
+
+  public long getX(int index) {
+    checkIndex(index);
+    return myX[index];
+  }
+
+  public long getValue(int index) {
+    checkIndex(index);
+    return myValues[index];
+  }
+
+  /**
+   * @return the points boxed into {@link SeriesData}, for callers that still work with the boxed API.
+   */
+  @NotNull
+  public List<SeriesData<Long>> toSeriesDataList() {
+    List<SeriesData<Long>> data = new ArrayList<>(mySize);
+    for (int i = 0; i < mySize; i++) {
+      data.add(new SeriesData<>(myX[i], myValues[i]));
+    }
+    return data;
+  }
+
+  private void checkIndex(int index) {
+    if (index < 0 || index >= mySize) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + mySize);
+    }
+  }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.adtui.model;
+
+import java.util.List;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A {@link DataSeries} of longs that can write its data into a caller-owned {@link LongSeriesData} instead of boxing every point into a
+ * {@link SeriesData}. The boxed methods of {@link DataSeries} are still available and are implemented on top of the primitive one.
+ */
+public interface PrimitiveLongDataSeries extends DataSeries<Long> {
+
+  /**
+   * Replaces the content of {@code data} with the points in the given range, following the same contract as
+   * {@link DataSeries#getDataForXRange(Range, int)}.
+   */
+  void getDataForXRange(@NotNull Range xRange, int maxPointCount, @NotNull LongSeriesData data);
+
+  @Override
+  default List<SeriesData<Long>> getDataForXRange(Range xRange) {
+    return getDataForXRange(xRange, Integer.MAX_VALUE);
+  }
+
+  @Override
+  default List<SeriesData<Long>> getDataForXRange(Range xRange, int maxPointCount) {
+    LongSeriesData data = new LongSeriesData();
+    getDataForXRange(xRange, maxPointCount, data);
+    return data.toSeriesDataList();
+  }
+
+  /**
+   * Replaces the content of {@code data} with the points of any long series in the given range, without boxing them when the series
+   * supports it.
+   */
+  static void getLongData(@NotNull DataSeries<Long> series, @NotNull Range xRange, int maxPointCount, @NotNull LongSeriesData data) {
+    if (series instanceof PrimitiveLongDataSeries) {
+      ((PrimitiveLongDataSeries)series).getDataForXRange(xRange, maxPointCount, data);
+    }
+    else {
+      data.clear();
+      data.addAll(series.getDataForXRange(xRange, maxPointCount));
+    }
+  }
+}
@@ -36,6 +36,14 @@ public class RangedContinuousSeries extends RangedSeries<Long> {
     myName = name;
   }
 
+  /**
+   * Same as {@link #getSeries(int)}, but replaces the content of {@code data} with the points instead of boxing them, when the underlying
+   * series is a {@link PrimitiveLongDataSeries}.
+   */
+  public void getSeries(int maxPointCount, @NotNull LongSeriesData data) {
+    PrimitiveLongDataSeries.getLongData(mSeries, mXRange, maxPointCount, data);
+  }
+
   @NotNull
   public Range getYRange() {
     return mYRange;
@@ -50,6 +50,14 @@ public class RangedSeries<E> {
     return mSeries.getDataForXRange(mXRange);
   }
 
+  /**
+   * Same as {@link #getSeries()}, but allows the underlying {@link DataSeries} to reduce the data to about {@code maxPointCount} points.
+   */
+  @NotNull
+  public List<SeriesData<E>> getSeries(int maxPointCount) {
+    return mSeries.getDataForXRange(mXRange, maxPointCount);
+  }
+
   /**
    * @return The {@link Range} object that represents the xRange of this series.
    */
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.adtui.model;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DownsampledDataSeriesTest {
+  private DefaultDataSeries<Long> mySource;
+  private List<Range> myFetchedRanges;
+  private DownsampledDataSeries mySeries;
+
+  @Before
+  public void setUp() {
+    mySource = new DefaultDataSeries<>();
+    myFetchedRanges = new ArrayList<>();
+    mySeries = new DownsampledDataSeries(range -> {
+      myFetchedRanges.add(new Range(range));
+      return mySource.getDataForXRange(range);
+    });
+  }
+
+  @Test
+  public void returnsRawPointsWhenTheyFit() {
+    for (int i = 0; i < 10; i++) {
+      mySource.add(i, (long)i * 2);
+    }
+    List<SeriesData<Long>> data = mySeries.getDataForXRange(new Range(0, 9), 100);
+    assertThat(data).hasSize(10);
+    for (int i = 0; i < 10; i++) {
+      assertThat(data.get(i).x).isEqualTo((long)i);
+      assertThat(data.get(i).value).isEqualTo((long)i * 2);
+    }
+  }
+
+  @Test
+  public void downsampledDataKeepsExtremes() {
+    for (int i = 0; i < 10000; i++) {
+      mySource.add(i, (long)(i % 100));
+    }
+    mySource.add(10000, 5000L);
+
+    List<SeriesData<Long>> data = mySeries.getDataForXRange(new Range(0, 10000), 200);
+    assertThat(data.size()).isAtMost(200);
+    assertThat(data.stream().mapToLong(point -> point.value).max().getAsLong()).isEqualTo(5000L);
+    assertThat(data.stream().mapToLong(point -> point.value).min().getAsLong()).isEqualTo(0L);
+    for (int i = 1; i < data.size(); i++) {
+      assertThat(data.get(i).x).isGreaterThan(data.get(i - 1).x);
+    }
+  }
+
+  @Test
+  public void onlyTheTailIsFetchedAsDataArrives() {
+    for (int i = 0; i < 100; i++) {
+      mySource.add(i, (long)i);
+    }
+    mySeries.getDataForXRange(new Range(0, 100), 1000);
+    assertThat(myFetchedRanges).hasSize(1);
+
+    for (int i = 100; i < 200; i++) {
+      mySource.add(i, (long)i);
+    }
+    List<SeriesData<Long>> data = mySeries.getDataForXRange(new Range(0, 200), 1000);
+    assertThat(myFetchedRanges).hasSize(2);
+    assertThat(myFetchedRanges.get(1).getMin()).isWithin(0).of(99);
+    assertThat(data).hasSize(200);
+
+    // A range that is already cached does not hit the source.
+    mySeries.getDataForXRange(new Range(50, 150), 1000);
+    assertThat(myFetchedRanges).hasSize(2);
+  }
+
+  @Test
+  public void rangeBeforeCacheOnlyFetchesTheHead() {
+    for (int i = 0; i < 100; i++) {
+      mySource.add(i, (long)i);
+    }
+    mySeries.getDataForXRange(new Range(50, 100), 1000);
+    List<SeriesData<Long>> data = mySeries.getDataForXRange(new Range(0, 100), 1000);
+    assertThat(myFetchedRanges).hasSize(2);
+    assertThat(myFetchedRanges.get(1).getMin()).isWithin(0).of(0);
+    assertThat(myFetchedRanges.get(1).getMax()).isWithin(0).of(50);
+    assertThat(data).hasSize(100);
+    assertThat(data.get(0).x).isEqualTo(0L);
+  }
+
+  @Test
+  public void panningBothWaysKeepsExtremesAndOrder() {
+    for (int i = 0; i < 20000; i++) {
+      long value = i == 1234 ? 7000L : i == 18765 ? 9000L : i % 100;
+      mySource.add(i, value);
+    }
+
+    // Start in the middle, then pan left and right past what is cached.
+    mySeries.getDataForXRange(new Range(10000, 11000), 100);
+    for (int min = 9000; min >= 0; min -= 1000) {
+      mySeries.getDataForXRange(new Range(min, min + 1000), 100);
+    }
+    mySeries.getDataForXRange(new Range(10000, 19999), 100);
+    int fetchCount = myFetchedRanges.size();
+
+    List<SeriesData<Long>> data = mySeries.getDataForXRange(new Range(0, 19999), 300);
+    assertThat(myFetchedRanges).hasSize(fetchCount);
+    assertThat(data.size()).isAtMost(300);
+    assertThat(data.stream().filter(point -> point.value == 7000L).count()).isEqualTo(1);
+    assertThat(data.stream().filter(point -> point.value == 9000L).count()).isEqualTo(1);
+    assertThat(data.stream().mapToLong(point -> point.value).min().getAsLong()).isEqualTo(0L);
+    for (int i = 1; i < data.size(); i++) {
+      assertThat(data.get(i).x).isGreaterThan(data.get(i - 1).x);
+    }
+
+    // Full resolution across the head and the tail.
+    List<SeriesData<Long>> raw = mySeries.getDataForXRange(new Range(9990, 10010));
+    assertThat(raw.get(0).x).isEqualTo(9990L);
+    assertThat(raw.get(raw.size() - 1).x).isEqualTo(10011L);
+    for (int i = 1; i < raw.size(); i++) {
+      assertThat(raw.get(i).x).isEqualTo(raw.get(i - 1).x + 1);
+    }
+  }
+
+  @Test
+  public void primitiveQueryMatchesBoxedQuery() {
+    for (int i = 0; i < 5000; i++) {
+      mySource.add(i, (long)(i % 37));
+    }
+    Range range = new Range(100, 4000);
+    List<SeriesData<Long>> boxed = mySeries.getDataForXRange(range, 300);
+    LongSeriesData data = new LongSeriesData();
+    mySeries.getDataForXRange(range, 300, data);
+    assertThat(data.size()).isEqualTo(boxed.size());
+    for (int i = 0; i < boxed.size(); i++) {
+      assertThat(data.getX(i)).isEqualTo(boxed.get(i).x);
+      assertThat(data.getValue(i)).isEqualTo(boxed.get(i).value);
+    }
+  }
+
+  @Test
+  public void fullResolutionQueryIsServedFromTheCache() {
+    mySource.add(1, 1L);
+    assertThat(mySeries.getDataForXRange(new Range(0, 10))).hasSize(1);
+    assertThat(mySeries.getDataForXRange(new Range(0, 10), 100)).hasSize(1);
+    assertThat(myFetchedRanges).hasSize(1);
+  }
+}
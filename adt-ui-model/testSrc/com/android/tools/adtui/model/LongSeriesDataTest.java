@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.adtui.model;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.List;
+import org.junit.Test;
+
+public class LongSeriesDataTest {
+  @Test
+  public void growsPastInitialCapacity() {
+    LongSeriesData data = new LongSeriesData(2);
+    for (int i = 0; i < 100; i++) {
+      data.add(i, i * 10L);
+    }
+    assertThat(data.size()).isEqualTo(100);
+    assertThat(data.getX(99)).isEqualTo(99L);
+    assertThat(data.getValue(99)).isEqualTo(990L);
+  }
+
+  @Test
+  public void clearKeepsNothing() {
+    LongSeriesData data = new LongSeriesData();
+    data.add(1, 1);
+    data.clear();
+    assertThat(data.isEmpty()).isTrue();
+    data.add(2, 3);
+    assertThat(data.getX(0)).isEqualTo(2L);
+    assertThat(data.getValue(0)).isEqualTo(3L);
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void readingPastTheSizeThrows() {
+    LongSeriesData data = new LongSeriesData();
+    data.add(1, 1);
+    data.clear();
+    data.getX(0);
+  }
+
+  @Test
+  public void longDataSeriesMatchesBoxedData() {
+    LongDataSeries series = new LongDataSeries();
+    for (int i = 0; i < 10; i++) {
+      series.add(i * 10, (long)i);
+    }
+    Range range = new Range(15, 55);
+    List<SeriesData<Long>> boxed = series.getDataForXRange(range);
+
+    LongSeriesData data = new LongSeriesData();
+    data.add(-1, -1);
+    series.getDataForXRange(range, Integer.MAX_VALUE, data);
+    assertThat(data.size()).isEqualTo(boxed.size());
+    for (int i = 0; i < boxed.size(); i++) {
+      assertThat(data.getX(i)).isEqualTo(boxed.get(i).x);
+      assertThat(data.getValue(i)).isEqualTo(boxed.get(i).value);
+    }
+  }
+
+  @Test
+  public void boxedSeriesAreCopied() {
+    DefaultDataSeries<Long> series = new DefaultDataSeries<>();
+    series.add(1, 2L);
+    series.add(3, 4L);
+    LongSeriesData data = new LongSeriesData();
+    PrimitiveLongDataSeries.getLongData(series, new Range(0, 10), Integer.MAX_VALUE, data);
+    assertThat(data.toSeriesDataList()).hasSize(2);
+    assertThat(data.getX(1)).isEqualTo(3L);
+    assertThat(data.getValue(1)).isEqualTo(4L);
+  }
+}
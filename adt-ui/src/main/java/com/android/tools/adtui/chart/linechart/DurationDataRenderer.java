@@ -82,6 +82,8 @@ public final class DurationDataRenderer<E extends DurationData> extends AspectOb
 
   @NotNull private final List<Rectangle2D.Float> myPathCache = new ArrayList<>();
   @NotNull private final List<JLabel> myLabelCache = new ArrayList<>();
+  // Points of the attached series, reused across model changes.
+  @NotNull private final LongSeriesData myAttachedSeriesData = new LongSeriesData();
 
   @NotNull private final Map<RangedContinuousSeries, LineConfig> myCustomLineConfigs = new HashMap<>();
 
@@ -148,12 +150,12 @@ public final class DurationDataRenderer<E extends DurationData> extends AspectOb
     double xMin = series.getXRange().getMin();
     double xLength = series.getXRange().getLength();
     List<SeriesData<E>> seriesList = series.getSeries();
-    List<SeriesData<Long>> attachedSeriesList = attached != null ? attached.getSeries() : null;
+    boolean hasAttachedSeries = myModel.getAttachedSeriesData(myAttachedSeriesData);
     double yMin = attached == null ? 0.0 : attached.getYRange().getMin(); // TODO What happens if yMax - yMin == 0?
     double yMax = attached == null ? 0.0 : attached.getYRange().getMax();
 
     int j = 0;
-    SeriesData<Long> lastFoundData = null;
+    int lastFoundIndex = -1;
     for (SeriesData<E> data : seriesList) {
       Rectangle2D.Float rect = new Rectangle2D.Float();
       double yStart = 1;
@@ -167,29 +169,33 @@ public final class DurationDataRenderer<E extends DurationData> extends AspectOb
       myClickRegionCache.add(clickRegion);
       // If the DurationData needs to attach to a line series, finds the Y value on the line series matching the current DurationData.
       // This will be used as the y position to draw the icon +/ label.
-      if (attachedSeriesList != null) {
+      if (hasAttachedSeries) {
         if (attachedPredicate == null || attachedPredicate.test(data)) {
-          for (; j < attachedSeriesList.size(); j++) {
-            SeriesData<Long> seriesData = attachedSeriesList.get(j);
-            if (seriesData.x - data.x > EPSILON) {
+          for (; j < myAttachedSeriesData.size(); j++) {
+            long x = myAttachedSeriesData.getX(j);
+            if (x - data.x > EPSILON) {
               // Stop as soon as we found a point on the attached series greater than the duration data's start point.
-              if (lastFoundData == null) {
+              if (lastFoundIndex < 0) {
                 // If the duration data is before the first data point on the attached series, simply places the DurationData
                 // at the bottom (yStart == 1), as we have nothing to attach to.
                 break;
               }
-              // Interpolate the y value in case the attached series and the duration data series do not match.
+              // Interpolate the y value in case the attached series and the duration data series do not match. Only the two points
+              // around the duration data are boxed.
               assert myModel.getInterpolatable() != null;
+              SeriesData<Long> lastFoundData =
+                new SeriesData<>(myAttachedSeriesData.getX(lastFoundIndex), myAttachedSeriesData.getValue(lastFoundIndex));
+              SeriesData<Long> seriesData = new SeriesData<>(x, myAttachedSeriesData.getValue(j));
               double adjustedY = myModel.getInterpolatable().interpolate(lastFoundData, seriesData, data.x);
               yStart = 1 - (adjustedY - yMin) / (yMax - yMin);
               break;
             }
-            else if (j == attachedSeriesList.size() - 1) {
+            else if (j == myAttachedSeriesData.size() - 1) {
               // The duration data is after the last data point on the attached series. We assume the lastFoundData to continue to extend
               // indefinitely, so place the DurationData at that data's y value.
-              yStart = 1 - (seriesData.value - yMin) / (yMax - yMin);
+              yStart = 1 - (myAttachedSeriesData.getValue(j) - yMin) / (yMax - yMin);
             }
-            lastFoundData = seriesData;
+            lastFoundIndex = j;
           }
         }
       }
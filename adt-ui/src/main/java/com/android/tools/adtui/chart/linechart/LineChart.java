@@ -53,6 +53,12 @@ public class LineChart extends AnimatedComponent {
    */
   private static final double BUCKET_BAR_PERCENTAGE = 0.7;
 
+  /**
+   * The number of points per horizontal pixel a line asks its series for, matching the four points per pixel kept by
+   * {@link DefaultLineChartReducer#reducePath}.
+   */
+  private static final int MAX_POINTS_PER_PIXEL = 4;
+
   @NotNull final LineChartModel myModel;
 
   /**
@@ -184,7 +190,11 @@ public class LineChart extends AnimatedComponent {
       }
       final LineConfig config = getLineConfig(ranged);
 
-      List<SeriesData<Long>> seriesList = ranged.getSeries();
+      // Stacked lines add up the values of their points by index and bars need every bucket, so only plain lines can be downsampled.
+      // Downsampling series serve the full resolution query from the same cache, so stacked lines do not fetch their data twice.
+      List<SeriesData<Long>> seriesList = config.isStacked() || config.getDataBucketInterval() > 0
+                                          ? ranged.getSeries()
+                                          : ranged.getSeries(Math.max(1, dim.width) * MAX_POINTS_PER_PIXEL);
       if (config.isStacked()) {
         if (lastStackedSeries == null) {
           lastStackedSeries = new ArrayList<>(seriesList);
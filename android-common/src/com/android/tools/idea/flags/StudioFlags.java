@@ -202,6 +202,84 @@ public final class StudioFlags {
     true
   );
 
+  public static final Flag<Boolean> PROFILER_DATASTORE_WRITE_QUEUE = Flag.create(
+    PROFILER, "datastore.write.queue", "Enable batched datastore writes",
+    "Moves high-frequency poller inserts onto a single writer thread that commits in timed, size-capped transactions.",
+    false
+  );
+
+  public static final Flag<Boolean> PROFILER_DATASTORE_READER_POOL = Flag.create(
+    PROFILER, "datastore.reader.pool", "Enable concurrent datastore reads",
+    "Serves UI range queries from a pool of read-only connections to the on-disk datastore, so they do not wait on poller writes.",
+    false
+  );
+
+  public static final Flag<Boolean> PROFILER_DATASTORE_RESTORE_SESSIONS = Flag.create(
+    PROFILER, "datastore.restore.sessions", "Restore sessions from previous runs",
+    "Keeps the on-disk datastore across Studio restarts when its schema is compatible, so past sessions can be reopened.",
+    false
+  );
+
+  public static final Flag<Boolean> PROFILER_CHART_DOWNSAMPLING = Flag.create(
+    PROFILER, "chart.downsampling", "Downsample profiler line charts",
+    "Caches monitor line chart data in a level-of-detail pyramid and only draws as many points as the chart has pixels.",
+    false
+  );
+
+  public static final Flag<Boolean> PROFILER_CPU_MAPPED_ART_PARSER = Flag.create(
+    PROFILER, "cpu.art.mapped.parser", "Parse ART traces in parallel from a memory-mapped file",
+    "Memory-maps ART method traces and builds the call tree of each thread in parallel, instead of parsing them with perflib.",
+    false
+  );
+
+  public static final Flag<Boolean> PROFILER_CPU_FLAME_CHART_CAPTURE_TREE = Flag.create(
+    PROFILER, "cpu.capture.flamechart.tree", "Build the Flame Chart into a compact call tree",
+    "Stores the Flame Chart in primitive arrays instead of one CaptureNode per bar, and renders it from that store.",
+    false
+  );
+
+  public static final Flag<Boolean> PROFILER_CPU_PARALLEL_TREE_AGGREGATION = Flag.create(
+    PROFILER, "cpu.capture.parallel.aggregation", "Aggregate Top Down and Bottom Up trees in the background",
+    "Recomputes the Top Down and Bottom Up trees on a ForkJoin pool when the selection range changes, dropping the work " +
+    "superseded by a newer selection.",
+    false
+  );
+
+  public static final Flag<Boolean> PROFILER_MEMORY_INDEXED_HEAP_DUMP = Flag.create(
+    PROFILER, "memory.heap.dump.index", "Load heap dumps as a memory-mapped index",
+    "Indexes heap dumps in a memory-mapped file and reads instances from it on demand, instead of building the whole object " +
+    "graph in memory. Retained sizes are computed from the index in parallel.",
+    false
+  );
+
+  public static final Flag<Boolean> PROFILER_MEMORY_LIVE_ALLOCATION_INDEX = Flag.create(
+    PROFILER, "memory.live.allocation.index", "Index live allocation events in memory",
+    "Keeps the allocation events of a live allocation capture in time order, with per-class counters, so that moving the " +
+    "selection range reads the events it adds or removes from memory instead of querying them again.",
+    false
+  );
+
+  public static final Flag<Boolean> PROFILER_NETWORK_CONNECTION_INDEX = Flag.create(
+    PROFILER, "network.connection.index", "Index http connections in memory",
+    "Keeps the http connections fetched so far indexed by time, and only fetches the events added since the last query, " +
+    "instead of fetching and parsing the events of every connection each time the connections table is refreshed.",
+    false
+  );
+
+  public static final Flag<Boolean> PROFILER_NETWORK_PAYLOAD_CACHE = Flag.create(
+    PROFILER, "network.payload.cache", "Cache network payloads in a bounded LRU cache",
+    "Keeps recently fetched request and response bodies in memory, up to a fixed number of bytes, so that selecting a " +
+    "connection again doesn't fetch its payloads again.",
+    false
+  );
+
+  public static final Flag<Boolean> PROFILER_PERFETTO_DIRECT_IMPORT = Flag.create(
+    PROFILER, "perfetto.direct.import", "Import Perfetto traces without converting them to atrace text",
+    "Builds the system trace model straight from the Perfetto protobuf, decoding packets in parallel, instead of formatting " +
+    "each event as an atrace line for the text importer.",
+    false
+  );
+
   private static final FlagGroup NELE = new FlagGroup(FLAGS, "nele", "Layout Editor");
   public static final Flag<Boolean> NELE_ANIMATIONS_PREVIEW = Flag.create(
     NELE, "animated.preview", "Show preview animations toolbar",
@@ -314,6 +392,29 @@ public final class StudioFlags {
     "Enable the shadow rendering in Layout Editor",
     true);
 
+  public static final Flag<Boolean> NELE_RENDER_PRIORITY_QUEUE = Flag.create(
+    NELE, "render.priority.queue", "Prioritize render actions",
+    "Run the render actions waiting for the render thread by priority, so background renders don't delay the visible editor, " +
+    "and share pending renders of the same task instead of queueing duplicates",
+    false);
+
+  public static final Flag<Boolean> NELE_RENDER_RESULT_CACHE = Flag.create(
+    NELE, "render.result.cache", "Reuse unchanged render results",
+    "Return the previous render result when a layout is rendered again and none of its content, configuration or resources changed",
+    false);
+
+  public static final Flag<Boolean> NELE_INCREMENTAL_LAYOUT_UPDATE = Flag.create(
+    NELE, "incremental.layout.update", "Apply layout attribute edits without inflating",
+    "When only layout_* attributes of a layout change, update the layout params of the views in the existing render session " +
+    "instead of inflating the whole layout again",
+    false);
+
+  public static final Flag<Boolean> NELE_IMAGE_POOL_BYTE_BUDGET = Flag.create(
+    NELE, "image.pool.byte.budget", "Bound the render image pool by size",
+    "Keep the free render images up to a fixed number of bytes, releasing the least recently used ones first, instead of " +
+    "keeping them in soft references that are only cleared when the heap is exhausted",
+    false);
+
   public static final Flag<Boolean> NELE_SIMPLER_RESIZE = Flag.create(
     NELE, "simpler.resize", "Simplify resize",
     "Simplify design surface resize",
@@ -410,6 +511,11 @@ public final class StudioFlags {
     RESOURCES_MANAGEMENT, "enabled", "Enable the new resources management tools",
     "If enabled, the new resource management tools are enabled. Subflags will also need to be enabled to enable all available new tools",
     true);
+  public static final Flag<Boolean> RESOURCE_FOLDER_BINARY_CACHE = Flag.create(
+    RESOURCES_MANAGEMENT, "folder.binary.cache", "Use a binary cache for project resource folders",
+    "If enabled, the parsed XML files of project resource folders are saved to a memory-mapped binary cache instead of resource " +
+    "merger blob files, and files touched without being modified are still loaded from the cache.",
+    false);
 
   private static final FlagGroup LAYOUT_INSPECTOR = new FlagGroup(FLAGS, "layout.inspector", "Layout Inspector");
   public static final Flag<Boolean> LAYOUT_INSPECTOR_LOAD_OVERLAY_ENABLED = Flag.create(
@@ -924,6 +924,11 @@ public class LayoutlibCallbackImpl extends LayoutlibCallback {
     myAdaptiveIconMaskPath = adaptiveIconMaskPath;
   }
 
+  @Nullable
+  String getAdaptiveIconMaskPath() {
+    return myAdaptiveIconMaskPath;
+  }
+
   @Override
   public boolean hasLegacyAppCompat() {
     return myHasLegacyAppCompat;
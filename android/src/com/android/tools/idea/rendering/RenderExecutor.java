@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.rendering;
+
+import com.android.tools.idea.rendering.RenderService.RenderingPriority;
+import com.intellij.openapi.diagnostic.Logger;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Runs the render actions on the layoutlib render thread. Layoutlib keeps its state in static fields, so there is a single render
+ * thread, but the actions waiting for it are run by {@link RenderingPriority} and then in the order they were submitted, so that
+ * actions for the visible editor don't wait behind background renders.
+ * <p>
+ * An action can be submitted with a coalescing key. While an action with the same key is waiting to run, submitting another one
+ * returns the future of the waiting action instead of queueing a duplicate.
+ */
+final class RenderExecutor implements RenderService.RenderQueueStats {
+  private static final Logger LOG = Logger.getInstance(RenderExecutor.class);
+
+  /**
+   * Actions waiting longer than this for the render thread are logged.
+   */
+  private static final long SLOW_QUEUE_TIME_MS = TimeUnit.SECONDS.toMillis(1);
+
+  @NotNull private final ThreadPoolExecutor myExecutor;
+  private final boolean myUsePriorities;
+  @NotNull private final AtomicLong mySequence = new AtomicLong();
+
+  /**
+   * The actions waiting to run, by coalescing key.
+   */
+  @NotNull private final Map<Object, RenderAction<?>> myPendingActions = new HashMap<>();
+
+  @NotNull private final AtomicLong myExecutedActionCount = new AtomicLong();
+  @NotNull private final AtomicLong myTotalQueueTimeMs = new AtomicLong();
+  @NotNull private final AtomicLong myMaxQueueTimeMs = new AtomicLong();
+
+  /**
+   * @param usePriorities whether actions are run by priority and coalesced, or just in the order they were submitted
+   */
+  RenderExecutor(@NotNull ThreadFactory threadFactory, boolean usePriorities) {
+    myExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>(), threadFactory);
+    myUsePriorities = usePriorities;
+  }
+
+  /**
+   * Runs the given action on the render thread. If the action throws, the returned future completes exceptionally with a
+   * {@link CompletionException} wrapping the exception, as {@link CompletableFuture#supplyAsync} does.
+   *
+   * @param coalescingKey if not null, and an action with the same key is waiting to run, that action's future is returned instead
+   */
+  @NotNull
+  <T> CompletableFuture<T> submit(@NotNull Callable<T> action, @NotNull RenderingPriority priority, @Nullable Object coalescingKey) {
+    if (!myUsePriorities) {
+      priority = RenderingPriority.HIGH;
+      coalescingKey = null;
+    }
+
+    RenderAction<T> renderAction;
+    if (coalescingKey != null) {
+      synchronized (myPendingActions) {
+        //noinspection unchecked
+        RenderAction<T> pendingAction = (RenderAction<T>)myPendingActions.get(coalescingKey);
+        // A pending action of lower priority is replaced by this one, which takes over its future. If it has just been taken by the
+        // render thread, it is about to run anyway.
+        if (pendingAction != null && (pendingAction.myPriority.compareTo(priority) <= 0 || !myExecutor.remove(pendingAction))) {
+          return pendingAction.myFuture;
+        }
+        renderAction = new RenderAction<>(action, priority, coalescingKey, pendingAction);
+        myPendingActions.put(coalescingKey, renderAction);
+      }
+    }
+    else {
+      renderAction = new RenderAction<>(action, priority, null, null);
+    }
+
+    try {
+      myExecutor.execute(renderAction);
+    }
+    catch (RejectedExecutionException e) {
+      if (coalescingKey != null) {
+        synchronized (myPendingActions) {
+          myPendingActions.remove(coalescingKey, renderAction);
+        }
+      }
+      throw e;
+    }
+    return renderAction.myFuture;
+  }
+
+  @NotNull
+  <T> CompletableFuture<T> submit(@NotNull Callable<T> action, @NotNull RenderingPriority priority) {
+    return submit(action, priority, null);
+  }
+
+  @Override
+  public int queueSize() {
+    return myExecutor.getQueue().size();
+  }
+
+  @Override
+  public long executedActionCount() {
+    return myExecutedActionCount.get();
+  }
+
+  @Override
+  public long averageQueueTimeMs() {
+    long count = myExecutedActionCount.get();
+    return count == 0 ? 0 : myTotalQueueTimeMs.get() / count;
+  }
+
+  @Override
+  public long maxQueueTimeMs() {
+    return myMaxQueueTimeMs.get();
+  }
+
+  void shutdownNow() {
+    myExecutor.shutdownNow();
+  }
+
+  boolean awaitTermination(long timeout, @NotNull TimeUnit unit) throws InterruptedException {
+    return myExecutor.awaitTermination(timeout, unit);
+  }
+
+  private final class RenderAction<T> implements Runnable, Comparable<RenderAction<?>> {
+    @NotNull private final Callable<T> myAction;
+    @NotNull private final RenderingPriority myPriority;
+    @Nullable private final Object myCoalescingKey;
+    @NotNull private final CompletableFuture<T> myFuture;
+    private final long mySequence;
+    private final long mySubmitTimeMs;
+
+    private RenderAction(@NotNull Callable<T> action,
+                         @NotNull RenderingPriority priority,
+                         @Nullable Object coalescingKey,
+                         @Nullable RenderAction<T> replacedAction) {
+      myAction = action;
+      myPriority = priority;
+      myCoalescingKey = coalescingKey;
+      // The replaced action keeps its place among the actions of the new priority, and its future.
+      myFuture = replacedAction != null ? replacedAction.myFuture : new CompletableFuture<>();
+      mySequence = replacedAction != null ? replacedAction.mySequence : RenderExecutor.this.mySequence.getAndIncrement();
+      mySubmitTimeMs = replacedAction != null ? replacedAction.mySubmitTimeMs : System.currentTimeMillis();
+    }
+
+    @Override
+    public void run() {
+      if (myCoalescingKey != null) {
+        synchronized (myPendingActions) {
+          myPendingActions.remove(myCoalescingKey, this);
+        }
+      }
+
+      long queueTimeMs = System.currentTimeMillis() - mySubmitTimeMs;
+      myExecutedActionCount.incrementAndGet();
+      myTotalQueueTimeMs.addAndGet(queueTimeMs);
+      myMaxQueueTimeMs.accumulateAndGet(queueTimeMs, Math::max);
+      if (queueTimeMs > SLOW_QUEUE_TIME_MS) {
+        LOG.debug(String.format("Render action waited %dms for the render thread (%s priority, %d actions queued)",
+                                queueTimeMs, myPriority, queueSize()));
+      }
+
+      if (myFuture.isDone()) {
+        // Cancelled while it was waiting.
+        return;
+      }
+      try {
+        myFuture.complete(myAction.call());
+      }
+      catch (Throwable t) {
+        myFuture.completeExceptionally(t instanceof CompletionException ? t : new CompletionException(t));
+      }
+    }
+
+    @Override
+    public int compareTo(@NotNull RenderAction<?> other) {
+      int result = myPriority.compareTo(other.myPriority);
+      return result != 0 ? result : Long.compare(mySequence, other.mySequence);
+    }
+  }
+}
@@ -0,0 +1,435 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.rendering;
+
+import com.android.ide.common.rendering.api.ResourceReference;
+import com.android.ide.common.rendering.api.ResourceValue;
+import com.android.ide.common.rendering.api.Result;
+import com.android.ide.common.rendering.api.ViewInfo;
+import com.android.ide.common.rendering.api.ViewType;
+import com.android.tools.idea.configurations.Configuration;
+import com.android.tools.idea.rendering.imagepool.ImagePool;
+import com.android.tools.idea.res.ResourceNotificationManager;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.util.PsiModificationTracker;
+import java.awt.AlphaComposite;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import javax.annotation.concurrent.GuardedBy;
+import org.jetbrains.android.facet.AndroidFacet;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Keeps the results of the latest renders, so that rendering a layout again when none of its inputs changed returns a copy of the
+ * previous result instead of inflating and drawing it again. This happens when switching between layout editors or between the design
+ * and blueprint modes.
+ * <p>
+ * Results are looked up by {@link Key}, which identifies the layout file and configuration, their {@link ResourceNotificationManager}
+ * version, the PSI modification count of the project (so edits in included layouts are noticed too), the number of render actions run
+ * outside of a {@link RenderTask}, which may have changed the views of its session, and the render settings of the task.
+ * <p>
+ * The rendered images are kept in the shared {@link ImagePool}. The entries of a file are dropped as soon as the
+ * {@link ResourceNotificationManager} notifies a change affecting it, as they can't be used anymore.
+ * <p>
+ * Entries don't reference the session that rendered them: only the bounds and cookies of its views are kept, and only renders that
+ * didn't log any problem are cached, so that a hit can be reported through the logger of the task asking for it.
+ */
+public final class RenderResultCache implements Disposable {
+  @VisibleForTesting
+  static final int DEFAULT_MAX_ENTRIES = 8;
+  @VisibleForTesting
+  static final long DEFAULT_MAX_IMAGE_BYTES = 64 * 1024 * 1024;
+
+  @NotNull private final Project myProject;
+  @NotNull private final ImagePool myImagePool;
+  private final int myMaxEntries;
+  private final long myMaxImageBytes;
+
+  /**
+   * Cached results, from least to most recently used.
+   */
+  @NotNull private final LinkedHashMap<Key, Entry> myEntries = new LinkedHashMap<>(16, 0.75f, true);
+  private long myImageBytes;
+
+  /**
+   * Listeners invalidating the entries of each file and configuration.
+   */
+  @NotNull private final Map<InvalidationListener, InvalidationListener> myListeners = new HashMap<>();
+
+  private long myHitCount;
+  private long myMissCount;
+
+  RenderResultCache(@NotNull Project project, @NotNull ImagePool imagePool) {
+    this(project, imagePool, DEFAULT_MAX_ENTRIES, DEFAULT_MAX_IMAGE_BYTES);
+  }
+
+  @VisibleForTesting
+  RenderResultCache(@NotNull Project project, @NotNull ImagePool imagePool, int maxEntries, long maxImageBytes) {
+    myProject = project;
+    myImagePool = imagePool;
+    myMaxEntries = maxEntries;
+    myMaxImageBytes = maxImageBytes;
+  }
+
+  /**
+   * Creates the key of a render of the given file and configuration with the current resources and PSI.
+   *
+   * @param settings the render settings that affect the result, compared with {@link Object#equals}
+   */
+  @NotNull
+  Key createKey(@NotNull AndroidFacet facet, @NotNull PsiFile file, @NotNull Configuration configuration, @NotNull Object... settings) {
+    ResourceNotificationManager.ResourceVersion version =
+      ResourceNotificationManager.getInstance(myProject).getCurrentVersion(facet, file, configuration);
+    long psiModificationCount = PsiModificationTracker.SERVICE.getInstance(myProject).getModificationCount();
+    return new Key(facet, file, configuration, version, psiModificationCount, RenderService.getExternalRenderActionCount(), settings);
+  }
+
+  /**
+   * Returns a copy of the result cached for the given key, with its image copied into {@code imagePool}, or null if there is none.
+   * The views of the result have no view or layout params objects.
+   */
+  @Nullable
+  synchronized RenderResult get(@NotNull Key key,
+                                @NotNull RenderTask renderTask,
+                                @NotNull RenderLogger logger,
+                                @NotNull ImagePool imagePool) {
+    Entry entry = myEntries.get(key);
+    if (entry == null) {
+      myMissCount++;
+      return null;
+    }
+    myHitCount++;
+    return new RenderResult(key.myFile,
+                            renderTask.getContext().getModule(),
+                            logger,
+                            renderTask,
+                            entry.myResult,
+                            entry.myRootViews,
+                            entry.mySystemRootViews,
+                            copyImage(entry.myImage, imagePool),
+                            entry.myDefaultProperties,
+                            entry.myDefaultStyles);
+  }
+
+  /**
+   * Caches the given result for the key. Only successful results with an image and without problems are kept.
+   */
+  void put(@NotNull Key key, @Nullable RenderResult result) {
+    if (result == null || !result.getRenderResult().isSuccess() || !result.hasImage() || result.getLogger().hasProblems()) {
+      return;
+    }
+
+    InvalidationListener listener = new InvalidationListener(key.myFacet, key.myFile.getVirtualFile(), key.myConfiguration);
+    boolean isNewListener;
+    List<InvalidationListener> unusedListeners = new ArrayList<>();
+    synchronized (this) {
+      ImagePool.Image image = copyImage(result.getRenderedImage(), myImagePool);
+      Entry previous = myEntries.put(key, new Entry(result, image));
+      if (previous != null) {
+        removed(previous);
+      }
+      myImageBytes += getByteSize(image);
+      // Entries of older versions of the same file can't be hit anymore.
+      myEntries.entrySet().removeIf(e -> {
+        if (e.getKey().isOlderVersionOf(key)) {
+          removed(e.getValue());
+          return true;
+        }
+        return false;
+      });
+      Iterator<Entry> iterator = myEntries.values().iterator();
+      while ((myEntries.size() > myMaxEntries || myImageBytes > myMaxImageBytes) && iterator.hasNext()) {
+        removed(iterator.next());
+        iterator.remove();
+      }
+      isNewListener = myListeners.putIfAbsent(listener, listener) == null;
+      // Listeners keep their configuration alive, so they are dropped along with the last entry they invalidate.
+      myListeners.keySet().removeIf(l -> {
+        if (myEntries.keySet().stream().noneMatch(l::matches)) {
+          unusedListeners.add(l);
+          return true;
+        }
+        return false;
+      });
+    }
+    unusedListeners.forEach(InvalidationListener::unregister);
+
+    if (isNewListener) {
+      // Results are put from the render thread, while resource listeners are registered from the UI thread.
+      ApplicationManager.getApplication().invokeLater(listener::register, myProject.getDisposed());
+    }
+  }
+
+  @VisibleForTesting
+  synchronized int getEntryCount() {
+    return myEntries.size();
+  }
+
+  @VisibleForTesting
+  synchronized long getImageBytes() {
+    return myImageBytes;
+  }
+
+  @VisibleForTesting
+  synchronized long getHitCount() {
+    return myHitCount;
+  }
+
+  @VisibleForTesting
+  synchronized long getMissCount() {
+    return myMissCount;
+  }
+
+  @Override
+  public void dispose() {
+    List<InvalidationListener> listeners;
+    synchronized (this) {
+      myEntries.values().forEach(this::removed);
+      myEntries.clear();
+      listeners = new ArrayList<>(myListeners.keySet());
+      myListeners.clear();
+    }
+    listeners.forEach(InvalidationListener::unregister);
+  }
+
+  private void invalidate(@NotNull InvalidationListener listener) {
+    synchronized (this) {
+      myEntries.entrySet().removeIf(e -> {
+        if (listener.matches(e.getKey())) {
+          removed(e.getValue());
+          return true;
+        }
+        return false;
+      });
+      myListeners.remove(listener);
+    }
+    listener.unregister();
+  }
+
+  private void removed(@NotNull Entry entry) {
+    myImageBytes -= getByteSize(entry.myImage);
+    entry.myImage.dispose();
+  }
+
+  private static long getByteSize(@NotNull ImagePool.Image image) {
+    return (long)image.getWidth() * image.getHeight() * 4;
+  }
+
+  @NotNull
+  private static ImagePool.Image copyImage(@NotNull ImagePool.Image image, @NotNull ImagePool imagePool) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    ImagePool.Image copy = imagePool.create(width, height, BufferedImage.TYPE_INT_ARGB);
+    copy.paint(g -> {
+      // Pooled images may have been used before, so their content is replaced rather than drawn over.
+      g.setComposite(AlphaComposite.Src);
+      image.drawImageTo(g, 0, 0, width, height);
+    });
+    return copy;
+  }
+
+  /**
+   * Identifies the inputs of a render.
+   */
+  static final class Key {
+    @NotNull private final AndroidFacet myFacet;
+    @NotNull private final PsiFile myFile;
+    @NotNull private final Configuration myConfiguration;
+    @NotNull private final ResourceNotificationManager.ResourceVersion myVersion;
+    private final long myPsiModificationCount;
+    private final long myExternalRenderActionCount;
+    @NotNull private final List<Object> mySettings;
+
+    private Key(@NotNull AndroidFacet facet,
+                @NotNull PsiFile file,
+                @NotNull Configuration configuration,
+                @NotNull ResourceNotificationManager.ResourceVersion version,
+                long psiModificationCount,
+                long externalRenderActionCount,
+                @NotNull Object[] settings) {
+      myFacet = facet;
+      myFile = file;
+      myConfiguration = configuration;
+      myVersion = version;
+      myPsiModificationCount = psiModificationCount;
+      myExternalRenderActionCount = externalRenderActionCount;
+      mySettings = Arrays.asList(settings);
+    }
+
+    /**
+     * Returns whether this key is for the same file and configuration as {@code other}, but for an older state of the resources or PSI.
+     */
+    private boolean isOlderVersionOf(@NotNull Key other) {
+      return myFile == other.myFile &&
+             myConfiguration == other.myConfiguration &&
+             myPsiModificationCount <= other.myPsiModificationCount &&
+             (myPsiModificationCount != other.myPsiModificationCount || !myVersion.equals(other.myVersion));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+
+      Key key = (Key)o;
+      // Files and configurations are compared by identity, as the versions only make sense for the instance they were taken from.
+      return myFile == key.myFile &&
+             myConfiguration == key.myConfiguration &&
+             myPsiModificationCount == key.myPsiModificationCount &&
+             myExternalRenderActionCount == key.myExternalRenderActionCount &&
+             myVersion.equals(key.myVersion) &&
+             mySettings.equals(key.mySettings);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(System.identityHashCode(myFile), System.identityHashCode(myConfiguration), myVersion, myPsiModificationCount,
+                          myExternalRenderActionCount, mySettings);
+    }
+  }
+
+  private static final class Entry {
+    @NotNull private final Result myResult;
+    @NotNull private final ImmutableList<ViewInfo> myRootViews;
+    @NotNull private final ImmutableList<ViewInfo> mySystemRootViews;
+    @NotNull private final ImagePool.Image myImage;
+    @NotNull private final Map<Object, Map<ResourceReference, ResourceValue>> myDefaultProperties;
+    @NotNull private final Map<Object, String> myDefaultStyles;
+
+    /**
+     * Keeps what is needed to recreate the given result, but not the result itself, as it references its {@link RenderTask}, nor the
+     * views of its session, which is disposed along with the task.
+     */
+    private Entry(@NotNull RenderResult result, @NotNull ImagePool.Image image) {
+      myResult = result.getRenderResult();
+      myRootViews = detach(result.getRootViews());
+      mySystemRootViews = detach(result.getSystemRootViews());
+      myImage = image;
+      myDefaultProperties = result.getDefaultProperties();
+      myDefaultStyles = result.getDefaultStyles();
+    }
+  }
+
+  @NotNull
+  private static ImmutableList<ViewInfo> detach(@NotNull List<ViewInfo> views) {
+    return views.stream().map(DetachedViewInfo::new).collect(ImmutableList.toImmutableList());
+  }
+
+  /**
+   * A copy of a {@link ViewInfo} without its view and layout params objects, so that it doesn't keep the views of its session alive
+   * and can't be used to change them.
+   */
+  private static final class DetachedViewInfo extends ViewInfo {
+    @NotNull private final ViewType myViewType;
+
+    private DetachedViewInfo(@NotNull ViewInfo view) {
+      super(view.getClassName(), view.getCookie(), view.getLeft(), view.getTop(), view.getRight(), view.getBottom());
+      myViewType = view.getViewType();
+      setExtendedInfo(view.getBaseLine(), view.getLeftMargin(), view.getTopMargin(), view.getRightMargin(), view.getBottomMargin());
+      List<ViewInfo> children = view.getChildren();
+      if (children != null) {
+        setChildren(detach(children));
+      }
+    }
+
+    @NotNull
+    @Override
+    public ViewType getViewType() {
+      return myViewType;
+    }
+  }
+
+  /**
+   * Drops the entries of a file and configuration when the {@link ResourceNotificationManager} notifies a change affecting them.
+   * Listeners are equal when they are for the same file and configuration.
+   */
+  private final class InvalidationListener implements ResourceNotificationManager.ResourceChangeListener {
+    @NotNull private final AndroidFacet myFacet;
+    @Nullable private final VirtualFile myFile;
+    @NotNull private final Configuration myConfiguration;
+    @GuardedBy("RenderResultCache.this")
+    private boolean myIsRegistered;
+
+    private InvalidationListener(@NotNull AndroidFacet facet, @Nullable VirtualFile file, @NotNull Configuration configuration) {
+      myFacet = facet;
+      myFile = file;
+      myConfiguration = configuration;
+    }
+
+    @Override
+    public void resourcesChanged(@NotNull Set<ResourceNotificationManager.Reason> reason) {
+      invalidate(this);
+    }
+
+    private boolean matches(@NotNull Key key) {
+      return Objects.equals(key.myFile.getVirtualFile(), myFile) && key.myConfiguration == myConfiguration;
+    }
+
+    private void register() {
+      synchronized (RenderResultCache.this) {
+        // The entries may have been dropped before getting here.
+        if (myListeners.get(this) != this) {
+          return;
+        }
+        myIsRegistered = true;
+      }
+      if (myFile != null) {
+        ResourceNotificationManager.getInstance(myProject).addListener(this, myFacet, myFile, myConfiguration);
+      }
+    }
+
+    private void unregister() {
+      synchronized (RenderResultCache.this) {
+        if (!myIsRegistered) {
+          return;
+        }
+        myIsRegistered = false;
+      }
+      if (myFile != null && !myProject.isDisposed()) {
+        ResourceNotificationManager.getInstance(myProject).removeListener(this, myFacet, myFile, myConfiguration);
+      }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+
+      InvalidationListener listener = (InvalidationListener)o;
+      return Objects.equals(myFile, listener.myFile) && myConfiguration == listener.myConfiguration;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(myFile, System.identityHashCode(myConfiguration));
+    }
+  }
+}
@@ -56,13 +56,11 @@ import com.intellij.util.concurrency.AppExecutorUtil;
 import java.io.IOException;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Supplier;
 import org.intellij.lang.annotations.MagicConstant;
@@ -88,8 +86,13 @@ public class RenderService implements Disposable {
   @VisibleForTesting
   public static long ourRenderThreadTimeoutMs = DEFAULT_RENDER_THREAD_TIMEOUT_MS;
   private static final AtomicReference<Thread> ourRenderingThread = new AtomicReference<>();
-  private static ExecutorService ourRenderingExecutor;
+  private static RenderExecutor ourRenderingExecutor;
   private static final AtomicInteger ourTimeoutExceptionCounter = new AtomicInteger(0);
+  /**
+   * Number of render actions submitted through the static methods of this class rather than by a {@link RenderTask}. Those actions can
+   * change the views of any render session, so {@link RenderResultCache} doesn't reuse results across them.
+   */
+  private static final AtomicLong ourExternalRenderActionCount = new AtomicLong();
 
   private static final Key<RenderService> KEY = Key.create(RenderService.class.getName());
   private static boolean isFirstCall = true;
@@ -103,16 +106,14 @@ public class RenderService implements Disposable {
   private final Project myProject;
 
   private static void innerInitializeRenderExecutor() {
-    ourRenderingExecutor = new ThreadPoolExecutor(1, 1,
-                             0, TimeUnit.MILLISECONDS,
-                             new LinkedBlockingQueue<>(),
-                             (Runnable r) -> {
-                               Thread renderingThread = new Thread(null, r, "Layoutlib Render Thread");
-                               renderingThread.setDaemon(true);
-                               ourRenderingThread.set(renderingThread);
-
-                               return renderingThread;
-                             });
+    ourRenderingExecutor = new RenderExecutor((Runnable r) -> {
+                                                 Thread renderingThread = new Thread(null, r, "Layoutlib Render Thread");
+                                                 renderingThread.setDaemon(true);
+                                                 ourRenderingThread.set(renderingThread);
+
+                                                 return renderingThread;
+                                               },
+                                               StudioFlags.NELE_RENDER_PRIORITY_QUEUE.get());
   }
 
   @TestOnly
@@ -156,6 +157,8 @@ public class RenderService implements Disposable {
 
   private final ImagePool myImagePool = ImagePoolFactory.createImagePool();
 
+  private final RenderResultCache myRenderResultCache;
+
   /**
    * @return the {@linkplain RenderService} for the given facet.
    */
@@ -177,6 +180,7 @@ public class RenderService implements Disposable {
   @VisibleForTesting
   protected RenderService(@NotNull Project project) {
     myProject = project;
+    myRenderResultCache = new RenderResultCache(project, myImagePool);
     Disposer.register(project, this);
   }
 
@@ -239,6 +243,7 @@ public class RenderService implements Disposable {
   @Override
   public void dispose() {
     myProject.putUserData(KEY, null);
+    myRenderResultCache.dispose();
     myImagePool.dispose();
   }
 
@@ -287,11 +292,20 @@ public class RenderService implements Disposable {
    * method.
    */
   public static <T> T runRenderAction(@NotNull Callable<T> callable) throws Exception {
+    ourExternalRenderActionCount.incrementAndGet();
+    return runRenderTaskAction(callable);
+  }
+
+  /**
+   * Same as {@link #runRenderAction(Callable)}, for the actions of a {@link RenderTask} that only use its own sessions.
+   */
+  static <T> T runRenderTaskAction(@NotNull Callable<T> callable) throws Exception {
     try {
       // If the number of timeouts exceeds a certain threshold, stop waiting so the caller doesn't block. We try to submit a task that
       // clean-up the timeout counter instead. If it goes through, it means the queue is free.
       if (ourTimeoutExceptionCounter.get() > 3) {
-        ourRenderingExecutor.submit(() -> ourTimeoutExceptionCounter.set(0)).get(50, TimeUnit.MILLISECONDS);
+        ourRenderingExecutor.submit(Executors.callable(() -> ourTimeoutExceptionCounter.set(0)), RenderingPriority.HIGH)
+          .get(50, TimeUnit.MILLISECONDS);
       }
       long timeout = ourRenderThreadTimeoutMs;
       if (isFirstCall) {
@@ -300,7 +314,7 @@ public class RenderService implements Disposable {
         isFirstCall = false;
         timeout *= 2;
       }
-      T result = ourRenderingExecutor.submit(callable).get(timeout, TimeUnit.MILLISECONDS);
+      T result = ourRenderingExecutor.submit(callable, RenderingPriority.HIGH).get(timeout, TimeUnit.MILLISECONDS);
       // The executor seems to be taking tasks so reset the counter
       ourTimeoutExceptionCounter.set(0);
 
@@ -328,7 +342,24 @@ public class RenderService implements Disposable {
    */
   @NotNull
   public static <T> CompletableFuture<T> runAsyncRenderAction(@NotNull Supplier<T> callable) {
-    return CompletableFuture.supplyAsync(callable, ourRenderingExecutor);
+    ourExternalRenderActionCount.incrementAndGet();
+    return ourRenderingExecutor.submit(callable::get, RenderingPriority.HIGH);
+  }
+
+  /**
+   * Runs an action that requires the rendering lock, after the pending actions of a higher {@link RenderingPriority}.
+   * <p/>
+   * If {@code coalescingKey} is not null, and an action submitted with the same key is still waiting to run, the future of that
+   * action is returned instead of running this one. The key should identify actions that can stand in for each other, like two
+   * renders of the same {@link RenderTask}.
+   * <p/>
+   * This is meant for the actions of a {@link RenderTask} that only use its own sessions, see {@link RenderResultCache}.
+   */
+  @NotNull
+  public static <T> CompletableFuture<T> runAsyncRenderAction(@NotNull Supplier<T> callable,
+                                                              @NotNull RenderingPriority priority,
+                                                              @Nullable Object coalescingKey) {
+    return ourRenderingExecutor.submit(callable::get, priority, coalescingKey);
   }
 
   /**
@@ -338,7 +369,30 @@ public class RenderService implements Disposable {
    * This method will run the passed action asynchronously
    */
   public static void runAsyncRenderAction(@NotNull Runnable runnable) {
-    ourRenderingExecutor.submit(runnable);
+    ourExternalRenderActionCount.incrementAndGet();
+    runAsyncRenderTaskAction(runnable);
+  }
+
+  /**
+   * Same as {@link #runAsyncRenderAction(Runnable)}, for the actions of a {@link RenderTask} that only use its own sessions.
+   */
+  static void runAsyncRenderTaskAction(@NotNull Runnable runnable) {
+    ourRenderingExecutor.submit(Executors.callable(runnable), RenderingPriority.HIGH);
+  }
+
+  /**
+   * Returns the number of render actions submitted through the static methods of this class rather than by a {@link RenderTask}.
+   */
+  static long getExternalRenderActionCount() {
+    return ourExternalRenderActionCount.get();
+  }
+
+  /**
+   * Returns how long the render actions run so far waited for the render thread.
+   */
+  @NotNull
+  public static RenderQueueStats getRenderQueueStats() {
+    return ourRenderingExecutor;
   }
 
   /**
@@ -412,6 +466,11 @@ public class RenderService implements Disposable {
     return myImagePool;
   }
 
+  @NotNull
+  public RenderResultCache getRenderResultCache() {
+    return myRenderResultCache;
+  }
+
   /** This is the View.MeasureSpec mode shift */
   private static final int MEASURE_SPEC_MODE_SHIFT = 30;
 
@@ -424,6 +483,33 @@ public class RenderService implements Disposable {
    */
   private static final int MAX_MAGNITUDE = 1 << (MEASURE_SPEC_MODE_SHIFT - 5);
 
+  /**
+   * Order in which the pending render actions are run. Actions of the same priority run in the order they were submitted.
+   */
+  public enum RenderingPriority {
+    /** Actions someone is waiting for, like the renders of the visible editor. */
+    HIGH,
+    /** Background renders, like thumbnails, which only run once there are no actions of higher priority waiting. */
+    LOW
+  }
+
+  /**
+   * Statistics of the time render actions wait for the render thread.
+   */
+  public interface RenderQueueStats {
+    /** Number of actions waiting for the render thread. */
+    int queueSize();
+
+    /** Number of actions run so far. */
+    long executedActionCount();
+
+    /** Average time the actions run so far waited for the render thread. */
+    long averageQueueTimeMs();
+
+    /** Longest time any of the actions run so far waited for the render thread. */
+    long maxQueueTimeMs();
+  }
+
   public static class RenderTaskBuilder {
     private final RenderService myService;
     private final AndroidFacet myFacet;
@@ -440,6 +526,8 @@ public class RenderService implements Disposable {
     private int myMaxRenderHeight = -1;
     private boolean isShadowEnabled = StudioFlags.NELE_ENABLE_SHADOW.get();
     private boolean useHighQualityShadows = StudioFlags.NELE_RENDER_HIGH_QUALITY_SHADOW.get();
+    @NotNull private RenderingPriority myPriority = RenderingPriority.HIGH;
+    private boolean useResultCache;
 
     private RenderTaskBuilder(@NotNull RenderService service,
                               @NotNull AndroidFacet facet,
@@ -538,6 +626,27 @@ public class RenderService implements Disposable {
       return this;
     }
 
+    /**
+     * Returns the previous result when the task is rendered again and none of the render inputs changed.
+     * Tasks using a custom parser factory are always rendered, as their content doesn't come from the file.
+     *
+     * @see RenderResultCache
+     */
+    @NotNull
+    public RenderTaskBuilder enableResultCache() {
+      this.useResultCache = true;
+      return this;
+    }
+
+    /**
+     * @see RenderTask#setPriority(RenderingPriority)
+     */
+    @NotNull
+    public RenderTaskBuilder withPriority(@NotNull RenderingPriority priority) {
+      this.myPriority = priority;
+      return this;
+    }
+
     /**
      * Builds a new {@link RenderTask}. The returned future always completes successfully but the value might be null if the RenderTask
      * can not be created.
@@ -621,11 +730,15 @@ public class RenderService implements Disposable {
           task
             .setDecorations(showDecorations)
             .setHighQualityShadows(useHighQualityShadows)
-            .setShadowEnabled(isShadowEnabled);
+            .setShadowEnabled(isShadowEnabled)
+            .setPriority(myPriority);
 
           if (myMaxRenderWidth != -1 && myMaxRenderHeight != -1) {
             task.setMaxRenderSize(myMaxRenderWidth, myMaxRenderHeight);
           }
+          if (useResultCache && myParserFactory == null) {
+            task.setResultCache(myService.getRenderResultCache());
+          }
           return task;
         } catch (IllegalStateException | IncorrectOperationException | AssertionError e) {
           // Ignore the exception if it was generated when the facet is being disposed (project is being closed)
@@ -89,6 +89,7 @@ import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 import java.util.function.Supplier;
 import org.intellij.lang.annotations.MagicConstant;
 import org.jetbrains.android.facet.AndroidFacet;
@@ -152,6 +153,7 @@ public class RenderTask {
   private boolean myShowDecorations = true;
   private boolean myShadowEnabled = true;
   private boolean myHighQualityShadow = true;
+  @NotNull private RenderService.RenderingPriority myPriority = RenderService.RenderingPriority.HIGH;
   private AssetRepositoryImpl myAssetRepository;
   private long myTimeout;
   @NotNull private final Locale myLocale;
@@ -165,6 +167,15 @@ public class RenderTask {
   private final List<CompletableFuture<?>> myRunningFutures = new LinkedList<>();
   @NotNull private final AtomicBoolean isDisposed = new AtomicBoolean(false);
   @Nullable private XmlFile myXmlFile;
+  @Nullable private RenderResultCache myResultCache;
+  private float myQuality;
+  private boolean myHasElapsedFrameTime;
+  /**
+   * The inflation of {@link #myRenderSession} started in the background when a result was returned from {@link #myResultCache} while there
+   * was no session yet. The views of a cached result are detached from any session, so the session is needed by the time the caller lays
+   * them out, renders them again or updates them.
+   */
+  @Nullable private CompletableFuture<RenderResult> myCachedResultInflation;
 
   /**
    * Don't create this task directly; obtain via {@link RenderService}
@@ -222,6 +233,7 @@ public class RenderTask {
   }
 
   public void setQuality(float quality) {
+    myQuality = quality;
     if (quality >= 1.f) {
       myCachingImageFactory = SIMPLE_IMAGE_FACTORY;
       return;
@@ -302,7 +314,7 @@ public class RenderTask {
       myLayoutlibCallback.setLogger(IRenderLogger.NULL_LOGGER);
       if (myRenderSession != null) {
         try {
-          RenderService.runAsyncRenderAction(myRenderSession::dispose);
+          RenderService.runAsyncRenderTaskAction(myRenderSession::dispose);
           myRenderSession = null;
         }
         catch (Exception ignored) {
@@ -423,6 +435,24 @@ public class RenderTask {
     return this;
   }
 
+  /**
+   * Sets the {@link RenderService.RenderingPriority} of the render actions of this task. Tasks rendering in the background should use
+   * {@link RenderService.RenderingPriority#LOW} so they don't delay the renders of the visible editors.
+   */
+  @NotNull
+  public RenderTask setPriority(@NotNull RenderService.RenderingPriority priority) {
+    myPriority = priority;
+    return this;
+  }
+
+  /**
+   * Sets the {@link RenderResultCache} used to skip the renders of this task when none of their inputs changed since a previous
+   * render of the same file and configuration, or null to always render.
+   */
+  void setResultCache(@Nullable RenderResultCache resultCache) {
+    myResultCache = resultCache;
+  }
+
   /** Returns whether this parser will provide view cookies for included views. */
   public boolean getProvideCookiesForIncludedViews() {
     return myProvideCookiesForIncludedViews;
@@ -659,12 +689,25 @@ public class RenderTask {
   @VisibleForTesting
   @NotNull
   <V> CompletableFuture<V> runAsyncRenderAction(@NotNull Supplier<V> callable) {
+    return runAsyncRenderAction(callable, null);
+  }
+
+  /**
+   * Same as {@link #runAsyncRenderAction(Supplier)}, but if an action with the same {@code coalescingKey} is still waiting to run,
+   * returns its future instead of queueing another one.
+   * See {@link RenderService#runAsyncRenderAction(Supplier, RenderService.RenderingPriority, Object)}.
+   */
+  @NotNull
+  private <V> CompletableFuture<V> runAsyncRenderAction(@NotNull Supplier<V> callable, @Nullable Object coalescingKey) {
     if (isDisposed.get()) {
       return immediateFailedFuture(new IllegalStateException("RenderTask was already disposed"));
     }
 
     synchronized (myRunningFutures) {
-      CompletableFuture<V> newFuture = RenderService.runAsyncRenderAction(callable);
+      CompletableFuture<V> newFuture = RenderService.runAsyncRenderAction(callable, myPriority, coalescingKey);
+      if (myRunningFutures.contains(newFuture)) {
+        return newFuture;
+      }
       myRunningFutures.add(newFuture);
       newFuture
         .whenCompleteAsync((result, ex) -> {
@@ -683,6 +726,18 @@ public class RenderTask {
    */
   @NotNull
   public CompletableFuture<RenderResult> inflate() {
+    CompletableFuture<RenderResult> cachedResult = getCachedResult(createResultCacheKey());
+    if (cachedResult != null) {
+      return cachedResult;
+    }
+    return inflateSession();
+  }
+
+  /**
+   * Inflates the layout into a new {@link RenderSession}, without looking up {@link #myResultCache}.
+   */
+  @NotNull
+  private CompletableFuture<RenderResult> inflateSession() {
     // During development only:
     //assert !ApplicationManager.getApplication().isReadAccessAllowed() : "Do not hold read lock during inflate!";
 
@@ -719,7 +774,9 @@ public class RenderTask {
   @NotNull
   public CompletableFuture<RenderResult> layout() {
     if (myRenderSession == null) {
-      return CompletableFuture.completedFuture(null);
+      // The session of a result returned from the cache may still be inflating. Inflating also does a measure pass.
+      CompletableFuture<RenderResult> inflation = myCachedResultInflation;
+      return inflation != null ? inflation : CompletableFuture.completedFuture(null);
     }
 
     assert getXmlFile() != null;
@@ -738,6 +795,26 @@ public class RenderTask {
     return CompletableFuture.completedFuture(null);
   }
 
+  /**
+   * Runs the given action on the render thread with the root views of the current {@link RenderSession}, so that it can update the
+   * inflated views in place instead of inflating the layout again. The session is not laid out or rendered by this call; the changes
+   * show up on the next {@link #render()}.
+   *
+   * @return a future with the value returned by the action, or false if there is no session to update
+   */
+  @NotNull
+  public CompletableFuture<Boolean> updateSessionViews(@NotNull Function<List<ViewInfo>, Boolean> action) {
+    RenderSession renderSession = myRenderSession;
+    if (renderSession == null) {
+      CompletableFuture<RenderResult> inflation = myCachedResultInflation;
+      if (inflation != null && !inflation.isDone()) {
+        return inflation.exceptionally(exception -> null).thenCompose(ignored -> updateSessionViews(action));
+      }
+      return CompletableFuture.completedFuture(false);
+    }
+    return runAsyncRenderAction(() -> renderSession == myRenderSession && action.apply(renderSession.getRootViews()));
+  }
+
   /**
    * Method used to report unhandled layoutlib exceptions to the crash reporter
    */
@@ -758,8 +835,13 @@ public class RenderTask {
     assert psiFile != null;
 
     CompletableFuture<RenderResult> inflateCompletableResult;
-    if (myRenderSession == null) {
-      inflateCompletableResult = inflate()
+    CompletableFuture<RenderResult> cachedResultInflation = myCachedResultInflation;
+    if (myRenderSession == null && cachedResultInflation != null && !cachedResultInflation.isDone()) {
+      // The session is already being inflated for a result returned from the cache.
+      inflateCompletableResult = cachedResultInflation;
+    }
+    else if (myRenderSession == null) {
+      inflateCompletableResult = inflateSession()
         .whenComplete((renderResult, exception) -> {
           Result result = renderResult != null ? renderResult.getRenderResult() : null;
           if (result == null || !result.isSuccess()) {
@@ -779,6 +861,8 @@ public class RenderTask {
 
     return inflateCompletableResult.thenCompose(ignored -> {
       try {
+        // A render of this task that is still waiting for the render thread will render the latest state, so it is shared rather than
+        // queueing another one.
         return runAsyncRenderAction(() -> {
           myRenderSession.render();
           RenderResult result =
@@ -789,7 +873,7 @@ public class RenderTask {
             myLogger.error(null, renderResult.getErrorMessage(), renderResult.getException(), null, null);
           }
           return result;
-        });
+        }, this);
       }
       catch (Exception e) {
         reportException(e);
@@ -824,7 +908,82 @@ public class RenderTask {
    */
   @NotNull
   public CompletableFuture<RenderResult> render() {
-    return render(myCachingImageFactory);
+    RenderResultCache.Key cacheKey = createResultCacheKey();
+    CompletableFuture<RenderResult> cachedResult = getCachedResult(cacheKey);
+    if (cachedResult != null) {
+      return cachedResult;
+    }
+
+    CompletableFuture<RenderResult> result = render(myCachingImageFactory);
+    if (cacheKey == null) {
+      return result;
+    }
+    // The key is taken before rendering so that changes made during the render are never attributed to an older state.
+    return result.thenApply(renderResult -> {
+      myResultCache.put(cacheKey, renderResult);
+      return renderResult;
+    });
+  }
+
+  /**
+   * Returns the key of the next render of this task in {@link #myResultCache}, or null if it can't be cached.
+   */
+  @Nullable
+  private RenderResultCache.Key createResultCacheKey() {
+    XmlFile xmlFile = getXmlFile();
+    // Animations render a different frame each time.
+    if (myResultCache == null || xmlFile == null || myHasElapsedFrameTime || isDisposed.get()) {
+      return null;
+    }
+    AndroidFacet facet = AndroidFacet.getInstance(getContext().getModule());
+    if (facet == null) {
+      return null;
+    }
+    HardwareConfig hardwareConfig = myHardwareConfigHelper.getConfig();
+    return myResultCache.createKey(facet, xmlFile, getContext().getConfiguration(),
+                                   myRenderingMode,
+                                   myOverrideBgColor,
+                                   myShowDecorations,
+                                   myShadowEnabled,
+                                   myHighQualityShadow,
+                                   myQuality,
+                                   myProvideCookiesForIncludedViews,
+                                   hardwareConfig.getScreenWidth(),
+                                   hardwareConfig.getScreenHeight(),
+                                   myLayoutlibCallback.getAdaptiveIconMaskPath());
+  }
+
+  @Nullable
+  private CompletableFuture<RenderResult> getCachedResult(@Nullable RenderResultCache.Key cacheKey) {
+    if (cacheKey == null) {
+      return null;
+    }
+    RenderResult result = myResultCache.get(cacheKey, this, myLogger, myImagePool);
+    if (result == null) {
+      return null;
+    }
+    if (myRenderSession == null) {
+      if (myCachedResultInflation == null) {
+        // Hand out the cached views right away, and inflate the session they will be laid out and updated with in the background.
+        myCachedResultInflation = inflateSession();
+        return CompletableFuture.completedFuture(result);
+      }
+      return myCachedResultInflation.handle((ignored, exception) -> withSessionViews(result));
+    }
+    return CompletableFuture.completedFuture(withSessionViews(result));
+  }
+
+  /**
+   * Returns the given cached result with the views of {@link #myRenderSession} instead of its detached ones, as those are what a render
+   * of this task would return, or the cached result itself if the session failed to inflate.
+   */
+  @NotNull
+  private RenderResult withSessionViews(@NotNull RenderResult result) {
+    RenderSession renderSession = myRenderSession;
+    if (renderSession == null) {
+      return result;
+    }
+    return RenderResult.create(this, renderSession, result.getFile(), myLogger, result.getRenderedImage());
   }
 
   /**
@@ -832,6 +991,7 @@ public class RenderTask {
    * the current system nanos time.
    */
   public void setElapsedFrameTimeNanos(long nanos) {
+    myHasElapsedFrameTime = true;
     if (myRenderSession != null) {
       myRenderSession.setElapsedFrameTimeNanos(nanos);
     }
@@ -929,7 +1089,7 @@ public class RenderTask {
     }
 
     try {
-      Result result = RenderService.runRenderAction(() -> myLayoutLib.renderDrawable(params));
+      Result result = RenderService.runRenderTaskAction(() -> myLayoutLib.renderDrawable(params));
 
       if (result != null && result.isSuccess()) {
         Object data = result.getData();
@@ -988,7 +1148,7 @@ public class RenderTask {
   public CompletableFuture<Map<XmlTag, ViewInfo>> measureChildren(@NotNull XmlTag parent, @Nullable AttributeFilter filter) {
     ILayoutPullParser modelParser = LayoutPsiPullParser.create(filter, parent, myLogger);
     Map<XmlTag, ViewInfo> map = new HashMap<>();
-    return RenderService.runAsyncRenderAction(() -> measure(modelParser))
+    return RenderService.runAsyncRenderAction(() -> measure(modelParser), RenderService.RenderingPriority.HIGH, null)
         .thenComposeAsync(session -> {
           if (session != null) {
             try {
@@ -1009,7 +1169,7 @@ public class RenderTask {
               return CompletableFuture.completedFuture(map);
             }
             finally {
-              RenderService.runAsyncRenderAction(session::dispose);
+              RenderService.runAsyncRenderTaskAction(session::dispose);
             }
           }
 
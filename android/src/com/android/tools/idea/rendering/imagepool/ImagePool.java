@@ -82,6 +82,21 @@ public interface ImagePool {
     long totalBytesAllocated();
 
     long totalBytesInUse();
+
+    /**
+     * Number of images that had to be allocated because there was no free image to reuse.
+     */
+    long allocationCount();
+
+    /**
+     * Number of images that reused a free image from the pool.
+     */
+    long reuseCount();
+
+    /**
+     * Number of free images released by the pool, to stay within its limits or because memory was low.
+     */
+    long evictionCount();
   }
 
   /**
@@ -15,6 +15,7 @@
  */
 package com.android.tools.idea.rendering.imagepool;
 
+import com.android.tools.idea.flags.StudioFlags;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -49,6 +50,11 @@ public class ImagePoolFactory {
     }
   };
 
+  /**
+   * Upper limit for the size of the free images kept by the default pool, when it uses a byte budget.
+   */
+  private static final long MAX_FREE_BYTES = 256L * 1024 * 1024;
+
   private ImagePoolFactory() {
   }
 
@@ -57,6 +63,9 @@ public class ImagePoolFactory {
    */
   @NotNull
   public static ImagePool createImagePool() {
+    // The budget is also capped to a fraction of the heap, so the pool doesn't take most of the memory of small heaps
+    long maxFreeBytes =
+      StudioFlags.NELE_IMAGE_POOL_BYTE_BUDGET.get() ? Math.min(MAX_FREE_BYTES, Runtime.getRuntime().maxMemory() / 8) : 0;
     return new ImagePoolImpl(new int[]{50, 500, 1000, 1500, 2000, 5000}, (w, h) -> (type) -> {
       // Images below 1k, do not pool
       if (w * h < 1000) {
@@ -64,7 +73,7 @@ public class ImagePoolFactory {
       }
 
       return 50_000_000 / (w * h);
-    });
+    }, maxFreeBytes);
   }
 
   /**
@@ -22,6 +22,7 @@ import com.google.common.collect.EvictingQueue;
 import com.google.common.collect.ForwardingQueue;
 import com.google.common.collect.Sets;
 import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.util.LowMemoryWatcher;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import org.jetbrains.annotations.NotNull;
@@ -41,11 +42,16 @@ import java.util.concurrent.atomic.LongAdder;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * Class that offers a pool of {@link BufferedImage}s. The returned {@link Image} do not offer a direct access
  * to the underlying {@link BufferedImage} to avoid clients holding references to it.
  * Once the {@link Image} is not being referenced anymore, it will be automatically returned to the pool.
+ * <p>
+ * By default, the free images are only softly referenced by the pool, so they are released when the JVM runs low on memory. When the pool
+ * is created with a byte budget, the free images are kept until the total size of the free images goes over the budget, and then the
+ * least recently freed ones are released first, whatever their bucket. All of them are released when the IDE signals low memory.
  */
 @SuppressWarnings("ALL")
 class ImagePoolImpl implements ImagePool {
@@ -60,6 +66,21 @@ class ImagePoolImpl implements ImagePool {
 
   private final LongAdder myTotalAllocatedBytes = new LongAdder();
   private final LongAdder myTotalInUseBytes = new LongAdder();
+  private final LongAdder myAllocationCount = new LongAdder();
+  private final LongAdder myReuseCount = new LongAdder();
+  private final LongAdder myEvictionCount = new LongAdder();
+
+  /**
+   * Maximum size in bytes of the free images kept by the pool, or 0 if the free images are softly referenced instead.
+   */
+  private final long myMaxFreeBytes;
+  /**
+   * The free images kept when using a byte budget, least recently freed first. Also used as the lock that keeps it in sync with the
+   * buckets.
+   */
+  private final LinkedHashSet<FreeImage> myFreeImages = new LinkedHashSet<>();
+  private long myFreeBytes;
+  @Nullable private final LowMemoryWatcher myLowMemoryWatcher;
 
   private final Stats myStats = new Stats() {
     @Override
@@ -71,6 +92,21 @@ class ImagePoolImpl implements ImagePool {
     public long totalBytesInUse() {
       return myTotalInUseBytes.sum();
     }
+
+    @Override
+    public long allocationCount() {
+      return myAllocationCount.sum();
+    }
+
+    @Override
+    public long reuseCount() {
+      return myReuseCount.sum();
+    }
+
+    @Override
+    public long evictionCount() {
+      return myEvictionCount.sum();
+    }
   };
 
   /**
@@ -86,12 +122,27 @@ class ImagePoolImpl implements ImagePool {
    *                           type. If the returned size is 0, no pooling will be done for that bucket size.
    */
   ImagePoolImpl(@NotNull int[] bucketSizes, @NotNull BiFunction<Integer, Integer, Function<Integer, Integer>> bucketSizingPolicy) {
+    this(bucketSizes, bucketSizingPolicy, 0);
+  }
+
+  /**
+   * Constructs a new {@link ImagePoolImpl} that keeps at most maxFreeBytes of free images.
+   *
+   * @param maxFreeBytes Maximum size of the free images kept in all the buckets. If 0, the free images are softly referenced and there
+   *                     is no budget.
+   * @see #ImagePoolImpl(int[], BiFunction)
+   */
+  ImagePoolImpl(@NotNull int[] bucketSizes,
+                @NotNull BiFunction<Integer, Integer, Function<Integer, Integer>> bucketSizingPolicy,
+                long maxFreeBytes) {
     if (DEBUG) {
       System.out.println("New ImagePool");
     }
     myBucketSizes = bucketSizes;
     Arrays.sort(myBucketSizes);
     myBucketSizingPolicy = bucketSizingPolicy;
+    myMaxFreeBytes = maxFreeBytes;
+    myLowMemoryWatcher = maxFreeBytes > 0 ? LowMemoryWatcher.register(this::evictFreeImages) : null;
   }
 
   private boolean isDisposed = false;
@@ -175,14 +226,11 @@ class ImagePoolImpl implements ImagePool {
     }
 
     BufferedImage image;
-    SoftReference<BufferedImage> imageRef;
     try {
-      imageRef = bucket.remove();
-      while ((image = imageRef.get()) == null) {
-        imageRef = bucket.remove();
-      }
+      image = removeFreeImage(bucket);
+      myReuseCount.increment();
 
-      long totalSize = image.getWidth() * image.getHeight();
+      long totalSize = (long)image.getWidth() * image.getHeight();
       if (DEBUG) {
         double wasted = (totalSize - w * h);
         System.out.printf("  Re-used image %dx%d - %d\n  pool buffer %dx%d\n  wasted %d%%\n",
@@ -213,7 +261,8 @@ class ImagePoolImpl implements ImagePool {
       // Set acceleration priority to 0.9 out of 1.0. We reserve 1.0 for the shared buffers
       // that we paint to screen.
       image.setAccelerationPriority(0.9f);
-      long estimatedSize = newImageWidth * newImageHeight * 4;
+      long estimatedSize = getEstimatedSize(image);
+      myAllocationCount.increment();
       myTotalAllocatedBytes.add(estimatedSize);
       myTotalInUseBytes.add(estimatedSize);
 
@@ -228,20 +277,18 @@ class ImagePoolImpl implements ImagePool {
         // This method might be called twice if the user has manually called the free() method. The second call will have no effect.
         if (myReferences.remove(this)) {
 
-          boolean accepted = bucket.offer(new SoftReference<>(imagePointer));
+          boolean accepted = offerFreeImage(bucket, imagePointer);
           if (DEBUG) {
             System.out.printf("%s image (%dx%d-%d) in bucket (%dx%d)\n",
                               accepted ? "Released" : "Rejected",
                               w, h, type, bucket.myMinWidth, bucket.myMinHeight);
           }
 
-          long estimatedSize = imagePointer.getWidth() * imagePointer.getHeight() * 4;
+          long estimatedSize = getEstimatedSize(imagePointer);
           if (!accepted) {
             myTotalAllocatedBytes.add(-estimatedSize);
           }
-          else {
-            myTotalInUseBytes.add(-estimatedSize);
-          }
+          myTotalInUseBytes.add(-estimatedSize);
           if (freedCallback != null) {
             freedCallback.accept(imagePointer);
           }
@@ -254,25 +301,139 @@ class ImagePoolImpl implements ImagePool {
     return pooledImage;
   }
 
-  private static class Bucket extends ForwardingQueue<SoftReference<BufferedImage>> {
-    private final Queue<SoftReference<BufferedImage>> myDelegate;
+  private static long getEstimatedSize(@NotNull BufferedImage image) {
+    return (long)image.getWidth() * image.getHeight() * 4;
+  }
+
+  /**
+   * Removes a free image from the given bucket.
+   *
+   * @throws NoSuchElementException if the bucket has no free images left
+   */
+  @NotNull
+  private BufferedImage removeFreeImage(@NotNull Bucket bucket) {
+    if (myMaxFreeBytes > 0) {
+      synchronized (myFreeImages) {
+        FreeImage freeImage = (FreeImage)bucket.remove();
+        myFreeImages.remove(freeImage);
+        myFreeBytes -= freeImage.myBytes;
+        return freeImage.myImage;
+      }
+    }
+
+    BufferedImage image;
+    while ((image = bucket.remove().get()) == null) {
+      // Released by the garbage collector
+      myEvictionCount.increment();
+    }
+    return image;
+  }
+
+  /**
+   * Returns the given image to the pool. If the image does not fit in its bucket or the byte budget, it is not kept.
+   *
+   * @return whether the image was kept
+   */
+  private boolean offerFreeImage(@NotNull Bucket bucket, @NotNull BufferedImage image) {
+    if (!bucket.isPooling()) {
+      // Not pooled. A bucket without capacity accepts images without keeping them, so they would never be reused.
+      return false;
+    }
+    if (myMaxFreeBytes <= 0) {
+      if (!bucket.offer(new SoftReference<>(image)::get)) {
+        myEvictionCount.increment();
+        return false;
+      }
+      return true;
+    }
+
+    FreeImage freeImage = new FreeImage(bucket, image);
+    synchronized (myFreeImages) {
+      if (isDisposed || freeImage.myBytes > myMaxFreeBytes || !bucket.offer(freeImage)) {
+        myEvictionCount.increment();
+        return false;
+      }
+      myFreeImages.add(freeImage);
+      myFreeBytes += freeImage.myBytes;
+
+      // Release the least recently freed images, from any bucket, until the free images fit in the budget again. The new image fits on
+      // its own, so it is never released here.
+      Iterator<FreeImage> iterator = myFreeImages.iterator();
+      while (myFreeBytes > myMaxFreeBytes) {
+        FreeImage evicted = iterator.next();
+        iterator.remove();
+        evicted.myBucket.remove(evicted);
+        myFreeBytes -= evicted.myBytes;
+        myTotalAllocatedBytes.add(-evicted.myBytes);
+        myEvictionCount.increment();
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Releases all the free images kept in the byte budget.
+   */
+  private void evictFreeImages() {
+    synchronized (myFreeImages) {
+      for (FreeImage freeImage : myFreeImages) {
+        freeImage.myBucket.remove(freeImage);
+        myTotalAllocatedBytes.add(-freeImage.myBytes);
+        myEvictionCount.increment();
+      }
+      myFreeImages.clear();
+      myFreeBytes = 0;
+    }
+  }
+
+  /**
+   * A free image kept in the byte budget.
+   */
+  private static final class FreeImage implements Supplier<BufferedImage> {
+    private final Bucket myBucket;
+    private final BufferedImage myImage;
+    private final long myBytes;
+
+    private FreeImage(@NotNull Bucket bucket, @NotNull BufferedImage image) {
+      myBucket = bucket;
+      myImage = image;
+      myBytes = getEstimatedSize(image);
+    }
+
+    @Override
+    public BufferedImage get() {
+      return myImage;
+    }
+  }
+
+  private static class Bucket extends ForwardingQueue<Supplier<BufferedImage>> {
+    private final Queue<Supplier<BufferedImage>> myDelegate;
     private final AtomicLong myLastAccess = new AtomicLong(System.currentTimeMillis());
     private final int myMinWidth;
     private final int myMinHeight;
+    private final int myMaxSize;
 
     public Bucket(int minWidth, int minHeight, int maxSize) {
       myMinWidth = minWidth;
       myMinHeight = minHeight;
+      myMaxSize = maxSize;
       myDelegate = maxSize == 0 ?
                    EvictingQueue.create(0)
-                                : new ArrayBlockingQueue<SoftReference<BufferedImage>>(maxSize);
+                                : new ArrayBlockingQueue<Supplier<BufferedImage>>(maxSize);
     }
 
     @Override
-    protected Queue<SoftReference<BufferedImage>> delegate() {
+    protected Queue<Supplier<BufferedImage>> delegate() {
       myLastAccess.set(System.currentTimeMillis());
       return myDelegate;
     }
+
+    /**
+     * Returns whether this bucket can keep any image.
+     */
+    private boolean isPooling() {
+      return myMaxSize > 0;
+    }
   }
 
   /**
@@ -313,6 +474,10 @@ class ImagePoolImpl implements ImagePool {
    */
   public void dispose() {
     isDisposed = true;
+    if (myLowMemoryWatcher != null) {
+      myLowMemoryWatcher.stop();
+    }
+    evictFreeImages();
     myFinalizableReferenceQueue.close();
     myReferences.clear();
     myPool.clear();
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.rendering.parsers;
+
+import com.intellij.psi.xml.XmlTag;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Compares two {@link TagSnapshot} trees of the same layout file, taken at different times, to find the attributes that changed in
+ * between. Callers can use it to update the views inflated from the first tree in place, instead of inflating the layout again, as
+ * long as only attribute values changed.
+ */
+public final class TagSnapshotDiff {
+  /**
+   * A change in the value of one attribute of a tag.
+   */
+  public static final class AttributeChange {
+    @NotNull public final XmlTag tag;
+    @Nullable public final String namespace;
+    @Nullable public final String prefix;
+    @NotNull public final String name;
+    @Nullable public final String oldValue;
+    @Nullable public final String newValue;
+
+    private AttributeChange(@NotNull XmlTag tag,
+                            @Nullable String namespace,
+                            @Nullable String prefix,
+                            @NotNull String name,
+                            @Nullable String oldValue,
+                            @Nullable String newValue) {
+      this.tag = tag;
+      this.namespace = namespace;
+      this.prefix = prefix;
+      this.name = name;
+      this.oldValue = oldValue;
+      this.newValue = newValue;
+    }
+
+    @Override
+    public String toString() {
+      return "AttributeChange{" + name + ": \"" + oldValue + "\" -> \"" + newValue + "\"}";
+    }
+  }
+
+  private TagSnapshotDiff() {
+  }
+
+  /**
+   * Returns the attribute changes from {@code before} to {@code after}, or null if the trees differ in anything else than attribute
+   * values: tags added, removed or renamed, namespace declarations, or aapt:attr definitions. A tree without changes returns an empty
+   * list.
+   */
+  @Nullable
+  public static List<AttributeChange> diff(@NotNull TagSnapshot before, @NotNull TagSnapshot after) {
+    List<AttributeChange> changes = new ArrayList<>();
+    return diff(before, after, changes) ? changes : null;
+  }
+
+  private static boolean diff(@NotNull TagSnapshot before, @NotNull TagSnapshot after, @NotNull List<AttributeChange> changes) {
+    XmlTag tag = after.tag;
+    // The flag is only propagated to the parents when a whole tree is snapshotted, so it is checked on every tag.
+    if (tag == null ||
+        before.hasDeclaredAaptAttrs ||
+        after.hasDeclaredAaptAttrs ||
+        before.tag != tag ||
+        !before.tagName.equals(after.tagName) ||
+        !Objects.equals(before.namespace, after.namespace) ||
+        !Objects.equals(before.namespaceDeclarations, after.namespaceDeclarations) ||
+        before.children.size() != after.children.size()) {
+      return false;
+    }
+
+    Map<String, AttributeSnapshot> beforeAttributes = new HashMap<>();
+    for (AttributeSnapshot attribute : before.attributes) {
+      beforeAttributes.put(getKey(attribute), attribute);
+    }
+    for (AttributeSnapshot attribute : after.attributes) {
+      AttributeSnapshot beforeAttribute = beforeAttributes.remove(getKey(attribute));
+      String oldValue = beforeAttribute != null ? beforeAttribute.value : null;
+      if (!Objects.equals(oldValue, attribute.value)) {
+        changes.add(new AttributeChange(tag, attribute.namespace, attribute.prefix, attribute.name, oldValue, attribute.value));
+      }
+    }
+    for (AttributeSnapshot removed : beforeAttributes.values()) {
+      changes.add(new AttributeChange(tag, removed.namespace, removed.prefix, removed.name, removed.value, null));
+    }
+
+    for (int i = 0, n = after.children.size(); i < n; i++) {
+      if (!diff(before.children.get(i), after.children.get(i), changes)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @NotNull
+  private static String getKey(@NotNull AttributeSnapshot attribute) {
+    return attribute.namespace != null ? attribute.namespace + ':' + attribute.name : attribute.name;
+  }
+}
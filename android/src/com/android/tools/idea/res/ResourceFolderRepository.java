@@ -24,6 +24,7 @@ import static com.android.SdkConstants.ATTR_FORMAT;
 import static com.android.SdkConstants.ATTR_ID;
 import static com.android.SdkConstants.ATTR_NAME;
 import static com.android.SdkConstants.ATTR_TYPE;
+import static com.android.SdkConstants.DOT_XML;
 import static com.android.SdkConstants.EXT_PNG;
 import static com.android.SdkConstants.FD_RES_VALUES;
 import static com.android.SdkConstants.ID_PREFIX;
@@ -75,9 +76,11 @@ import com.android.resources.ResourceUrl;
 import com.android.sdklib.IAndroidTarget;
 import com.android.tools.idea.configurations.ConfigurationManager;
 import com.android.tools.idea.databinding.DataBindingUtil;
+import com.android.tools.idea.flags.StudioFlags;
 import com.android.tools.idea.log.LogWrapper;
 import com.android.tools.idea.model.MergedManifestManager;
 import com.android.utils.ILogger;
+import com.android.utils.SdkUtils;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.LinkedListMultimap;
 import com.google.common.collect.ListMultimap;
@@ -245,7 +248,8 @@ public final class ResourceFolderRepository extends LocalResourceRepository impl
 
   /**
    * Saves the non-Psi XML state as a single blob for faster loading the second time
-   * by {@link #loadPreviousStateIfExists}.
+   * by {@link #loadPreviousStateIfExists}. With {@link StudioFlags#RESOURCE_FOLDER_BINARY_CACHE}, the state is saved
+   * to a {@link ResourceFolderRepositorySnapshot} instead of a resource merger blob.
    */
   @VisibleForTesting
   void saveStateToFile() {
@@ -255,6 +259,19 @@ public final class ResourceFolderRepository extends LocalResourceRepository impl
       return;
     }
 
+    if (StudioFlags.RESOURCE_FOLDER_BINARY_CACHE.get()) {
+      List<ResourceFile> resourceFiles = new ArrayList<>();
+      for (ResourceItemSource<? extends ResourceItem> source : sources.values()) {
+        if (source instanceof ResourceFileAdapter && isCacheable(((ResourceFileAdapter)source).getResourceFile())) {
+          resourceFiles.add(((ResourceFileAdapter)source).getResourceFile());
+        }
+      }
+      FileUtil.createDirectory(blobRoot);
+      ResourceFolderRepositorySnapshot.write(new File(blobRoot, ResourceFolderRepositorySnapshot.CACHE_FILE_NAME).toPath(),
+                                             VfsUtilCore.virtualToIoFile(myResourceDir), resourceFiles);
+      return;
+    }
+
     try {
       ResourcePreprocessor preprocessor = NoOpResourcePreprocessor.INSTANCE;
       File tempDirectory = FileUtil.createTempDirectory("resource", "tmp", false);
@@ -286,6 +303,12 @@ public final class ResourceFolderRepository extends LocalResourceRepository impl
       return createFreshResourceMerger();
     }
 
+    if (StudioFlags.RESOURCE_FOLDER_BINARY_CACHE.get()) {
+      loadPreviousStateFromSnapshot();
+      // The loaded items are saved from the repository itself, so the merger only holds the items of the files scanned afterwards.
+      return createFreshResourceMerger();
+    }
+
     File blobRoot = ResourceFolderRepositoryFileCacheService.get().getResourceDir(myModule.getProject(), myResourceDir);
     if (blobRoot == null || !blobRoot.exists()) {
       return createFreshResourceMerger();
@@ -354,6 +377,45 @@ public final class ResourceFolderRepository extends LocalResourceRepository impl
     return merger;
   }
 
+  /**
+   * Reloads the ResourceFiles and ResourceItems of the files that didn't change since the last {@link #saveStateToFile} from the
+   * binary cache, see {@link ResourceFolderRepositorySnapshot}.
+   */
+  private void loadPreviousStateFromSnapshot() {
+    File blobRoot = ResourceFolderRepositoryFileCacheService.get().getResourceDir(myModule.getProject(), myResourceDir);
+    if (blobRoot == null) {
+      return;
+    }
+
+    // Items to be inserted into the repo, while holding ITEM_MAP_LOCK.
+    Map<ResourceType, ListMultimap<String, ResourceItem>> result = new HashMap<>();
+    ResourceFolderRepositorySnapshot.load(
+      new File(blobRoot, ResourceFolderRepositorySnapshot.CACHE_FILE_NAME).toPath(), VfsUtilCore.virtualToIoFile(myResourceDir),
+      myNamespace, getLibraryName(), resourceFile -> {
+        VirtualFile vFile = VfsUtil.findFileByIoFile(resourceFile.getFile(), false);
+        if (vFile != null) {
+          sources.put(vFile, new ResourceFileAdapter(resourceFile));
+          for (ResourceMergerItem item : resourceFile.getItems()) {
+            addToResult(result, item);
+          }
+        }
+      });
+    commitToRepository(result);
+  }
+
+  /**
+   * Checks if the items of a file loaded by {@link InitialScanState#loadFile} can be saved to the binary cache. Density-based
+   * resources are skipped, like in the merger blob, and so are the files that are not parsed by the initial scan.
+   */
+  private static boolean isCacheable(@NotNull ResourceFile resourceFile) {
+    File file = resourceFile.getFile();
+    ResourceFolderType folderType = getFolderType(file.getParentFile().getName());
+    if (folderType == null || folderType == DRAWABLE || folderType == MIPMAP || !SdkUtils.endsWithIgnoreCase(file.getName(), DOT_XML)) {
+      return false;
+    }
+    return folderType == VALUES || FolderTypeRelationship.isIdGeneratingFolderType(folderType);
+  }
+
   private boolean namespacesUsed() {
     return ResourceRepositoryManager.getInstance(myFacet).getNamespacing() != AaptOptions.Namespacing.DISABLED;
   }
@@ -0,0 +1,511 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.res;
+
+import com.android.ide.common.rendering.api.ResourceNamespace;
+import com.android.ide.common.resources.DataFile;
+import com.android.ide.common.resources.ResourceFile;
+import com.android.ide.common.resources.ResourceMergerItem;
+import com.android.ide.common.resources.configuration.FolderConfiguration;
+import com.android.resources.ResourceType;
+import com.android.tools.idea.resources.aar.Base128InputStream;
+import com.android.tools.idea.resources.aar.Base128InputStream.StreamFormatException;
+import com.android.tools.idea.resources.aar.Base128OutputStream;
+import com.google.common.hash.Hashing;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.io.FileUtilRt;
+import com.intellij.util.io.ByteBufferUtil;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Consumer;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.w3c.dom.Attr;
+import org.w3c.dom.DOMException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Persistent cache of the XML files of a resource folder, used by {@link ResourceFolderRepository} to skip parsing the files that
+ * didn't change since the cache was written.
+ *
+ * <p>The cache uses the same {@link Base128OutputStream} encoding as the framework and AAR resource caches. Each file is stored with
+ * its timestamp, length and content hash, and with the size of its serialized items, so that the entries of changed files are skipped
+ * without being decoded. The content hash is only computed when the timestamp of a file doesn't match, so a file that was touched but
+ * not modified, e.g. by a VCS checkout, is still loaded from the cache.
+ *
+ * <p>The data is stored as follows:
+ * <ol>
+ *   <li>The header: {@link #CACHE_FILE_HEADER}, {@link #CACHE_FILE_FORMAT_VERSION} and the path of the resource directory</li>
+ *   <li>Number of files (int)</li>
+ *   <li>For each file: path relative to the resource directory (string), timestamp (long), length (long), content hash (long),
+ *       size in bytes of the serialized items (int) and the serialized items (see {@link #serializeItems})</li>
+ * </ol>
+ */
+final class ResourceFolderRepositorySnapshot {
+  private static final Logger LOG = Logger.getInstance(ResourceFolderRepositorySnapshot.class);
+
+  static final String CACHE_FILE_NAME = "resources.bin";
+  private static final byte[] CACHE_FILE_HEADER = "Resource folder cache".getBytes(StandardCharsets.UTF_8);
+  private static final String CACHE_FILE_FORMAT_VERSION = "1";
+
+  private ResourceFolderRepositorySnapshot() {
+  }
+
+  /**
+   * Writes the given resource files to a cache file on disk. Only {@link DataFile.FileType#XML_VALUES} and
+   * {@link DataFile.FileType#SINGLE_FILE} files can be stored, other files are skipped.
+   */
+  static void write(@NotNull Path cacheFile, @NotNull File resourceDir, @NotNull Collection<ResourceFile> resourceFiles) {
+    // Write to a temporary file first, then rename it to the final name.
+    Path tempFile;
+    try {
+      Files.deleteIfExists(cacheFile);
+      tempFile = FileUtilRt.createTempFile(cacheFile.getParent().toFile(), cacheFile.getFileName().toString(), ".tmp").toPath();
+    }
+    catch (IOException e) {
+      LOG.error("Unable to create a temporary file in " + cacheFile.getParent().toString(), e);
+      return;
+    }
+
+    try (Base128OutputStream stream = new Base128OutputStream(tempFile)) {
+      stream.write(getCacheFileHeader(resourceDir));
+      List<FileEntry> entries = new ArrayList<>(resourceFiles.size());
+      for (ResourceFile resourceFile : resourceFiles) {
+        FileEntry entry = createEntry(resourceDir, resourceFile);
+        if (entry != null) {
+          entries.add(entry);
+        }
+      }
+      stream.writeInt(entries.size());
+      for (FileEntry entry : entries) {
+        stream.writeString(entry.myRelativePath);
+        stream.writeLong(entry.myTimestamp);
+        stream.writeLong(entry.myLength);
+        stream.writeLong(entry.myHash);
+        stream.writeInt(entry.myItems.length);
+        stream.write(entry.myItems);
+      }
+    }
+    catch (Throwable e) {
+      LOG.error("Unable to create cache file " + tempFile.toString(), e);
+      deleteIgnoringErrors(tempFile);
+      return;
+    }
+
+    try {
+      Files.move(tempFile, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (NoSuchFileException e) {
+      // Ignore. This may happen in tests if the "caches" directory was cleaned up by a test tear down.
+    } catch (IOException e) {
+      LOG.error("Unable to create cache file " + cacheFile.toString(), e);
+      deleteIgnoringErrors(tempFile);
+    }
+  }
+
+  /**
+   * Loads the files that didn't change since the cache file was written, and passes them to {@code consumer}. The cache file is
+   * memory-mapped, and the entries of the files that changed or were deleted are skipped without being decoded.
+   */
+  static void load(@NotNull Path cacheFile,
+                   @NotNull File resourceDir,
+                   @NotNull ResourceNamespace namespace,
+                   @Nullable String libraryName,
+                   @NotNull Consumer<ResourceFile> consumer) {
+    MappedByteBuffer buffer = null;
+    try (FileChannel channel = FileChannel.open(cacheFile, StandardOpenOption.READ)) {
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      Base128InputStream stream = new Base128InputStream(new ByteBufferInputStream(buffer));
+      stream.setStringCache(new HashMap<>());
+      for (byte expected : getCacheFileHeader(resourceDir)) {
+        if (stream.readByte() != expected) {
+          return; // Cache file header doesn't match.
+        }
+      }
+
+      Document document = createDocument();
+      int fileCount = stream.readInt();
+      for (int i = 0; i < fileCount; i++) {
+        File file = new File(resourceDir, readNonNullString(stream));
+        long timestamp = stream.readLong();
+        long length = stream.readLong();
+        long hash = stream.readLong();
+        int size = stream.readInt();
+        FolderConfiguration folderConfiguration = FolderConfiguration.getConfigForFolder(file.getParentFile().getName());
+        if (folderConfiguration == null || !isUnchanged(file.toPath(), timestamp, length, hash)) {
+          skipFully(stream, size);
+          continue;
+        }
+        consumer.accept(deserializeItems(stream, document, file, folderConfiguration, namespace, libraryName));
+      }
+    }
+    catch (NoSuchFileException e) {
+      // Cache file does not exist.
+    }
+    catch (Throwable e) {
+      // The files loaded so far are complete, the remaining ones are scanned as if they were not in the cache.
+      LOG.warn("Unable to load from cache file " + cacheFile.toString(), e);
+    }
+    finally {
+      if (buffer != null) {
+        // Unmap the file right away, so that it can be replaced by a new cache file.
+        ByteBufferUtil.cleanBuffer(buffer);
+      }
+    }
+  }
+
+  @NotNull
+  private static byte[] getCacheFileHeader(@NotNull File resourceDir) {
+    ByteArrayOutputStream header = new ByteArrayOutputStream();
+    try (Base128OutputStream stream = new Base128OutputStream(header)) {
+      stream.write(CACHE_FILE_HEADER);
+      stream.writeString(CACHE_FILE_FORMAT_VERSION);
+      stream.writeString(FileUtil.toSystemIndependentName(resourceDir.getPath()));
+    }
+    catch (IOException e) {
+      throw new Error("Internal error", e); // An IOException in the try block above indicates a bug.
+    }
+    return header.toByteArray();
+  }
+
+  @Nullable
+  private static FileEntry createEntry(@NotNull File resourceDir, @NotNull ResourceFile resourceFile) throws IOException {
+    File file = resourceFile.getFile();
+    String relativePath = FileUtil.getRelativePath(resourceDir, file);
+    if (relativePath == null) {
+      return null;
+    }
+    byte[] items = serializeItems(resourceFile);
+    if (items == null) {
+      return null;
+    }
+    BasicFileAttributes attributes;
+    try {
+      attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+    }
+    catch (NoSuchFileException e) {
+      return null;
+    }
+    return new FileEntry(FileUtil.toSystemIndependentName(relativePath), attributes.lastModifiedTime().toMillis(), attributes.size(),
+                         hash(file.toPath()), items);
+  }
+
+  private static boolean isUnchanged(@NotNull Path file, long timestamp, long length, long hash) {
+    try {
+      BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+      if (!attributes.isRegularFile() || attributes.size() != length) {
+        return false;
+      }
+      return attributes.lastModifiedTime().toMillis() == timestamp || hash(file) == hash;
+    }
+    catch (IOException e) {
+      return false;
+    }
+  }
+
+  private static long hash(@NotNull Path file) throws IOException {
+    return Hashing.murmur3_128().hashBytes(Files.readAllBytes(file)).asLong();
+  }
+
+  /**
+   * Serializes the items of a resource file as follows:
+   * <ol>
+   *   <li>Type of the file (string)</li>
+   *   <li>Number of items (int)</li>
+   *   <li>For each item: resource type (string), name (string), whether the item has a value (boolean) and the value
+   *       (see {@link #writeNode})</li>
+   * </ol>
+   *
+   * @return the serialized items, or null if the file cannot be stored in the cache
+   */
+  @Nullable
+  private static byte[] serializeItems(@NotNull ResourceFile resourceFile) throws IOException {
+    Collection<ResourceMergerItem> items = resourceFile.getItems();
+    if (items.isEmpty()) {
+      return null;
+    }
+    DataFile.FileType fileType = items.iterator().next().getSourceType();
+    if (fileType != DataFile.FileType.XML_VALUES && fileType != DataFile.FileType.SINGLE_FILE) {
+      return null;
+    }
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (Base128OutputStream stream = new Base128OutputStream(bytes)) {
+      stream.writeString(fileType.name());
+      stream.writeInt(items.size());
+      for (ResourceMergerItem item : items) {
+        // Subclasses may hold state that isn't stored.
+        if (item.getClass() != ResourceMergerItem.class) {
+          return null;
+        }
+        stream.writeString(item.getType().getName());
+        stream.writeString(item.getName());
+        Node value = item.getValue();
+        stream.writeBoolean(value != null);
+        if (value != null && !writeNode(stream, value)) {
+          return null;
+        }
+      }
+    }
+    return bytes.toByteArray();
+  }
+
+  @NotNull
+  private static ResourceFile deserializeItems(@NotNull Base128InputStream stream,
+                                               @NotNull Document document,
+                                               @NotNull File file,
+                                               @NotNull FolderConfiguration folderConfiguration,
+                                               @NotNull ResourceNamespace namespace,
+                                               @Nullable String libraryName) throws IOException {
+    DataFile.FileType fileType;
+    try {
+      fileType = DataFile.FileType.valueOf(readNonNullString(stream));
+    }
+    catch (IllegalArgumentException e) {
+      throw StreamFormatException.invalidFormat();
+    }
+    int itemCount = stream.readInt();
+    if (itemCount <= 0) {
+      throw StreamFormatException.invalidFormat();
+    }
+    List<ResourceMergerItem> items = new ArrayList<>(itemCount);
+    for (int i = 0; i < itemCount; i++) {
+      ResourceType type = ResourceType.fromClassName(readNonNullString(stream));
+      if (type == null) {
+        throw StreamFormatException.invalidFormat();
+      }
+      String name = readNonNullString(stream);
+      Node value = stream.readBoolean() ? readNode(stream, document) : null;
+      items.add(new ResourceMergerItem(name, namespace, type, value, libraryName));
+    }
+
+    switch (fileType) {
+      case XML_VALUES:
+        return new ResourceFile(file, items, folderConfiguration);
+      case SINGLE_FILE:
+        ResourceFile resourceFile = new ResourceFile(file, items.get(0), folderConfiguration);
+        for (ResourceMergerItem item : items.subList(1, items.size())) {
+          resourceFile.addItem(item);
+        }
+        return resourceFile;
+      default:
+        throw StreamFormatException.invalidFormat();
+    }
+  }
+
+  /**
+   * Writes an XML node: its type (int), followed for an element by its namespace and name (strings), its number of attributes (int),
+   * the namespace, name and value of each attribute (strings), its number of children (int) and the children, and for text, CDATA
+   * and comment nodes by the node value (string).
+   *
+   * @return false if the node contains nodes of other types, in which case the stream contents are unusable
+   */
+  private static boolean writeNode(@NotNull Base128OutputStream stream, @NotNull Node node) throws IOException {
+    short nodeType = node.getNodeType();
+    stream.writeInt(nodeType);
+    switch (nodeType) {
+      case Node.ELEMENT_NODE:
+        stream.writeString(node.getNamespaceURI());
+        stream.writeString(node.getNodeName());
+        NamedNodeMap attributes = node.getAttributes();
+        stream.writeInt(attributes.getLength());
+        for (int i = 0; i < attributes.getLength(); i++) {
+          Attr attribute = (Attr)attributes.item(i);
+          stream.writeString(attribute.getNamespaceURI());
+          stream.writeString(attribute.getName());
+          stream.writeString(attribute.getValue());
+        }
+        NodeList children = node.getChildNodes();
+        stream.writeInt(children.getLength());
+        for (int i = 0; i < children.getLength(); i++) {
+          if (!writeNode(stream, children.item(i))) {
+            return false;
+          }
+        }
+        return true;
+
+      case Node.TEXT_NODE:
+      case Node.CDATA_SECTION_NODE:
+      case Node.COMMENT_NODE:
+        stream.writeString(node.getNodeValue());
+        return true;
+
+      default:
+        return false;
+    }
+  }
+
+  @NotNull
+  private static Node readNode(@NotNull Base128InputStream stream, @NotNull Document document) throws IOException {
+    try {
+      int nodeType = stream.readInt();
+      switch (nodeType) {
+        case Node.ELEMENT_NODE:
+          String namespace = stream.readString();
+          String name = readNonNullString(stream);
+          // Nodes without a namespace are created the same way as by a parser that is not namespace aware.
+          Element element = namespace == null ? document.createElement(name) : document.createElementNS(namespace, name);
+          int attributeCount = stream.readInt();
+          for (int i = 0; i < attributeCount; i++) {
+            String attributeNamespace = stream.readString();
+            String attributeName = readNonNullString(stream);
+            String value = readNonNullString(stream);
+            if (attributeNamespace == null) {
+              element.setAttribute(attributeName, value);
+            }
+            else {
+              element.setAttributeNS(attributeNamespace, attributeName, value);
+            }
+          }
+          int childCount = stream.readInt();
+          for (int i = 0; i < childCount; i++) {
+            element.appendChild(readNode(stream, document));
+          }
+          return element;
+
+        case Node.TEXT_NODE:
+          return document.createTextNode(readNonNullString(stream));
+
+        case Node.CDATA_SECTION_NODE:
+          return document.createCDATASection(readNonNullString(stream));
+
+        case Node.COMMENT_NODE:
+          return document.createComment(readNonNullString(stream));
+
+        default:
+          throw StreamFormatException.invalidFormat();
+      }
+    }
+    catch (DOMException e) {
+      throw new StreamFormatException(e.getMessage());
+    }
+  }
+
+  @NotNull
+  private static Document createDocument() throws IOException {
+    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+    factory.setNamespaceAware(true);
+    try {
+      return factory.newDocumentBuilder().newDocument();
+    }
+    catch (ParserConfigurationException e) {
+      throw new IOException(e);
+    }
+  }
+
+  @NotNull
+  private static String readNonNullString(@NotNull Base128InputStream stream) throws IOException {
+    String str = stream.readString();
+    if (str == null) {
+      throw StreamFormatException.invalidFormat();
+    }
+    return str;
+  }
+
+  private static void skipFully(@NotNull Base128InputStream stream, long n) throws IOException {
+    while (n > 0) {
+      long skipped = stream.skip(n);
+      if (skipped <= 0) {
+        throw StreamFormatException.prematureEndOfFile();
+      }
+      n -= skipped;
+    }
+  }
+
+  private static void deleteIgnoringErrors(@NotNull Path file) {
+    try {
+      Files.deleteIfExists(file);
+    }
+    catch (IOException ignored) {
+    }
+  }
+
+  private static final class FileEntry {
+    @NotNull final String myRelativePath;
+    final long myTimestamp;
+    final long myLength;
+    final long myHash;
+    @NotNull final byte[] myItems;
+
+    FileEntry(@NotNull String relativePath, long timestamp, long length, long hash, @NotNull byte[] items) {
+      myRelativePath = relativePath;
+      myTimestamp = timestamp;
+      myLength = length;
+      myHash = hash;
+      myItems = items;
+    }
+  }
+
+  /**
+   * An input stream reading from a memory-mapped file.
+   */
+  private static final class ByteBufferInputStream extends InputStream {
+    @NotNull private final ByteBuffer myBuffer;
+
+    ByteBufferInputStream(@NotNull ByteBuffer buffer) {
+      myBuffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return myBuffer.hasRemaining() ? myBuffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(@NotNull byte[] bytes, int offset, int length) {
+      if (!myBuffer.hasRemaining()) {
+        return -1;
+      }
+      int n = Math.min(length, myBuffer.remaining());
+      myBuffer.get(bytes, offset, n);
+      return n;
+    }
+
+    @Override
+    public long skip(long n) {
+      int skipped = (int)Math.max(0, Math.min(n, myBuffer.remaining()));
+      myBuffer.position(myBuffer.position() + skipped);
+      return skipped;
+    }
+
+    @Override
+    public int available() {
+      return myBuffer.remaining();
+    }
+  }
+}
@@ -58,6 +58,7 @@ private fun createRenderTask(facet: AndroidFacet,
     .withMaxRenderSize(MAX_RENDER_WIDTH, MAX_RENDER_HEIGHT)
     .disableDecorations()
     .disableShadow()
+    .withPriority(RenderService.RenderingPriority.LOW)
     .build()
 }
 
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.rendering;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.android.tools.idea.rendering.RenderService.RenderingPriority;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+
+public class RenderExecutorTest {
+  private RenderExecutor myExecutor;
+
+  @After
+  public void tearDown() throws InterruptedException {
+    myExecutor.shutdownNow();
+    myExecutor.awaitTermination(5, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void testHighPriorityActionsRunFirst() throws Exception {
+    myExecutor = new RenderExecutor(Executors.defaultThreadFactory(), true);
+    CountDownLatch latch = blockRenderThread();
+    List<String> executed = Collections.synchronizedList(new ArrayList<>());
+
+    CompletableFuture<String> low1 = myExecutor.submit(() -> record(executed, "low1"), RenderingPriority.LOW);
+    CompletableFuture<String> high = myExecutor.submit(() -> record(executed, "high"), RenderingPriority.HIGH);
+    CompletableFuture<String> low2 = myExecutor.submit(() -> record(executed, "low2"), RenderingPriority.LOW);
+    assertEquals(3, myExecutor.queueSize());
+
+    latch.countDown();
+    CompletableFuture.allOf(low1, high, low2).get();
+    assertEquals(Arrays.asList("high", "low1", "low2"), executed);
+    assertEquals(4, myExecutor.executedActionCount());
+  }
+
+  @Test
+  public void testActionsRunInOrderWithoutPriorities() throws Exception {
+    myExecutor = new RenderExecutor(Executors.defaultThreadFactory(), false);
+    CountDownLatch latch = blockRenderThread();
+    List<String> executed = Collections.synchronizedList(new ArrayList<>());
+
+    CompletableFuture<String> low = myExecutor.submit(() -> record(executed, "low"), RenderingPriority.LOW, "key");
+    CompletableFuture<String> high = myExecutor.submit(() -> record(executed, "high"), RenderingPriority.HIGH, "key");
+
+    latch.countDown();
+    CompletableFuture.allOf(low, high).get();
+    assertEquals(Arrays.asList("low", "high"), executed);
+  }
+
+  @Test
+  public void testPendingActionsAreCoalesced() throws Exception {
+    myExecutor = new RenderExecutor(Executors.defaultThreadFactory(), true);
+    CountDownLatch latch = blockRenderThread();
+    List<String> executed = Collections.synchronizedList(new ArrayList<>());
+
+    CompletableFuture<String> first = myExecutor.submit(() -> record(executed, "first"), RenderingPriority.LOW, "key");
+    CompletableFuture<String> duplicate = myExecutor.submit(() -> record(executed, "duplicate"), RenderingPriority.LOW, "key");
+    assertSame(first, duplicate);
+    // A higher priority action replaces the pending one, and completes its future.
+    CompletableFuture<String> upgraded = myExecutor.submit(() -> record(executed, "upgraded"), RenderingPriority.HIGH, "key");
+    assertSame(first, upgraded);
+    assertEquals(1, myExecutor.queueSize());
+
+    latch.countDown();
+    assertEquals("upgraded", first.get());
+    assertEquals(Collections.singletonList("upgraded"), executed);
+
+    // Once the action has run, a new one is queued.
+    assertEquals("second", myExecutor.submit(() -> record(executed, "second"), RenderingPriority.LOW, "key").get());
+  }
+
+  @Test
+  public void testExceptionsCompleteTheFuture() throws InterruptedException {
+    myExecutor = new RenderExecutor(Executors.defaultThreadFactory(), true);
+    CompletableFuture<Object> future = myExecutor.submit(() -> {
+      throw new IllegalStateException("failed");
+    }, RenderingPriority.HIGH);
+    try {
+      future.get();
+    }
+    catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof IllegalStateException);
+      return;
+    }
+    throw new AssertionError("The future should have failed");
+  }
+
+  /**
+   * Keeps the render thread busy until the returned latch is counted down, so the actions submitted in the meantime are queued.
+   */
+  private CountDownLatch blockRenderThread() throws InterruptedException {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch latch = new CountDownLatch(1);
+    myExecutor.submit(() -> {
+      started.countDown();
+      latch.await();
+      return null;
+    }, RenderingPriority.HIGH);
+    started.await();
+    return latch;
+  }
+
+  private static String record(List<String> executed, String name) {
+    executed.add(name);
+    return name;
+  }
+}
@@ -15,6 +15,7 @@
  */
 package com.android.tools.idea.rendering;
 
+import static com.android.SdkConstants.ANDROID_URI;
 import static com.android.ide.common.rendering.api.ResourceNamespace.RES_AUTO;
 import static com.android.tools.adtui.imagediff.ImageDiffUtil.DEFAULT_IMAGE_DIFF_THRESHOLD_PERCENT;
 import static org.junit.Assert.assertNotEquals;
@@ -34,7 +35,10 @@ import com.android.tools.analytics.crash.CrashReporter;
 import com.android.tools.idea.configurations.Configuration;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.intellij.openapi.command.WriteCommandAction;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.xml.XmlFile;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
@@ -193,6 +197,58 @@ public class RenderTaskTest extends AndroidTestCase {
     task.dispose().get(5, TimeUnit.SECONDS);
   }
 
+  public void testRenderResultCache() throws Exception {
+    PsiFile psiFile = myFixture.addFileToProject("res/layout/layout.xml", SIMPLE_LAYOUT);
+    Configuration configuration = RenderTestUtil.getConfiguration(myModule, psiFile.getVirtualFile());
+    RenderResultCache cache = RenderService.getInstance(getProject()).getRenderResultCache();
+    long hitCount = cache.getHitCount();
+
+    RenderTask task = createCachedRenderTask(psiFile, configuration);
+    RenderResult result = Futures.getUnchecked(task.render());
+    checkSimpleLayoutResult(result);
+    BufferedImage image = result.getRenderedImage().getCopy();
+    task.dispose().get(5, TimeUnit.SECONDS);
+
+    // A new task for the same file and configuration gets a copy of the previous result without inflating the layout
+    task = createCachedRenderTask(psiFile, configuration);
+    RenderResult cachedResult = Futures.getUnchecked(task.inflate());
+    assertEquals(hitCount + 1, cache.getHitCount());
+    checkSimpleLayoutResult(cachedResult);
+    assertSame(task, cachedResult.getRenderTask());
+    assertSame(task.getLogger(), cachedResult.getLogger());
+    ImageDiffUtil.assertImageSimilar("cached", image, cachedResult.getRenderedImage().getCopy(), 0.0);
+    // The cached views don't reference the views of the disposed session
+    assertNull(cachedResult.getRootViews().get(0).getViewObject());
+    assertNull(cachedResult.getRootViews().get(0).getChildren().get(0).getLayoutParamsObject());
+    // The session the cached views are laid out and updated with is inflated in the background
+    assertTrue(Futures.getUnchecked(task.updateSessionViews(views -> !views.isEmpty())));
+    checkSimpleLayoutResult(task.layout());
+    RenderResult cachedResultWithSession = Futures.getUnchecked(task.render());
+    assertEquals(hitCount + 2, cache.getHitCount());
+    checkSimpleLayoutResult(cachedResultWithSession);
+    // Once the task has a session, the views come from it
+    assertNotNull(cachedResultWithSession.getRootViews().get(0).getViewObject());
+
+    // Editing the layout renders it again
+    WriteCommandAction.runWriteCommandAction(
+      getProject(), () -> ((XmlFile)psiFile).getRootTag().setAttribute("orientation", ANDROID_URI, "horizontal"));
+    checkSimpleLayoutResult(task.render());
+    assertEquals(hitCount + 2, cache.getHitCount());
+    task.dispose().get(5, TimeUnit.SECONDS);
+  }
+
+  @NotNull
+  private RenderTask createCachedRenderTask(@NotNull PsiFile psiFile, @NotNull Configuration configuration) {
+    RenderTask task = RenderService.getInstance(getProject()).taskBuilder(myFacet, configuration)
+      .withPsiFile(psiFile)
+      .withLogger(mock(RenderLogger.class))
+      .disableSecurityManager()
+      .enableResultCache()
+      .buildSynchronously();
+    assertNotNull(task);
+    return task;
+  }
+
   public void testAsyncCallAndDispose()
     throws IOException, ExecutionException, InterruptedException, BrokenBarrierException, TimeoutException {
     VirtualFile layoutFile = myFixture.addFileToProject("res/layout/foo.xml", "").getVirtualFile();
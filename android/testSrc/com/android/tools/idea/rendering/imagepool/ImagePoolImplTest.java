@@ -153,6 +153,72 @@ public class ImagePoolImplTest {
     gc();
   }
 
+  @Test
+  public void testByteBudget() {
+    // 50x50 images are allocated in the 500x500 bucket, so the budget fits two free images
+    long imageBytes = 500 * 500 * 4;
+    ImagePoolImpl pool = new ImagePoolImpl(new int[]{50, 500, 1000, 1500, 2000, 5000}, (w, h) -> (type) -> {
+      if (w * h < 1000) {
+        return 0;
+      }
+
+      return 50_000_000 / (w * h);
+    }, imageBytes * 2 + 1);
+    try {
+      ImagePoolImpl.ImageImpl image1 = pool.create(50, 50, BufferedImage.TYPE_INT_ARGB, null);
+      ImagePoolImpl.ImageImpl image2 = pool.create(50, 50, BufferedImage.TYPE_INT_ARGB, null);
+      ImagePoolImpl.ImageImpl image3 = pool.create(50, 50, BufferedImage.TYPE_INT_ARGB, null);
+      BufferedImage buffer2 = image2.myBuffer;
+      BufferedImage buffer3 = image3.myBuffer;
+      ImagePool.Stats stats = pool.getStats();
+      assertEquals(3, stats.allocationCount());
+      assertEquals(imageBytes * 3, stats.totalBytesInUse());
+
+      // The least recently freed image does not fit in the budget
+      image1.dispose();
+      image2.dispose();
+      image3.dispose();
+      assertEquals(1, stats.evictionCount());
+      assertEquals(imageBytes * 2, stats.totalBytesAllocated());
+      assertEquals(0, stats.totalBytesInUse());
+
+      assertEquals(buffer2, pool.create(50, 50, BufferedImage.TYPE_INT_ARGB, null).myBuffer);
+      assertEquals(buffer3, pool.create(50, 50, BufferedImage.TYPE_INT_ARGB, null).myBuffer);
+      assertEquals(2, stats.reuseCount());
+      pool.create(50, 50, BufferedImage.TYPE_INT_ARGB, null);
+      assertEquals(4, stats.allocationCount());
+    }
+    finally {
+      pool.dispose();
+    }
+  }
+
+  @Test
+  public void testByteBudgetSkipsUnpooledImages() {
+    ImagePoolImpl pool = new ImagePoolImpl(new int[]{50, 500, 1000, 1500, 2000, 5000}, (w, h) -> (type) -> {
+      if (w * h < 1000) {
+        return 0;
+      }
+
+      return 50_000_000 / (w * h);
+    }, 500 * 500 * 4 * 2);
+    try {
+      // Images in a bucket without capacity are released instead of taking a part of the budget
+      ImagePoolImpl.ImageImpl image = pool.create(10, 10, BufferedImage.TYPE_INT_ARGB, null);
+      BufferedImage buffer = image.myBuffer;
+      ImagePool.Stats stats = pool.getStats();
+      image.dispose();
+      assertEquals(0, stats.totalBytesAllocated());
+
+      assertNotEquals(buffer, pool.create(10, 10, BufferedImage.TYPE_INT_ARGB, null).myBuffer);
+      assertEquals(0, stats.reuseCount());
+      assertEquals(2, stats.allocationCount());
+    }
+    finally {
+      pool.dispose();
+    }
+  }
+
   @Test
   public void testDefaultPooling() throws InterruptedException {
     // Small images won't be pooled
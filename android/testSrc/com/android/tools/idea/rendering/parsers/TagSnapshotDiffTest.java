@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.rendering.parsers;
+
+import static com.android.SdkConstants.*;
+import static com.android.tools.idea.rendering.parsers.XmlTagMockBuilder.newBuilder;
+
+import com.intellij.psi.xml.XmlTag;
+import java.util.Collections;
+import java.util.List;
+import junit.framework.TestCase;
+
+public class TagSnapshotDiffTest extends TestCase {
+  private XmlTag myLayout;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myLayout = newBuilder("LinearLayout")
+      .setAttribute(ATTR_ORIENTATION, VALUE_VERTICAL)
+      .addChild(
+        newBuilder("Button")
+          .setAttribute(ATTR_LAYOUT_WIDTH, VALUE_WRAP_CONTENT)
+          .setAttribute(ATTR_LAYOUT_HEIGHT, VALUE_WRAP_CONTENT))
+      .build();
+  }
+
+  public void testNoChanges() {
+    List<TagSnapshotDiff.AttributeChange> changes =
+      TagSnapshotDiff.diff(TagSnapshot.createTagSnapshot(myLayout, null), TagSnapshot.createTagSnapshot(myLayout, null));
+    assertNotNull(changes);
+    assertTrue(changes.isEmpty());
+  }
+
+  public void testAttributeChanges() {
+    TagSnapshot before = TagSnapshot.createTagSnapshot(myLayout, null);
+    TagSnapshot after = TagSnapshot.createTagSnapshot(myLayout, null);
+    TagSnapshot button = after.children.get(0);
+    button.setAttribute(ATTR_LAYOUT_WIDTH, ANDROID_URI, ANDROID_NS_NAME, VALUE_MATCH_PARENT);
+    button.setAttribute(ATTR_LAYOUT_HEIGHT, ANDROID_URI, ANDROID_NS_NAME, null);
+    button.setAttribute(ATTR_LAYOUT_WEIGHT, ANDROID_URI, ANDROID_NS_NAME, "1");
+
+    List<TagSnapshotDiff.AttributeChange> changes = TagSnapshotDiff.diff(before, after);
+    assertNotNull(changes);
+    assertEquals(3, changes.size());
+    for (TagSnapshotDiff.AttributeChange change : changes) {
+      assertSame(button.tag, change.tag);
+      assertEquals(ANDROID_URI, change.namespace);
+    }
+    assertEquals("[AttributeChange{layout_width: \"wrap_content\" -> \"match_parent\"}, " +
+                 "AttributeChange{layout_weight: \"null\" -> \"1\"}, " +
+                 "AttributeChange{layout_height: \"wrap_content\" -> \"null\"}]",
+                 changes.toString());
+  }
+
+  public void testStructureChanges() {
+    TagSnapshot before = TagSnapshot.createTagSnapshot(myLayout, null);
+
+    TagSnapshot after = TagSnapshot.createTagSnapshot(myLayout, null);
+    after.children = Collections.emptyList();
+    assertNull(TagSnapshotDiff.diff(before, after));
+
+    XmlTag otherLayout = newBuilder("LinearLayout")
+      .setAttribute(ATTR_ORIENTATION, VALUE_VERTICAL)
+      .addChild(
+        newBuilder("Button")
+          .setAttribute(ATTR_LAYOUT_WIDTH, VALUE_WRAP_CONTENT)
+          .setAttribute(ATTR_LAYOUT_HEIGHT, VALUE_WRAP_CONTENT))
+      .build();
+    // Same contents, but a different tag.
+    assertNull(TagSnapshotDiff.diff(before, TagSnapshot.createTagSnapshot(otherLayout, null)));
+  }
+
+  public void testAaptAttrsInChildren() {
+    TagSnapshot before = TagSnapshot.createTagSnapshot(myLayout, null);
+    TagSnapshot after = TagSnapshot.createTagSnapshot(myLayout, null);
+    // Only the child is marked, as when its snapshot is replaced without snapshotting the whole tree again.
+    after.children.get(0).hasDeclaredAaptAttrs = true;
+    assertFalse(after.hasDeclaredAaptAttrs);
+    assertNull(TagSnapshotDiff.diff(before, after));
+    assertNull(TagSnapshotDiff.diff(after, before));
+  }
+}
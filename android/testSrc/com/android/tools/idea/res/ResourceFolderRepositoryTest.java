@@ -43,6 +43,7 @@ import com.android.resources.ResourceFolderType;
 import com.android.resources.ResourceType;
 import com.android.tools.idea.configurations.Configuration;
 import com.android.tools.idea.configurations.ConfigurationManager;
+import com.android.tools.idea.flags.StudioFlags;
 import com.android.tools.idea.npw.assetstudio.DrawableRenderer;
 import com.google.common.collect.Collections2;
 import com.intellij.openapi.Disposable;
@@ -3853,6 +3854,35 @@ public class ResourceFolderRepositoryTest extends AndroidTestCase {
     assertTrue(fromBlob.hasResources(RES_AUTO, ResourceType.STRING, "hello_there"));
   }
 
+  public void testSerializationTouchXmlFileAndLoad() {
+    StudioFlags.RESOURCE_FOLDER_BINARY_CACHE.override(true);
+    try {
+      VirtualFile file1 = myFixture.copyFileToProject(STRINGS, "res/values/strings.xml");
+      File file1AsFile = VfsUtilCore.virtualToIoFile(file1);
+      myFixture.copyFileToProject(LAYOUT1, "res/layout/layout.xml");
+      ResourceFolderRepository resources = createRepository();
+      assertNotNull(resources);
+      resources.saveStateToFile();
+      myRegistry.reset();
+
+      // A file with a new timestamp but the same contents, e.g. after a VCS checkout, is still loaded from the binary cache.
+      if (!file1AsFile.setLastModified(file1AsFile.lastModified() + 2000)) {
+        // Not supported on this platform?
+        return;
+      }
+
+      ResourceFolderRepository fromBlob = createRepository();
+      assertNotNull(fromBlob);
+      assertTrue(fromBlob.hasFreshFileCache());
+      assertEquals(2, fromBlob.myInitialScanState.numXml);
+      assertEquals(0, fromBlob.myInitialScanState.numXmlReparsed);
+      assertTrue(fromBlob.equalFilesItems(resources));
+    }
+    finally {
+      StudioFlags.RESOURCE_FOLDER_BINARY_CACHE.clearOverride();
+    }
+  }
+
   public void testSerializationAddXmlFileAndLoad() {
     myFixture.copyFileToProject(STRINGS, "res/values/strings.xml");
     ResourceFolderRepository resources = createRepository();
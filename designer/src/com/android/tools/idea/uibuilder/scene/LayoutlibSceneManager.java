@@ -15,11 +15,15 @@
  */
 package com.android.tools.idea.uibuilder.scene;
 
+import static com.android.SdkConstants.ANDROID_URI;
+import static com.android.SdkConstants.ATTR_LAYOUT_RESOURCE_PREFIX;
 import static com.android.SdkConstants.ATTR_SHOW_IN;
+import static com.android.SdkConstants.AUTO_URI;
 import static com.android.SdkConstants.TOOLS_URI;
 import static com.intellij.util.ui.update.Update.HIGH_PRIORITY;
 import static com.intellij.util.ui.update.Update.LOW_PRIORITY;
 
+import android.view.View;
 import com.android.ide.common.rendering.api.ResourceReference;
 import com.android.ide.common.rendering.api.ResourceValue;
 import com.android.ide.common.rendering.api.ViewInfo;
@@ -44,6 +48,7 @@ import com.android.tools.idea.common.type.DesignerEditorFileType;
 import com.android.tools.idea.concurrent.EdtExecutor;
 import com.android.tools.idea.configurations.Configuration;
 import com.android.tools.idea.configurations.ConfigurationListener;
+import com.android.tools.idea.flags.StudioFlags;
 import com.android.tools.idea.rendering.Locale;
 import com.android.tools.idea.rendering.RenderResult;
 import com.android.tools.idea.rendering.RenderService;
@@ -51,6 +56,7 @@ import com.android.tools.idea.rendering.RenderSettings;
 import com.android.tools.idea.rendering.RenderTask;
 import com.android.tools.idea.rendering.parsers.LayoutPullParsers;
 import com.android.tools.idea.rendering.parsers.TagSnapshot;
+import com.android.tools.idea.rendering.parsers.TagSnapshotDiff;
 import com.android.tools.idea.res.ResourceNotificationManager;
 import com.android.tools.idea.uibuilder.analytics.NlUsageTracker;
 import com.android.tools.idea.uibuilder.api.ViewEditor;
@@ -58,6 +64,7 @@ import com.android.tools.idea.uibuilder.api.ViewHandler;
 import com.android.tools.idea.uibuilder.handlers.ViewEditorImpl;
 import com.android.tools.idea.uibuilder.handlers.constraint.targets.ConstraintDragDndTarget;
 import com.android.tools.idea.uibuilder.menu.NavigationViewSceneView;
+import com.android.tools.idea.uibuilder.model.LayoutParamsManager;
 import com.android.tools.idea.uibuilder.model.NlComponentHelperKt;
 import com.android.tools.idea.uibuilder.scene.decorator.NlSceneDecoratorFactory;
 import com.android.tools.idea.uibuilder.surface.NlDesignSurface;
@@ -70,7 +77,9 @@ import com.google.common.collect.ImmutableList;
 import com.google.wireless.android.sdk.stats.LayoutEditorEvent;
 import com.google.wireless.android.sdk.stats.LayoutEditorRenderResult;
 import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ReadAction;
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.module.Module;
 import com.intellij.openapi.progress.util.ProgressIndicatorBase;
 import com.intellij.openapi.project.DumbService;
 import com.intellij.openapi.project.Project;
@@ -85,11 +94,15 @@ import com.intellij.util.ui.update.MergingUpdateQueue;
 import com.intellij.util.ui.update.Update;
 import java.awt.Rectangle;
 import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
@@ -135,6 +148,18 @@ public class LayoutlibSceneManager extends SceneManager {
   // since RenderTask is able to handle those safely.
   private final Object myRenderingTaskLock = new Object();
   private ResourceNotificationManager.ResourceVersion myRenderedVersion;
+  // Snapshot of the layout as it was when myRenderTask was inflated, or last updated by applyLayoutAttributeChanges, and whether all
+  // the model changes since then were edits that can be applied to the inflated views without inflating the layout again.
+  private final Object myInflatedSnapshotLock = new Object();
+  @GuardedBy("myInflatedSnapshotLock")
+  @Nullable private TagSnapshot myInflatedSnapshot;
+  @GuardedBy("myInflatedSnapshotLock")
+  private boolean myCanApplyChangesToInflatedViews;
+  /**
+   * Model changes that can be applied to the views of the current render session, as long as they only change layout params.
+   */
+  private static final Set<NlModel.ChangeType> INCREMENTAL_CHANGE_TYPES =
+    EnumSet.of(NlModel.ChangeType.EDIT, NlModel.ChangeType.RESIZE_END, NlModel.ChangeType.RESIZE_COMMIT);
   // Protects all read/write accesses to the myRenderResult reference
   private final ReentrantReadWriteLock myRenderResultLock = new ReentrantReadWriteLock();
   @GuardedBy("myRenderResultLock")
@@ -427,6 +452,9 @@ public class LayoutlibSceneManager extends SceneManager {
 
     @Override
     public void modelChanged(@NotNull NlModel model) {
+      if (!INCREMENTAL_CHANGE_TYPES.contains(model.getLastChangeType())) {
+        disableIncrementalUpdate();
+      }
       requestModelUpdate();
       ApplicationManager.getApplication().invokeLater(() -> {
         if (!Disposer.isDisposed(LayoutlibSceneManager.this)) {
@@ -454,6 +482,7 @@ public class LayoutlibSceneManager extends SceneManager {
       ResourceNotificationManager.ResourceVersion version =
         manager.getCurrentVersion(getModel().getFacet(), getModel().getFile(), getModel().getConfiguration());
       if (!version.equals(myRenderedVersion)) {
+        disableIncrementalUpdate();
         requestModelUpdate();
         model.updateTheme();
       }
@@ -784,6 +813,13 @@ public class LayoutlibSceneManager extends SceneManager {
     AndroidFacet facet = getModel().getFacet();
     myRenderedVersion = resourceNotificationManager.getCurrentVersion(facet, getModel().getFile(), configuration);
 
+    // Taken before the layout is parsed, so any edit made in between is applied again by the next applyLayoutAttributeChanges
+    TagSnapshot inflatedSnapshot = StudioFlags.NELE_INCREMENTAL_LAYOUT_UPDATE.get() ? createRootTagSnapshot() : null;
+    synchronized (myInflatedSnapshotLock) {
+      myInflatedSnapshot = null;
+      myCanApplyChangesToInflatedViews = true;
+    }
+
     RenderService renderService = RenderService.getInstance(getModel().getProject());
     RenderService.RenderTaskBuilder renderTaskBuilder = renderService.taskBuilder(facet, configuration)
       .withPsiFile(getModel().getFile());
@@ -808,6 +844,9 @@ public class LayoutlibSceneManager extends SceneManager {
                 }
                 myRenderTask = newTask;
               }
+              synchronized (myInflatedSnapshotLock) {
+                myInflatedSnapshot = inflatedSnapshot;
+              }
             }
           })
             .thenApply(result -> result != null ? result : RenderResult.createBlank(getModel().getFile()))
@@ -864,19 +903,163 @@ public class LayoutlibSceneManager extends SceneManager {
       taskBuilder.disableDecorations();
     }
 
+    if (StudioFlags.NELE_RENDER_RESULT_CACHE.get()) {
+      taskBuilder.enableResultCache();
+    }
+
     return taskBuilder;
   }
 
   /**
-   * Asynchronously update the model. This will inflate the layout and notify the listeners using
-   * {@link ModelListener#modelDerivedDataChanged(NlModel)}.
+   * Asynchronously update the model. This will inflate the layout, or only apply the edited layout params to the inflated views when
+   * that is all that changed, and notify the listeners using {@link ModelListener#modelDerivedDataChanged(NlModel)}.
    */
   protected CompletableFuture<Void> updateModel() {
-    return inflate(true)
+    CompletableFuture<Boolean> applied = applyLayoutAttributeChanges();
+    CompletableFuture<Boolean> updated = applied == null
+                                         ? inflate(true)
+                                         : applied.thenComposeAsync(
+                                           success -> success ? CompletableFuture.completedFuture(true) : inflate(true),
+                                           PooledThreadExecutor.INSTANCE);
+    return updated
       .whenCompleteAsync((result, exception) -> notifyListenersModelUpdateComplete(), PooledThreadExecutor.INSTANCE)
       .thenApply(result -> null);
   }
 
+  private void disableIncrementalUpdate() {
+    synchronized (myInflatedSnapshotLock) {
+      myCanApplyChangesToInflatedViews = false;
+    }
+  }
+
+  @Nullable
+  private TagSnapshot createRootTagSnapshot() {
+    return ReadAction.compute(() -> {
+      XmlTag rootTag = getModel().getFile().getRootTag();
+      return rootTag != null && rootTag.isValid() ? TagSnapshot.createTagSnapshot(rootTag, null) : null;
+    });
+  }
+
+  /**
+   * Applies the layout params attributes edited since the layout was inflated to the views of the current render session, so that the
+   * next render lays out the existing views again instead of inflating the whole layout.
+   *
+   * @return null if the changes can not be applied this way and the layout has to be inflated, or a future that completes with false
+   * if applying them to the views failed
+   */
+  @Nullable
+  private CompletableFuture<Boolean> applyLayoutAttributeChanges() {
+    if (!StudioFlags.NELE_INCREMENTAL_LAYOUT_UPDATE.get()) {
+      return null;
+    }
+
+    TagSnapshot inflatedSnapshot;
+    synchronized (myInflatedSnapshotLock) {
+      inflatedSnapshot = myCanApplyChangesToInflatedViews ? myInflatedSnapshot : null;
+    }
+    RenderTask renderTask;
+    synchronized (myRenderingTaskLock) {
+      renderTask = myRenderTask;
+    }
+    if (inflatedSnapshot == null || renderTask == null) {
+      return null;
+    }
+
+    TagSnapshot snapshot = createRootTagSnapshot();
+    List<TagSnapshotDiff.AttributeChange> changes = snapshot != null ? TagSnapshotDiff.diff(inflatedSnapshot, snapshot) : null;
+    if (changes == null ||
+        changes.isEmpty() ||
+        !ReadAction.compute(() -> changes.stream().allMatch(LayoutlibSceneManager::isLayoutParamsChange))) {
+      return null;
+    }
+
+    Module module = getModel().getModule();
+    Configuration configuration = getModel().getConfiguration();
+    return renderTask.updateSessionViews(rootViews -> applyLayoutParamsChanges(rootViews, changes, module, configuration))
+      .handle((applied, exception) -> {
+        if (exception != null) {
+          Logger.getInstance(LayoutlibSceneManager.class).warn("Unable to apply layout changes, inflating the layout", exception);
+          return false;
+        }
+        if (applied) {
+          synchronized (myInflatedSnapshotLock) {
+            if (myInflatedSnapshot == inflatedSnapshot) {
+              myInflatedSnapshot = snapshot;
+            }
+          }
+        }
+        return applied;
+      });
+  }
+
+  /**
+   * Returns whether the given change only affects the layout params of the view of its tag. Needs read access.
+   */
+  private static boolean isLayoutParamsChange(@NotNull TagSnapshotDiff.AttributeChange change) {
+    // Removed attributes might have been given a value by the layout parser, so they are not reset to the layout params defaults.
+    // Design time attributes override the attribute being edited.
+    return change.newValue != null &&
+           (ANDROID_URI.equals(change.namespace) || AUTO_URI.equals(change.namespace)) &&
+           change.name.startsWith(ATTR_LAYOUT_RESOURCE_PREFIX) &&
+           change.tag.isValid() &&
+           change.tag.getAttribute(change.name, TOOLS_URI) == null;
+  }
+
+  /**
+   * Sets the changed attributes in the layout params of the views they belong to, and requests a layout of those views. Runs on the
+   * render thread.
+   *
+   * @return false if any of the attributes could not be set. The views might then be partially updated, and the layout needs to be
+   * inflated again.
+   */
+  private static boolean applyLayoutParamsChanges(@NotNull List<ViewInfo> rootViews,
+                                                  @NotNull List<TagSnapshotDiff.AttributeChange> changes,
+                                                  @NotNull Module module,
+                                                  @NotNull Configuration configuration) {
+    Map<XmlTag, ViewInfo> views = new HashMap<>();
+    Set<XmlTag> tagsWithSeveralViews = new HashSet<>();
+    collectViews(rootViews, views, tagsWithSeveralViews);
+    for (TagSnapshotDiff.AttributeChange change : changes) {
+      ViewInfo view = views.get(change.tag);
+      if (view == null ||
+          tagsWithSeveralViews.contains(change.tag) ||
+          !(view.getViewObject() instanceof View) ||
+          view.getLayoutParamsObject() == null) {
+        return false;
+      }
+    }
+
+    Set<View> changedViews = new LinkedHashSet<>();
+    for (TagSnapshotDiff.AttributeChange change : changes) {
+      ViewInfo view = views.get(change.tag);
+      String attributeName = StringUtil.trimStart(change.name, ATTR_LAYOUT_RESOURCE_PREFIX);
+      if (!LayoutParamsManager.setAttribute(view.getLayoutParamsObject(), attributeName, change.newValue, module, configuration)) {
+        return false;
+      }
+      // Keep the snapshot the view was inflated from, and that the properties read, in sync with the view.
+      if (view.getCookie() instanceof TagSnapshot) {
+        ((TagSnapshot)view.getCookie()).setAttribute(change.name, change.namespace, change.prefix, change.newValue);
+      }
+      changedViews.add((View)view.getViewObject());
+    }
+    for (View view : changedViews) {
+      view.setLayoutParams(view.getLayoutParams());
+    }
+    return true;
+  }
+
+  private static void collectViews(@NotNull List<ViewInfo> views,
+                                   @NotNull Map<XmlTag, ViewInfo> viewsByTag,
+                                   @NotNull Set<XmlTag> tagsWithSeveralViews) {
+    for (ViewInfo view : views) {
+      XmlTag tag = RenderService.getXmlTag(view);
+      if (tag != null && viewsByTag.put(tag, view) != null) {
+        tagsWithSeveralViews.add(tag);
+      }
+      collectViews(view.getChildren(), viewsByTag, tagsWithSeveralViews);
+    }
+  }
+
   protected void notifyListenersModelLayoutComplete(boolean animate) {
     getModel().notifyListenersModelLayoutComplete(animate);
   }
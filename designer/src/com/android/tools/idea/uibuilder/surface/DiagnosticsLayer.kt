@@ -64,6 +64,7 @@ class DiagnosticsLayer(val surface: DesignSurface) : Layer() {
     val freeMemPct = runtime.freeMemory().toDouble() / runtime.totalMemory() * 100
     val lastRenderMs = diagnostics.lastRenders().takeLast(1).firstOrNull() ?: -1
     val poolStats = RenderService.getInstance(surface.project).sharedImagePool.stats
+    val queueStats = RenderService.getRenderQueueStats()
 
     return """
       |General
@@ -75,6 +76,14 @@ class DiagnosticsLayer(val surface: DesignSurface) : Layer() {
       | Allocated     ${(poolStats?.totalBytesAllocated() ?: -1) / MB}MB
       | In use        ${(poolStats?.totalBytesInUse() ?: -1)  / MB}MB
       | Free          ${((poolStats?.totalBytesAllocated() ?: -1) - (poolStats?.totalBytesInUse() ?: 0)) / MB}MB
+      | Allocations   ${poolStats?.allocationCount() ?: -1}
+      | Reuses        ${poolStats?.reuseCount() ?: -1}
+      | Evictions     ${poolStats?.evictionCount() ?: -1}
+      |
+      |Render queue
+      | Waiting       ${queueStats.queueSize()}
+      | Avg wait      ${queueStats.averageQueueTimeMs()}ms
+      | Max wait      ${queueStats.maxQueueTimeMs()}ms
     """.trimMargin()
   }
 
@@ -16,11 +16,18 @@
 package com.android.tools.idea.uibuilder.scene
 
 import com.android.SdkConstants
+import com.android.tools.idea.common.SyncNlModel
 import com.android.tools.idea.common.fixtures.ModelBuilder
+import com.android.tools.idea.common.model.NlModel
 import com.android.tools.idea.common.type.DesignerTypeRegistrar
+import com.android.tools.idea.flags.StudioFlags
+import com.android.tools.idea.rendering.RenderTask
+import com.android.tools.idea.uibuilder.model.w
 import com.android.tools.idea.uibuilder.surface.NlDesignSurface
 import com.android.tools.idea.uibuilder.surface.SceneMode
 import com.android.tools.idea.uibuilder.type.PreferenceScreenFileType
+import com.intellij.openapi.command.WriteCommandAction
+import com.intellij.openapi.util.Disposer
 import org.mockito.Mockito
 
 class LayoutlibSceneManagerTest: SceneTest() {
@@ -29,6 +36,16 @@ class LayoutlibSceneManagerTest: SceneTest() {
     // we register it manually here in the tests context, but in production it should be handled by NlEditorProvider
     DesignerTypeRegistrar.register(PreferenceScreenFileType)
     super.setUp()
+    StudioFlags.NELE_INCREMENTAL_LAYOUT_UPDATE.override(true)
+  }
+
+  override fun tearDown() {
+    try {
+      StudioFlags.NELE_INCREMENTAL_LAYOUT_UPDATE.clearOverride()
+    }
+    finally {
+      super.tearDown()
+    }
   }
 
   fun testSceneModeWithPreferenceFile() {
@@ -52,6 +69,87 @@ class LayoutlibSceneManagerTest: SceneTest() {
     assertNotNull(sceneManager.secondarySceneView)
   }
 
+  fun testLayoutParamsEditIsAppliedWithoutInflating() {
+    val model = createLinearLayoutModel()
+    val sceneManager = model.surface.sceneManager as LayoutlibSceneManager
+    val renderTask = renderAndGetTask(sceneManager)
+    val button = model.find("button")!!
+    assertEquals(100, button.w)
+
+    editModel(model) { button.tag.setAttribute(SdkConstants.ATTR_LAYOUT_WIDTH, SdkConstants.ANDROID_URI, "200px") }
+    // The views of the existing render task were updated and laid out again
+    assertSame(renderTask, renderAndGetTask(sceneManager))
+    assertEquals(200, button.w)
+    Disposer.dispose(model)
+  }
+
+  fun testOtherEditsInflateTheLayout() {
+    val model = createLinearLayoutModel()
+    val sceneManager = model.surface.sceneManager as LayoutlibSceneManager
+    val button = model.find("button")!!
+    var renderTask = renderAndGetTask(sceneManager)
+
+    // Not a layout param
+    editModel(model) { button.tag.setAttribute(SdkConstants.ATTR_TEXT, SdkConstants.ANDROID_URI, "Other text") }
+    var newRenderTask = renderAndGetTask(sceneManager)
+    assertNotSame(renderTask, newRenderTask)
+    renderTask = newRenderTask
+
+    // A layout param along with another attribute
+    editModel(model) {
+      button.tag.setAttribute(SdkConstants.ATTR_LAYOUT_WIDTH, SdkConstants.ANDROID_URI, "200px")
+      button.tag.setAttribute(SdkConstants.ATTR_TEXT, SdkConstants.ANDROID_URI, "Button")
+    }
+    newRenderTask = renderAndGetTask(sceneManager)
+    assertNotSame(renderTask, newRenderTask)
+    assertEquals(200, button.w)
+    renderTask = newRenderTask
+
+    // Structural edit
+    editModel(model) {
+      val rootTag = model.components[0].tag
+      rootTag.addSubTag(rootTag.createChildTag(SdkConstants.BUTTON, null, null, false), false)
+        .apply {
+          setAttribute(SdkConstants.ATTR_LAYOUT_WIDTH, SdkConstants.ANDROID_URI, "100px")
+          setAttribute(SdkConstants.ATTR_LAYOUT_HEIGHT, SdkConstants.ANDROID_URI, "50px")
+        }
+    }
+    newRenderTask = renderAndGetTask(sceneManager)
+    assertNotSame(renderTask, newRenderTask)
+    assertEquals(2, model.components[0].childCount)
+    Disposer.dispose(model)
+  }
+
+  private fun createLinearLayoutModel(): SyncNlModel {
+    return model("linear.xml",
+                 component(SdkConstants.LINEAR_LAYOUT)
+                   .withBounds(0, 0, 1000, 1000)
+                   .matchParentWidth()
+                   .matchParentHeight()
+                   .withAttribute(SdkConstants.ANDROID_URI, SdkConstants.ATTR_ORIENTATION, SdkConstants.VALUE_VERTICAL)
+                   .children(
+                     component(SdkConstants.BUTTON)
+                       .withBounds(0, 0, 100, 50)
+                       .id("@+id/button")
+                       .width("100px")
+                       .height("50px")
+                       .text("Button")
+                   )
+    ).build()
+  }
+
+  private fun editModel(model: NlModel, edit: () -> Unit) {
+    WriteCommandAction.runWriteCommandAction(project, edit)
+    model.notifyModified(NlModel.ChangeType.EDIT)
+  }
+
+  private fun renderAndGetTask(sceneManager: LayoutlibSceneManager): RenderTask {
+    sceneManager.requestRender().join()
+    val result = sceneManager.renderResult!!
+    assertTrue(result.renderResult.isSuccess)
+    return result.renderTask!!
+  }
+
   override fun createModel(): ModelBuilder {
     return model(SdkConstants.FD_RES_XML, "preference.xml",
                  component(SdkConstants.TAG_PREFERENCE_SCREEN)
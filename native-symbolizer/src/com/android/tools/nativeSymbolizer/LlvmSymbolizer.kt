@@ -15,9 +15,13 @@
  */
 package com.android.tools.nativeSymbolizer
 
+import com.google.common.cache.Cache
+import com.google.common.cache.CacheBuilder
+import com.google.common.util.concurrent.ThreadFactoryBuilder
 import com.intellij.openapi.Disposable
 import java.io.*
 import java.util.concurrent.*
+import java.util.concurrent.atomic.AtomicInteger
 
 /**
  * Implementation of NativeSymbolizer that uses llvm-symbolizer.
@@ -33,65 +37,134 @@ import java.util.concurrent.*
  * TestSimpleMethodCall(_JNIEnv*, _jobject*)
  * /usr/local/google/home/ezemtsov/projects/android-apps/sum/app/src/main/cpp/native-lib.cpp:36:7
  *
+ * Requests are written to a small pool of llvm-symbolizer processes. Each process gets [PIPELINE_DEPTH] requests at a time before
+ * their responses are read back, so a batch doesn't pay a round trip per address. Results are cached by symbol file and offset, and
+ * the cache is kept when the processes are stopped.
+ *
  * More info about llvm-symbolizer: https://llvm.org/docs/CommandGuide/llvm-symbolizer.html
  */
 class LlvmSymbolizer(private val symbolizerExe: String,
                      private val symLocator: SymbolFilesLocator,
-                     private val timeoutMsc: Long = 5000) : NativeSymbolizer {
+                     private val timeoutMsc: Long = 5000,
+                     processCount: Int = DEFAULT_PROCESS_COUNT,
+                     cacheSize: Long = DEFAULT_CACHE_SIZE) : NativeSymbolizer {
+
+  companion object {
+    /**
+     * Number of llvm-symbolizer processes a batch is spread over.
+     */
+    @JvmField
+    val DEFAULT_PROCESS_COUNT = Math.min(4, Runtime.getRuntime().availableProcessors())
 
-  private var procHolder : ProcessHolder? = null
-  private val executor : ExecutorService = Executors.newSingleThreadExecutor()
+    /**
+     * Maximum number of (symbol file, offset) results kept in the cache.
+     */
+    const val DEFAULT_CACHE_SIZE = 200_000L
+
+    /**
+     * Number of requests written to a process before their responses are read. It keeps both pipes well below their buffer size.
+     */
+    const val PIPELINE_DEPTH = 64
+
+    /**
+     * How long the thread talking to an llvm-symbolizer process is kept once there are no more requests for it.
+     */
+    private const val IDLE_THREAD_TIMEOUT_SEC = 60L
+  }
+
+  private val processes = List(Math.max(1, processCount)) { SymbolizerProcess() }
+  private val nextProcess = AtomicInteger()
+  private val cache: Cache<CacheKey, CachedSymbol> = CacheBuilder.newBuilder().maximumSize(cacheSize).build()
 
   override fun symbolize(abiArch: String, module: String, offset: Long): Symbol? {
-    val symFiles = symLocator.findSymbolFiles(abiArch, module)
+    return symbolize(abiArch, listOf(SymbolRequest(module, offset))).first()
+  }
 
-    for (symFile in symFiles) {
-      val request = formatRequest(symFile, offset)
+  override fun symbolize(abiArch: String, requests: List<SymbolRequest>): List<Symbol?> {
+    val results = arrayOfNulls<Symbol>(requests.size)
+    val symFilesByModule = hashMapOf<String, List<SymbolFile>>()
+    for (request in requests) {
+      symFilesByModule.computeIfAbsent(request.module) { module ->
+        symLocator.findSymbolFiles(abiArch, module).map { SymbolFile(it, it.lastModified()) }
+      }
+    }
 
-      val holder = getProcHolder()
-      val future = executor.submit( Callable<List<String>> {
-        holder.stdin.write(request)
-        holder.stdin.flush()
+    // Like a single request, every request tries its symbol files in order until one of them knows the offset.
+    var unresolved = requests.indices.toList()
+    var symFileIndex = 0
+    while (unresolved.isNotEmpty()) {
+      val lookups = mutableMapOf<Int, CacheKey>()
+      for (i in unresolved) {
+        val symFiles = symFilesByModule.getValue(requests[i].module)
+        if (symFileIndex < symFiles.size) {
+          lookups[i] = CacheKey(symFiles[symFileIndex], requests[i].offset)
+        }
+      }
 
-        val response: MutableList<String> = mutableListOf()
-        var responseLine: String?
-        while (true) {
-          responseLine = holder.stdout.readLine()
-          if (responseLine == null || responseLine.isEmpty()) {
-            break
-          }
-          response.add(responseLine)
+      val found = mutableMapOf<CacheKey, CachedSymbol>()
+      val missing = mutableSetOf<CacheKey>()
+      for (key in lookups.values) {
+        val cached = cache.getIfPresent(key)
+        if (cached != null) {
+          found[key] = cached
         }
-        response
-      })
-      val response : List<String>
+        else {
+          missing.add(key)
+        }
+      }
+      found.putAll(resolve(missing.toList()))
+
+      unresolved = lookups.keys.filter { i ->
+        val symbol = found[lookups.getValue(i)]?.symbol
+        results[i] = symbol?.copy(module = requests[i].module)
+        symbol == null
+      }
+      symFileIndex++
+    }
+    return results.asList()
+  }
+
+  /**
+   * Looks up the given keys, spreading them over the processes, and caches the results. Keys whose lookup failed are left out of
+   * the result and aren't cached.
+   */
+  private fun resolve(keys: List<CacheKey>): Map<CacheKey, CachedSymbol> {
+    if (keys.isEmpty()) {
+      return emptyMap()
+    }
+
+    val chunks = keys.chunked(PIPELINE_DEPTH)
+    val submissions = chunks.map { chunk ->
+      val process = processes[Math.floorMod(nextProcess.getAndIncrement(), processes.size)]
+      // Start the process here, so that a missing executable is reported to the caller.
+      process.getProcHolder()
+      Pair(process, process.submit(chunk.map { formatRequest(it.symFile.file, it.offset) }))
+    }
+
+    val result = mutableMapOf<CacheKey, CachedSymbol>()
+    for ((chunk, submission) in chunks.zip(submissions)) {
+      val (process, future) = submission
+      val responses: List<List<String>>
       try {
-        response = future.get(timeoutMsc, TimeUnit.MILLISECONDS)
+        responses = future.get(timeoutMsc, TimeUnit.MILLISECONDS)
       } catch (e: TimeoutException) {
         getLogger().warn("llvm-symbolizer timed out", e)
-        stop()
+        process.stop()
         continue
       } catch (e: ExecutionException) {
         getLogger().warn("llvm-symbolizer communication failed", e)
-        stop()
+        process.stop()
         continue
       }
 
-      val result = parseResponse(response, module)
-      if (result != null)
-        return result
-    }
-
-    return null
-  }
-
-  private fun getProcHolder() : ProcessHolder {
-    var holder = procHolder
-    if (holder == null || !holder.process.isAlive) {
-      start()
-      holder = procHolder!! // procHolder must't be null after start()
+      for ((key, response) in chunk.zip(responses)) {
+        // The module is filled in from each request, as several modules can share a symbol file.
+        val cached = CachedSymbol(parseResponse(response, ""))
+        cache.put(key, cached)
+        result[key] = cached
+      }
     }
-    return holder
+    return result
   }
 
   private fun formatRequest(symFile: File, offset: Long): String {
@@ -126,24 +199,93 @@ class LlvmSymbolizer(private val symbolizerExe: String,
     return Symbol(name, module, sourceFile, lineNumber)
   }
 
-  private fun start() {
-    if (procHolder != null)
-      stop()
+  override fun stop() {
+    processes.forEach { it.stop() }
+  }
+
+  /**
+   * A symbol file and its modification time, so that a rebuilt library doesn't return the symbols of its previous version.
+   */
+  private data class SymbolFile(val file: File, val lastModified: Long)
 
-    val builder = ProcessBuilder(symbolizerExe)
-    val process = builder.start()
-    if (!process.isAlive) {
-      throw IOException("Symbolizer process is not alive. Executable: $symbolizerExe")
+  private data class CacheKey(val symFile: SymbolFile, val offset: Long)
+
+  /**
+   * The result of a lookup, including the lookups that found nothing.
+   */
+  private class CachedSymbol(val symbol: Symbol?)
+
+  /**
+   * An llvm-symbolizer process and the thread talking to it.
+   */
+  private inner class SymbolizerProcess {
+    private var procHolder : ProcessHolder? = null
+    // A daemon thread that goes away when the process is idle, so an unused symbolizer neither keeps a thread nor blocks JVM exit.
+    private val executor = ThreadPoolExecutor(1, 1, IDLE_THREAD_TIMEOUT_SEC, TimeUnit.SECONDS, LinkedBlockingQueue<Runnable>(),
+                                              ThreadFactoryBuilder().setDaemon(true).setNameFormat("llvm-symbolizer-%d").build())
+      .apply { allowCoreThreadTimeOut(true) }
+
+    /**
+     * Writes the requests to the process, then reads one response for each of them.
+     */
+    fun submit(requests: List<String>): Future<List<List<String>>> {
+      return executor.submit( Callable<List<List<String>>> {
+        val holder = getProcHolder()
+        for (request in requests) {
+          holder.stdin.write(request)
+        }
+        holder.stdin.flush()
+
+        val responses: MutableList<List<String>> = mutableListOf()
+        for (request in requests) {
+          val response: MutableList<String> = mutableListOf()
+          var responseLine: String?
+          while (true) {
+            responseLine = holder.stdout.readLine()
+            if (responseLine == null) {
+              throw IOException("llvm-symbolizer exited before answering all requests")
+            }
+            if (responseLine.isEmpty()) {
+              break
+            }
+            response.add(responseLine)
+          }
+          responses.add(response)
+        }
+        responses
+      })
     }
 
-    val stdin = OutputStreamWriter(process.outputStream, Charsets.UTF_8)
-    val stdout = BufferedReader(InputStreamReader(process.inputStream, Charsets.UTF_8))
-    procHolder = ProcessHolder(process, stdout, stdin)
-  }
+    @Synchronized
+    fun getProcHolder() : ProcessHolder {
+      var holder = procHolder
+      if (holder == null || !holder.process.isAlive) {
+        start()
+        holder = procHolder!! // procHolder must't be null after start()
+      }
+      return holder
+    }
 
-  override fun stop() {
-    procHolder?.dispose()
-    procHolder = null
+    private fun start() {
+      if (procHolder != null)
+        stop()
+
+      val builder = ProcessBuilder(symbolizerExe)
+      val process = builder.start()
+      if (!process.isAlive) {
+        throw IOException("Symbolizer process is not alive. Executable: $symbolizerExe")
+      }
+
+      val stdin = OutputStreamWriter(process.outputStream, Charsets.UTF_8)
+      val stdout = BufferedReader(InputStreamReader(process.inputStream, Charsets.UTF_8))
+      procHolder = ProcessHolder(process, stdout, stdin)
+    }
+
+    @Synchronized
+    fun stop() {
+      procHolder?.dispose()
+      procHolder = null
+    }
   }
 
   private class ProcessHolder(val process: Process,
@@ -153,4 +295,4 @@ class LlvmSymbolizer(private val symbolizerExe: String,
       process.destroy()
     }
   }
-}
\ No newline at end of file
+}
@@ -25,6 +25,11 @@ import java.nio.file.Paths
 
 data class Symbol(val name: String, val module: String, val sourceFile: String = "", val lineNumber: Int = 0)
 
+/**
+ * An offset in a native module, to be symbolized as part of a batch.
+ */
+data class SymbolRequest(val module: String, val offset: Long)
+
 /**
  * Components that can fetch information about native symbols by a module and an offset.
  */
@@ -39,6 +44,17 @@ interface NativeSymbolizer {
    */
   @Throws(IOException::class)
   fun symbolize(abiArch: String, module: String, offset: Long): Symbol?
+
+  /**
+   * Obtains information about many functions of the same CPU architecture at once. This is much cheaper than symbolizing them
+   * one by one when the implementation can pipeline or parallelize the lookups.
+   * @return one entry per request, in the same order, which is null if the symbol can't be found
+   */
+  @Throws(IOException::class)
+  fun symbolize(abiArch: String, requests: List<SymbolRequest>): List<Symbol?> {
+    return requests.map { symbolize(abiArch, it.module, it.offset) }
+  }
+
   fun stop()
 }
 
@@ -117,6 +117,35 @@ class LlvmSymbolizerTest {
     }
   }
 
+  @Test
+  fun testSymbolizeBatch() {
+    val symLocator = SymbolFilesLocator(getSymDirMap())
+    // A tiny cache, so that entries get evicted as the architectures are symbolized one after another.
+    val batchSymbolizer = LlvmSymbolizer(getLlvmSymbolizerPath(), symLocator, processCount = 2, cacheSize = 8)
+    val symbolizer = createSymbolizer()
+    for (arch in architectures) {
+      val expectedSymbolsFile = Paths.get(testDataDir, arch, EXPECTED_SYMBOLS_FILE_NAME).toFile()
+      val requests = mutableListOf<SymbolRequest>()
+      for (line in expectedSymbolsFile.readLines()) {
+        val offset = line.split('|')[0].toLong(16)
+        requests.add(SymbolRequest("/data/app/com.someapp.name-abcd09876abds==/lib/arm64/" + LIB_FILE_NAME, offset + 1))
+        requests.add(SymbolRequest("/path/to/device/modules/" + LIB_FILE_NAME, offset + 1))
+        requests.add(SymbolRequest("/p/libnotexists.so", offset + 1))
+      }
+      // Ask for everything twice, the duplicates are only looked up once.
+      val allRequests = requests + requests
+
+      val symbols = batchSymbolizer.symbolize(arch, allRequests)
+      Assert.assertEquals(allRequests.size, symbols.size)
+      for ((request, symbol) in allRequests.zip(symbols)) {
+        Assert.assertEquals(symbolizer.symbolize(arch, request.module, request.offset), symbol)
+        if (request.module.endsWith(LIB_FILE_NAME)) {
+          Assert.assertEquals(request.module, symbol!!.module)
+        }
+      }
+    }
+  }
+
   @Test
   fun testExeRestart() {
     val symbolizer = createSymbolizer()
@@ -218,16 +218,36 @@ public class IntellijProfilerServices implements IdeProfilerServices, Disposable
         return StudioFlags.PROFILER_USE_ATRACE.get();
       }
 
+      @Override
+      public boolean isChartDownsamplingEnabled() {
+        return StudioFlags.PROFILER_CHART_DOWNSAMPLING.get();
+      }
+
       @Override
       public boolean isCpuApiTracingEnabled() {
         return StudioFlags.PROFILER_CPU_API_TRACING.get();
       }
 
+      @Override
+      public boolean isCpuCaptureTreeFlameChartEnabled() {
+        return StudioFlags.PROFILER_CPU_FLAME_CHART_CAPTURE_TREE.get();
+      }
+
+      @Override
+      public boolean isCpuMappedArtParserEnabled() {
+        return StudioFlags.PROFILER_CPU_MAPPED_ART_PARSER.get();
+      }
+
       @Override
       public boolean isCpuNewRecordingWorkflowEnabled() {
         return StudioFlags.PROFILER_CPU_NEW_RECORDING_WORKFLOW.get();
       }
 
+      @Override
+      public boolean isCpuParallelTreeAggregationEnabled() {
+        return StudioFlags.PROFILER_CPU_PARALLEL_TREE_AGGREGATION.get();
+      }
+
       @Override
       public boolean isEnergyProfilerEnabled() {
         return StudioFlags.PROFILER_ENERGY_PROFILER_ENABLED.get();
@@ -248,6 +268,11 @@ public class IntellijProfilerServices implements IdeProfilerServices, Disposable
         return StudioFlags.PROFILER_TRACK_JNI_REFS.get();
       }
 
+      @Override
+      public boolean isLiveAllocationIndexEnabled() {
+        return StudioFlags.PROFILER_MEMORY_LIVE_ALLOCATION_INDEX.get();
+      }
+
       @Override
       public boolean isLiveAllocationsEnabled() {
         return StudioFlags.PROFILER_USE_LIVE_ALLOCATIONS.get();
@@ -263,11 +288,31 @@ public class IntellijProfilerServices implements IdeProfilerServices, Disposable
         return StudioFlags.PROFILER_MEMORY_CAPTURE_FILTER.get();
       }
 
+      @Override
+      public boolean isMemoryIndexedHeapDumpEnabled() {
+        return StudioFlags.PROFILER_MEMORY_INDEXED_HEAP_DUMP.get();
+      }
+
       @Override
       public boolean isMemorySnapshotEnabled() {
         return StudioFlags.PROFILER_MEMORY_SNAPSHOT.get();
       }
 
+      @Override
+      public boolean isNetworkConnectionIndexEnabled() {
+        return StudioFlags.PROFILER_NETWORK_CONNECTION_INDEX.get();
+      }
+
+      @Override
+      public boolean isNetworkPayloadCacheEnabled() {
+        return StudioFlags.PROFILER_NETWORK_PAYLOAD_CACHE.get();
+      }
+
+      @Override
+      public boolean isPerfettoDirectImportEnabled() {
+        return StudioFlags.PROFILER_PERFETTO_DIRECT_IMPORT.get();
+      }
+
       @Override
       public boolean isPerfettoEnabled() { return StudioFlags.PROFILER_USE_PERFETTO.get(); }
 
@@ -17,11 +17,15 @@ package com.android.tools.idea.profilers.stacktrace;
 
 import com.android.tools.nativeSymbolizer.NativeSymbolizer;
 import com.android.tools.nativeSymbolizer.Symbol;
+import com.android.tools.nativeSymbolizer.SymbolRequest;
 import com.android.tools.profiler.proto.MemoryProfiler.NativeCallStack;
 import com.android.tools.profilers.stacktrace.NativeFrameSymbolizer;
 import com.intellij.openapi.diagnostic.Logger;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 /**
  * Wrapper for {@link NativeSymbolizer} to return a NativeCallStack.NativeFrame instead of the Symbol class which profilers don't have a
@@ -52,7 +56,36 @@ public class IntelliJNativeFrameSymbolizer implements NativeFrameSymbolizer {
     catch (IOException | RuntimeException e) {
       getLogger().warn(e);
     }
+    return toSymbolizedFrame(unsymbolizedFrame, instructionOffset, symbol);
+  }
+
+  @NotNull
+  @Override
+  public List<NativeCallStack.NativeFrame> symbolize(String abi, @NotNull List<NativeCallStack.NativeFrame> unsymbolizedFrames) {
+    List<SymbolRequest> requests = new ArrayList<>(unsymbolizedFrames.size());
+    for (NativeCallStack.NativeFrame frame : unsymbolizedFrames) {
+      requests.add(new SymbolRequest(frame.getModuleName(), getOffsetOfPreviousInstruction(frame.getModuleOffset())));
+    }
 
+    List<Symbol> symbols = null;
+    try {
+      symbols = mySymbolizer.symbolize(abi, requests);
+    }
+    catch (IOException | RuntimeException e) {
+      getLogger().warn(e);
+    }
+
+    List<NativeCallStack.NativeFrame> symbolizedFrames = new ArrayList<>(unsymbolizedFrames.size());
+    for (int i = 0; i < unsymbolizedFrames.size(); i++) {
+      symbolizedFrames.add(toSymbolizedFrame(unsymbolizedFrames.get(i), requests.get(i).getOffset(), symbols == null ? null : symbols.get(i)));
+    }
+    return symbolizedFrames;
+  }
+
+  @NotNull
+  private static NativeCallStack.NativeFrame toSymbolizedFrame(@NotNull NativeCallStack.NativeFrame unsymbolizedFrame,
+                                                               long instructionOffset,
+                                                               @Nullable Symbol symbol) {
     NativeCallStack.NativeFrame.Builder builder = unsymbolizedFrame.toBuilder();
     if (symbol == null) {
       String unfoundSymbolName = String.format("0x%x", instructionOffset);
@@ -67,7 +100,7 @@ public class IntelliJNativeFrameSymbolizer implements NativeFrameSymbolizer {
     return builder.build();
   }
 
-  private long getOffsetOfPreviousInstruction(long offset) {
+  private static long getOffsetOfPreviousInstruction(long offset) {
     // In non-bottom frames native backtrace contains addresses where the execution will
     // continue after a function call. After symbolization such addresses often resolved
     // to the source line immediately following the function call.
@@ -20,7 +20,12 @@ import static com.google.common.truth.Truth.assertThat;
 
 import com.android.tools.nativeSymbolizer.NativeSymbolizer;
 import com.android.tools.nativeSymbolizer.Symbol;
+import com.android.tools.nativeSymbolizer.SymbolRequest;
 import com.android.tools.profiler.proto.MemoryProfiler.NativeCallStack;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.junit.Test;
@@ -58,6 +63,28 @@ public class IntelliJNativeFrameSymbolizerTest {
     assertThat(symbolizedFrame2).isEqualTo(expectedSymbolizedFrame2);
   }
 
+  @Test
+  public void testSymbolizeBatch() {
+    IntelliJNativeFrameSymbolizer frameSymbolizer = new IntelliJNativeFrameSymbolizer(new FakeNativeSymbolizer());
+    NativeCallStack.NativeFrame unfoundFrame = NativeCallStack.NativeFrame.newBuilder().setModuleName("test").setModuleOffset(100).build();
+    NativeCallStack.NativeFrame.Builder frameToSymbolize =
+      NativeCallStack.NativeFrame.newBuilder().setModuleName("test2").setModuleOffset(200);
+
+    List<NativeCallStack.NativeFrame> symbolizedFrames =
+      frameSymbolizer.symbolize("arm", Arrays.asList(unfoundFrame, frameToSymbolize.build()));
+    assertThat(symbolizedFrames).hasSize(2);
+    assertThat(symbolizedFrames.get(0).getSymbolName()).isEqualTo("arm_frame");
+    assertThat(symbolizedFrames.get(1)).isEqualTo(frameToSymbolize
+                                                    .setSymbolName("arm_frame")
+                                                    .setModuleName("test2_symbolized")
+                                                    .setFileName("symbols.java")
+                                                    .setLineNumber(1000 + 200 + PREVIOUS_INSTRUCTION_OFFSET).build());
+
+    // Frames that can't be found are named after their offset, like when they're symbolized one by one.
+    symbolizedFrames = frameSymbolizer.symbolize("arm64", Collections.singletonList(unfoundFrame));
+    assertThat(symbolizedFrames.get(0).getSymbolName()).isEqualTo(String.format("0x%x", 100 - 1));
+  }
+
   private static class FakeNativeSymbolizer implements NativeSymbolizer {
     @Nullable
     @Override
@@ -71,6 +98,12 @@ public class IntelliJNativeFrameSymbolizerTest {
       }
     }
 
+    @NotNull
+    @Override
+    public List<Symbol> symbolize(@NotNull String abiArch, @NotNull List<SymbolRequest> requests) {
+      return requests.stream().map(request -> symbolize(abiArch, request.getModule(), request.getOffset())).collect(Collectors.toList());
+    }
+
     @Override
     public void stop() {
     }
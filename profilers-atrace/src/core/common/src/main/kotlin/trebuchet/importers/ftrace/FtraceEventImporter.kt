@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package trebuchet.importers.ftrace
+
+import trebuchet.importers.ImportFeedback
+import trebuchet.model.InvalidId
+import trebuchet.model.SchedulingState
+import trebuchet.model.fragments.ModelFragment
+
+/**
+ * Imports ftrace events that were already decoded, e.g. from a perfetto trace, without formatting them as text lines for
+ * [FtraceImporter] first. Each event has the same effect on the model as the matching line would have. Events must be added in
+ * timestamp order, and timestamps are in seconds.
+ *
+ * [pid], [tgid] and [task] describe the thread that emitted an event, as the prefix of a line does. Use [InvalidId] and null
+ * when they aren't known.
+ */
+class FtraceEventImporter(private val feedback: ImportFeedback) {
+    private val state = FtraceImporterState(feedback)
+
+    fun finish(): ModelFragment = state.finish()
+
+    /**
+     * Records the clocks used to align the trace with the rest of the profiler data, as the trace_event_clock_sync markers do.
+     *
+     * @param timestamp boot time of the sync, in seconds
+     * @param parentTimestamp monotonic time of the sync, in seconds
+     * @param realtimeTimestamp wall clock time of the sync, in milliseconds
+     */
+    fun clockSync(timestamp: Double, parentTimestamp: Double, realtimeTimestamp: Long) {
+        updateTime(timestamp)
+        state.modelFragment.parentTimestamp = parentTimestamp
+        state.modelFragment.parentTimestampBootTime = timestamp
+        state.modelFragment.realtimeTimestamp = realtimeTimestamp
+    }
+
+    fun schedSwitch(timestamp: Double, cpu: Int, pid: Int, tgid: Int, task: String?, prevPid: Int, prevComm: String,
+                    prevState: SchedulingState, nextPid: Int, nextComm: String) {
+        beginEvent(timestamp, pid, tgid, task)
+        val prevThread = state.threadFor(prevPid)
+        if (prevThread.name == null) {
+            prevThread.hint(name = prevComm)
+        }
+        val nextThread = state.threadFor(nextPid)
+        if (nextThread.name == null) {
+            nextThread.hint(name = nextComm)
+        }
+        prevThread.schedulingStateBuilder.switchState(prevState, timestamp)
+        nextThread.schedulingStateBuilder.switchState(SchedulingState.RUNNING, timestamp)
+        state.cpuFor(cpu).schedulingProcessBuilder.switchProcess(nextThread.process, nextThread, timestamp)
+    }
+
+    fun schedWakeup(timestamp: Double, pid: Int, tgid: Int, task: String?, wokenPid: Int, wokenComm: String) {
+        beginEvent(timestamp, pid, tgid, task)
+        val thread = state.threadFor(wokenPid)
+        if (thread.name == null) {
+            thread.hint(name = wokenComm)
+        }
+        thread.schedulingStateBuilder.switchState(SchedulingState.WAKING, timestamp)
+    }
+
+    fun tracingMarkWrite(timestamp: Double, pid: Int, tgid: Int, task: String?, message: String) {
+        beginEvent(timestamp, pid, tgid, task)
+        try {
+            when (message.firstOrNull()) {
+                'B' -> {
+                    // Begin format: B|<tgid>|<title>
+                    val parts = message.split('|', limit = 3)
+                    val thread = state.threadFor(pid, markerTgid(tgid, parts[1].toInt()), task)
+                    thread.slicesBuilder.beginSlice {
+                        it.startTime = timestamp
+                        it.name = parts[2]
+                    }
+                }
+                'E' -> {
+                    // End format: E
+                    val thread = state.threadFor(pid, tgid, task)
+                    thread.slicesBuilder.endSlice {
+                        it.endTime = timestamp
+                        it.populateScheduledSlices(thread.schedulingStateBuilder.slices)
+                    }
+                }
+                'C' -> {
+                    // Counter format: C|<tgid>|<name>|<value>
+                    val parts = message.split('|', limit = 4)
+                    val thread = state.threadFor(pid, markerTgid(tgid, parts[1].toInt()), task)
+                    thread.process.addCounterSample(parts[2], timestamp, parts[3].substringBefore('|').trim().toInt())
+                }
+                else -> {
+                    if (message.startsWith(ParentTsPrefix)) {
+                        state.modelFragment.parentTimestamp = message.substring(ParentTsPrefix.length).toDouble()
+                        state.modelFragment.parentTimestampBootTime = timestamp
+                    } else if (message.startsWith(RealtimeTsPrefix)) {
+                        state.modelFragment.realtimeTimestamp = message.substring(RealtimeTsPrefix.length).toLong()
+                    }
+                }
+            }
+        } catch (ex: Exception) {
+            feedback.reportImportWarning("Failed to parse: '$message'")
+            feedback.reportImportException(ex)
+        }
+    }
+
+    private fun beginEvent(timestamp: Double, pid: Int, tgid: Int, task: String?) {
+        updateTime(timestamp)
+        if (tgid != InvalidId) state.threadFor(pid, tgid, task)
+    }
+
+    private fun updateTime(timestamp: Double) {
+        if (state.modelFragment.globalStartTime == 0.0) {
+            state.modelFragment.globalStartTime = timestamp
+        }
+        state.modelFragment.globalEndTime = timestamp
+    }
+
+    /**
+     * Markers carry the tgid of the process that wrote them, which must agree with the one of the thread when it's known.
+     */
+    private fun markerTgid(tgid: Int, markerTgid: Int): Int {
+        if (tgid != InvalidId && tgid != markerTgid) {
+            throw IllegalStateException("tgid fight, currently $tgid but trying to set $markerTgid")
+        }
+        return markerTgid
+    }
+
+    companion object {
+        private const val ParentTsPrefix = "trace_event_clock_sync: parent_ts="
+        private const val RealtimeTsPrefix = "trace_event_clock_sync: realtime_ts="
+
+        // Bits of the kernel task state, in the order the kernel prints them in sched_switch events (S|D|T|t|X|Z|x|K|W).
+        private const val Interruptible = 0x1L
+        private const val Uninterruptible = 0x2L
+        private const val Stopped = 0x4L
+        private const val Traced = 0x8L
+        private const val ExitDead = 0x10L
+        private const val ExitZombie = 0x20L
+        private const val TaskDead = 0x40L
+        private const val WakeKill = 0x80L
+        private const val Waking = 0x100L
+        // Higher bits are either states trebuchet doesn't model, or the preemption flag which makes the state read as runnable.
+        private const val KnownStates = 0x7ffL
+
+        /**
+         * Converts the raw prev_state of a sched_switch event to the state [SchedParser] reads from its text form.
+         */
+        @JvmStatic
+        fun schedulingStateFor(kernelState: Long): SchedulingState {
+            val bits = kernelState and KnownStates
+            return when (bits and -bits) {
+                0L -> SchedulingState.RUNNABLE
+                Interruptible -> SchedulingState.SLEEPING
+                Uninterruptible -> when {
+                    bits and WakeKill != 0L -> SchedulingState.UNINTR_SLEEP_WAKE_KILL
+                    bits and Waking != 0L -> SchedulingState.UNINTR_SLEEP_WAKING
+                    else -> SchedulingState.UNINTR_SLEEP
+                }
+                Stopped -> SchedulingState.STOPPED
+                Traced -> SchedulingState.DEBUG
+                ExitDead -> SchedulingState.EXIT_DEAD
+                ExitZombie -> SchedulingState.ZOMBIE
+                TaskDead -> SchedulingState.TASK_DEAD
+                WakeKill -> SchedulingState.WAKE_KILL
+                Waking -> SchedulingState.WAKING
+                else -> SchedulingState.UNKNOWN
+            }
+        }
+    }
+}
@@ -17,7 +17,9 @@ package com.android.tools.profilers.cpu.capturedetails;
 
 import com.android.tools.adtui.chart.hchart.HRenderer;
 import com.android.tools.adtui.common.AdtUiUtils;
+import com.android.tools.profilers.cpu.CallNode;
 import com.android.tools.profilers.cpu.CaptureNode;
+import com.android.tools.profilers.cpu.CaptureTree;
 import com.android.tools.profilers.cpu.nodemodel.*;
 import com.google.common.annotations.VisibleForTesting;
 import org.jetbrains.annotations.NotNull;
@@ -28,9 +30,9 @@ import java.util.function.Predicate;
 
 /**
  * Specifies render characteristics (i.e. text and color) of {@link com.android.tools.adtui.chart.hchart.HTreeChart} nodes that represent
- * instances of {@link CaptureNode}.
+ * instances of {@link CaptureNode}, or of any other {@link CallNode} such as the views of a {@link CaptureTree}.
  */
-public class CaptureNodeHRenderer implements HRenderer<CaptureNode> {
+public class CaptureNodeHRenderer<N extends CallNode<N>> implements HRenderer<N> {
 
   private static final int MARGIN_PX = 3; // Padding on left and right of node label
 
@@ -58,7 +60,7 @@ public class CaptureNodeHRenderer implements HRenderer<CaptureNode> {
     this(type, (text, metrics, width) -> metrics.stringWidth(text) <= width);
   }
 
-  private Color getFillColor(CaptureNode node, boolean isFocused) {
+  private Color getFillColor(N node, boolean isFocused) {
     // TODO (b/74349846): Change this function to use a binder base on CaptureNode.
     CaptureNodeModel nodeModel = node.getData();
     if (nodeModel instanceof JavaMethodModel) {
@@ -77,7 +79,7 @@ public class CaptureNodeHRenderer implements HRenderer<CaptureNode> {
     throw new IllegalStateException("Node type not supported.");
   }
 
-  private Color getIdleCpuColor(CaptureNode node, boolean isFocused) {
+  private Color getIdleCpuColor(N node, boolean isFocused) {
     // TODO (b/74349846): Change this function to use a binder base on CaptureNode.
 
     // The only nodes that actually show idle time are the atrace nodes. As such they are the only ones,
@@ -100,12 +102,12 @@ public class CaptureNodeHRenderer implements HRenderer<CaptureNode> {
 
   @Override
   public void render(@NotNull Graphics2D g,
-                     @NotNull CaptureNode node,
+                     @NotNull N node,
                      @NotNull Rectangle2D fullDrawingArea,
                      @NotNull Rectangle2D drawingArea,
                      boolean isFocused) {
     // Draw rectangle background
-    CaptureNode captureNode = node;
+    N captureNode = node;
     CaptureNodeModel nodeModel = node.getData();
     Color nodeColor = getFillColor(captureNode, isFocused);
     Color idleColor = getIdleCpuColor(captureNode, isFocused);
@@ -27,7 +27,9 @@ import com.android.tools.adtui.model.axis.ResizingAxisComponentModel;
 import com.android.tools.adtui.model.formatter.TimeAxisFormatter;
 import com.android.tools.profiler.proto.Cpu;
 import com.android.tools.profilers.ProfilerColors;
+import com.android.tools.profilers.cpu.CallNode;
 import com.android.tools.profilers.cpu.CaptureNode;
+import com.android.tools.profilers.cpu.CaptureTree;
 import com.android.tools.profilers.cpu.CpuProfilerStageView;
 import com.android.tools.profilers.cpu.nodemodel.AtraceNodeModel;
 import com.android.tools.profilers.cpu.nodemodel.CaptureNodeModel;
@@ -61,11 +63,11 @@ abstract class ChartDetailsView extends CaptureDetailsView {
   @NotNull protected final CpuProfilerStageView myStageView;
   @NotNull protected final AspectObserver myObserver;
 
-  private ChartDetailsView(@NotNull CpuProfilerStageView stageView, @NotNull CaptureDetails.ChartDetails chartDetails) {
+  private ChartDetailsView(@NotNull CpuProfilerStageView stageView, boolean isEmpty) {
     myStageView = stageView;
     myObserver = new AspectObserver();
 
-    if (chartDetails.getNode() == null) {
+    if (isEmpty) {
       myPanel = getNoDataForThread();
       return;
     }
@@ -81,12 +83,10 @@ abstract class ChartDetailsView extends CaptureDetailsView {
   }
 
   @NotNull
-  protected HTreeChart<CaptureNode> createChart(@NotNull CaptureDetails.ChartDetails chartDetails,
-                                                @NotNull Range globalRange,
-                                                @NotNull Range range) {
-    CaptureDetails.Type type = chartDetails.getType();
-    CaptureNode node = chartDetails.getNode();
-
+  protected <N extends CallNode<N>> HTreeChart<N> createChart(@NotNull CaptureDetails.Type type,
+                                                              @Nullable N node,
+                                                              @NotNull Range globalRange,
+                                                              @NotNull Range range) {
     HTreeChart.Orientation orientation;
     if (type == CaptureDetails.Type.CALL_CHART) {
       orientation = HTreeChart.Orientation.TOP_DOWN;
@@ -95,7 +95,7 @@ abstract class ChartDetailsView extends CaptureDetailsView {
       orientation = HTreeChart.Orientation.BOTTOM_UP;
     }
 
-    HTreeChart<CaptureNode> chart = new HTreeChart.Builder<>(node, range, new CaptureNodeHRenderer(type))
+    HTreeChart<N> chart = new HTreeChart.Builder<>(node, range, new CaptureNodeHRenderer<N>(type))
       .setGlobalXRange(globalRange)
       .setOrientation(orientation)
       .setRootVisible(false)
@@ -105,21 +105,21 @@ abstract class ChartDetailsView extends CaptureDetailsView {
       if (node.getData() instanceof AtraceNodeModel) {
         if (type == CaptureDetails.Type.CALL_CHART) {
           chart.addMouseMotionListener(
-            new CpuTraceEventTooltipView(chart, myStageView, ProfilerColors.CPU_USAGE_CAPTURED, ProfilerColors.CPU_TRACE_IDLE));
+            new CpuTraceEventTooltipView<>(chart, myStageView, ProfilerColors.CPU_USAGE_CAPTURED, ProfilerColors.CPU_TRACE_IDLE));
         }
         else {
           chart.addMouseMotionListener(
-            new CpuTraceEventTooltipView(chart, myStageView, ProfilerColors.CPU_FLAMECHART_APP, ProfilerColors.CPU_FLAMECHART_APP_IDLE));
+            new CpuTraceEventTooltipView<>(chart, myStageView, ProfilerColors.CPU_FLAMECHART_APP, ProfilerColors.CPU_FLAMECHART_APP_IDLE));
         }
       }
       else {
-        chart.addMouseMotionListener(new CpuChartTooltipView(chart, myStageView));
+        chart.addMouseMotionListener(new CpuChartTooltipView<>(chart, myStageView));
       }
     }
 
     if (myStageView.getStage().getCapture() != null && myStageView.getStage().getCapture().getType() != Cpu.CpuTraceType.ATRACE) {
       CodeNavigator navigator = myStageView.getStage().getStudioProfilers().getIdeServices().getCodeNavigator();
-      CodeNavigationHandler handler = new CodeNavigationHandler(chart, navigator);
+      CodeNavigationHandler<N> handler = new CodeNavigationHandler<>(chart, navigator);
       chart.addMouseListener(handler);
       myStageView.getIdeComponents().createContextMenuInstaller().installNavigationContextMenu(chart, navigator, handler::getCodeLocation);
     }
@@ -166,13 +166,14 @@ abstract class ChartDetailsView extends CaptureDetailsView {
 
     CallChartDetailsView(@NotNull CpuProfilerStageView stageView,
                          @NotNull CaptureDetails.CallChart callChart) {
-      super(stageView, callChart);
+      super(stageView, callChart.getNode() == null);
       myCallChart = callChart;
       // Call Chart model always correlates to the entire capture. CallChartView shows the data corresponding to the selected range in
       // timeline. Users can navigate to other part within the capture by interacting with the call chart UI. When it happens, the timeline
       // selection should be automatically updated.
       assert stageView.getStage().getCapture() != null;
-      myChart = createChart(myCallChart,
+      myChart = createChart(myCallChart.getType(),
+                            myCallChart.getNode(),
                             stageView.getStage().getCapture().getRange(),
                             stageView.getTimeline().getSelectionRange());
       if (myCallChart.getNode() == null) {
@@ -233,9 +234,15 @@ abstract class ChartDetailsView extends CaptureDetailsView {
 
   static final class FlameChartDetailsView extends ChartDetailsView {
     /**
-     * The visual representation of the {@link #myFlameChart}.
+     * The visual representation of the {@link #myFlameChart}. Its nodes are either {@link CaptureNode} or {@link CaptureTree.Node},
+     * depending on how the flame chart is stored, see {@link CaptureDetails.FlameChart#isCaptureTreeEnabled()}.
      */
-    @NotNull private final HTreeChart<CaptureNode> myChart;
+    @NotNull private final HTreeChart<?> myChart;
+
+    /**
+     * Sets the root of {@link #myChart} to the current root of {@link #myFlameChart}.
+     */
+    @NotNull private final Runnable myChartRootUpdater;
 
     /**
      * The {@link CaptureDetails.FlameChart} details that needs to be rendered.
@@ -248,7 +255,7 @@ abstract class ChartDetailsView extends CaptureDetailsView {
     @NotNull private final Range myMasterRange;
 
     FlameChartDetailsView(CpuProfilerStageView stageView, @NotNull CaptureDetails.FlameChart flameChart) {
-      super(stageView, flameChart);
+      super(stageView, isEmpty(flameChart));
       // FlameChart model always correlates to the selected range on the timeline, not necessarily the entire capture. Users cannot
       // navigate to other part within the capture by interacting with the FlameChart UI (they can do so only from timeline UI).
       // Users can zoom-in and then view only part of the FlameChart. Since a part of FlameChart may not correspond to a continuous
@@ -256,9 +263,19 @@ abstract class ChartDetailsView extends CaptureDetailsView {
       // we create new Range object (myMasterRange) to represent the range visible to the user. We cannot just pass flameChart.getRange().
       myFlameChart = flameChart;
       myMasterRange = new Range(flameChart.getRange());
-      myChart = createChart(flameChart, flameChart.getRange(), myMasterRange);
+      if (flameChart.isCaptureTreeEnabled()) {
+        HTreeChart<CaptureTree.Node> chart =
+          createChart(flameChart.getType(), flameChart.getTreeRoot(), flameChart.getRange(), myMasterRange);
+        myChartRootUpdater = () -> chart.setHTree(myFlameChart.getTreeRoot());
+        myChart = chart;
+      }
+      else {
+        HTreeChart<CaptureNode> chart = createChart(flameChart.getType(), flameChart.getNode(), flameChart.getRange(), myMasterRange);
+        myChartRootUpdater = () -> chart.setHTree(myFlameChart.getNode());
+        myChart = chart;
+      }
 
-      if (myFlameChart.getNode() == null) {
+      if (isEmpty(myFlameChart)) {
         return;
       }
 
@@ -280,17 +297,21 @@ abstract class ChartDetailsView extends CaptureDetailsView {
     }
 
     private void nodeChanged() {
-      switchCardLayout(myPanel, myFlameChart.getNode() == null);
-      myChart.setHTree(myFlameChart.getNode());
+      switchCardLayout(myPanel, isEmpty(myFlameChart));
+      myChartRootUpdater.run();
       myMasterRange.set(myFlameChart.getRange());
     }
+
+    private static boolean isEmpty(@NotNull CaptureDetails.FlameChart flameChart) {
+      return flameChart.isCaptureTreeEnabled() ? flameChart.getTreeRoot() == null : flameChart.getNode() == null;
+    }
   }
 
-  private static class CodeNavigationHandler extends MouseAdapter {
-    @NotNull private final HTreeChart<CaptureNode> myChart;
+  private static class CodeNavigationHandler<N extends CallNode<N>> extends MouseAdapter {
+    @NotNull private final HTreeChart<N> myChart;
     private Point myLastPopupPoint;
 
-    CodeNavigationHandler(@NotNull HTreeChart<CaptureNode> chart, @NotNull CodeNavigator navigator) {
+    CodeNavigationHandler(@NotNull HTreeChart<N> chart, @NotNull CodeNavigator navigator) {
       myChart = chart;
       new DoubleClickListener() {
         @Override
@@ -327,7 +348,7 @@ abstract class ChartDetailsView extends CaptureDetailsView {
 
     @Nullable
     private CodeLocation getCodeLocation() {
-      CaptureNode n = myChart.getNodeAt(myLastPopupPoint);
+      N n = myChart.getNodeAt(myLastPopupPoint);
       if (n == null) {
         return null;
       }
@@ -20,7 +20,7 @@ import com.android.tools.adtui.chart.hchart.HTreeChart;
 import com.android.tools.adtui.model.Range;
 import com.android.tools.adtui.model.formatter.TimeFormatter;
 import com.android.tools.profilers.ProfilerColors;
-import com.android.tools.profilers.cpu.CaptureNode;
+import com.android.tools.profilers.cpu.CallNode;
 import com.android.tools.profilers.cpu.CpuProfilerStageView;
 import com.intellij.util.ui.JBUI;
 import org.jetbrains.annotations.NotNull;
@@ -29,14 +29,14 @@ import javax.swing.*;
 
 import static com.android.tools.profilers.ProfilerFonts.TOOLTIP_BODY_FONT;
 
-class CpuChartTooltipView extends CpuChartTooltipViewBase {
-  public CpuChartTooltipView(@NotNull HTreeChart<CaptureNode> chart,
+class CpuChartTooltipView<N extends CallNode<N>> extends CpuChartTooltipViewBase<N> {
+  public CpuChartTooltipView(@NotNull HTreeChart<N> chart,
                              @NotNull CpuProfilerStageView stageView) {
     super(chart, stageView);
   }
 
   @Override
-  protected void showTooltip(@NotNull CaptureNode node) {
+  protected void showTooltip(@NotNull N node) {
     Range dataRange = myStageView.getTimeline().getDataRange();
     long start = (long)(node.getStart() - dataRange.getMin());
     long end = (long)(node.getEnd() - dataRange.getMin());
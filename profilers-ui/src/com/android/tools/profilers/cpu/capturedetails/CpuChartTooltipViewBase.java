@@ -20,7 +20,7 @@ import com.android.tools.adtui.TooltipComponent;
 import com.android.tools.adtui.chart.hchart.HTreeChart;
 import com.android.tools.profilers.ProfilerColors;
 import com.android.tools.profilers.ProfilerLayout;
-import com.android.tools.profilers.cpu.CaptureNode;
+import com.android.tools.profilers.cpu.CallNode;
 import com.android.tools.profilers.cpu.CpuProfilerStageView;
 import org.jetbrains.annotations.NotNull;
 
@@ -28,9 +28,9 @@ import javax.swing.*;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 
-abstract class CpuChartTooltipViewBase extends MouseAdapter {
+abstract class CpuChartTooltipViewBase<N extends CallNode<N>> extends MouseAdapter {
   @NotNull
-  private final HTreeChart<CaptureNode> myChart;
+  private final HTreeChart<N> myChart;
 
   @NotNull
   private final TooltipComponent myTooltipComponent;
@@ -41,7 +41,7 @@ abstract class CpuChartTooltipViewBase extends MouseAdapter {
   @NotNull
   protected final CpuProfilerStageView myStageView;
 
-  protected CpuChartTooltipViewBase(@NotNull HTreeChart<CaptureNode> chart, @NotNull CpuProfilerStageView stageView) {
+  protected CpuChartTooltipViewBase(@NotNull HTreeChart<N> chart, @NotNull CpuProfilerStageView stageView) {
     myStageView = stageView;
     myChart = chart;
 
@@ -56,7 +56,7 @@ abstract class CpuChartTooltipViewBase extends MouseAdapter {
   @Override
   public void mouseMoved(MouseEvent e) {
     myTooltipComponent.setVisible(false);
-    CaptureNode node = myChart.getNodeAt(e.getPoint());
+    N node = myChart.getNodeAt(e.getPoint());
     if (node != null) {
       myTooltipComponent.setVisible(true);
       showTooltip(node);
@@ -67,5 +67,5 @@ abstract class CpuChartTooltipViewBase extends MouseAdapter {
     return myContent;
   }
 
-  abstract protected void showTooltip(@NotNull CaptureNode node);
+  abstract protected void showTooltip(@NotNull N node);
 }
@@ -25,7 +25,7 @@ import com.android.tools.adtui.model.formatter.TimeFormatter;
 import com.android.tools.adtui.model.legend.EventLegend;
 import com.android.tools.adtui.model.legend.LegendComponentModel;
 import com.android.tools.profilers.ProfilerColors;
-import com.android.tools.profilers.cpu.CaptureNode;
+import com.android.tools.profilers.cpu.CallNode;
 import com.android.tools.profilers.cpu.CpuProfilerStageView;
 import java.awt.Color;
 import org.jetbrains.annotations.NotNull;
@@ -37,12 +37,12 @@ import static com.android.tools.profilers.ProfilerFonts.TOOLTIP_BODY_FONT;
 /**
  * Tooltip view for the Trace Event chart in Systrace.
  */
-class CpuTraceEventTooltipView extends CpuChartTooltipViewBase {
+class CpuTraceEventTooltipView<N extends CallNode<N>> extends CpuChartTooltipViewBase<N> {
   @NotNull private final TraceEventTooltipLegends myLegends;
   @NotNull private final Color myRunningColor;
   @NotNull private final Color myIdleColor;
 
-  protected CpuTraceEventTooltipView(@NotNull HTreeChart<CaptureNode> chart,
+  protected CpuTraceEventTooltipView(@NotNull HTreeChart<N> chart,
                                      @NotNull CpuProfilerStageView stageView,
                                      @NotNull Color runningColor,
                                      @NotNull Color idleColor) {
@@ -53,7 +53,7 @@ class CpuTraceEventTooltipView extends CpuChartTooltipViewBase {
   }
 
   @Override
-  protected void showTooltip(@NotNull CaptureNode node) {
+  protected void showTooltip(@NotNull N node) {
     long totalDuration = node.getDuration();
     long threadDuration = Math.min(totalDuration, Math.max(0, node.getEndThread() - node.getStartThread()));
     long idleDuration = totalDuration - threadDuration;
@@ -557,6 +557,15 @@ final class MemoryClassifierView extends AspectObserver {
   @Nullable
   private static MemoryObjectTreeNode<ClassifierSet> findSmallestSuperSetNode(@NotNull MemoryObjectTreeNode<ClassifierSet> rootNode,
                                                                               @NotNull ClassifierSet targetSet) {
+    if (rootNode.getAdapter() != targetSet && rootNode.getAdapter().containsClassifierSet(targetSet)) {
+      // Sibling sets hold none of the target's instances, so only follow the child the target set belongs to.
+      for (MemoryObjectTreeNode<ClassifierSet> child : rootNode.getChildren()) {
+        if (child.getAdapter().containsClassifierSet(targetSet)) {
+          return findSmallestSuperSetNode(child, targetSet);
+        }
+      }
+    }
+
     if (rootNode.getAdapter().isSupersetOf(targetSet)) {
       for (MemoryObjectTreeNode<ClassifierSet> child : rootNode.getChildren()) {
         MemoryObjectTreeNode<ClassifierSet> result = findSmallestSuperSetNode(child, targetSet);
@@ -71,6 +71,8 @@ public class MemoryProfilerStageView extends StageView<MemoryProfilerStage> {
   }
   private static final String RECORD_TEXT = "Record";
   private static final String STOP_TEXT = "Stop";
+  @VisibleForTesting static final String CANCEL_LOADING_TEXT = "Cancel";
+  @VisibleForTesting static final String COMPARE_HEAP_DUMP_TEXT = "Compare with previous heap dump";
 
   @NotNull private final MemoryCaptureView myCaptureView = new MemoryCaptureView(getStage(), getIdeComponents());
   @NotNull private final MemoryHeapView myHeapView = new MemoryHeapView(getStage());
@@ -85,6 +87,7 @@ public class MemoryProfilerStageView extends StageView<MemoryProfilerStage> {
   @NotNull private final JBSplitter myChartCaptureSplitter = new JBSplitter(true);
   @NotNull private final JPanel myCapturePanel;
   @Nullable private LoadingPanel myCaptureLoadingPanel;
+  @Nullable private JButton myCancelCaptureLoadingButton;
   @NotNull private final JBSplitter myInstanceDetailsSplitter = new JBSplitter(true);
 
   @NotNull private JButton myForceGarbageCollectionButton;
@@ -207,6 +210,7 @@ public class MemoryProfilerStageView extends StageView<MemoryProfilerStage> {
     getStage().getAspect().addDependency(this)
       .onChange(MemoryProfilerAspect.CURRENT_LOADING_CAPTURE, this::captureObjectChanged)
       .onChange(MemoryProfilerAspect.CURRENT_LOADED_CAPTURE, this::captureObjectFinishedLoading)
+      .onChange(MemoryProfilerAspect.CURRENT_LOADING_CAPTURE_PROGRESS, this::captureObjectLoadingProgressChanged)
       .onChange(MemoryProfilerAspect.TRACKING_ENABLED, this::allocationTrackingChanged)
       .onChange(MemoryProfilerAspect.CURRENT_CAPTURE_ELAPSED_TIME, this::updateCaptureElapsedTime)
       .onChange(MemoryProfilerAspect.CURRENT_HEAP_CONTENTS, this::updateCaptureInfoMessage);
@@ -236,6 +240,12 @@ public class MemoryProfilerStageView extends StageView<MemoryProfilerStage> {
     return myAllocationButton;
   }
 
+  @VisibleForTesting
+  @Nullable
+  JButton getCancelCaptureLoadingButton() {
+    return myCancelCaptureLoadingButton;
+  }
+
   @VisibleForTesting
   JLabel getAllocationCaptureElaspedTimeLabel() {
     return myCaptureElapsedTime;
@@ -670,6 +680,12 @@ public class MemoryProfilerStageView extends StageView<MemoryProfilerStage> {
     contextMenuInstaller.installGenericContextMenu(mySelectionComponent, myForceGarbageCollectionAction);
     contextMenuInstaller.installGenericContextMenu(mySelectionComponent, ContextMenuItem.SEPARATOR);
     contextMenuInstaller.installGenericContextMenu(mySelectionComponent, myHeapDumpAction);
+    if (getStage().getStudioProfilers().getIdeServices().getFeatureConfig().isMemoryIndexedHeapDumpEnabled()) {
+      ProfilerAction heapDumpDiffAction = new ProfilerAction.Builder(COMPARE_HEAP_DUMP_TEXT)
+        .setEnableBooleanSupplier(() -> getStage().canSelectHeapDumpDiffWithPrevious())
+        .setActionRunnable(() -> getStage().selectHeapDumpDiffWithPrevious()).build();
+      contextMenuInstaller.installGenericContextMenu(mySelectionComponent, heapDumpDiffAction);
+    }
     contextMenuInstaller.installGenericContextMenu(mySelectionComponent, ContextMenuItem.SEPARATOR);
 
     getProfilersView().installCommonMenuItems(mySelectionComponent);
@@ -785,7 +801,32 @@ public class MemoryProfilerStageView extends StageView<MemoryProfilerStage> {
       myCaptureLoadingPanel = getProfilersView().getIdeProfilerComponents().createLoadingPanel(-1);
       myCaptureLoadingPanel.setLoadingText("Fetching results");
       myCaptureLoadingPanel.startLoading();
-      myChartCaptureSplitter.setSecondComponent(myCaptureLoadingPanel.getComponent());
+      myChartCaptureSplitter.setSecondComponent(buildCaptureLoadingUi(myCaptureLoadingPanel));
+    }
+  }
+
+  @NotNull
+  private JComponent buildCaptureLoadingUi(@NotNull LoadingPanel loadingPanel) {
+    JButton cancelButton = new JButton(CANCEL_LOADING_TEXT);
+    cancelButton.addActionListener(e -> {
+      // Canceling clears the selected capture, which takes the loading UI down through captureObjectChanged().
+      cancelButton.setEnabled(false);
+      getStage().cancelCaptureLoading();
+    });
+    myCancelCaptureLoadingButton = cancelButton;
+    JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.CENTER));
+    buttonPanel.add(cancelButton);
+
+    JPanel panel = new JPanel(new BorderLayout());
+    panel.add(loadingPanel.getComponent(), BorderLayout.CENTER);
+    panel.add(buttonPanel, BorderLayout.SOUTH);
+    return panel;
+  }
+
+  private void captureObjectLoadingProgressChanged() {
+    double progress = getStage().getCaptureLoadingProgress();
+    if (myCaptureLoadingPanel != null && progress >= 0) {
+      myCaptureLoadingPanel.setLoadingText(String.format("Fetching results (%d%%)", (int)(progress * 100)));
     }
   }
 
@@ -813,6 +854,7 @@ public class MemoryProfilerStageView extends StageView<MemoryProfilerStage> {
 
     myCaptureLoadingPanel.stopLoading();
     myCaptureLoadingPanel = null;
+    myCancelCaptureLoadingButton = null;
     myChartCaptureSplitter.setSecondComponent(null);
   }
 
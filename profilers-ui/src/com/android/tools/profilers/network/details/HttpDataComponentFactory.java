@@ -20,6 +20,7 @@ import static com.android.tools.profilers.ProfilerFonts.STANDARD_FONT;
 import com.android.tools.adtui.TreeWalker;
 import com.android.tools.adtui.common.AdtUiUtils;
 import com.android.tools.adtui.event.NestedScrollPaneMouseWheelListener;
+import com.android.tools.profiler.protobuf3jarjar.ByteString;
 import com.android.tools.profilers.ContentType;
 import com.android.tools.profilers.IdeProfilerComponents;
 import com.android.tools.profilers.dataviewer.DataViewer;
@@ -58,6 +59,12 @@ final class HttpDataComponentFactory {
   private static final String ID_PAYLOAD_VIEWER = "PAYLOAD_VIEWER";
   private static final Border PAYLOAD_BORDER = new JBEmptyBorder(6, 0, 0, 0);
 
+  /**
+   * Bodies other than images are only previewed up to this size, as the data viewers hold their whole content.
+   */
+  @VisibleForTesting
+  static final int MAX_PREVIEW_SIZE = 4 * 1024 * 1024;
+
   private final NetworkConnectionsModel myModel;
   private final HttpData myHttpData;
 
@@ -113,11 +120,13 @@ final class HttpDataComponentFactory {
   @NotNull
   public JComponent createBodyComponent(@NotNull IdeProfilerComponents components, @NotNull ConnectionType type) {
     Payload payload = type.getPayload(myModel, myHttpData);
-    if (payload.getBytes().isEmpty()) {
+    PayloadPreview preview = PayloadPreview.read(payload);
+    if (preview.getBytes().isEmpty()) {
       return TabUiUtils.createHideablePanel(getBodyTitle(type), new JLabel("Not available"), null);
     }
-    JComponent rawDataComponent = createRawDataComponent(payload, components);
-    JComponent parsedDataComponent = createParsedDataComponent(payload, components);
+    JComponent rawDataComponent = createRawDataComponent(payload, preview, components);
+    // A body cut at the preview size can't be parsed.
+    JComponent parsedDataComponent = preview.isTruncated() ? null : createParsedDataComponent(payload, preview, components);
 
     JComponent bodyComponent = rawDataComponent;
     JComponent northEastComponent = null;
@@ -167,9 +176,11 @@ final class HttpDataComponentFactory {
    * Assumes the payload is not empty.
    */
   @NotNull
-  private static JComponent createRawDataComponent(@NotNull Payload payload, @NotNull IdeProfilerComponents components) {
+  private static JComponent createRawDataComponent(@NotNull Payload payload,
+                                                   @NotNull PayloadPreview preview,
+                                                   @NotNull IdeProfilerComponents components) {
     ContentType contentType = ContentType.fromMimeType(payload.getContentType().getMimeType());
-    DataViewer viewer = components.createDataViewer(payload.getBytes().toByteArray(), contentType, DataViewer.Style.RAW);
+    DataViewer viewer = components.createDataViewer(preview.getBytes().toByteArray(), contentType, DataViewer.Style.RAW);
     JComponent viewerComponent = viewer.getComponent();
     viewerComponent.setName(ID_PAYLOAD_VIEWER);
     viewerComponent.setBorder(PAYLOAD_BORDER);
@@ -184,9 +195,11 @@ final class HttpDataComponentFactory {
    * Assumes the payload is not empty.
    */
   @Nullable
-  private static JComponent createParsedDataComponent(@NotNull Payload payload, @NotNull IdeProfilerComponents components) {
+  private static JComponent createParsedDataComponent(@NotNull Payload payload,
+                                                      @NotNull PayloadPreview preview,
+                                                      @NotNull IdeProfilerComponents components) {
     if (payload.getContentType().isFormData()) {
-      String contentToParse = payload.getBytes().toStringUtf8();
+      String contentToParse = preview.getBytes().toStringUtf8();
       final Map<String, String> parsedContent = new LinkedHashMap<>();
       Stream<String[]> parsedContentStream = Arrays.stream(contentToParse.trim().split("&")).map(s -> s.split("=", 2));
       parsedContentStream.forEach(a -> parsedContent.put(a[0], a.length > 1 ? a[1] : ""));
@@ -194,7 +207,7 @@ final class HttpDataComponentFactory {
     }
 
     ContentType contentType = ContentType.fromMimeType(payload.getContentType().getMimeType());
-    DataViewer viewer = components.createDataViewer(payload.getBytes().toByteArray(), contentType, DataViewer.Style.PRETTY);
+    DataViewer viewer = components.createDataViewer(preview.getBytes().toByteArray(), contentType, DataViewer.Style.PRETTY);
 
     // Just because we request a "pretty" viewer doesn't mean we'll actually get one. If we didn't,
     // that means formatting support is not provided, so return null as a way to indicate this
@@ -370,4 +383,40 @@ final class HttpDataComponentFactory {
       myNeedsLayout = true;
     }
   }
+
+  /**
+   * The content of a {@link Payload} to show in a {@link DataViewer}. Images are read whole, as they can't be decoded from a part of them,
+   * while other bodies are read in bounded chunks and cut after {@link #MAX_PREVIEW_SIZE} bytes.
+   */
+  static final class PayloadPreview {
+    @NotNull private final ByteString myBytes;
+    private final boolean myIsTruncated;
+
+    private PayloadPreview(@NotNull ByteString bytes, boolean isTruncated) {
+      myBytes = bytes;
+      myIsTruncated = isTruncated;
+    }
+
+    @NotNull
+    static PayloadPreview read(@NotNull Payload payload) {
+      if (ContentType.fromMimeType(payload.getContentType().getMimeType()).isSupportedImageType()) {
+        return new PayloadPreview(payload.getBytes(), false);
+      }
+      // Read one more byte than shown to tell whether the body goes on.
+      ByteString bytes = payload.getPreview(MAX_PREVIEW_SIZE + 1);
+      if (bytes.size() > MAX_PREVIEW_SIZE) {
+        return new PayloadPreview(bytes.substring(0, MAX_PREVIEW_SIZE), true);
+      }
+      return new PayloadPreview(bytes, false);
+    }
+
+    @NotNull
+    ByteString getBytes() {
+      return myBytes;
+    }
+
+    boolean isTruncated() {
+      return myIsTruncated;
+    }
+  }
 }
@@ -267,8 +267,10 @@ final class OverviewTabContent extends TabContent {
 
     Payload payload = Payload.newResponsePayload(myModel, data);
     String mimeType = payload.getContentType().getMimeType();
-    DataViewer payloadViewer = myComponents.createDataViewer(payload.getBytes().toByteArray(), ContentType.fromMimeType(mimeType),
-                                                             DataViewer.Style.PRETTY);
+    HttpDataComponentFactory.PayloadPreview preview = HttpDataComponentFactory.PayloadPreview.read(payload);
+    // A body cut at the preview size can't be pretty printed.
+    DataViewer payloadViewer = myComponents.createDataViewer(preview.getBytes().toByteArray(), ContentType.fromMimeType(mimeType),
+                                                             preview.isTruncated() ? DataViewer.Style.RAW : DataViewer.Style.PRETTY);
     JComponent responsePayloadComponent = payloadViewer.getComponent();
     responsePayloadComponent.setName(ID_RESPONSE_PAYLOAD_VIEWER);
 
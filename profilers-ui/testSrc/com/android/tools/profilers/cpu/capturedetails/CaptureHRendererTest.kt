@@ -39,7 +39,7 @@ class CaptureNodeHRendererTest {
     simpleNode.endGlobal = 20
     simpleNode.startThread = 10
     simpleNode.endThread = 15
-    val renderer = CaptureNodeHRenderer(CaptureDetails.Type.CALL_CHART)
+    val renderer = CaptureNodeHRenderer<CaptureNode>(CaptureDetails.Type.CALL_CHART)
     val renderWindow = Rectangle2D.Float(0.0f, 0.0f, 10.0f,10.0f)
     val fakeGraphics = TestGraphics2D()
     renderer.render(fakeGraphics, simpleNode, renderWindow, renderWindow, false)
@@ -58,7 +58,7 @@ class CaptureNodeHRendererTest {
       startThread = 10
       endThread = 15
     }
-    val renderer = CaptureNodeHRenderer(CaptureDetails.Type.CALL_CHART)
+    val renderer = CaptureNodeHRenderer<CaptureNode>(CaptureDetails.Type.CALL_CHART)
     // Test clamp width.
     var renderWindow = Rectangle2D.Float(0.0f, 0.0f, 10.0f,10.0f)
     var clampedRenderWindow = Rectangle2D.Float(0.0f, 0.0f, 6.0f, 6.0f)
@@ -89,7 +89,7 @@ class CaptureNodeHRendererTest {
     simpleNode.endGlobal = 20
     simpleNode.startThread = 10
     simpleNode.endThread = 15
-    val renderer = CaptureNodeHRenderer(CaptureDetails.Type.CALL_CHART)
+    val renderer = CaptureNodeHRenderer<CaptureNode>(CaptureDetails.Type.CALL_CHART)
     val renderWindow = Rectangle2D.Float(0.0f, 0.0f, 10.0f,10.0f)
     val fakeGraphics = TestGraphics2D()
     renderer.render(fakeGraphics, simpleNode, renderWindow, renderWindow,false)
@@ -106,7 +106,7 @@ class CaptureNodeHRendererTest {
     simpleNode.endGlobal = 110
     simpleNode.startThread = 10
     simpleNode.endThread = 15
-    val renderer = CaptureNodeHRenderer(CaptureDetails.Type.CALL_CHART)
+    val renderer = CaptureNodeHRenderer<CaptureNode>(CaptureDetails.Type.CALL_CHART)
     val renderWindow = Rectangle2D.Float(-100.0f, 0.0f, 300.0f,10.0f)
     val clampWindow = Rectangle2D.Float(0f, 0f, 10f, 10f)
     val fakeGraphics = TestGraphics2D()
@@ -122,7 +122,7 @@ class CaptureNodeHRendererTest {
   @Test
   fun renderInvalidNodeShouldThrowException() {
     val unsupportedNode = CaptureNode(StubCaptureNodeModel())
-    val renderer = CaptureNodeHRenderer(CaptureDetails.Type.CALL_CHART)
+    val renderer = CaptureNodeHRenderer<CaptureNode>(CaptureDetails.Type.CALL_CHART)
 
     val fakeGraphics = TestGraphics2D()
     try {
@@ -137,7 +137,7 @@ class CaptureNodeHRendererTest {
   @Test
   fun invalidChartTypeShouldThrowException() {
     try {
-      CaptureNodeHRenderer(CaptureDetails.Type.BOTTOM_UP)
+      CaptureNodeHRenderer<CaptureNode>(CaptureDetails.Type.BOTTOM_UP)
       fail()
     }
     catch (e: IllegalStateException) {
@@ -147,7 +147,7 @@ class CaptureNodeHRendererTest {
 
   @Test
   fun testFilterRenderStyles() {
-    val renderer = CaptureNodeHRenderer(CaptureDetails.Type.CALL_CHART)
+    val renderer = CaptureNodeHRenderer<CaptureNode>(CaptureDetails.Type.CALL_CHART)
     val fakeGraphics = TestGraphics2D()
 
     val simpleNode = CaptureNode(SyscallModel("write"))
@@ -301,7 +301,7 @@ class CaptureNodeHRendererTest {
   private fun checkFittingText(nodeModel: CaptureNodeModel, expectedTexts: List<String>) {
     val node = CaptureNode(nodeModel)
     val textFitPredicate = TestTextFitPredicate()
-    val renderer = CaptureNodeHRenderer(CaptureDetails.Type.CALL_CHART, textFitPredicate)
+    val renderer = CaptureNodeHRenderer<CaptureNode>(CaptureDetails.Type.CALL_CHART, textFitPredicate)
     val graphics = TestGraphics2D()
 
     var prevTextLength = expectedTexts[0].length + 1
@@ -55,6 +55,7 @@ class FlameChartDetailsViewTest {
 
   private val cpuService = FakeCpuService()
   private val timer = FakeTimer()
+  private val ideServices = FakeIdeProfilerServices()
 
   @JvmField
   @Rule
@@ -67,7 +68,7 @@ class FlameChartDetailsViewTest {
 
   @Before
   fun setUp() {
-    val profilers = StudioProfilers(ProfilerClient(grpcChannel.name), FakeIdeProfilerServices(), timer)
+    val profilers = StudioProfilers(ProfilerClient(grpcChannel.name), ideServices, timer)
     timer.tick(FakeTimer.ONE_SECOND_IN_NS)
     profilers.setPreferredProcess(FAKE_DEVICE_NAME, FAKE_PROCESS_NAME, null)
 
@@ -137,6 +138,27 @@ class FlameChartDetailsViewTest {
     assertThat(chart.isVisible).isTrue()
   }
 
+  @Test
+  fun showsContentFromCaptureTree() {
+    ideServices.enableCpuCaptureTreeFlameChart(true)
+    stage.apply {
+      val capture = CpuProfilerUITestUtils.validCapture()
+      setAndSelectCapture(capture)
+      selectedThread = capture.mainThreadId
+      setCaptureDetails(CaptureDetails.Type.FLAME_CHART)
+    }
+
+    val flameChart = stage.captureDetails as CaptureDetails.FlameChart
+    assertThat(flameChart.isCaptureTreeEnabled).isTrue()
+    assertThat(flameChart.node).isNull()
+    val flameChartView = ChartDetailsView.FlameChartDetailsView(stageView, flameChart)
+
+    val chart = TreeWalker(flameChartView.component).descendants().filterIsInstance<HTreeChart<*>>().first()
+    assertThat(chart.isVisible).isTrue()
+    assertThat(flameChart.treeRoot).isNotNull()
+    assertThat(flameChart.treeRoot!!.childCount).isGreaterThan(0)
+  }
+
   @Test
   @Ignore("b/110883498")
   fun showsNoDataForRangeMessage() {
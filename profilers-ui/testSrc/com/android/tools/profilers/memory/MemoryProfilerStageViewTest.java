@@ -280,6 +280,29 @@ public class MemoryProfilerStageViewTest extends MemoryProfilerTestBase {
     myAspectObserver.assertAndResetCounts(0, 0, 1, 0, 1, 0, 0, 0);
   }
 
+  @Test
+  public void testCancelCaptureLoading() {
+    MemoryProfilerStageView stageView = (MemoryProfilerStageView)myProfilersView.getStageView();
+    FakeCaptureObject fakeCapture =
+      new FakeCaptureObject.Builder().setCaptureName("DUMMY_CAPTURE").setStartTime(5).setEndTime(10).setDoneLoading(false).build();
+
+    myStage
+      .selectCaptureDuration(new CaptureDurationData<>(1, false, false, new CaptureEntry<CaptureObject>(new Object(), () -> fakeCapture)),
+                             null);
+    assertView(fakeCapture, null, null, null, true);
+    assertThat(stageView.getCancelCaptureLoadingButton()).isNotNull();
+    assertThat(stageView.getCancelCaptureLoadingButton().getText()).isEqualTo(MemoryProfilerStageView.CANCEL_LOADING_TEXT);
+
+    stageView.getCancelCaptureLoadingButton().doClick();
+    assertThat(myStage.getSelectedCapture()).isNull();
+    assertThat(stageView.getCancelCaptureLoadingButton()).isNull();
+    assertView(null, null, null, null, false);
+
+    // The canceled load doesn't bring the capture back.
+    myMockLoader.runTask();
+    assertThat(myStage.getSelectedCapture()).isNull();
+  }
+
   @Test
   public void testTooltipComponentIsFirstChild() {
     MemoryProfilerStageView stageView = (MemoryProfilerStageView)myProfilersView.getStageView();
@@ -400,6 +423,23 @@ public class MemoryProfilerStageViewTest extends MemoryProfilerTestBase {
     assertThat(items[10].getText()).isEqualTo(StudioProfilersView.ZOOM_OUT);
   }
 
+  @Test
+  public void testContextMenuWithIndexedHeapDump() {
+    myIdeProfilerServices.enableMemoryIndexedHeapDump(true);
+    MemoryProfilerStageView stageView = (MemoryProfilerStageView)myProfilersView.getStageView();
+    FakeIdeProfilerComponents ideProfilerComponents = (FakeIdeProfilerComponents)stageView.getIdeComponents();
+
+    ideProfilerComponents.clearContextMenuItems();
+    new MemoryProfilerStageView(myProfilersView, myStage);
+    ContextMenuItem[] items = ideProfilerComponents.getAllContextMenuItems().toArray(new ContextMenuItem[0]);
+    assertThat(items.length).isEqualTo(14);
+    assertThat(items[6].getText()).isEqualTo("Dump Java heap");
+    assertThat(items[7].getText()).isEqualTo(MemoryProfilerStageView.COMPARE_HEAP_DUMP_TEXT);
+    // No heap dump is selected.
+    assertThat(items[7].isEnabled()).isFalse();
+    assertThat(items[8]).isEqualTo(ContextMenuItem.SEPARATOR);
+  }
+
   @Test
   public void testToolbar() {
     // Test toolbar configuration for pre-O.
@@ -42,6 +42,7 @@ import com.android.tools.profilers.network.httpdata.StackTrace;
 import com.android.tools.profilers.stacktrace.StackTraceModel;
 import com.android.tools.profilers.stacktrace.StackTraceView;
 import java.awt.Component;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
@@ -151,6 +152,24 @@ public class ConnectionDetailsViewTest {
     assertThat(new TreeWalker(payloadBody).descendantStream().anyMatch(c -> c.getName().equals("View Source"))).isTrue();
   }
 
+  @Test
+  public void payloadOverPreviewSizeOnlyHasRawDataView() {
+    myView = new ConnectionDetailsView(myStageView);
+
+    HttpData data = new HttpData.Builder(DEFAULT_DATA).setRequestFields("Content-Type = application/x-www-form-urlencoded")
+      .setResponseFields(RESPONSE_HEADERS).setRequestPayloadId(TEST_REQUEST_PAYLOAD_ID)
+      .build();
+    byte[] content = new byte[HttpDataComponentFactory.MAX_PREVIEW_SIZE + 1];
+    Arrays.fill(content, (byte)'a');
+    myTransportService.addFile(TEST_REQUEST_PAYLOAD_ID, ByteString.copyFrom(content));
+    myView.setHttpData(data);
+
+    // A body cut at the preview size can't be parsed.
+    JComponent payloadBody = findTab(myView, RequestTabContent.class).findPayloadBody();
+    assertThat(HttpDataComponentFactory.findPayloadViewer(payloadBody)).isNotNull();
+    assertThat(new TreeWalker(payloadBody).descendantStream().anyMatch(c -> "View Parsed".equals(c.getName()))).isFalse();
+  }
+
   @Test
   public void responsePayloadHasBothParsedViewAndRawDataView() {
     myView = new ConnectionDetailsView(myStageView);
@@ -64,13 +64,13 @@ public class CaptureNodeModelRendererVisualTest extends VisualTest {
   protected void populateUi(@NotNull JPanel panel) {
     CaptureNode artNode = parseArtTraceAndGetHNode();
     myArtRange.set(artNode.getStart(), artNode.getEnd());
-    myArtChart = new HTreeChart.Builder<>(artNode, myArtRange, new CaptureNodeHRenderer())
+    myArtChart = new HTreeChart.Builder<>(artNode, myArtRange, new CaptureNodeHRenderer<>())
       .setOrientation(HTreeChart.Orientation.TOP_DOWN)
       .build();
 
     CaptureNode simpleperfNode = parseSimpleperfTraceAndGetHNode();
     mySimpleperfRange.set(simpleperfNode.getStart(), simpleperfNode.getEnd());
-    mySimpleperfChart = new HTreeChart.Builder<>(simpleperfNode, mySimpleperfRange, new CaptureNodeHRenderer())
+    mySimpleperfChart = new HTreeChart.Builder<>(simpleperfNode, mySimpleperfRange, new CaptureNodeHRenderer<>())
       .setOrientation(HTreeChart.Orientation.TOP_DOWN)
       .build();
 
@@ -59,11 +59,11 @@ public class CpuHTreeChartReducerVisualTest extends VisualTest {
     CaptureNode node = parseAndGetHNode();
     myRange.set(node.getStart(), node.getEnd());
 
-    myChart = new HTreeChart.Builder<>(node, myRange, new CaptureNodeHRenderer())
+    myChart = new HTreeChart.Builder<>(node, myRange, new CaptureNodeHRenderer<>())
       .setOrientation(HTreeChart.Orientation.TOP_DOWN)
       .build();
 
-    myNotOptimizedChart = new HTreeChart.Builder<>(node, myRange, new CaptureNodeHRenderer())
+    myNotOptimizedChart = new HTreeChart.Builder<>(node, myRange, new CaptureNodeHRenderer<>())
       .setOrientation(HTreeChart.Orientation.TOP_DOWN)
       .setReducer((rectangles, nodes) -> {})
       .build();
@@ -21,17 +21,26 @@ package com.android.tools.profilers;
  */
 public interface FeatureConfig {
   boolean isAtraceEnabled();
+  boolean isChartDownsamplingEnabled();
   boolean isCpuApiTracingEnabled();
+  boolean isCpuCaptureTreeFlameChartEnabled();
+  boolean isCpuMappedArtParserEnabled();
   boolean isCpuNewRecordingWorkflowEnabled();
+  boolean isCpuParallelTreeAggregationEnabled();
   boolean isEnergyProfilerEnabled();
   boolean isExportCpuTraceEnabled();
   boolean isFragmentsEnabled();
   boolean isImportCpuTraceEnabled();
   boolean isJniReferenceTrackingEnabled();
+  boolean isLiveAllocationIndexEnabled();
   boolean isLiveAllocationsEnabled();
   boolean isLiveAllocationsSamplingEnabled();
   boolean isMemoryCaptureFilterEnabled();
+  boolean isMemoryIndexedHeapDumpEnabled();
   boolean isMemorySnapshotEnabled();
+  boolean isNetworkConnectionIndexEnabled();
+  boolean isNetworkPayloadCacheEnabled();
+  boolean isPerfettoDirectImportEnabled();
   boolean isPerfettoEnabled();
   boolean isPerformanceMonitoringEnabled();
   boolean isSessionImportEnabled();
@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu;
+
+import com.android.tools.adtui.model.HNode;
+import com.android.tools.profilers.cpu.nodemodel.CaptureNodeModel;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A call rendered by the call chart and the flame chart. It is implemented by {@link CaptureNode} and by the views of a
+ * {@link CaptureTree}, so that the charts don't depend on how the calls are stored.
+ *
+ * @param <N> Type of the node subclass, see {@link HNode}.
+ */
+public interface CallNode<N extends CallNode<N>> extends HNode<N> {
+  @NotNull
+  CaptureNodeModel getData();
+
+  long getStartThread();
+
+  long getEndThread();
+
+  @NotNull
+  CaptureNode.FilterType getFilterType();
+
+  default boolean isUnmatched() {
+    return getFilterType() == CaptureNode.FilterType.UNMATCH;
+  }
+}
@@ -15,7 +15,6 @@
  */
 package com.android.tools.profilers.cpu;
 
-import com.android.tools.adtui.model.HNode;
 import com.android.tools.adtui.model.filter.Filter;
 import com.android.tools.perflib.vmtrace.ClockType;
 import com.android.tools.profilers.cpu.nodemodel.CaptureNodeModel;
@@ -27,7 +26,7 @@ import java.util.List;
 
 import static com.android.tools.profilers.cpu.CaptureNode.FilterType.MATCH;
 
-public class CaptureNode implements HNode<CaptureNode> {
+public class CaptureNode implements CallNode<CaptureNode> {
 
   /**
    * Start time with GLOBAL clock.
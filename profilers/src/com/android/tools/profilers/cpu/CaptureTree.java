@@ -0,0 +1,398 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu;
+
+import com.android.tools.perflib.vmtrace.ClockType;
+import com.android.tools.profilers.cpu.nodemodel.CaptureNodeModel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A compact call tree that stores its nodes in primitive arrays instead of one {@link CaptureNode} object per call.
+ * <p>
+ * Nodes are identified by their index in the arrays, in the order they were added, and the root is node 0. Each node costs a few dozen
+ * bytes: its four timestamps, its depth, links to its parent, first child, last child and next sibling, its number of children, its
+ * {@link CaptureNode.FilterType} and the index of its model. Models are deduplicated by id, so all the calls of a method share one
+ * {@link CaptureNodeModel}.
+ * <p>
+ * {@link #getNode(int)} returns short-lived views implementing {@link CallNode}, so that components like {@code HTreeChart} can walk the
+ * tree without it being materialized as {@link CaptureNode} objects. The flame chart is built into a {@link CaptureTree} this way.
+ */
+public final class CaptureTree {
+  public static final int NO_NODE = -1;
+
+  private static final int DEFAULT_CAPACITY = 64;
+  private static final CaptureNode.FilterType[] FILTER_TYPES = CaptureNode.FilterType.values();
+
+  private int mySize;
+  @NotNull private long[] myStartGlobal;
+  @NotNull private long[] myEndGlobal;
+  @NotNull private long[] myStartThread;
+  @NotNull private long[] myEndThread;
+  @NotNull private int[] myDepth;
+  @NotNull private int[] myParent;
+  @NotNull private int[] myFirstChild;
+  @NotNull private int[] myLastChild;
+  @NotNull private int[] myNextSibling;
+  @NotNull private int[] myChildCount;
+  @NotNull private int[] myModelIndex;
+  @NotNull private byte[] myFilterType;
+
+  @NotNull private final List<CaptureNodeModel> myModels = new ArrayList<>();
+  @NotNull private final Map<String, Integer> myModelIndices = new HashMap<>();
+
+  @NotNull private ClockType myClockType = ClockType.GLOBAL;
+
+  public CaptureTree() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  public CaptureTree(int initialCapacity) {
+    int capacity = Math.max(1, initialCapacity);
+    myStartGlobal = new long[capacity];
+    myEndGlobal = new long[capacity];
+    myStartThread = new long[capacity];
+    myEndThread = new long[capacity];
+    myDepth = new int[capacity];
+    myParent = new int[capacity];
+    myFirstChild = new int[capacity];
+    myLastChild = new int[capacity];
+    myNextSibling = new int[capacity];
+    myChildCount = new int[capacity];
+    myModelIndex = new int[capacity];
+    myFilterType = new byte[capacity];
+  }
+
+  /**
+   * Copies a tree of {@link CaptureNode}, keeping the order of the children of each node.
+   */
+  @NotNull
+  public static CaptureTree fromCaptureNode(@NotNull CaptureNode root) {
+    CaptureTree tree = new CaptureTree();
+    Deque<CaptureNode> nodes = new ArrayDeque<>();
+    Deque<Integer> parents = new ArrayDeque<>();
+    nodes.push(root);
+    parents.push(NO_NODE);
+    while (!nodes.isEmpty()) {
+      CaptureNode node = nodes.pop();
+      int id = tree.addNode(node.getData(), parents.pop());
+      tree.setGlobalTime(id, node.getStartGlobal(), node.getEndGlobal());
+      tree.setThreadTime(id, node.getStartThread(), node.getEndThread());
+      tree.setFilterType(id, node.getFilterType());
+      // Push the children in reverse order, so that they are added to their parent in order.
+      for (int i = node.getChildCount() - 1; i >= 0; i--) {
+        nodes.push(node.getChildAt(i));
+        parents.push(id);
+      }
+    }
+    tree.setClockType(root.getClockType());
+    return tree;
+  }
+
+  /**
+   * Adds a node as the last child of {@code parent}, or as the root if {@code parent} is {@link #NO_NODE}.
+   *
+   * @return the id of the new node.
+   */
+  public int addNode(@NotNull CaptureNodeModel model, int parent) {
+    if (parent == NO_NODE ? mySize != 0 : parent < 0 || parent >= mySize) {
+      throw new IllegalArgumentException("Invalid parent " + parent + " for a tree of " + mySize + " nodes");
+    }
+    ensureCapacity(mySize + 1);
+    int id = mySize++;
+    myParent[id] = parent;
+    myFirstChild[id] = NO_NODE;
+    myLastChild[id] = NO_NODE;
+    myNextSibling[id] = NO_NODE;
+    myChildCount[id] = 0;
+    myDepth[id] = parent == NO_NODE ? 0 : myDepth[parent] + 1;
+    myModelIndex[id] = getModelIndex(model);
+    myFilterType[id] = (byte)CaptureNode.FilterType.MATCH.ordinal();
+    if (parent != NO_NODE) {
+      if (myLastChild[parent] == NO_NODE) {
+        myFirstChild[parent] = id;
+      }
+      else {
+        myNextSibling[myLastChild[parent]] = id;
+      }
+      myLastChild[parent] = id;
+      myChildCount[parent]++;
+    }
+    return id;
+  }
+
+  public int size() {
+    return mySize;
+  }
+
+  public int getRoot() {
+    return mySize == 0 ? NO_NODE : 0;
+  }
+
+  public int getParent(int node) {
+    return myParent[checkNode(node)];
+  }
+
+  public int getFirstChild(int node) {
+    return myFirstChild[checkNode(node)];
+  }
+
+  public int getNextSibling(int node) {
+    return myNextSibling[checkNode(node)];
+  }
+
+  public int getChildCount(int node) {
+    return myChildCount[checkNode(node)];
+  }
+
+  public int getDepth(int node) {
+    return myDepth[checkNode(node)];
+  }
+
+  @NotNull
+  public CaptureNodeModel getModel(int node) {
+    return myModels.get(myModelIndex[checkNode(node)]);
+  }
+
+  /**
+   * @return the number of distinct models in the tree.
+   */
+  public int getModelCount() {
+    return myModels.size();
+  }
+
+  public void setGlobalTime(int node, long start, long end) {
+    myStartGlobal[checkNode(node)] = start;
+    myEndGlobal[node] = end;
+  }
+
+  public void setThreadTime(int node, long start, long end) {
+    myStartThread[checkNode(node)] = start;
+    myEndThread[node] = end;
+  }
+
+  public long getStartGlobal(int node) {
+    return myStartGlobal[checkNode(node)];
+  }
+
+  public long getEndGlobal(int node) {
+    return myEndGlobal[checkNode(node)];
+  }
+
+  public long getStartThread(int node) {
+    return myStartThread[checkNode(node)];
+  }
+
+  public long getEndThread(int node) {
+    return myEndThread[checkNode(node)];
+  }
+
+  /**
+   * @return the start of the node with the clock of the tree, see {@link #setClockType(ClockType)}.
+   */
+  public long getStart(int node) {
+    return myClockType == ClockType.THREAD ? getStartThread(node) : getStartGlobal(node);
+  }
+
+  /**
+   * @return the end of the node with the clock of the tree, see {@link #setClockType(ClockType)}.
+   */
+  public long getEnd(int node) {
+    return myClockType == ClockType.THREAD ? getEndThread(node) : getEndGlobal(node);
+  }
+
+  @NotNull
+  public CaptureNode.FilterType getFilterType(int node) {
+    return FILTER_TYPES[myFilterType[checkNode(node)]];
+  }
+
+  public void setFilterType(int node, @NotNull CaptureNode.FilterType type) {
+    myFilterType[checkNode(node)] = (byte)type.ordinal();
+  }
+
+  @NotNull
+  public ClockType getClockType() {
+    return myClockType;
+  }
+
+  /**
+   * Sets the clock used by {@link #getStart(int)}, {@link #getEnd(int)} and the {@link CallNode} views. Unlike
+   * {@link CaptureNode#setClockType(ClockType)}, it applies to the whole tree at once.
+   */
+  public void setClockType(@NotNull ClockType clockType) {
+    myClockType = clockType;
+  }
+
+  /**
+   * @return a view of the given node. Views are cheap to create and are not kept by the tree, so callers that only walk part of the tree
+   * don't pay for the rest of it.
+   */
+  @NotNull
+  public Node getNode(int node) {
+    return new Node(this, checkNode(node));
+  }
+
+  private int getModelIndex(@NotNull CaptureNodeModel model) {
+    Integer index = myModelIndices.get(model.getId());
+    if (index != null && myModels.get(index).getClass() == model.getClass()) {
+      return index;
+    }
+    myModels.add(model);
+    if (index == null) {
+      myModelIndices.put(model.getId(), myModels.size() - 1);
+    }
+    return myModels.size() - 1;
+  }
+
+  private int checkNode(int node) {
+    if (node < 0 || node >= mySize) {
+      throw new IndexOutOfBoundsException("Node: " + node + ", Size: " + mySize);
+    }
+    return node;
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity <= myStartGlobal.length) {
+      return;
+    }
+    int newCapacity = Math.max(capacity, myStartGlobal.length * 2);
+    myStartGlobal = Arrays.copyOf(myStartGlobal, newCapacity);
+    myEndGlobal = Arrays.copyOf(myEndGlobal, newCapacity);
+    myStartThread = Arrays.copyOf(myStartThread, newCapacity);
+    myEndThread = Arrays.copyOf(myEndThread, newCapacity);
+    myDepth = Arrays.copyOf(myDepth, newCapacity);
+    myParent = Arrays.copyOf(myParent, newCapacity);
+    myFirstChild = Arrays.copyOf(myFirstChild, newCapacity);
+    myLastChild = Arrays.copyOf(myLastChild, newCapacity);
+    myNextSibling = Arrays.copyOf(myNextSibling, newCapacity);
+    myChildCount = Arrays.copyOf(myChildCount, newCapacity);
+    myModelIndex = Arrays.copyOf(myModelIndex, newCapacity);
+    myFilterType = Arrays.copyOf(myFilterType, newCapacity);
+  }
+
+  /**
+   * A view of one node of a {@link CaptureTree}. Two views are equal if they point to the same node.
+   */
+  public static final class Node implements CallNode<Node> {
+    @NotNull private final CaptureTree myTree;
+    private final int myId;
+
+    // The last child returned by getChildAt, so that walking the children in order follows the sibling links instead of starting over
+    // from the first child every time.
+    private int myCursorIndex = -1;
+    private int myCursorChild = NO_NODE;
+
+    private Node(@NotNull CaptureTree tree, int id) {
+      myTree = tree;
+      myId = id;
+    }
+
+    public int getId() {
+      return myId;
+    }
+
+    @NotNull
+    public CaptureTree getTree() {
+      return myTree;
+    }
+
+    @NotNull
+    @Override
+    public CaptureNodeModel getData() {
+      return myTree.getModel(myId);
+    }
+
+    @Override
+    public long getStartThread() {
+      return myTree.getStartThread(myId);
+    }
+
+    @Override
+    public long getEndThread() {
+      return myTree.getEndThread(myId);
+    }
+
+    @NotNull
+    @Override
+    public CaptureNode.FilterType getFilterType() {
+      return myTree.getFilterType(myId);
+    }
+
+    @Override
+    public int getChildCount() {
+      return myTree.getChildCount(myId);
+    }
+
+    @NotNull
+    @Override
+    public Node getChildAt(int index) {
+      if (index < 0 || index >= getChildCount()) {
+        throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + getChildCount());
+      }
+      if (myCursorIndex < 0 || index < myCursorIndex) {
+        myCursorIndex = 0;
+        myCursorChild = myTree.getFirstChild(myId);
+      }
+      while (myCursorIndex < index) {
+        myCursorChild = myTree.getNextSibling(myCursorChild);
+        myCursorIndex++;
+      }
+      return new Node(myTree, myCursorChild);
+    }
+
+    @Nullable
+    @Override
+    public Node getParent() {
+      int parent = myTree.getParent(myId);
+      return parent == NO_NODE ? null : new Node(myTree, parent);
+    }
+
+    @Override
+    public long getStart() {
+      return myTree.getStart(myId);
+    }
+
+    @Override
+    public long getEnd() {
+      return myTree.getEnd(myId);
+    }
+
+    @Override
+    public int getDepth() {
+      return myTree.getDepth(myId);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Node)) {
+        return false;
+      }
+      return ((Node)other).myTree == myTree && ((Node)other).myId == myId;
+    }
+
+    @Override
+    public int hashCode() {
+      return System.identityHashCode(myTree) * 31 + myId;
+    }
+  }
+}
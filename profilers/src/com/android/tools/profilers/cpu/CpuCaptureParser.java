@@ -213,7 +213,7 @@ public class CpuCaptureParser {
   private CpuCapture tryParsingFileWithDifferentParsers(File traceFile) {
     try {
       // First try parsing the trace file as an ART trace.
-      ArtTraceParser artTraceParser = new ArtTraceParser();
+      ArtTraceParser artTraceParser = new ArtTraceParser(myServices.getFeatureConfig().isCpuMappedArtParserEnabled());
       return artTraceParser.parse(traceFile, IMPORTED_TRACE_ID);
     }
     catch (Exception ignored) {
@@ -238,7 +238,7 @@ public class CpuCaptureParser {
           // session that can tell us which process the user is interested in. So for all imported
           // trace files we ask the user to select a process. The list of processes the user can
           // choose from is parsed from the Atrace file.
-          AtraceParser parser = new AtraceParser(traceFile);
+          AtraceParser parser = new AtraceParser(traceFile, myServices.getFeatureConfig().isPerfettoDirectImportEnabled());
           // Any process matching the application id of the current project will be sorted to
           // the top of our process list.
           CpuThreadSliceInfo[] processList = parser.getProcessList(myServices.getApplicationId());
@@ -319,13 +319,13 @@ public class CpuCaptureParser {
 
       TraceParser parser;
       if (profilerType == CpuTraceType.ART) {
-        parser = new ArtTraceParser();
+        parser = new ArtTraceParser(myServices.getFeatureConfig().isCpuMappedArtParserEnabled());
       }
       else if (profilerType == CpuTraceType.SIMPLEPERF) {
         parser = new SimpleperfTraceParser();
       }
       else if (profilerType == CpuTraceType.ATRACE) {
-        parser = new AtraceParser(session.getPid());
+        parser = new AtraceParser(session.getPid(), myServices.getFeatureConfig().isPerfettoDirectImportEnabled());
       }
       else {
         throw new IllegalStateException("Trace file cannot be parsed. Profiler type (ART, simpleperf, or atrace) needs to be set.");
@@ -16,6 +16,7 @@
 package com.android.tools.profilers.cpu;
 
 import com.android.tools.adtui.model.DataSeries;
+import com.android.tools.adtui.model.DownsampledDataSeries;
 import com.android.tools.adtui.model.LineChartModel;
 import com.android.tools.adtui.model.Range;
 import com.android.tools.adtui.model.RangedContinuousSeries;
@@ -52,6 +53,9 @@ public class CpuUsage extends LineChartModel {
       series =
         new CpuUsageDataSeries(profilers.getClient().getCpuClient(), profilers.getSession(), dataList -> extractData(dataList, false));
     }
+    if (profilers.getIdeServices().getFeatureConfig().isChartDownsamplingEnabled()) {
+      series = new DownsampledDataSeries(series);
+    }
     myCpuSeries = new RangedContinuousSeries(getCpuSeriesLabel(), profilers.getTimeline().getViewRange(), myCpuRange, series);
     add(myCpuSeries);
   }
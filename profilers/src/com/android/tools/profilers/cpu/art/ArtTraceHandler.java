@@ -23,6 +23,7 @@ import com.android.tools.profilers.cpu.CpuThreadInfo;
 import com.android.tools.profilers.cpu.nodemodel.CaptureNodeModel;
 import com.android.tools.profilers.cpu.nodemodel.JavaMethodModel;
 import com.android.tools.profilers.cpu.nodemodel.SingleNameModel;
+import com.google.common.base.Strings;
 import java.util.ArrayDeque;
 import java.util.Deque;
 import java.util.HashMap;
@@ -61,7 +62,8 @@ public class ArtTraceHandler implements VmTraceHandler {
 
   @Override
   public void addMethod(long id, MethodInfo info) {
-    myMethods.put(id, new JavaMethodModel(info.methodName, info.className, info.signature));
+    // Methods listed by source file and line number only have no name or signature.
+    myMethods.put(id, new JavaMethodModel(Strings.nullToEmpty(info.methodName), info.className, Strings.nullToEmpty(info.signature)));
   }
 
   @Override
@@ -119,8 +121,7 @@ public class ArtTraceHandler implements VmTraceHandler {
       assert topLevelCall != null;
       CpuThreadInfo info = new CpuThreadInfo(id, name, name.equals(MAIN_THREAD_NAME));
 
-      long topLevelGlobalStart = topLevelCall.getStartGlobal() + myStartTimeUs;
-      adjustNodesTimeAndDepth(topLevelCall, topLevelGlobalStart);
+      adjustNodesTimeAndDepth(topLevelCall, myStartTimeUs);
 
       threadsGraph.put(info, topLevelCall);
     }
@@ -129,17 +130,18 @@ public class ArtTraceHandler implements VmTraceHandler {
   }
 
   /**
-   * Adjusts global and thread time from relative to absolute time and the depth of nodes.
+   * Adjusts global and thread time of a thread's call tree from relative to absolute time and the depth of nodes.
    */
-  private void adjustNodesTimeAndDepth(CaptureNode node, long topLevelStart) {
+  static void adjustNodesTimeAndDepth(@NotNull CaptureNode topLevelCall, long startTimeUs) {
+    long topLevelStart = topLevelCall.getStartGlobal() + startTimeUs;
     Deque<CaptureNode> stack = new ArrayDeque<>();
-    stack.push(node);
+    stack.push(topLevelCall);
 
     while (!stack.isEmpty()) {
       CaptureNode current = stack.pop();
 
-      current.setStartGlobal(myStartTimeUs + current.getStartGlobal());
-      current.setEndGlobal(myStartTimeUs + current.getEndGlobal());
+      current.setStartGlobal(startTimeUs + current.getStartGlobal());
+      current.setEndGlobal(startTimeUs + current.getEndGlobal());
       CaptureNode parent = current.getParent();
       current.setDepth(parent == null ? 0 : parent.getDepth() + 1);
       // Timestamps of ClockType.THREAD are stored in a different way: the first event on the thread is considered as the base
@@ -25,6 +25,7 @@ import com.android.tools.profilers.cpu.TraceParser;
 import java.io.File;
 import java.io.IOException;
 import java.util.Map;
+import org.jetbrains.annotations.Nullable;
 
 /**
  * Receives a binary trace file generated by using ART and parse it into a {@link CpuCapture}
@@ -33,20 +34,46 @@ public class ArtTraceParser implements TraceParser {
 
   private final ArtTraceHandler myTraceHandler = new ArtTraceHandler();
 
+  /**
+   * Whether traces with a text header should be parsed by {@link MappedArtTrace} rather than by perflib's {@link VmTraceParser}.
+   */
+  private final boolean myUseMappedParser;
+
+  /**
+   * Set when the trace was parsed by {@link MappedArtTrace}.
+   */
+  @Nullable private MappedArtTrace myMappedTrace;
+
+  public ArtTraceParser() {
+    this(false);
+  }
+
+  public ArtTraceParser(boolean useMappedParser) {
+    myUseMappedParser = useMappedParser;
+  }
+
   @Override
   public CpuCapture parse(File trace, long traceId) throws IOException {
-    VmTraceParser parser = new VmTraceParser(trace, myTraceHandler);
-    parser.parse();
+    if (myUseMappedParser && MappedArtTrace.hasTextHeader(trace)) {
+      myMappedTrace = MappedArtTrace.parse(trace);
+    }
+    else {
+      VmTraceParser parser = new VmTraceParser(trace, myTraceHandler);
+      parser.parse();
+    }
     return new CpuCapture(this, traceId, Cpu.CpuTraceType.ART);
   }
 
   @Override
   public Map<CpuThreadInfo, CaptureNode> getCaptureTrees() {
-    return myTraceHandler.getThreadsGraph();
+    return myMappedTrace != null ? myMappedTrace.getThreadsGraph() : myTraceHandler.getThreadsGraph();
   }
 
   @Override
   public Range getRange() {
+    if (myMappedTrace != null) {
+      return new Range(myMappedTrace.getStartTimeUs(), myMappedTrace.getStartTimeUs() + myMappedTrace.getElapsedTimeUs());
+    }
     return new Range(myTraceHandler.getStartTimeUs(), myTraceHandler.getStartTimeUs() + myTraceHandler.getElapsedTimeUs());
   }
 
@@ -0,0 +1,358 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.art;
+
+import com.android.tools.perflib.vmtrace.TraceAction;
+import com.android.tools.profilers.cpu.CaptureNode;
+import com.android.tools.profilers.cpu.CpuThreadInfo;
+import com.android.tools.profilers.cpu.nodemodel.CaptureNodeModel;
+import com.android.tools.profilers.cpu.nodemodel.JavaMethodModel;
+import com.android.tools.profilers.cpu.nodemodel.SingleNameModel;
+import gnu.trove.TIntArrayList;
+import gnu.trove.TIntObjectHashMap;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Parses an ART method trace (the format with a text header, written by {@code Debug.startMethodTracing}) without going through
+ * perflib's {@code VmTraceParser}.
+ * <p>
+ * The file is memory-mapped instead of read into the heap. A first sequential pass over the records only reads their thread ids, to
+ * index which records belong to which thread. The call trees are then built in parallel, one task per thread, each reading its own
+ * records straight from the mapped file. The trees are the same as the ones {@link ArtTraceHandler} builds.
+ */
+final class MappedArtTrace {
+  private static final String HEADER_SECTION_VERSION = "*version";
+  private static final String HEADER_SECTION_THREADS = "*threads";
+  private static final String HEADER_SECTION_METHODS = "*methods";
+  private static final String HEADER_END = "*end";
+
+  private static final String KEY_CLOCK = "clock";
+  private static final String KEY_ELAPSED_TIME_US = "elapsed-time-usec";
+  private static final String MAIN_THREAD_NAME = "main";
+
+  private static final int TRACE_MAGIC = 0x574f4c53; // 'SLOW'
+  private static final int METHOD_ACTION_MASK = 0x03;
+
+  private static final ByteBuffer EMPTY_RECORDS = ByteBuffer.allocate(0);
+
+  private enum Clock {
+    THREAD,
+    WALL,
+    DUAL
+  }
+
+  @NotNull private final Map<Integer, String> myThreads = new HashMap<>();
+
+  /**
+   * Models of the methods in the header, plus the ones of unknown methods, which are created by the thread tasks as they find them.
+   */
+  @NotNull private final Map<Long, CaptureNodeModel> myMethods = new ConcurrentHashMap<>();
+
+  @NotNull private Clock myClock = Clock.THREAD;
+  private long myStartTimeUs;
+  private long myElapsedTimeUs;
+
+  @NotNull private ByteBuffer myRecords = EMPTY_RECORDS;
+  private int myRecordSize;
+  private boolean myHasByteThreadIds;
+
+  @NotNull private Map<CpuThreadInfo, CaptureNode> myThreadsGraph = new HashMap<>();
+
+  private MappedArtTrace() {
+  }
+
+  /**
+   * @return whether the file starts with the text header this class can parse. Traces in other formats, e.g. streaming ones, should go
+   * through {@code VmTraceParser}.
+   */
+  static boolean hasTextHeader(@NotNull File trace) throws IOException {
+    byte[] expected = HEADER_SECTION_VERSION.getBytes(StandardCharsets.US_ASCII);
+    byte[] actual = new byte[expected.length];
+    try (RandomAccessFile file = new RandomAccessFile(trace, "r")) {
+      if (file.length() < expected.length) {
+        return false;
+      }
+      file.readFully(actual);
+    }
+    return Arrays.equals(expected, actual);
+  }
+
+  /**
+   * @throws IOException if the file cannot be read or its header is malformed.
+   * @throws BufferUnderflowException if the records are truncated.
+   */
+  @NotNull
+  static MappedArtTrace parse(@NotNull File trace) throws IOException {
+    MappedArtTrace parsed = new MappedArtTrace();
+    ByteBuffer buffer;
+    try (RandomAccessFile file = new RandomAccessFile(trace, "r"); FileChannel channel = file.getChannel()) {
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    parsed.parseTextHeader(buffer);
+    parsed.parseDataHeader(buffer.slice().order(ByteOrder.LITTLE_ENDIAN));
+    parsed.myThreadsGraph = parsed.buildThreadsGraph(parsed.indexRecordsByThread());
+    // The trees hold everything that was read from the records, so let the mapping be released with the buffer instead of with this.
+    parsed.myRecords = EMPTY_RECORDS;
+    return parsed;
+  }
+
+  @NotNull
+  Map<CpuThreadInfo, CaptureNode> getThreadsGraph() {
+    return myThreadsGraph;
+  }
+
+  long getStartTimeUs() {
+    return myStartTimeUs;
+  }
+
+  long getElapsedTimeUs() {
+    return myElapsedTimeUs;
+  }
+
+  /**
+   * Reads the text sections of the header, leaving the buffer positioned at the binary data that follows them.
+   */
+  private void parseTextHeader(@NotNull ByteBuffer buffer) throws IOException {
+    String line = readLine(buffer);
+    if (!HEADER_SECTION_VERSION.equals(line)) {
+      throw new IOException("Trace does not start with a " + HEADER_SECTION_VERSION + " section.");
+    }
+    // The version of the text header is not needed, the binary header has its own.
+    readLine(buffer);
+
+    String section = HEADER_SECTION_VERSION;
+    while (true) {
+      line = readLine(buffer);
+      if (line == null) {
+        throw new IOException("Trace header does not have an " + HEADER_END + " section.");
+      }
+      if (line.startsWith("*")) {
+        if (line.equals(HEADER_END)) {
+          return;
+        }
+        section = line;
+        continue;
+      }
+
+      switch (section) {
+        case HEADER_SECTION_VERSION:
+          parseProperty(line);
+          break;
+        case HEADER_SECTION_THREADS:
+          parseThread(line);
+          break;
+        case HEADER_SECTION_METHODS:
+          parseMethod(line);
+          break;
+        default:
+          throw new IOException("Unknown trace header section: " + section);
+      }
+    }
+  }
+
+  private void parseProperty(@NotNull String line) throws IOException {
+    int separator = line.indexOf('=');
+    if (separator < 0) {
+      throw new IOException("Malformed trace property: " + line);
+    }
+    String key = line.substring(0, separator);
+    String value = line.substring(separator + 1);
+    try {
+      if (key.equals(KEY_CLOCK)) {
+        myClock = value.equals("dual") ? Clock.DUAL : value.equals("wall") ? Clock.WALL : Clock.THREAD;
+      }
+      else if (key.equals(KEY_ELAPSED_TIME_US)) {
+        myElapsedTimeUs = Long.parseLong(value);
+      }
+    }
+    catch (NumberFormatException e) {
+      throw new IOException("Malformed trace property: " + line, e);
+    }
+  }
+
+  private void parseThread(@NotNull String line) {
+    String[] tokens = line.split("\t", 2);
+    try {
+      myThreads.put(Integer.decode(tokens[0]), tokens.length > 1 ? tokens[1] : "");
+    }
+    catch (NumberFormatException ignored) {
+      // Only the name of the thread is lost, its records will show up under a default one.
+    }
+  }
+
+  /**
+   * Parses a method line the way {@code VmTraceParser} does. The line always starts with the method id and class name, which can be
+   * followed by the method name and signature, then optionally by the source file and line number, or directly by the source file and
+   * line number.
+   */
+  private void parseMethod(@NotNull String line) throws IOException {
+    String[] tokens = line.split("\t");
+    if (tokens.length < 2) {
+      throw new IOException("Malformed trace method: " + line);
+    }
+    String name = "";
+    String signature = "";
+    if (tokens.length >= 4 && tokens[3].startsWith("(")) {
+      name = tokens[2];
+      signature = tokens[3];
+    }
+    try {
+      myMethods.put(Long.decode(tokens[0]), new JavaMethodModel(name, tokens[1], signature));
+    }
+    catch (NumberFormatException e) {
+      throw new IOException("Malformed trace method: " + line, e);
+    }
+  }
+
+  private void parseDataHeader(@NotNull ByteBuffer data) throws IOException {
+    if (data.getInt() != TRACE_MAGIC) {
+      throw new IOException("Trace data does not start with the expected magic number.");
+    }
+    int version = data.getShort();
+    int offsetToRecords = data.getShort();
+    myStartTimeUs = data.getLong();
+    if (version == 1) {
+      myRecordSize = 9;
+      myHasByteThreadIds = true;
+    }
+    else if (version == 2) {
+      myRecordSize = 10;
+    }
+    else {
+      myRecordSize = data.getShort();
+    }
+    int minRecordSize = (myHasByteThreadIds ? 1 : 2) + 4 + (myClock == Clock.DUAL ? 8 : 4);
+    if (myRecordSize < minRecordSize) {
+      throw new IOException("Unexpected trace record size: " + myRecordSize);
+    }
+    data.position(offsetToRecords);
+    myRecords = data.slice().order(ByteOrder.LITTLE_ENDIAN);
+    if (myRecords.remaining() % myRecordSize != 0) {
+      // The last record was cut short.
+      throw new BufferUnderflowException();
+    }
+  }
+
+  /**
+   * @return the indices of the records of each thread, in file order.
+   */
+  @NotNull
+  private TIntObjectHashMap<TIntArrayList> indexRecordsByThread() {
+    TIntObjectHashMap<TIntArrayList> recordsByThread = new TIntObjectHashMap<>();
+    int recordCount = myRecords.remaining() / myRecordSize;
+    for (int record = 0; record < recordCount; record++) {
+      int threadId = getThreadId(myRecords, record);
+      TIntArrayList records = recordsByThread.get(threadId);
+      if (records == null) {
+        records = new TIntArrayList();
+        recordsByThread.put(threadId, records);
+      }
+      records.add(record);
+    }
+    return recordsByThread;
+  }
+
+  @NotNull
+  private Map<CpuThreadInfo, CaptureNode> buildThreadsGraph(@NotNull TIntObjectHashMap<TIntArrayList> recordsByThread) {
+    int[] threadIds = recordsByThread.keys();
+    for (int threadId : threadIds) {
+      myThreads.putIfAbsent(threadId, String.format("Thread id: %1$d", threadId));
+    }
+
+    CaptureNode[] trees = new CaptureNode[threadIds.length];
+    IntStream.range(0, threadIds.length).parallel().forEach(i -> trees[i] = buildTree(threadIds[i], recordsByThread.get(threadIds[i])));
+
+    Map<CpuThreadInfo, CaptureNode> threadsGraph = new HashMap<>(threadIds.length);
+    for (int i = 0; i < threadIds.length; i++) {
+      String name = myThreads.get(threadIds[i]);
+      threadsGraph.put(new CpuThreadInfo(threadIds[i], name, name.equals(MAIN_THREAD_NAME)), trees[i]);
+    }
+    return threadsGraph;
+  }
+
+  @NotNull
+  private CaptureNode buildTree(int threadId, @NotNull TIntArrayList records) {
+    // Each task reads through its own view of the mapping, as buffers are not thread-safe.
+    ByteBuffer buffer = myRecords.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    CaptureNodeConstructor constructor = new CaptureNodeConstructor(new SingleNameModel(myThreads.get(threadId)));
+    int methodOffset = myHasByteThreadIds ? 1 : 2;
+    for (int i = 0; i < records.size(); i++) {
+      int position = records.get(i) * myRecordSize + methodOffset;
+      int methodValue = buffer.getInt(position);
+      int threadTime = 0;
+      int globalTime = 0;
+      switch (myClock) {
+        case THREAD:
+          threadTime = buffer.getInt(position + 4);
+          break;
+        case WALL:
+          globalTime = buffer.getInt(position + 4);
+          break;
+        case DUAL:
+          threadTime = buffer.getInt(position + 4);
+          globalTime = buffer.getInt(position + 8);
+          break;
+      }
+      long methodId = methodValue & ~METHOD_ACTION_MASK & 0xFFFFFFFFL;
+      TraceAction action = (methodValue & METHOD_ACTION_MASK) == 0 ? TraceAction.METHOD_ENTER : TraceAction.METHOD_EXIT;
+      CaptureNodeModel method = myMethods.computeIfAbsent(methodId, id -> new SingleNameModel("unknown"));
+      constructor.addTraceAction(method, action, threadTime, globalTime);
+    }
+
+    CaptureNode topLevelCall = constructor.getTopLevel();
+    ArtTraceHandler.adjustNodesTimeAndDepth(topLevelCall, myStartTimeUs);
+    return topLevelCall;
+  }
+
+  private int getThreadId(@NotNull ByteBuffer buffer, int record) {
+    int position = record * myRecordSize;
+    return myHasByteThreadIds ? buffer.get(position) & 0xFF : buffer.getShort(position) & 0xFFFF;
+  }
+
+  /**
+   * @return the next line of the header, without its line terminator, or null if the buffer has no more data.
+   */
+  private static String readLine(@NotNull ByteBuffer buffer) {
+    if (!buffer.hasRemaining()) {
+      return null;
+    }
+    int start = buffer.position();
+    int end = start;
+    while (end < buffer.limit() && buffer.get(end) != '\n') {
+      end++;
+    }
+    byte[] bytes = new byte[end - start];
+    buffer.get(bytes);
+    if (buffer.hasRemaining()) {
+      // Skip the line terminator.
+      buffer.get();
+    }
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
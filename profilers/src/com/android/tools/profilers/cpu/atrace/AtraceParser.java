@@ -83,6 +83,11 @@ public class AtraceParser implements TraceParser {
   private Model myModel;
   private Range myRange;
   private AtraceFrameManager myFrameInfo;
+  /**
+   * Whether perfetto traces should be imported by {@link PerfettoModelImporter} rather than converted to atrace lines by
+   * {@link PerfettoProducer}.
+   */
+  private final boolean myUsePerfettoImporter;
 
   /**
    * This constructor parses the atrace model from the file and should be used for getting the list
@@ -90,7 +95,11 @@ public class AtraceParser implements TraceParser {
    * to be called before parse.
    */
   public AtraceParser(@NotNull File file) throws IOException {
-    this(INVALID_PROCESS);
+    this(file, false);
+  }
+
+  public AtraceParser(@NotNull File file, boolean usePerfettoImporter) throws IOException {
+    this(INVALID_PROCESS, usePerfettoImporter);
     parseModelIfNeeded(file);
   }
 
@@ -99,7 +108,12 @@ public class AtraceParser implements TraceParser {
    * and expects parse with the proper file to be called.
    */
   public AtraceParser(int processId) {
+    this(processId, false);
+  }
+
+  public AtraceParser(int processId, boolean usePerfettoImporter) {
     myProcessId = processId;
+    myUsePerfettoImporter = usePerfettoImporter;
     myCaptureTreeNodes = new HashMap<>();
     myThreadStateData = new HashMap<>();
     myCpuSchedulingToCpuData = new HashMap<>();
@@ -130,18 +144,19 @@ public class AtraceParser implements TraceParser {
    */
   private void parseModelIfNeeded(@NotNull File file) throws IOException {
     if (myModel == null) {
-      TrebuchetBufferProducer producer;
-      if (AtraceProducer.verifyFileHasAtraceHeader(file)) {
-        producer = new AtraceProducer();
-      } else {
-        producer = new PerfettoProducer();
-      }
-      if (!producer.parseFile(file)) {
-        throw new IOException("Failed to parse file: " + file.getAbsolutePath());
+      boolean isAtrace = AtraceProducer.verifyFileHasAtraceHeader(file);
+      if (!isAtrace && myUsePerfettoImporter) {
+        myModel = PerfettoModelImporter.importFile(file);
       }
+      else {
+        TrebuchetBufferProducer producer = isAtrace ? new AtraceProducer() : new PerfettoProducer();
+        if (!producer.parseFile(file)) {
+          throw new IOException("Failed to parse file: " + file.getAbsolutePath());
+        }
 
-      ImportTask task = new ImportTask(new PrintlnImportFeedback());
-      myModel = task.importBuffer(producer);
+        ImportTask task = new ImportTask(new PrintlnImportFeedback());
+        myModel = task.importBuffer(producer);
+      }
       // We check if we have a parent timestamp. If not this could be from an imported trace.
       // In the case it is 0, we use the first timestamp of our capture as a reference point.
       if (Double.compare(myModel.getParentTimestamp(),0.0) == 0) {
@@ -0,0 +1,287 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.atrace;
+
+import com.intellij.openapi.util.io.FileUtil;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Sorts binary records by timestamp without keeping all of them in memory. Records are buffered until they exceed the memory budget,
+ * then the buffer is sorted and written to a temporary file as a run. Once all the records have been added, {@link #resetForIterator()}
+ * prepares a k-way merge of the runs, and the records are returned in timestamp order. Records with the same timestamp are returned in
+ * the order they were added.
+ * <p>
+ * This is used to sort {@link perfetto.protos.PerfettoTrace.FtraceEvent}s, as the bundles come in out of order, as well as the events
+ * within a bundle.
+ */
+public class ExternalMergeSorter implements Iterator<byte[]>, Closeable {
+  /**
+   * Memory used to buffer records before they are spilled to disk, when not specified.
+   */
+  public static final long DEFAULT_MEMORY_BUDGET_BYTES = 64 * 1024 * 1024;
+
+  /**
+   * Rough memory cost of a buffered record on top of its bytes: the timestamp, the array header and the reference to it.
+   */
+  private static final int RECORD_OVERHEAD_BYTES = 32;
+
+  private static final int IO_BUFFER_SIZE = 64 * 1024;
+
+  private final long myMemoryBudgetBytes;
+
+  private long[] myTimestamps = new long[1024];
+  private final List<byte[]> myRecords = new ArrayList<>();
+  private long myBufferedBytes;
+
+  @NotNull private final List<File> myRunFiles = new ArrayList<>();
+
+  /**
+   * Runs that still have records to return, ordered by their next record. Null until {@link #resetForIterator()} is called.
+   */
+  private PriorityQueue<Run> myRuns;
+
+  public ExternalMergeSorter() {
+    this(DEFAULT_MEMORY_BUDGET_BYTES);
+  }
+
+  public ExternalMergeSorter(long memoryBudgetBytes) {
+    myMemoryBudgetBytes = memoryBudgetBytes;
+  }
+
+  /**
+   * Adds a record to be sorted. All records must be added before {@link #resetForIterator()} is called.
+   */
+  public void add(long timestamp, @NotNull byte[] record) throws IOException {
+    if (myRuns != null) {
+      throw new IllegalStateException("Records can't be added once the sorter is being iterated.");
+    }
+    int index = myRecords.size();
+    if (index == myTimestamps.length) {
+      myTimestamps = Arrays.copyOf(myTimestamps, index * 2);
+    }
+    myTimestamps[index] = timestamp;
+    myRecords.add(record);
+    myBufferedBytes += record.length + RECORD_OVERHEAD_BYTES;
+    if (myBufferedBytes >= myMemoryBudgetBytes) {
+      spill();
+    }
+  }
+
+  /**
+   * Finalizes this sorter for writing and enables it for reading. Records that are still buffered are merged with the runs on disk,
+   * or returned directly if nothing was spilled.
+   */
+  public void resetForIterator() throws IOException {
+    myRuns = new PriorityQueue<>(Comparator.comparingLong(Run::getTimestamp).thenComparingInt(Run::getIndex));
+    if (myRunFiles.isEmpty()) {
+      Run run = new MemoryRun(myTimestamps, myRecords, sortBuffer());
+      if (run.advance()) {
+        myRuns.add(run);
+      }
+    }
+    else {
+      spill();
+      for (int i = 0; i < myRunFiles.size(); i++) {
+        Run run = new FileRun(i, myRunFiles.get(i));
+        if (run.advance()) {
+          myRuns.add(run);
+        }
+      }
+    }
+  }
+
+  @Override
+  public boolean hasNext() {
+    return myRuns != null && !myRuns.isEmpty();
+  }
+
+  @Override
+  @NotNull
+  public byte[] next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    Run run = myRuns.poll();
+    byte[] record = run.getRecord();
+    try {
+      if (run.advance()) {
+        myRuns.add(run);
+      }
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return record;
+  }
+
+  /**
+   * Deletes the runs written to disk.
+   */
+  @Override
+  public void close() throws IOException {
+    if (myRuns != null) {
+      for (Run run : myRuns) {
+        run.close();
+      }
+      myRuns.clear();
+    }
+    myRecords.clear();
+    for (File file : myRunFiles) {
+      FileUtil.delete(file);
+    }
+    myRunFiles.clear();
+  }
+
+  /**
+   * @return the indices of the buffered records, sorted by timestamp then by insertion order.
+   */
+  @NotNull
+  private Integer[] sortBuffer() {
+    Integer[] order = new Integer[myRecords.size()];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    // Arrays#sort is stable for objects, so records with the same timestamp keep the order they were added in.
+    long[] timestamps = myTimestamps;
+    Arrays.sort(order, Comparator.comparingLong(i -> timestamps[i]));
+    return order;
+  }
+
+  private void spill() throws IOException {
+    if (myRecords.isEmpty()) {
+      return;
+    }
+    File file = FileUtil.createTempFile("perfetto", ".run", true);
+    myRunFiles.add(file);
+    try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), IO_BUFFER_SIZE))) {
+      for (int index : sortBuffer()) {
+        byte[] record = myRecords.get(index);
+        output.writeLong(myTimestamps[index]);
+        output.writeInt(record.length);
+        output.write(record);
+      }
+    }
+    myRecords.clear();
+    myBufferedBytes = 0;
+  }
+
+  /**
+   * A sorted sequence of records, positioned on its current record.
+   */
+  private static abstract class Run implements Closeable {
+    private final int myIndex;
+    protected long myTimestamp;
+    protected byte[] myRecord;
+
+    Run(int index) {
+      myIndex = index;
+    }
+
+    int getIndex() {
+      return myIndex;
+    }
+
+    long getTimestamp() {
+      return myTimestamp;
+    }
+
+    byte[] getRecord() {
+      return myRecord;
+    }
+
+    /**
+     * Moves to the next record.
+     *
+     * @return false if there are no more records, in which case the run is closed.
+     */
+    abstract boolean advance() throws IOException;
+
+    @Override
+    public void close() throws IOException {
+    }
+  }
+
+  private static final class MemoryRun extends Run {
+    @NotNull private final long[] myTimestamps;
+    @NotNull private final List<byte[]> myRecords;
+    @NotNull private final Integer[] myOrder;
+    private int myPosition;
+
+    MemoryRun(@NotNull long[] timestamps, @NotNull List<byte[]> records, @NotNull Integer[] order) {
+      super(0);
+      myTimestamps = timestamps;
+      myRecords = records;
+      myOrder = order;
+    }
+
+    @Override
+    boolean advance() {
+      if (myPosition == myOrder.length) {
+        return false;
+      }
+      int index = myOrder[myPosition++];
+      myTimestamp = myTimestamps[index];
+      myRecord = myRecords.get(index);
+      return true;
+    }
+  }
+
+  private static final class FileRun extends Run {
+    @NotNull private final DataInputStream myInput;
+    private long myRemainingBytes;
+
+    FileRun(int index, @NotNull File file) throws IOException {
+      super(index);
+      myInput = new DataInputStream(new BufferedInputStream(new FileInputStream(file), IO_BUFFER_SIZE));
+      myRemainingBytes = file.length();
+    }
+
+    @Override
+    boolean advance() throws IOException {
+      if (myRemainingBytes == 0) {
+        close();
+        return false;
+      }
+      myTimestamp = myInput.readLong();
+      myRecord = new byte[myInput.readInt()];
+      myInput.readFully(myRecord);
+      myRemainingBytes -= Long.BYTES + Integer.BYTES + myRecord.length;
+      return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+      myInput.close();
+    }
+  }
+}
@@ -0,0 +1,348 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.atrace;
+
+import com.android.tools.profiler.protobuf3jarjar.ByteString;
+import com.android.tools.profiler.protobuf3jarjar.CodedInputStream;
+import com.android.tools.profiler.protobuf3jarjar.DescriptorProtos;
+import com.android.tools.profiler.protobuf3jarjar.ExtensionRegistryLite;
+import com.intellij.openapi.diagnostic.Logger;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import perfetto.protos.PerfettoTrace;
+import trebuchet.importers.ftrace.FtraceEventImporter;
+import trebuchet.model.ConstantsKt;
+import trebuchet.model.Model;
+import trebuchet.util.PrintlnImportFeedback;
+
+/**
+ * Builds a trebuchet {@link Model} straight from a perfetto trace. Unlike {@link PerfettoProducer}, events are not formatted as atrace
+ * lines to be parsed back by trebuchet, they are handed to a {@link FtraceEventImporter} as they are.
+ * <p>
+ * Packets are read sequentially and decoded in parallel, a batch at a time. The supported events are encoded as compact records and sorted
+ * by timestamp with an {@link ExternalMergeSorter}, as trebuchet expects events in order. Thread names and thread groups only need to be
+ * known when the events are imported, so the file is read once.
+ */
+public class PerfettoModelImporter implements Closeable {
+  /**
+   * Number of packets decoded in parallel. A packet holds the events of one CPU for a while, so a batch is a few megabytes.
+   */
+  private static final int BATCH_SIZE = 256;
+
+  private static final byte SCHED_SWITCH = 0;
+  private static final byte SCHED_WAKEUP = 1;
+  private static final byte PRINT = 2;
+
+  // Maps thread id to thread group id. A tgid is the thread id at the root of the tree. This is also known as the PID in user space.
+  private final Map<Integer, Integer> myTidToTgid = new HashMap<>();
+  private final Map<Integer, String> myTidToName = new HashMap<>();
+  @NotNull private final ExternalMergeSorter mySorter;
+  @NotNull private final ExtensionRegistryLite myPacketRegistry = ExtensionRegistryLite.newInstance();
+
+  /**
+   * The first clock snapshot of the trace, used to align the trace with the rest of the profiler data.
+   */
+  @Nullable private PerfettoTrace.ClockSnapshot myClockSnapshot;
+
+  /**
+   * @return the model of the perfetto trace held by the given file.
+   */
+  @NotNull
+  public static Model importFile(@NotNull File file) throws IOException {
+    try (PerfettoModelImporter importer = new PerfettoModelImporter(new ExternalMergeSorter())) {
+      return importer.importTrace(file);
+    }
+  }
+
+  PerfettoModelImporter(@NotNull ExternalMergeSorter sorter) {
+    mySorter = sorter;
+    PerfettoTrace.registerAllExtensions(myPacketRegistry);
+  }
+
+  @NotNull
+  Model importTrace(@NotNull File file) throws IOException {
+    // Add a special case name for thread id 0.
+    // Thread id 0 is used for events that are generated by the system not associated with any process.
+    // In systrace and perfetto they use <idle> as the name for events generated with this thread id.
+    myTidToName.put(0, "<idle>");
+    try (InputStream input = new FileInputStream(file)) {
+      CodedInputStream stream = CodedInputStream.newInstance(input);
+      List<ByteString> batch = new ArrayList<>(BATCH_SIZE);
+      ByteString packet;
+      while ((packet = readOnePacket(stream)) != null) {
+        batch.add(packet);
+        if (batch.size() == BATCH_SIZE) {
+          addBatch(batch);
+          batch.clear();
+        }
+      }
+      addBatch(batch);
+    }
+
+    FtraceEventImporter importer = new FtraceEventImporter(new PrintlnImportFeedback());
+    if (myClockSnapshot != null) {
+      addClockSync(importer, myClockSnapshot);
+    }
+    mySorter.resetForIterator();
+    while (mySorter.hasNext()) {
+      importRecord(importer, mySorter.next());
+    }
+    return new Model(importer.finish());
+  }
+
+  @Override
+  public void close() throws IOException {
+    myTidToName.clear();
+    myTidToTgid.clear();
+    mySorter.close();
+  }
+
+  /**
+   * Reads the bytes of the next {@link PerfettoTrace.TracePacket}, leaving the decoding to {@link #decode(ByteString)}.
+   *
+   * @return null at the end of the stream.
+   */
+  @Nullable
+  private static ByteString readOnePacket(@NotNull CodedInputStream stream) throws IOException {
+    // Coded Input Streams by default only let you read in 64KB of data from one proto message. Because our root level proto message is
+    // greater than this we need to reset the size counter each time we read a new packet.
+    stream.resetSizeCounter();
+    int tag = stream.readTag();
+    if (tag == 0) {
+      return null;
+    }
+    // The Trace proto has a single repeated field of packets, we can't process anything else.
+    if (tag != DescriptorProtos.FieldDescriptorProto.Type.TYPE_GROUP_VALUE) {
+      getLogger().error(String.format("Encounted unknown tag (%d) when attempting to parse perfetto capture.", tag));
+      return null;
+    }
+    return stream.readBytes();
+  }
+
+  /**
+   * Decodes the packets of a batch in parallel, then merges their content in file order. Keeping the file order means the first name seen
+   * for a thread wins, and events with the same timestamp are imported in the order they were recorded.
+   */
+  private void addBatch(@NotNull List<ByteString> batch) throws IOException {
+    List<DecodedPacket> decodedPackets;
+    try {
+      decodedPackets = batch.parallelStream().map(this::decode).collect(Collectors.toList());
+    }
+    catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+
+    for (DecodedPacket decoded : decodedPackets) {
+      decoded.myThreadNames.forEach(myTidToName::putIfAbsent);
+      decoded.myThreadGroups.forEach(myTidToTgid::putIfAbsent);
+      if (myClockSnapshot == null) {
+        myClockSnapshot = decoded.myClockSnapshot;
+      }
+      for (int i = 0; i < decoded.myRecords.size(); i++) {
+        mySorter.add(decoded.myTimestamps.get(i), decoded.myRecords.get(i));
+      }
+    }
+  }
+
+  @NotNull
+  private DecodedPacket decode(@NotNull ByteString bytes) {
+    DecodedPacket decoded = new DecodedPacket();
+    try {
+      PerfettoTrace.TracePacket packet = PerfettoTrace.TracePacket.parseFrom(bytes, myPacketRegistry);
+      if (packet.hasFtraceEvents()) {
+        PerfettoTrace.FtraceEventBundle bundle = packet.getFtraceEvents();
+        for (PerfettoTrace.FtraceEvent event : bundle.getEventList()) {
+          byte[] record = encode(event, bundle.getCpu());
+          if (record == null) {
+            continue;
+          }
+          decoded.myTimestamps.add(event.getTimestamp());
+          decoded.myRecords.add(record);
+          if (event.hasSchedSwitch()) {
+            PerfettoTrace.SchedSwitchFtraceEvent schedSwitch = event.getSchedSwitch();
+            decoded.myThreadNames.putIfAbsent(schedSwitch.getPrevPid(), schedSwitch.getPrevComm());
+            decoded.myThreadNames.putIfAbsent(schedSwitch.getNextPid(), schedSwitch.getNextComm());
+          }
+        }
+      }
+      else if (packet.hasProcessTree()) {
+        PerfettoTrace.ProcessTree processTree = packet.getProcessTree();
+        for (PerfettoTrace.ProcessTree.Process process : processTree.getProcessesList()) {
+          // Main threads will have the same pid as tgid.
+          decoded.myThreadGroups.putIfAbsent(process.getPid(), process.getPid());
+        }
+        for (PerfettoTrace.ProcessTree.Thread thread : processTree.getThreadsList()) {
+          decoded.myThreadGroups.putIfAbsent(thread.getTid(), thread.getTgid());
+          if (thread.hasName()) {
+            decoded.myThreadNames.putIfAbsent(thread.getTid(), thread.getName());
+          }
+        }
+      }
+      else if (packet.hasClockSnapshot()) {
+        decoded.myClockSnapshot = packet.getClockSnapshot();
+      }
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return decoded;
+  }
+
+  /**
+   * Encodes the fields of an event that trebuchet uses, so the event can go through the {@link ExternalMergeSorter}.
+   *
+   * @return null if trebuchet doesn't handle this kind of event.
+   */
+  @Nullable
+  private static byte[] encode(@NotNull PerfettoTrace.FtraceEvent event, int cpu) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+    DataOutputStream output = new DataOutputStream(bytes);
+    output.writeLong(event.getTimestamp());
+    if (event.hasSchedSwitch()) {
+      PerfettoTrace.SchedSwitchFtraceEvent schedSwitch = event.getSchedSwitch();
+      output.writeByte(SCHED_SWITCH);
+      output.writeInt(cpu);
+      output.writeInt(event.getPid());
+      output.writeInt(schedSwitch.getPrevPid());
+      output.writeUTF(schedSwitch.getPrevComm());
+      output.writeLong(schedSwitch.getPrevState());
+      output.writeInt(schedSwitch.getNextPid());
+      output.writeUTF(schedSwitch.getNextComm());
+    }
+    else if (event.hasSchedWakeup() || event.hasSchedWaking()) {
+      output.writeByte(SCHED_WAKEUP);
+      output.writeInt(cpu);
+      output.writeInt(event.getPid());
+      if (event.hasSchedWakeup()) {
+        output.writeInt(event.getSchedWakeup().getPid());
+        output.writeUTF(event.getSchedWakeup().getComm());
+      }
+      else {
+        output.writeInt(event.getSchedWaking().getPid());
+        output.writeUTF(event.getSchedWaking().getComm());
+      }
+    }
+    else if (event.hasPrint()) {
+      // Markers can be longer than writeUTF allows.
+      byte[] message = event.getPrint().getBuf().replace("\n", "").getBytes(StandardCharsets.UTF_8);
+      output.writeByte(PRINT);
+      output.writeInt(cpu);
+      output.writeInt(event.getPid());
+      output.writeInt(message.length);
+      output.write(message);
+    }
+    else {
+      return null;
+    }
+    return bytes.toByteArray();
+  }
+
+  private void importRecord(@NotNull FtraceEventImporter importer, @NotNull byte[] record) throws IOException {
+    DataInputStream input = new DataInputStream(new ByteArrayInputStream(record));
+    double timestamp = nanosToSeconds(input.readLong());
+    byte type = input.readByte();
+    int cpu = input.readInt();
+    int pid = input.readInt();
+    int tgid = myTidToTgid.getOrDefault(pid, ConstantsKt.InvalidId);
+    String task = myTidToName.get(pid);
+    switch (type) {
+      case SCHED_SWITCH: {
+        int prevPid = input.readInt();
+        String prevComm = input.readUTF();
+        long prevState = input.readLong();
+        int nextPid = input.readInt();
+        String nextComm = input.readUTF();
+        importer.schedSwitch(timestamp, cpu, pid, tgid, task, prevPid, prevComm, FtraceEventImporter.schedulingStateFor(prevState), nextPid,
+                             nextComm);
+        break;
+      }
+      case SCHED_WAKEUP: {
+        int wokenPid = input.readInt();
+        String wokenComm = input.readUTF();
+        importer.schedWakeup(timestamp, pid, tgid, task, wokenPid, wokenComm);
+        break;
+      }
+      case PRINT: {
+        byte[] message = new byte[input.readInt()];
+        input.readFully(message);
+        importer.tracingMarkWrite(timestamp, pid, tgid, task, new String(message, StandardCharsets.UTF_8));
+        break;
+      }
+      default:
+        throw new IllegalStateException("Unknown record type " + type);
+    }
+  }
+
+  private static void addClockSync(@NotNull FtraceEventImporter importer, @NotNull PerfettoTrace.ClockSnapshot snapshot) {
+    PerfettoTrace.ClockSnapshot.Clock monotonicClock = null;
+    PerfettoTrace.ClockSnapshot.Clock realtimeClock = null;
+    PerfettoTrace.ClockSnapshot.Clock boottimeClock = null;
+    for (PerfettoTrace.ClockSnapshot.Clock clock : snapshot.getClocksList()) {
+      if (clock.getType() == PerfettoTrace.ClockSnapshot.Clock.Type.MONOTONIC) {
+        monotonicClock = clock;
+      }
+      else if (clock.getType() == PerfettoTrace.ClockSnapshot.Clock.Type.REALTIME) {
+        realtimeClock = clock;
+      }
+      else if (clock.getType() == PerfettoTrace.ClockSnapshot.Clock.Type.BOOTTIME) {
+        boottimeClock = clock;
+      }
+    }
+    if (monotonicClock == null || realtimeClock == null || boottimeClock == null) {
+      getLogger().warn("The perfetto clock snapshot is missing a clock, the trace can't be aligned with other data.");
+      return;
+    }
+    importer.clockSync(nanosToSeconds(boottimeClock.getTimestamp()), nanosToSeconds(monotonicClock.getTimestamp()),
+                       TimeUnit.NANOSECONDS.toMillis(realtimeClock.getTimestamp()));
+  }
+
+  private static double nanosToSeconds(long nanos) {
+    return (double)nanos / TimeUnit.SECONDS.toNanos(1);
+  }
+
+  private static Logger getLogger() {
+    return Logger.getInstance(PerfettoModelImporter.class);
+  }
+
+  /**
+   * What a single packet contributes to the model. Only the fields matching the kind of packet are set.
+   */
+  private static final class DecodedPacket {
+    @NotNull private final List<Long> myTimestamps = new ArrayList<>();
+    @NotNull private final List<byte[]> myRecords = new ArrayList<>();
+    @NotNull private final Map<Integer, String> myThreadNames = new LinkedHashMap<>();
+    @NotNull private final Map<Integer, Integer> myThreadGroups = new LinkedHashMap<>();
+    @Nullable private PerfettoTrace.ClockSnapshot myClockSnapshot;
+  }
+}
@@ -30,7 +30,9 @@ import java.util.concurrent.TimeUnit;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import perfetto.protos.PerfettoTrace;
+import trebuchet.importers.ftrace.FtraceEventImporter;
 import trebuchet.io.DataSlice;
+import trebuchet.model.SchedulingState;
 
 /**
  * This class converts perfetto traces to {@link DataSlice} objects. The {@link DataSlice} objects are then used by the
@@ -52,16 +54,12 @@ public class PerfettoProducer implements TrebuchetBufferProducer {
   private final Map<Integer, Integer> myTidToTgid = new HashMap<>();
   private final Map<Integer, String> myTidToName = new HashMap<>();
   private final ArrayDeque<String> myGeneratedTrebuchetLines = new ArrayDeque<>();
-  private final PerfettoPacketDBSorter mySorter = new PerfettoPacketDBSorter();
+  private final ExternalMergeSorter mySorter = new ExternalMergeSorter();
 
   private static double NanosToSeconds(double nanos) {
     return nanos / TimeUnit.SECONDS.toNanos(1);
   }
 
-  private static double NanosToMillis(double nanos) {
-    return nanos / TimeUnit.MILLISECONDS.toNanos(1);
-  }
-
   /**
    * @param file handle to a file that represents a perfetto trace. A single trace packet will be read from this file to verify
    *             the file can be opened and parsed to a {@link PerfettoTrace.TracePacket}
@@ -188,7 +186,7 @@ public class PerfettoProducer implements TrebuchetBufferProducer {
         PerfettoTrace.FtraceEventBundle bundle = packet.getFtraceEvents();
         for(PerfettoTrace.FtraceEvent event : bundle.getEventList())
         if (IS_SUPPORTED_EVENT.apply(event)) {
-          mySorter.addLine(event.getTimestamp(), formatLine(event, bundle.getCpu()));
+          mySorter.add(event.getTimestamp(), toTrebuchetLine(formatLine(event, bundle.getCpu())));
         }
       }
     }
@@ -229,7 +227,7 @@ public class PerfettoProducer implements TrebuchetBufferProducer {
     //<...>-29454 (-----) [002] ...1 1214209.724366: tracing_mark_write: trace_event_clock_sync: realtime_ts=1520548500187
     myGeneratedTrebuchetLines.add(formatEventPrefix(boottimeClock.getTimestamp(), 0, Short.MAX_VALUE) +
                                   "tracing_mark_write: trace_event_clock_sync: realtime_ts=" +
-                                  NanosToMillis(realtimeClock.getTimestamp()));
+                                  TimeUnit.NANOSECONDS.toMillis(realtimeClock.getTimestamp()));
   }
 
   @Nullable
@@ -241,15 +239,13 @@ public class PerfettoProducer implements TrebuchetBufferProducer {
     }
 
     // A line comes from either our required lines, or our line sorter.
-    String line;
+    byte[] data;
     if (!myGeneratedTrebuchetLines.isEmpty()) {
-      line = myGeneratedTrebuchetLines.poll();
+      data = toTrebuchetLine(myGeneratedTrebuchetLines.poll());
     }
     else {
-      line = mySorter.next();
+      data = mySorter.next();
     }
-    // Trebuchet has a bug where all lines need to be truncated to 1023 characters including the newline.
-    byte[] data = String.format("%s\n", line.substring(0, Math.min(1022, line.length()))).getBytes();
     return new DataSlice(data);
   }
 
@@ -258,6 +254,22 @@ public class PerfettoProducer implements TrebuchetBufferProducer {
     //Clean up
     myTidToName.clear();
     myTidToTgid.clear();
+    try {
+      mySorter.close();
+    }
+    catch (IOException ex) {
+      getLogger().warn(ex);
+    }
+  }
+
+  /**
+   * Converts a line to the bytes handed to trebuchet. The event lines are stored in the sorter this way, so they don't need to be
+   * converted again when they're read back.
+   */
+  @NotNull
+  private static byte[] toTrebuchetLine(@NotNull String line) {
+    // Trebuchet has a bug where all lines need to be truncated to 1023 characters including the newline.
+    return String.format("%s\n", line.substring(0, Math.min(1022, line.length()))).getBytes();
   }
 
   /**
@@ -291,7 +303,8 @@ public class PerfettoProducer implements TrebuchetBufferProducer {
     if (event.hasSchedSwitch()) {
       PerfettoTrace.SchedSwitchFtraceEvent sched = event.getSchedSwitch();
       return String.format("sched_switch: prev_comm=%s prev_pid=%d prev_prio=%d prev_state=%s ==> next_comm=%s next_pid=%d next_prio=%d",
-                           sched.getPrevComm(), sched.getPrevPid(), sched.getPrevPrio(), sched.getPrevState(), sched.getNextComm(),
+                           sched.getPrevComm(), sched.getPrevPid(), sched.getPrevPrio(), formatPrevState(sched.getPrevState()),
+                           sched.getNextComm(),
                            sched.getNextPid(), sched.getNextPrio());
     }
     else if (event.hasSchedCpuHotplug()) {
@@ -306,7 +319,7 @@ public class PerfettoProducer implements TrebuchetBufferProducer {
     else if (event.hasSchedWaking()) {
       PerfettoTrace.SchedWakingFtraceEvent sched = event.getSchedWaking();
       return String
-        .format("sched_wakeing: comm=%s pid=%d prio=%d success=%d target_cpu=%03d", sched.getComm(), sched.getPid(), sched.getPrio(),
+        .format("sched_waking: comm=%s pid=%d prio=%d success=%d target_cpu=%03d", sched.getComm(), sched.getPid(), sched.getPrio(),
                 sched.getSuccess(), sched.getTargetCpu());
     }
     else if (event.hasSchedWakeup()) {
@@ -323,4 +336,40 @@ public class PerfettoProducer implements TrebuchetBufferProducer {
     }
     return "";
   }
+
+  /**
+   * Formats the kernel task state bits of a sched_switch event the way the kernel prints them, which is the form trebuchet parses.
+   */
+  @NotNull
+  private static String formatPrevState(long prevState) {
+    SchedulingState state = FtraceEventImporter.schedulingStateFor(prevState);
+    switch (state) {
+      case RUNNABLE:
+        return "R";
+      case SLEEPING:
+        return "S";
+      case UNINTR_SLEEP:
+        return "D";
+      case UNINTR_SLEEP_WAKE_KILL:
+        return "D|K";
+      case UNINTR_SLEEP_WAKING:
+        return "D|W";
+      case STOPPED:
+        return "T";
+      case DEBUG:
+        return "t";
+      case EXIT_DEAD:
+        return "X";
+      case ZOMBIE:
+        return "Z";
+      case TASK_DEAD:
+        return "x";
+      case WAKE_KILL:
+        return "K";
+      case WAKING:
+        return "W";
+      default:
+        return "?";
+    }
+  }
 }
\ No newline at end of file
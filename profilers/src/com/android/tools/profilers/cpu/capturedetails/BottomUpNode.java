@@ -28,7 +28,8 @@ public class BottomUpNode extends CpuTreeNode<BottomUpNode> {
 
   private final List<CaptureNode> myPathNodes = new ArrayList<>();
   private final boolean myIsRoot;
-  private boolean myChildrenBuilt;
+  // Children are built on the UI thread when a node is expanded, while range changes may be aggregated on other threads.
+  private volatile boolean myChildrenBuilt;
 
   private BottomUpNode(String id) {
     super(id);
@@ -90,7 +91,7 @@ public class BottomUpNode extends CpuTreeNode<BottomUpNode> {
     myPathNodes.add(node);
   }
 
-  public boolean buildChildren() {
+  public synchronized boolean buildChildren() {
     if (myChildrenBuilt) {
       return false;
     }
@@ -27,6 +27,10 @@ public class BottomUpTreeModel extends CpuTreeModel<BottomUpNode> {
 
   @Override
   public void expand(@NotNull DefaultMutableTreeNode node) {
+    runExclusively(() -> expandChildren(node));
+  }
+
+  private void expandChildren(@NotNull DefaultMutableTreeNode node) {
     BottomUpNode bottomUpNode = (BottomUpNode)node.getUserObject();
 
     boolean treeChanged = false;
@@ -18,6 +18,7 @@ package com.android.tools.profilers.cpu.capturedetails;
 import com.android.tools.adtui.model.AspectModel;
 import com.android.tools.adtui.model.Range;
 import com.android.tools.profilers.cpu.CaptureNode;
+import com.android.tools.profilers.cpu.CaptureTree;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -127,13 +128,24 @@ public interface CaptureDetails {
 
     @NotNull private final Range myFlameRange;
     @Nullable private CaptureNode myFlameNode;
+    @Nullable private CaptureTree myFlameTree;
     @Nullable private final TopDownNode myTopDownNode;
 
     @NotNull private final Range mySelectionRange;
     @NotNull private final AspectModel<Aspect> myAspectModel;
 
+    /**
+     * Whether the flame chart is built into {@link #myFlameTree} instead of a tree of {@link CaptureNode}.
+     */
+    private final boolean myUseCaptureTree;
+
     public FlameChart(@NotNull Range selectionRange, @Nullable CaptureNode captureNode) {
+      this(selectionRange, captureNode, false);
+    }
+
+    public FlameChart(@NotNull Range selectionRange, @Nullable CaptureNode captureNode, boolean useCaptureTree) {
       mySelectionRange = selectionRange;
+      myUseCaptureTree = useCaptureTree;
       myFlameRange = new Range();
       myAspectModel = new AspectModel<>();
 
@@ -151,12 +163,17 @@ public interface CaptureDetails {
     private void selectionRangeChanged() {
       assert myTopDownNode != null;
       myTopDownNode.update(mySelectionRange);
+      myFlameNode = null;
+      myFlameTree = null;
       if (myTopDownNode.getGlobalTotal() > 0) {
         double start = Math.max(myTopDownNode.getNodes().get(0).getStart(), mySelectionRange.getMin());
-        myFlameNode = convertToFlameChart(myTopDownNode, start, 0);
-      }
-      else {
-        myFlameNode = null;
+        if (myUseCaptureTree) {
+          myFlameTree = new CaptureTree();
+          convertToFlameChart(myFlameTree, CaptureTree.NO_NODE, myTopDownNode, start);
+        }
+        else {
+          myFlameNode = convertToFlameChart(myTopDownNode, start, 0);
+        }
       }
 
       myFlameRange.set(mySelectionRange);
@@ -168,12 +185,28 @@ public interface CaptureDetails {
       return myFlameRange;
     }
 
+    /**
+     * @return the root of the flame chart, or null if it is empty or if it is built into a {@link CaptureTree}, see {@link #getTreeRoot()}.
+     */
     @Override
     @Nullable
     public CaptureNode getNode() {
       return myFlameNode;
     }
 
+    /**
+     * @return the root of the flame chart, or null if it is empty or if it is built into a tree of {@link CaptureNode}, see
+     * {@link #getNode()}.
+     */
+    @Nullable
+    public CaptureTree.Node getTreeRoot() {
+      return myFlameTree == null ? null : myFlameTree.getNode(myFlameTree.getRoot());
+    }
+
+    public boolean isCaptureTreeEnabled() {
+      return myUseCaptureTree;
+    }
+
     @NotNull
     public AspectModel<Aspect> getAspect() {
       return myAspectModel;
@@ -201,6 +234,43 @@ public interface CaptureDetails {
 
       node.setDepth(depth);
 
+      for (TopDownNode child : getSortedChildren(topDown)) {
+        if (child.getGlobalTotal() == 0) {
+          // Sorted in descending order, so starting from now every child's total is zero.
+          continue;
+        }
+        node.addChild(convertToFlameChart(child, start, depth + 1));
+        start += child.getGlobalTotal();
+      }
+
+      return node;
+    }
+
+    /**
+     * Same as {@link #convertToFlameChart(TopDownNode, double, int)}, but adds the flame chart to {@code tree} under {@code parent}
+     * instead of creating a {@link CaptureNode} for each of its bars.
+     */
+    private void convertToFlameChart(@NotNull CaptureTree tree, int parent, @NotNull TopDownNode topDown, double start) {
+      assert topDown.getGlobalTotal() > 0;
+
+      CaptureNode first = topDown.getNodes().get(0);
+      int node = tree.addNode(first.getData(), parent);
+      tree.setFilterType(node, first.getFilterType());
+      tree.setGlobalTime(node, (long)start, (long)(start + topDown.getGlobalTotal()));
+      tree.setThreadTime(node, (long)start, (long)(start + topDown.getThreadTotal()));
+
+      for (TopDownNode child : getSortedChildren(topDown)) {
+        if (child.getGlobalTotal() == 0) {
+          // Sorted in descending order, so starting from now every child's total is zero.
+          continue;
+        }
+        convertToFlameChart(tree, node, child, start);
+        start += child.getGlobalTotal();
+      }
+    }
+
+    @NotNull
+    private List<TopDownNode> getSortedChildren(@NotNull TopDownNode topDown) {
       for (TopDownNode child : topDown.getChildren()) {
         child.update(mySelectionRange);
       }
@@ -213,17 +283,7 @@ public interface CaptureDetails {
         int cmp = Boolean.compare(o1.isUnmatched(), o2.isUnmatched());
         return cmp == 0 ? Double.compare(o2.getGlobalTotal(), o1.getGlobalTotal()) : cmp;
       });
-
-      for (TopDownNode child : sortedChildren) {
-        if (child.getGlobalTotal() == 0) {
-          // Sorted in descending order, so starting from now every child's total is zero.
-          continue;
-        }
-        node.addChild(convertToFlameChart(child, start, depth + 1));
-        start += child.getGlobalTotal();
-      }
-
-      return node;
+      return sortedChildren;
     }
   }
 }
@@ -18,6 +18,7 @@ package com.android.tools.profilers.cpu.capturedetails;
 import com.android.tools.adtui.model.Range;
 import com.android.tools.adtui.model.filter.Filter;
 import com.android.tools.perflib.vmtrace.ClockType;
+import com.android.tools.profilers.IdeProfilerServices;
 import com.android.tools.profilers.analytics.FeatureTracker;
 import com.android.tools.profilers.cpu.CaptureNode;
 import com.android.tools.profilers.cpu.CpuCapture;
@@ -204,7 +205,17 @@ public class CaptureModel {
       if (node != null) {
         applyFilter(node, false);
       }
-      myDetails = type.build(myCaptureConvertedRange, node);
+      IdeProfilerServices services = myStage.getStudioProfilers().getIdeServices();
+      if (type == CaptureDetails.Type.FLAME_CHART && services.getFeatureConfig().isCpuCaptureTreeFlameChartEnabled()) {
+        myDetails = new CaptureDetails.FlameChart(myCaptureConvertedRange, node, true);
+      }
+      else {
+        myDetails = type.build(myCaptureConvertedRange, node);
+      }
+      CpuTreeModel<?> treeModel = getTreeModel(myDetails);
+      if (treeModel != null && services.getFeatureConfig().isCpuParallelTreeAggregationEnabled()) {
+        treeModel.setAggregationExecutors(services.getPoolExecutor(), services.getMainExecutor());
+      }
     }
     else {
       myFilter = Filter.EMPTY_FILTER;
@@ -214,6 +225,17 @@ public class CaptureModel {
     myStage.getAspect().changed(CpuProfilerAspect.CAPTURE_DETAILS);
   }
 
+  @Nullable
+  private static CpuTreeModel<?> getTreeModel(@NotNull CaptureDetails details) {
+    if (details instanceof CaptureDetails.TopDown) {
+      return ((CaptureDetails.TopDown)details).getModel();
+    }
+    if (details instanceof CaptureDetails.BottomUp) {
+      return ((CaptureDetails.BottomUp)details).getModel();
+    }
+    return null;
+  }
+
   @Nullable
   private CaptureNode getNode() {
     return myCapture != null ? myCapture.getCaptureNode(myThread) : null;
@@ -19,10 +19,17 @@ import com.android.tools.adtui.model.AspectModel;
 import com.android.tools.adtui.model.AspectObserver;
 import com.android.tools.adtui.model.Range;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import javax.swing.tree.DefaultMutableTreeNode;
 import javax.swing.tree.DefaultTreeModel;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The model for a JTree that updates for a given range. It uses a CpuTreeNode as it's backing tree.
@@ -38,6 +45,26 @@ public abstract class CpuTreeModel<T extends CpuTreeNode<T>> extends DefaultTree
   private final AspectObserver myAspectObserver;
   private final AspectModel<Aspect> myAspectModel;
 
+  /**
+   * Held while the {@link CpuTreeNode}s of this model are being aggregated, so that a superseded aggregation finishes touching the
+   * nodes before the next one starts.
+   */
+  private final Object myAggregationLock = new Object();
+
+  /**
+   * Incremented every time an aggregation is scheduled. An aggregation stops as soon as it sees that it isn't the latest one.
+   */
+  private final AtomicInteger myAggregationGeneration = new AtomicInteger();
+
+  /**
+   * Ranges that were part of an aggregation which hasn't been applied yet. Nodes intersecting them might have been left with the
+   * totals of a superseded selection, so they are revisited by the next aggregation.
+   */
+  private final List<Range> myPendingRanges = new ArrayList<>();
+
+  @Nullable private Executor myAggregationExecutor;
+  @Nullable private Executor myMainExecutor;
+
   public CpuTreeModel(@NotNull Range range, @NotNull T node) {
     super(new DefaultMutableTreeNode(node));
     myRange = range;
@@ -53,19 +80,71 @@ public abstract class CpuTreeModel<T extends CpuTreeNode<T>> extends DefaultTree
     return myAspectModel;
   }
 
-  public void rangeChanged() {
-    DefaultMutableTreeNode root = (DefaultMutableTreeNode)getRoot();
+  /**
+   * Makes the following range changes aggregate the tree on a {@link ForkJoinPool}, scheduled through {@code aggregationExecutor},
+   * instead of on the thread that changed the range. The resulting tree is updated on {@code mainExecutor}, unless a newer range
+   * change superseded it in the meantime.
+   */
+  public void setAggregationExecutors(@NotNull Executor aggregationExecutor, @NotNull Executor mainExecutor) {
+    myAggregationExecutor = aggregationExecutor;
+    myMainExecutor = mainExecutor;
+  }
 
+  public void rangeChanged() {
     List<Range> diffs = new LinkedList<>();
     // Add all the newly added ranges.
     diffs.addAll(myRange.subtract(myCurrentRange));
     // Add the ranges we don't have anymore
     diffs.addAll(myCurrentRange.subtract(myRange));
 
-    update(root, myRange, diffs);
+    if (myAggregationExecutor == null || myMainExecutor == null) {
+      update((DefaultMutableTreeNode)getRoot(), myRange, diffs);
+      myCurrentRange.set(myRange);
+      myAspectModel.changed(Aspect.TREE_MODEL);
+      return;
+    }
+    aggregate(diffs);
+  }
+
+  private void aggregate(@NotNull List<Range> diffs) {
+    int generation = myAggregationGeneration.incrementAndGet();
+    myPendingRanges.addAll(diffs);
+    List<Range> ranges = new ArrayList<>(myPendingRanges);
+    Range range = new Range(myRange);
+    T root = getRootData();
+    Map<T, List<T>> inRangeChildren = new ConcurrentHashMap<>();
+
+    CompletableFuture.runAsync(() -> {
+      synchronized (myAggregationLock) {
+        if (generation == myAggregationGeneration.get()) {
+          ForkJoinPool.commonPool().invoke(new AggregationTask(root, range, ranges, generation, inRangeChildren));
+        }
+      }
+    }, myAggregationExecutor).thenRunAsync(() -> {
+      if (generation != myAggregationGeneration.get()) {
+        // A newer selection superseded this one, so the nodes may hold a mix of both.
+        return;
+      }
+      myPendingRanges.clear();
+      apply((DefaultMutableTreeNode)getRoot(), inRangeChildren);
+      myCurrentRange.set(range);
+      myAspectModel.changed(Aspect.TREE_MODEL);
+    }, myMainExecutor);
+  }
 
-    myCurrentRange.set(myRange);
-    myAspectModel.changed(Aspect.TREE_MODEL);
+  /**
+   * Runs {@code mutation}, which changes the {@link CpuTreeNode}s of this model, once no aggregation is touching them. An aggregation
+   * in progress is stopped and scheduled again afterwards.
+   */
+  protected void runExclusively(@NotNull Runnable mutation) {
+    boolean aggregating = !myPendingRanges.isEmpty();
+    myAggregationGeneration.incrementAndGet();
+    synchronized (myAggregationLock) {
+      mutation.run();
+    }
+    if (aggregating) {
+      aggregate(Collections.emptyList());
+    }
   }
 
   public boolean changes(T data, List<Range> ranges) {
@@ -81,45 +160,119 @@ public abstract class CpuTreeModel<T extends CpuTreeNode<T>> extends DefaultTree
     T data = (T)node.getUserObject();
 
     if (changes(data, ranges)) {
-      Enumeration e = node.children();
-      Map<T, DefaultMutableTreeNode> children = new HashMap<>();
-      while (e.hasMoreElements()) {
-        DefaultMutableTreeNode child = (DefaultMutableTreeNode)e.nextElement();
-        children.put((T)child.getUserObject(), child);
-      }
-      Set<T> actual = new HashSet<>();
+      List<T> inRange = new ArrayList<>();
       for (T child : data.getChildren()) {
         if (child.inRange(range)) {
-          actual.add(child);
-          DefaultMutableTreeNode existing = children.get(child);
-          if (existing == null) {
-            existing = new DefaultMutableTreeNode(child);
-            insertNodeInto(existing, node, node.getChildCount());
-          }
-          update(existing, range, ranges);
+          inRange.add(child);
         } else {
           child.reset();
         }
       }
-      for (Map.Entry<T, DefaultMutableTreeNode> entry : children.entrySet()) {
-        if (!actual.contains(entry.getKey())) {
-          removeNodeFromParent(entry.getValue());
-        }
+      for (DefaultMutableTreeNode child : setChildren(node, inRange)) {
+        update(child, range, ranges);
       }
       data.update(range);
       nodeChanged(node);
     }
   }
 
+  /**
+   * Updates the tree under {@code node} to the result of an {@link AggregationTask}. Only the nodes the task changed are visited, and
+   * their children are not checked against the range again, so this does not read any {@link CpuTreeNode#getNodes()}.
+   */
+  private void apply(DefaultMutableTreeNode node, Map<T, List<T>> inRangeChildren) {
+    List<T> inRange = inRangeChildren.get((T)node.getUserObject());
+    if (inRange == null) {
+      return;
+    }
+    for (DefaultMutableTreeNode child : setChildren(node, inRange)) {
+      apply(child, inRangeChildren);
+    }
+    nodeChanged(node);
+  }
+
+  /**
+   * Makes {@code inRange} the children of {@code node}, reusing the tree nodes of the ones that were already there.
+   *
+   * @return the tree nodes of {@code inRange}, in the same order.
+   */
+  private List<DefaultMutableTreeNode> setChildren(DefaultMutableTreeNode node, List<T> inRange) {
+    Enumeration e = node.children();
+    Map<T, DefaultMutableTreeNode> children = new HashMap<>();
+    while (e.hasMoreElements()) {
+      DefaultMutableTreeNode child = (DefaultMutableTreeNode)e.nextElement();
+      children.put((T)child.getUserObject(), child);
+    }
+    List<DefaultMutableTreeNode> actual = new ArrayList<>(inRange.size());
+    for (T child : inRange) {
+      DefaultMutableTreeNode existing = children.remove(child);
+      if (existing == null) {
+        existing = new DefaultMutableTreeNode(child);
+        insertNodeInto(existing, node, node.getChildCount());
+      }
+      actual.add(existing);
+    }
+    for (DefaultMutableTreeNode removed : children.values()) {
+      removeNodeFromParent(removed);
+    }
+    return actual;
+  }
+
   @NotNull
   public Range getRange() {
     return myRange;
   }
 
   public boolean isEmpty() {
-    T data = (T)((DefaultMutableTreeNode)getRoot()).getUserObject();
-    return data.getGlobalTotal() == 0;
+    return getRootData().getGlobalTotal() == 0;
+  }
+
+  @NotNull
+  private T getRootData() {
+    return (T)((DefaultMutableTreeNode)getRoot()).getUserObject();
   }
 
   abstract void expand(@NotNull DefaultMutableTreeNode node);
+
+  /**
+   * Computes the totals of the {@link CpuTreeNode}s that {@link #update} would visit, forking a task for each child that is in range.
+   * The in-range children of every visited node are recorded, so that {@link #apply} only has to update the JTree.
+   */
+  private final class AggregationTask extends RecursiveAction {
+    @NotNull private final T myData;
+    @NotNull private final Range mySelection;
+    @NotNull private final List<Range> myDiffs;
+    private final int myGeneration;
+    @NotNull private final Map<T, List<T>> myInRangeChildren;
+
+    AggregationTask(@NotNull T data, @NotNull Range range, @NotNull List<Range> ranges, int generation,
+                    @NotNull Map<T, List<T>> inRangeChildren) {
+      myData = data;
+      mySelection = range;
+      myDiffs = ranges;
+      myGeneration = generation;
+      myInRangeChildren = inRangeChildren;
+    }
+
+    @Override
+    protected void compute() {
+      if (myGeneration != myAggregationGeneration.get() || !changes(myData, myDiffs)) {
+        return;
+      }
+      List<T> inRange = new ArrayList<>();
+      List<AggregationTask> subtasks = new ArrayList<>();
+      for (T child : myData.getChildren()) {
+        if (child.inRange(mySelection)) {
+          inRange.add(child);
+          subtasks.add(new AggregationTask(child, mySelection, myDiffs, myGeneration, myInRangeChildren));
+        }
+        else {
+          child.reset();
+        }
+      }
+      invokeAll(subtasks);
+      myData.update(mySelection);
+      myInRangeChildren.put(myData, inRange);
+    }
+  }
 }
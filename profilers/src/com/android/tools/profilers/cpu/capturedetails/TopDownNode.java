@@ -19,31 +19,66 @@ import com.android.tools.profilers.cpu.CaptureNode;
 import com.android.tools.profilers.cpu.nodemodel.CaptureNodeModel;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
 
 /**
  * A top-down CPU usage tree. This is a node on that tree and represents all the calls that share the same callstack upto a point.
- * It's created from an execution tree by merging the nodes with the same path from the root.
+ * It's created from an execution tree by merging the nodes with the same path from the root. The children of a node are only merged
+ * the first time they are requested, so that parts of the tree that are never visited aren't built.
  */
 public class TopDownNode extends CpuTreeNode<TopDownNode> {
   private static final String INVALID_ID = "";
 
+  /**
+   * Set once the children are built. Nodes are read both by the UI thread and by the tasks aggregating a range change, so the children
+   * are built while holding the node's lock, and this is volatile so that readers which see it set also see the children.
+   */
+  private volatile boolean myChildrenBuilt;
+
   public TopDownNode(@NotNull CaptureNode node) {
-    super(node.getData() == null ? INVALID_ID : node.getData().getId());
+    this(node.getData() == null ? INVALID_ID : node.getData().getId());
     addNode(node);
+  }
 
-    // We're adding unmatched children separately, because we don't want to merge unmatched with matched,
+  private TopDownNode(@NotNull String id) {
+    super(id);
+  }
+
+  @Override
+  public List<TopDownNode> getChildren() {
+    if (!myChildrenBuilt) {
+      synchronized (this) {
+        if (!myChildrenBuilt) {
+          buildChildren();
+          myChildrenBuilt = true;
+        }
+      }
+    }
+    return super.getChildren();
+  }
+
+  /**
+   * Merges the children of all the {@link CaptureNode} represented by this node. A child is added in the order its id first appears,
+   * which is the same order an eager merge of the subtrees would produce.
+   */
+  private void buildChildren() {
+    // We use a separate map for unmatched children, because we can not merge unmatched with matched,
     // i.e all merged children should have the same {@link CaptureNode.FilterType}.
-    addChildren(node, false);
-    addChildren(node, true);
+    Map<String, TopDownNode> children = new HashMap<>();
+    Map<String, TopDownNode> unmatchedChildren = new HashMap<>();
+    for (CaptureNode node : getNodes()) {
+      // We're adding unmatched children separately, so that matched children of a call come first.
+      addChildren(node, false, children);
+      addChildren(node, true, unmatchedChildren);
+    }
   }
 
   /**
    * Adds children of {@param node} whose filter type matches to the flag {@param unmatched}.
    */
-  private void addChildren(@NotNull CaptureNode node, boolean unmatched) {
-    Map<String, TopDownNode> children = new TreeMap<>();
+  private void addChildren(@NotNull CaptureNode node, boolean unmatched, @NotNull Map<String, TopDownNode> children) {
     for (CaptureNode child : node.getChildren()) {
       assert child.getData() != null;
 
@@ -51,48 +86,14 @@ public class TopDownNode extends CpuTreeNode<TopDownNode> {
         continue;
       }
 
-      TopDownNode prev = children.get(child.getData().getId());
-      TopDownNode other = new TopDownNode(child);
-      if (prev == null) {
-        children.put(child.getData().getId(), other);
-        addChild(other);
-      }
-      else {
-        prev.merge(other);
-      }
-    }
-  }
-
-  private void merge(TopDownNode other) {
-    addNodes(other.getNodes());
-
-    // We use a separate map for unmatched children, because we can not merge unmatched with matched,
-    // i.e all merged children should have the same {@link CaptureNode.FilterType};
-    Map<String, TopDownNode> children = new TreeMap<>();
-    Map<String, TopDownNode> unmatchedChildren = new TreeMap<>();
-
-    for (TopDownNode child : getChildren()) {
-      if (child.isUnmatched()) {
-        unmatchedChildren.put(child.getId(), child);
-      } else {
-        children.put(child.getId(), child);
-      }
-    }
-
-    for (TopDownNode otherChild : other.getChildren()) {
-      TopDownNode existing;
-
-      if (otherChild.isUnmatched()) {
-        existing = unmatchedChildren.get(otherChild.getId());
-      } else {
-        existing = children.get(otherChild.getId());
-      }
-      if (existing != null) {
-        existing.merge(otherChild);
-      }
-      else {
-        addChild(otherChild);
+      String id = child.getData().getId();
+      TopDownNode existing = children.get(id);
+      if (existing == null) {
+        existing = new TopDownNode(id);
+        children.put(id, existing);
+        addChild(existing);
       }
+      existing.addNode(child);
     }
   }
 
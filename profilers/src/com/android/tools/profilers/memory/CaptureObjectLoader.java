@@ -78,7 +78,7 @@ public class CaptureObjectLoader {
     }
   }
 
-  private void cancelTask() {
+  public void cancelTask() {
     if (myOutstandingLoadingTask != null) {
       myOutstandingLoadingTask.cancel(true);
       myOutstandingLoadingTask = null;
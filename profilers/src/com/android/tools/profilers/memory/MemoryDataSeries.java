@@ -15,9 +15,9 @@
  */
 package com.android.tools.profilers.memory;
 
-import com.android.tools.adtui.model.DataSeries;
+import com.android.tools.adtui.model.LongSeriesData;
+import com.android.tools.adtui.model.PrimitiveLongDataSeries;
 import com.android.tools.adtui.model.Range;
-import com.android.tools.adtui.model.SeriesData;
 import com.android.tools.profiler.proto.Common;
 import com.android.tools.profiler.proto.MemoryProfiler.MemoryData;
 import com.android.tools.profiler.proto.MemoryProfiler.MemoryData.MemorySample;
@@ -25,26 +25,24 @@ import com.android.tools.profiler.proto.MemoryProfiler.MemoryRequest;
 import com.android.tools.profiler.proto.MemoryServiceGrpc;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.ArrayList;
-import java.util.List;
 import java.util.concurrent.TimeUnit;
-import java.util.function.Function;
+import java.util.function.ToLongFunction;
 
-public final class MemoryDataSeries implements DataSeries<Long> {
+public final class MemoryDataSeries implements PrimitiveLongDataSeries {
   @NotNull private MemoryServiceGrpc.MemoryServiceBlockingStub myClient;
   @NotNull private final Common.Session mySession;
-  @NotNull private Function<MemorySample, Long> mySampleTransformer;
+  @NotNull private ToLongFunction<MemorySample> mySampleTransformer;
 
   public MemoryDataSeries(@NotNull MemoryServiceGrpc.MemoryServiceBlockingStub client,
                           @NotNull Common.Session session,
-                          @NotNull Function<MemorySample, Long> transformer) {
+                          @NotNull ToLongFunction<MemorySample> transformer) {
     myClient = client;
     mySession = session;
     mySampleTransformer = transformer;
   }
 
   @Override
-  public List<SeriesData<Long>> getDataForXRange(@NotNull Range timeCurrentRangeUs) {
+  public void getDataForXRange(@NotNull Range timeCurrentRangeUs, int maxPointCount, @NotNull LongSeriesData data) {
     // TODO: Change the Memory API to allow specifying padding in the request as number of samples.
     long bufferNs = TimeUnit.SECONDS.toNanos(1);
     MemoryRequest.Builder dataRequestBuilder = MemoryRequest.newBuilder()
@@ -53,11 +51,10 @@ public final class MemoryDataSeries implements DataSeries<Long> {
       .setEndTime(TimeUnit.MICROSECONDS.toNanos((long)timeCurrentRangeUs.getMax()) + bufferNs);
     MemoryData response = myClient.getData(dataRequestBuilder.build());
 
-    List<SeriesData<Long>> seriesData = new ArrayList<>();
+    data.clear();
     for (MemoryData.MemorySample sample : response.getMemSamplesList()) {
       long dataTimestamp = TimeUnit.NANOSECONDS.toMicros(sample.getTimestamp());
-      seriesData.add(new SeriesData<>(dataTimestamp, mySampleTransformer.apply(sample)));
+      data.add(dataTimestamp, mySampleTransformer.applyAsLong(sample));
     }
-    return seriesData;
   }
 }
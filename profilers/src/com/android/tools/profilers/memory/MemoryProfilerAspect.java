@@ -20,6 +20,7 @@ public enum MemoryProfilerAspect {
   CLASS_GROUPING,
   CURRENT_CAPTURE_ELAPSED_TIME,
   CURRENT_LOADING_CAPTURE,
+  CURRENT_LOADING_CAPTURE_PROGRESS,
   CURRENT_LOADED_CAPTURE,
   CURRENT_HEAP,
   CURRENT_HEAP_UPDATING,
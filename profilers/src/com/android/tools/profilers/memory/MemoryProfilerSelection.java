@@ -37,6 +37,11 @@ public final class MemoryProfilerSelection {
     myStage = stage;
   }
 
+  @Nullable
+  public CaptureEntry getCaptureEntry() {
+    return myCaptureEntry;
+  }
+
   @Nullable
   public CaptureObject getCaptureObject() {
     return myCaptureObject;
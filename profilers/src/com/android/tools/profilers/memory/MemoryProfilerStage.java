@@ -63,6 +63,8 @@ import com.android.tools.profilers.event.EventMonitor;
 import com.android.tools.profilers.memory.adapters.CaptureObject;
 import com.android.tools.profilers.memory.adapters.ClassSet;
 import com.android.tools.profilers.memory.adapters.FieldObject;
+import com.android.tools.profilers.memory.adapters.HeapDumpCaptureObject;
+import com.android.tools.profilers.memory.adapters.HeapDumpDiffCaptureObject;
 import com.android.tools.profilers.memory.adapters.HeapSet;
 import com.android.tools.profilers.memory.adapters.InstanceObject;
 import com.android.tools.profilers.stacktrace.CodeLocation;
@@ -140,6 +142,10 @@ public class MemoryProfilerStage extends Stage implements CodeNavigator.Listener
   private final CaptureElapsedTimeUpdatable myCaptureElapsedTimeUpdatable = new CaptureElapsedTimeUpdatable();
   private long myPendingCaptureStartTime = INVALID_START_TIME;
   private long myPendingLegacyAllocationStartTimeNs = INVALID_START_TIME;
+  /**
+   * Fraction of the work done loading the selected capture, or a negative value when the capture object doesn't report its progress.
+   */
+  private volatile double myCaptureLoadingProgress = -1;
 
   @NotNull private final AllocationSamplingRateDataSeries myAllocationSamplingRateDataSeries;
   @NotNull private final DurationDataModel<AllocationSamplingRateDurationData> myAllocationSamplingRateDurations;
@@ -657,6 +663,7 @@ public class MemoryProfilerStage extends Stage implements CodeNavigator.Listener
     }
     myUpdateCaptureOnSelection = true;
 
+    myCaptureLoadingProgress = -1;
     // TODO: (revisit) - do we want to pass in data range to loadCapture as well?
     ListenableFuture<CaptureObject> future = myLoader.loadCapture(captureObject, timeline.getSelectionRange(), joiner);
     future.addListener(
@@ -763,6 +770,88 @@ public class MemoryProfilerStage extends Stage implements CodeNavigator.Listener
     return mySelection.getCaptureObject();
   }
 
+  public double getCaptureLoadingProgress() {
+    return myCaptureLoadingProgress;
+  }
+
+  /**
+   * Called by the capture object being loaded, from any thread, to report the fraction of the work done.
+   */
+  public void setCaptureLoadingProgress(double progress) {
+    // Only notify the UI when the rounded percentage changes.
+    boolean changed = (int)(progress * 100) != (int)(myCaptureLoadingProgress * 100);
+    myCaptureLoadingProgress = progress;
+    if (changed) {
+      getStudioProfilers().getIdeServices().getMainExecutor()
+        .execute(() -> myAspect.changed(MemoryProfilerAspect.CURRENT_LOADING_CAPTURE_PROGRESS));
+    }
+  }
+
+  /**
+   * @return whether the selected capture is a heap dump that {@link #selectHeapDumpDiffWithPrevious()} can compare with an earlier one.
+   */
+  public boolean canSelectHeapDumpDiffWithPrevious() {
+    return getStudioProfilers().getIdeServices().getFeatureConfig().isMemoryIndexedHeapDumpEnabled() && getPreviousHeapDump() != null;
+  }
+
+  /**
+   * Selects a capture comparing the heap dump taken before the selected one with the selected one, see {@link HeapDumpDiffCaptureObject}.
+   * The diff gets its own capture objects for both dumps, since selecting it unloads the selected one, and unloads them with itself.
+   */
+  public void selectHeapDumpDiffWithPrevious() {
+    CaptureEntry selectedEntry = mySelection.getCaptureEntry();
+    CaptureEntry<CaptureObject> previousEntry = getPreviousHeapDump();
+    if (selectedEntry == null || previousEntry == null) {
+      return;
+    }
+    selectHeapDumpDiff((HeapDumpCaptureObject)previousEntry.getCaptureObject(), (HeapDumpCaptureObject)selectedEntry.getCaptureObject());
+  }
+
+  /**
+   * @return the entry of the heap dump taken right before the selected capture, or null if the selected capture isn't a heap dump or is
+   * the first one.
+   */
+  @Nullable
+  private CaptureEntry<CaptureObject> getPreviousHeapDump() {
+    CaptureEntry selectedEntry = mySelection.getCaptureEntry();
+    if (selectedEntry == null || !(mySelection.getCaptureObject() instanceof HeapDumpCaptureObject)) {
+      return null;
+    }
+    CaptureEntry<CaptureObject> previousEntry = null;
+    Range dataRange = getStudioProfilers().getTimeline().getDataRange();
+    for (SeriesData<CaptureDurationData<CaptureObject>> data : getHeapDumpSampleDurations().getSeries().getDataSeries()
+      .getDataForXRange(dataRange)) {
+      CaptureEntry<CaptureObject> entry = data.value.getCaptureEntry();
+      if (entry.equals(selectedEntry)) {
+        return previousEntry;
+      }
+      previousEntry = entry;
+    }
+    return null;
+  }
+
+  /**
+   * Selects a capture comparing two heap dumps, see {@link HeapDumpDiffCaptureObject}.
+   */
+  private void selectHeapDumpDiff(@NotNull HeapDumpCaptureObject baseline, @NotNull HeapDumpCaptureObject current) {
+    HeapDumpDiffCaptureObject diff = new HeapDumpDiffCaptureObject(baseline, current, this);
+    long durationUs = TimeUnit.NANOSECONDS.toMicros(current.getEndTimeNs() - baseline.getStartTimeNs());
+    selectCaptureDuration(new CaptureDurationData<>(durationUs, false, false, new CaptureEntry<>(diff, () -> diff)),
+                          SwingUtilities::invokeLater);
+  }
+
+  /**
+   * Stops loading the selected capture, if it is still loading, and clears the selection.
+   */
+  public void cancelCaptureLoading() {
+    CaptureObject captureObject = getSelectedCapture();
+    if (captureObject == null || captureObject.isDoneLoading()) {
+      return;
+    }
+    myLoader.cancelTask();
+    selectCaptureDuration(null, null);
+  }
+
   @NotNull
   public MemoryProfilerConfiguration getConfiguration() {
     return myConfiguration;
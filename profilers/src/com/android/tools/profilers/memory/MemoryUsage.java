@@ -15,6 +15,8 @@
  */
 package com.android.tools.profilers.memory;
 
+import com.android.tools.adtui.model.DataSeries;
+import com.android.tools.adtui.model.DownsampledDataSeries;
 import com.android.tools.adtui.model.LineChartModel;
 import com.android.tools.adtui.model.Range;
 import com.android.tools.adtui.model.RangedContinuousSeries;
@@ -27,6 +29,7 @@ import com.android.tools.profilers.StudioProfilers;
 import com.android.tools.profilers.UnifiedEventDataSeries;
 import java.util.List;
 import java.util.function.Function;
+import java.util.function.ToLongFunction;
 import java.util.stream.Stream;
 import org.jetbrains.annotations.NotNull;
 
@@ -54,9 +57,12 @@ public class MemoryUsage extends LineChartModel {
   protected RangedContinuousSeries createLegacyRangedSeries(@NotNull StudioProfilers profilers,
                                                             @NotNull String name,
                                                             @NotNull Range range,
-                                                            @NotNull Function<MemorySample, Long> getter) {
+                                                            @NotNull ToLongFunction<MemorySample> getter) {
     MemoryServiceGrpc.MemoryServiceBlockingStub client = profilers.getClient().getMemoryClient();
-    MemoryDataSeries series = new MemoryDataSeries(client, profilers.getSession(), getter);
+    DataSeries<Long> series = new MemoryDataSeries(client, profilers.getSession(), getter);
+    if (profilers.getIdeServices().getFeatureConfig().isChartDownsamplingEnabled()) {
+      series = new DownsampledDataSeries(series);
+    }
     return new RangedContinuousSeries(name, profilers.getTimeline().getViewRange(), range, series);
   }
 
@@ -66,12 +72,15 @@ public class MemoryUsage extends LineChartModel {
                                                       int groupId,
                                                       Function<List<Common.Event>, Stream<SeriesData<Long>>> dataExtractor) {
     TransportServiceGrpc.TransportServiceBlockingStub client = profilers.getClient().getTransportClient();
-    UnifiedEventDataSeries series = new UnifiedEventDataSeries(client,
-                                                               profilers.getSession().getStreamId(),
-                                                               profilers.getSession().getPid(),
-                                                               Common.Event.Kind.MEMORY_USAGE,
-                                                               groupId,
-                                                               dataExtractor);
+    DataSeries<Long> series = new UnifiedEventDataSeries(client,
+                                                         profilers.getSession().getStreamId(),
+                                                         profilers.getSession().getPid(),
+                                                         Common.Event.Kind.MEMORY_USAGE,
+                                                         groupId,
+                                                         dataExtractor);
+    if (profilers.getIdeServices().getFeatureConfig().isChartDownsamplingEnabled()) {
+      series = new DownsampledDataSeries(series);
+    }
     return new RangedContinuousSeries(name, profilers.getTimeline().getViewRange(), range, series);
   }
 
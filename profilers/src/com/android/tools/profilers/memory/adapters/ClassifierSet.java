@@ -39,6 +39,8 @@ public abstract class ClassifierSet implements MemoryObject {
   // Note that instances here can also appear in the set of snapshot instances (e.g. when a instance is allocated before the selection
   // and deallocation within the selection).
   @NotNull protected final Set<InstanceObject> myDeltaInstances = new LinkedHashSet<>(0);
+  // Groups of delta instances that are accounted for without being created, see InstanceGroup. They are disjoint from the sets above.
+  @NotNull protected final List<InstanceGroup> myDeltaInstanceGroups = new ArrayList<>(0);
 
   // Lazily create the Classifier, as it is configurable and isn't necessary until nodes under this node needs to be classified.
   @Nullable protected Classifier myClassifier = null;
@@ -83,7 +85,9 @@ public abstract class ClassifierSet implements MemoryObject {
   }
 
   public boolean isEmpty() {
-    return mySnapshotObjectCount == 0 && myDeltaAllocations == 0 && myDeltaDeallocations == 0;
+    // A heap dump diff accounts for the classes whose instance count didn't change with only their size deltas.
+    return mySnapshotObjectCount == 0 && myDeltaAllocations == 0 && myDeltaDeallocations == 0 &&
+           myTotalShallowSize == 0 && myTotalRetainedSize == 0;
   }
 
   public int getTotalObjectCount() {
@@ -174,6 +178,47 @@ public abstract class ClassifierSet implements MemoryObject {
     return addDeltaInstanceInformation(instanceObject, true);
   }
 
+  /**
+   * Add a group of instances, which is accounted for like its allocation and deallocation events, see {@link InstanceGroup}.
+   */
+  public void addDeltaInstanceGroup(@NotNull InstanceGroup group) {
+    if (myClassifier != null && !myClassifier.isTerminalClassifier()) {
+      myClassifier.getClassifierSet(group.getRepresentative(), true).addDeltaInstanceGroup(group);
+    }
+    else {
+      myDeltaInstanceGroups.add(group);
+    }
+
+    myDeltaAllocations += group.getAllocationCount();
+    myDeltaDeallocations += group.getDeallocationCount();
+    myTotalShallowSize += group.getShallowSize();
+    myTotalRetainedSize += group.getRetainedSize();
+    myInstancesWithStackInfoCount += group.getInstancesWithStackInfoCount();
+    myNeedsRefiltering = true;
+  }
+
+  /**
+   * Remove a group of instances added with {@link #addDeltaInstanceGroup}.
+   */
+  public void removeDeltaInstanceGroup(@NotNull InstanceGroup group) {
+    if (myClassifier != null && !myClassifier.isTerminalClassifier()) {
+      ClassifierSet classifierSet = myClassifier.getClassifierSet(group.getRepresentative(), false);
+      assert classifierSet != null;
+      classifierSet.removeDeltaInstanceGroup(group);
+    }
+    else {
+      boolean removed = myDeltaInstanceGroups.remove(group);
+      assert removed;
+    }
+
+    myDeltaAllocations -= group.getAllocationCount();
+    myDeltaDeallocations -= group.getDeallocationCount();
+    myTotalShallowSize -= group.getShallowSize();
+    myTotalRetainedSize -= group.getRetainedSize();
+    myInstancesWithStackInfoCount -= group.getInstancesWithStackInfoCount();
+    myNeedsRefiltering = true;
+  }
+
   // Add delta dealloc information into the ClassifierSet
   // Return true if the set did not contain the instance prior to invocation
   public boolean freeDeltaInstanceObject(@NotNull InstanceObject instanceObject) {
@@ -273,6 +318,7 @@ public abstract class ClassifierSet implements MemoryObject {
   public void clearClassifierSets() {
     mySnapshotInstances.clear();
     myDeltaInstances.clear();
+    myDeltaInstanceGroups.clear();
     myClassifier = createSubClassifier();
     mySnapshotObjectCount = 0;
     myDeltaAllocations = 0;
@@ -285,15 +331,28 @@ public abstract class ClassifierSet implements MemoryObject {
     myFilterMatchCount = 0;
   }
 
+  /**
+   * Counts the instances (including all descendants) in this ClassifierSet, without collecting them. Instances are partitioned into
+   * disjoint descendants, so only the instances in both the snapshot and delta sets of a node need to be accounted for.
+   */
   public int getInstancesCount() {
-    if (myClassifier == null) {
-      Set<InstanceObject> total = new HashSet<>(mySnapshotInstances);
-      total.addAll(myDeltaInstances);
-      return total.size();
+    Set<InstanceObject> smaller = mySnapshotInstances.size() <= myDeltaInstances.size() ? mySnapshotInstances : myDeltaInstances;
+    Set<InstanceObject> larger = smaller == mySnapshotInstances ? myDeltaInstances : mySnapshotInstances;
+    int count = larger.size();
+    for (InstanceObject instance : smaller) {
+      if (!larger.contains(instance)) {
+        count++;
+      }
     }
-    else {
-      return (int)getInstancesStream().count();
+    for (InstanceGroup group : myDeltaInstanceGroups) {
+      count += group.getCount();
+    }
+    if (myClassifier != null) {
+      for (ClassifierSet classifierSet : myClassifier.getAllClassifierSets()) {
+        count += classifierSet.getInstancesCount();
+      }
     }
+    return count;
   }
 
   /**
@@ -301,7 +360,8 @@ public abstract class ClassifierSet implements MemoryObject {
    */
   @NotNull
   public Stream<InstanceObject> getInstancesStream() {
-    Stream<InstanceObject> total = Stream.concat(mySnapshotInstances.stream(), myDeltaInstances.stream()).distinct();
+    Stream<InstanceObject> total = Stream.concat(Stream.concat(mySnapshotInstances.stream(), myDeltaInstances.stream()).distinct(),
+                                                 myDeltaInstanceGroups.stream().flatMap(InstanceGroup::getInstances));
     if (myClassifier == null) {
       return total;
     }
@@ -325,6 +385,20 @@ public abstract class ClassifierSet implements MemoryObject {
     }
   }
 
+  /**
+   * Return the stream of instance groups that contribute to the delta.
+   */
+  @NotNull
+  protected Stream<InstanceGroup> getDeltaInstanceGroupStream() {
+    if (myClassifier == null) {
+      return myDeltaInstanceGroups.stream();
+    }
+    else {
+      return Stream.concat(myClassifier.getAllClassifierSets().stream().flatMap(ClassifierSet::getDeltaInstanceGroupStream),
+                           myDeltaInstanceGroups.stream());
+    }
+  }
+
   /**
    * Return the stream of instance objects that contribute to the baseline snapshot.
    * Note that there can duplicated entries as {@link #getDeltaInstanceStream()}.
@@ -361,18 +435,14 @@ public abstract class ClassifierSet implements MemoryObject {
    */
   @Nullable
   public ClassifierSet findContainingClassifierSet(@NotNull InstanceObject target) {
-    boolean instancesContainsTarget =
-      Stream.concat(mySnapshotInstances.stream(), myDeltaInstances.stream()).filter(instance -> target.equals(instance)).findAny()
-        .isPresent();
+    boolean instancesContainsTarget = containsOwnInstance(target);
     if (instancesContainsTarget && myClassifier != null) {
       return this;
     }
     else if (instancesContainsTarget || myClassifier != null) {
       List<ClassifierSet> childrenClassifierSets = getChildrenClassifierSets();
-      // mySnapshotInstances/myDeltaInstances can be updated after getChildrenClassiferSets so rebuild the stream.
-      boolean stillContainsTarget =
-        Stream.concat(mySnapshotInstances.stream(), myDeltaInstances.stream()).filter(instance -> target.equals(instance)).findAny()
-          .isPresent();
+      // mySnapshotInstances/myDeltaInstances can be updated after getChildrenClassiferSets so look them up again.
+      boolean stillContainsTarget = containsOwnInstance(target);
       if (instancesContainsTarget && stillContainsTarget) {
         return this; // If after the partition the target still falls within the instances within this set, then return this set.
       }
@@ -387,11 +457,39 @@ public abstract class ClassifierSet implements MemoryObject {
     return null;
   }
 
+  private boolean containsOwnInstance(@NotNull InstanceObject target) {
+    return Stream.concat(mySnapshotInstances.stream(), myDeltaInstances.stream()).anyMatch(instance -> target.equals(instance)) ||
+           myDeltaInstanceGroups.stream().anyMatch(group -> group.contains(target));
+  }
+
+  /**
+   * Determines if the given {@code targetSet} is {@code this} ClassifierSet or one of its descendants. Only descendants that have already
+   * been partitioned are searched, so this doesn't cause the tree to be built.
+   */
+  public boolean containsClassifierSet(@NotNull ClassifierSet targetSet) {
+    if (this == targetSet) {
+      return true;
+    }
+    if (myClassifier != null) {
+      for (ClassifierSet classifierSet : myClassifier.getAllClassifierSets()) {
+        if (classifierSet.containsClassifierSet(targetSet)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
   /**
    * Determines if {@code this} ClassifierSet's descendant children forms a superset (could be equivalent) of the given
    * {@code targetSet}'s immediate children.
    */
   public boolean isSupersetOf(@NotNull ClassifierSet targetSet) {
+    // Sets in the tree of this one don't need their instances compared.
+    if (containsClassifierSet(targetSet)) {
+      return true;
+    }
+
     // TODO perhaps not use getImmediateInstances if we want this to work across all inheritors of ClassifierSet?
     if (getInstancesCount() < targetSet.getInstancesCount()) {
       return false;
@@ -407,7 +505,7 @@ public abstract class ClassifierSet implements MemoryObject {
   protected void ensurePartition() {
     if (myClassifier == null) {
       myClassifier = createSubClassifier();
-      myClassifier.partition(mySnapshotInstances, myDeltaInstances);
+      myClassifier.partition(mySnapshotInstances, myDeltaInstances, myDeltaInstanceGroups);
     }
   }
 
@@ -442,14 +540,15 @@ public abstract class ClassifierSet implements MemoryObject {
     myTotalNativeSize = 0;
     myTotalRetainedSize = 0;
     myInstancesWithStackInfoCount = 0;
-    myObjectSetCount = myClassifier.getAllClassifierSets().size();
+    assert myClassifier != null;
+    List<ClassifierSet> classifierSets = myClassifier.getAllClassifierSets();
+    myObjectSetCount = classifierSets.size();
     myFilteredObjectSetCount = 0;
 
     myIsMatched = matches(filter);
     myFilterMatchCount = myIsMatched ? 1 : 0;
 
-    assert myClassifier != null;
-    for (ClassifierSet classifierSet : myClassifier.getAllClassifierSets()) {
+    for (ClassifierSet classifierSet : classifierSets) {
       classifierSet.applyFilter(filter, hasMatchedAncestor || myIsMatched, filterChanged);
       myObjectSetCount += classifierSet.myObjectSetCount;
       if (!classifierSet.getIsFiltered()) {
@@ -533,10 +632,22 @@ public abstract class ClassifierSet implements MemoryObject {
      * {@link ClassifierSet}'s strategy. This will consume the instances from the input.
      */
     public final void partition(@NotNull Collection<InstanceObject> snapshotInstances, @NotNull Collection<InstanceObject> deltaInstances) {
+      partition(snapshotInstances, deltaInstances, new ArrayList<>());
+    }
+
+    /**
+     * Same as {@link #partition(Collection, Collection)}, also partitioning the {@link InstanceGroup}s in {@code deltaInstanceGroups}
+     * as a whole according to their representative.
+     */
+    public final void partition(@NotNull Collection<InstanceObject> snapshotInstances,
+                                @NotNull Collection<InstanceObject> deltaInstances,
+                                @NotNull Collection<InstanceGroup> deltaInstanceGroups) {
       if (isTerminalClassifier()) {
         return;
       }
 
+      deltaInstanceGroups.forEach(group -> getClassifierSet(group.getRepresentative(), true).addDeltaInstanceGroup(group));
+
       snapshotInstances.forEach(instance -> getClassifierSet(instance, true).addSnapshotInstanceObject(instance));
       deltaInstances.forEach(instance -> {
         if (instance.hasTimeData()) {
@@ -555,6 +666,7 @@ public abstract class ClassifierSet implements MemoryObject {
       });
       snapshotInstances.clear();
       deltaInstances.clear();
+      deltaInstanceGroups.clear();
     }
   }
 }
@@ -30,14 +30,24 @@ import com.android.tools.profiler.proto.MemoryServiceGrpc.MemoryServiceBlockingS
 import com.android.tools.profilers.analytics.FeatureTracker;
 import com.android.tools.profilers.memory.MemoryProfiler;
 import com.android.tools.profilers.memory.MemoryProfilerStage;
+import com.android.tools.profilers.memory.adapters.hprof.DominatorTree;
+import com.android.tools.profilers.memory.adapters.hprof.HprofIndex;
 import com.android.tools.proguard.ProguardMap;
 import com.google.common.annotations.VisibleForTesting;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import gnu.trove.TIntArrayList;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
 import java.util.*;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.Executor;
+import java.util.function.DoubleConsumer;
 import java.util.function.Function;
 import java.util.stream.Stream;
 
@@ -75,6 +85,36 @@ public class HeapDumpCaptureObject implements CaptureObject {
   @Nullable
   private volatile Snapshot mySnapshot;
 
+  /**
+   * Set instead of {@link #mySnapshot} when the heap dump is loaded as a {@link HprofIndex}, in which case the instances are
+   * {@link IndexedInstanceObject}s that read everything from the index when needed.
+   */
+  @Nullable
+  private HprofIndex myIndex;
+
+  @Nullable
+  private DominatorTree myDominatorTree;
+
+  private volatile boolean myIsIndexLoaded = false;
+
+  // The temporary file the index maps, deleted on unload.
+  @Nullable
+  private File myIndexFile;
+
+  private boolean myIsUnloaded = false;
+
+  /**
+   * Class entries of the objects of the index, by class index. Class objects all use the entry of java.lang.Class of their loader, and
+   * objects whose class isn't in the dump use an entry by the name {@link #getIndexedUnknownClassName} gives them.
+   */
+  @NotNull
+  private ClassDb.ClassEntry[] myIndexedClassEntries = new ClassDb.ClassEntry[0];
+  @NotNull
+  private ClassDb.ClassEntry[] myIndexedClassObjectEntries = new ClassDb.ClassEntry[0];
+  @NotNull
+  private final Map<String, ClassDb.ClassEntry> myIndexedUnknownClassEntries = new HashMap<>();
+  private int myIndexedJavaLangClass = HprofIndex.NO_CLASS;
+
   private volatile boolean myIsLoadingError = false;
 
   private boolean myHasNativeAllocations;
@@ -127,8 +167,7 @@ public class HeapDumpCaptureObject implements CaptureObject {
   @NotNull
   @Override
   public Collection<HeapSet> getHeapSets() {
-    Snapshot snapshot = mySnapshot;
-    if (snapshot == null) {
+    if (mySnapshot == null && !myIsIndexLoaded) {
       return Collections.emptyList();
     }
     return myHeapSets.values();
@@ -143,8 +182,7 @@ public class HeapDumpCaptureObject implements CaptureObject {
   @NotNull
   @Override
   public Stream<InstanceObject> getInstances() {
-    Snapshot snapshot = mySnapshot;
-    if (snapshot == null) {
+    if (mySnapshot == null && !myIsIndexLoaded) {
       return Stream.empty();
     }
     return getHeapSets().stream().map(ClassifierSet::getInstancesStream).flatMap(Function.identity());
@@ -166,26 +204,16 @@ public class HeapDumpCaptureObject implements CaptureObject {
 
   @Override
   public boolean load(@Nullable Range queryRange, @Nullable Executor queryJoiner) {
-    DumpDataResponse response;
-    while (true) {
-      // TODO move this to another thread and complete before we notify
-      response = myClient.getHeapDump(DumpDataRequest.newBuilder()
-                                        .setSession(mySession)
-                                        .setDumpTime(myHeapDumpInfo.getStartTime()).build());
-      if (response.getStatus() == DumpDataResponse.Status.SUCCESS) {
-        break;
-      }
-      else if (response.getStatus() == DumpDataResponse.Status.NOT_READY) {
-        try {
-          Thread.sleep(50L);
-        }
-        catch (InterruptedException e) {
-          Thread.currentThread().interrupt();
-          myIsLoadingError = true;
-          return false;
-        }
-        continue;
+    if (myStage.getStudioProfilers().getIdeServices().getFeatureConfig().isMemoryIndexedHeapDumpEnabled()) {
+      if (!loadIndex(myStage::setCaptureLoadingProgress)) {
+        return false;
       }
+      myStage.refreshSelectedHeap();
+      return true;
+    }
+
+    DumpDataResponse response = fetchHeapDump();
+    if (response == null) {
       myIsLoadingError = true;
       return false;
     }
@@ -256,9 +284,251 @@ public class HeapDumpCaptureObject implements CaptureObject {
     return true;
   }
 
+  /**
+   * @return the heap dump once it is ready, or null if it couldn't be fetched.
+   */
+  @Nullable
+  private DumpDataResponse fetchHeapDump() {
+    while (true) {
+      // TODO move this to another thread and complete before we notify
+      DumpDataResponse response = myClient.getHeapDump(DumpDataRequest.newBuilder()
+                                                         .setSession(mySession)
+                                                         .setDumpTime(myHeapDumpInfo.getStartTime()).build());
+      if (response.getStatus() == DumpDataResponse.Status.SUCCESS) {
+        return response;
+      }
+      else if (response.getStatus() == DumpDataResponse.Status.NOT_READY) {
+        try {
+          Thread.sleep(50L);
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return null;
+        }
+        continue;
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Indexes the heap dump instead of building a {@link Snapshot}. The dump is written to a file which is memory-mapped, so only the
+   * index and the per-class groups of objects are held in memory. The objects are only created when a class is expanded.
+   * <p>
+   * Unlike {@link #load(Range, Executor)}, this leaves the stage alone, so that captures comparing this dump with another can load it
+   * while it isn't the selected capture.
+   *
+   * @param progress receives the fraction of the work done, from the loading thread
+   */
+  boolean loadIndex(@NotNull DoubleConsumer progress) {
+    File file;
+    HprofIndex index;
+    try {
+      file = writeHeapDumpFile();
+      if (file == null) {
+        myIsLoadingError = true;
+        return false;
+      }
+    }
+    catch (IOException e) {
+      getLogger().warn("Unable to write heap dump", e);
+      myIsLoadingError = true;
+      return false;
+    }
+    try {
+      index = HprofIndex.load(file);
+    }
+    catch (IOException | RuntimeException e) {
+      getLogger().warn("Unable to load heap dump", e);
+      FileUtil.delete(file);
+      myIsLoadingError = true;
+      return false;
+    }
+
+    // The loader interrupts its thread to cancel the load, e.g. when another capture gets selected.
+    Thread loadingThread = Thread.currentThread();
+    DominatorTree dominatorTree;
+    try {
+      dominatorTree = DominatorTree.compute(index, new DominatorTree.Progress() {
+        @Override
+        public void setFraction(double fraction) {
+          progress.accept(fraction);
+        }
+
+        @Override
+        public boolean isCanceled() {
+          return loadingThread.isInterrupted();
+        }
+      });
+    }
+    catch (CancellationException e) {
+      index.close();
+      FileUtil.delete(file);
+      return false;
+    }
+
+    int classCount = index.getClassCount();
+    ClassDb.ClassEntry[] classEntries = new ClassDb.ClassEntry[classCount];
+    ClassDb.ClassEntry[] classObjectEntries = new ClassDb.ClassEntry[classCount];
+    for (int i = 0; i < classCount; i++) {
+      classEntries[i] = myClassDb.registerClass(index.getClassLoaderId(i), getIndexedClassName(index, i));
+      classObjectEntries[i] = myClassDb.registerClass(index.getClassLoaderId(i), ClassDb.JAVA_LANG_CLASS);
+      if (myIndexedJavaLangClass == HprofIndex.NO_CLASS && ClassDb.JAVA_LANG_CLASS.equals(classEntries[i].getClassName())) {
+        myIndexedJavaLangClass = i;
+      }
+    }
+    myIndexedClassEntries = classEntries;
+    myIndexedClassObjectEntries = classObjectEntries;
+
+    // Group the objects of each heap by class entry, keeping only their indices.
+    Map<Integer, Map<ClassDb.ClassEntry, TIntArrayList>> heapObjects = new HashMap<>();
+    for (int heapId : index.getHeapIds()) {
+      heapObjects.put(heapId, new LinkedHashMap<>());
+    }
+    int defaultHeapCount = 0;
+    int objectCount = index.getObjectCount();
+    for (int i = 0; i < objectCount; i++) {
+      if (index.getClassIndex(i) == HprofIndex.NO_CLASS) {
+        myIndexedUnknownClassEntries.computeIfAbsent(getIndexedUnknownClassName(index, i), name -> myClassDb.registerClass(0, name));
+      }
+      int heapId = index.getHeapId(i);
+      if (heapId == HprofIndex.DEFAULT_HEAP_ID && index.getKind(i) != HprofIndex.ObjectKind.CLASS) {
+        defaultHeapCount++;
+      }
+      heapObjects.get(heapId).computeIfAbsent(getIndexedClassEntry(index, i), entry -> new TIntArrayList()).add(i);
+    }
+
+    Map<Integer, HeapSet> heapSets = new HashMap<>();
+    heapObjects.forEach((heapId, classObjects) -> {
+      HeapSet heapSet = new HeapSet(this, index.getHeapName(heapId), heapId);
+      for (TIntArrayList objectList : classObjects.values()) {
+        int[] objects = objectList.toNativeArray();
+        long shallowSize = 0;
+        long retainedSize = 0;
+        for (int object : objects) {
+          shallowSize += index.getShallowSize(object);
+          retainedSize += dominatorTree.getRetainedSize(object);
+        }
+        heapSet.addDeltaInstanceGroup(new IndexedInstanceGroup(objects, shallowSize, retainedSize));
+      }
+      heapSets.put(heapId, heapSet);
+    });
+
+    synchronized (this) {
+      if (myIsUnloaded) {
+        index.close();
+        FileUtil.delete(file);
+        return false;
+      }
+      myIndex = index;
+      myIndexFile = file;
+      myDominatorTree = dominatorTree;
+      int finalDefaultHeapCount = defaultHeapCount;
+      heapSets.forEach((heapId, heapSet) -> {
+        if (heapId != HprofIndex.DEFAULT_HEAP_ID || heapSets.size() == 1 || finalDefaultHeapCount > 0) {
+          myHeapSets.put(heapId, heapSet);
+        }
+      });
+      myIsIndexLoaded = true;
+    }
+    return true;
+  }
+
+  /**
+   * Writes the heap dump to a temporary file. The response is only referenced while it is written out, so the dump doesn't stay on the
+   * heap while it is indexed.
+   *
+   * @return the file, or null if the heap dump couldn't be fetched.
+   */
+  @Nullable
+  private File writeHeapDumpFile() throws IOException {
+    DumpDataResponse response = fetchHeapDump();
+    if (response == null) {
+      return null;
+    }
+    File file = FileUtil.createTempFile(String.format("heap_dump_%d", myHeapDumpInfo.getStartTime()), ".hprof", true);
+    try (FileOutputStream out = new FileOutputStream(file)) {
+      response.getData().writeTo(out);
+    }
+    catch (IOException e) {
+      FileUtil.delete(file);
+      throw e;
+    }
+    return file;
+  }
+
+  @NotNull
+  private String getIndexedClassName(@NotNull HprofIndex index, int classIndex) {
+    String className = index.getClassName(classIndex);
+    return myProguardMap == null ? className : myProguardMap.getClassName(className);
+  }
+
+  @NotNull
+  private static String getIndexedUnknownClassName(@NotNull HprofIndex index, int object) {
+    switch (index.getKind(object)) {
+      case PRIMITIVE_ARRAY:
+        return HprofIndex.getPrimitiveArrayClassName(index.getArrayElementType(object));
+      case OBJECT_ARRAY:
+        return "java.lang.Object[]";
+      default:
+        return "java.lang.Object";
+    }
+  }
+
+  @Nullable
+  HprofIndex getIndex() {
+    return myIndex;
+  }
+
+  @VisibleForTesting
+  @Nullable
+  File getIndexFile() {
+    return myIndexFile;
+  }
+
+  long getIndexedRetainedSize(int object) {
+    DominatorTree dominatorTree = myDominatorTree;
+    assert dominatorTree != null;
+    return dominatorTree.getRetainedSize(object);
+  }
+
+  @NotNull
+  ClassDb.ClassEntry getIndexedClassEntry(int object) {
+    HprofIndex index = myIndex;
+    assert index != null;
+    return getIndexedClassEntry(index, object);
+  }
+
+  @NotNull
+  private ClassDb.ClassEntry getIndexedClassEntry(@NotNull HprofIndex index, int object) {
+    int classIndex = index.getClassIndex(object);
+    if (index.getKind(object) == HprofIndex.ObjectKind.CLASS) {
+      return myIndexedClassObjectEntries[classIndex];
+    }
+    else if (classIndex == HprofIndex.NO_CLASS) {
+      return myIndexedUnknownClassEntries.get(getIndexedUnknownClassName(index, object));
+    }
+    return myIndexedClassEntries[classIndex];
+  }
+
+  /**
+   * @return the class index of java.lang.Class, or {@link HprofIndex#NO_CLASS} if the dump doesn't hold it.
+   */
+  int getIndexedJavaLangClass() {
+    return myIndexedJavaLangClass;
+  }
+
+  @NotNull
+  String getIndexedFieldName(int declaringClass, long nameId) {
+    HprofIndex index = myIndex;
+    assert index != null;
+    String fieldName = index.getString(nameId);
+    return myProguardMap == null ? fieldName : myProguardMap.getFieldName(myIndexedClassEntries[declaringClass].getClassName(), fieldName);
+  }
+
   @Override
   public boolean isDoneLoading() {
-    return mySnapshot != null || myIsLoadingError;
+    return mySnapshot != null || myIsIndexLoaded || myIsLoadingError;
   }
 
   @Override
@@ -266,14 +536,41 @@ public class HeapDumpCaptureObject implements CaptureObject {
     return myIsLoadingError;
   }
 
+  /**
+   * Releases the index, its memory mapping and the file it maps. Unloading is final, and stops a load in progress from publishing its
+   * index.
+   */
   @Override
-  public void unload() {
-
+  public synchronized void unload() {
+    myIsUnloaded = true;
+    if (!myIsIndexLoaded) {
+      return;
+    }
+    myIsIndexLoaded = false;
+    myHeapSets.clear();
+    myDominatorTree = null;
+    myIndexedClassEntries = new ClassDb.ClassEntry[0];
+    myIndexedClassObjectEntries = new ClassDb.ClassEntry[0];
+    myIndexedUnknownClassEntries.clear();
+    HprofIndex index = myIndex;
+    myIndex = null;
+    if (index != null) {
+      index.close();
+    }
+    File file = myIndexFile;
+    myIndexFile = null;
+    if (file != null) {
+      FileUtil.delete(file);
+    }
   }
 
   @NotNull
   @Override
   public List<ClassifierAttribute> getClassifierAttributes() {
+    if (myIsIndexLoaded) {
+      // Native sizes come from perflib's NativeRegistryPostProcessor, which doesn't run on the index.
+      return Arrays.asList(LABEL, ALLOCATIONS, SHALLOW_SIZE, RETAINED_SIZE);
+    }
     return myHasNativeAllocations ? Arrays.asList(LABEL, ALLOCATIONS, NATIVE_SIZE, SHALLOW_SIZE, RETAINED_SIZE)
                                   : Arrays.asList(LABEL, ALLOCATIONS, SHALLOW_SIZE, RETAINED_SIZE);
   }
@@ -281,6 +578,10 @@ public class HeapDumpCaptureObject implements CaptureObject {
   @Override
   @NotNull
   public List<InstanceAttribute> getInstanceAttributes() {
+    if (myIsIndexLoaded) {
+      return Arrays.asList(InstanceAttribute.LABEL, InstanceAttribute.DEPTH, InstanceAttribute.SHALLOW_SIZE,
+                           InstanceAttribute.RETAINED_SIZE);
+    }
     return myHasNativeAllocations ?
            Arrays
              .asList(InstanceAttribute.LABEL, InstanceAttribute.DEPTH, InstanceAttribute.NATIVE_SIZE, InstanceAttribute.SHALLOW_SIZE,
@@ -323,4 +624,38 @@ public class HeapDumpCaptureObject implements CaptureObject {
     ClassObj classObj = instance.getClassObj();
     return myClassObjectIndex.get(classObj);
   }
+
+  /**
+   * The objects of a heap that share a class entry, kept as their indices in the {@link HprofIndex}.
+   */
+  private final class IndexedInstanceGroup extends InstanceGroup {
+    // In increasing order.
+    @NotNull private final int[] myObjects;
+
+    private IndexedInstanceGroup(@NotNull int[] objects, long shallowSize, long retainedSize) {
+      super(new IndexedInstanceObject(HeapDumpCaptureObject.this, objects[0]), objects.length, shallowSize, retainedSize);
+      myObjects = objects;
+    }
+
+    @NotNull
+    @Override
+    public Stream<InstanceObject> getInstances() {
+      return Arrays.stream(myObjects).mapToObj(object -> new IndexedInstanceObject(HeapDumpCaptureObject.this, object));
+    }
+
+    @Override
+    public boolean contains(@NotNull InstanceObject instance) {
+      if (!(instance instanceof IndexedInstanceObject)) {
+        return false;
+      }
+      int object = ((IndexedInstanceObject)instance).getObject();
+      // Objects of another capture may have the same index.
+      return Arrays.binarySearch(myObjects, object) >= 0 && new IndexedInstanceObject(HeapDumpCaptureObject.this, object).equals(instance);
+    }
+  }
+
+  @NotNull
+  private static Logger getLogger() {
+    return Logger.getInstance(HeapDumpCaptureObject.class);
+  }
 }
@@ -0,0 +1,353 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.adapters;
+
+import static com.android.tools.profilers.memory.adapters.CaptureObject.ClassifierAttribute.ALLOCATIONS;
+import static com.android.tools.profilers.memory.adapters.CaptureObject.ClassifierAttribute.DEALLOCATIONS;
+import static com.android.tools.profilers.memory.adapters.CaptureObject.ClassifierAttribute.LABEL;
+import static com.android.tools.profilers.memory.adapters.CaptureObject.ClassifierAttribute.RETAINED_SIZE;
+import static com.android.tools.profilers.memory.adapters.CaptureObject.ClassifierAttribute.SHALLOW_SIZE;
+import static com.android.tools.profilers.memory.adapters.CaptureObject.ClassifierAttribute.TOTAL_COUNT;
+
+import com.android.tools.adtui.model.Range;
+import com.android.tools.profilers.memory.MemoryProfilerStage;
+import com.android.tools.profilers.memory.adapters.hprof.HprofIndex;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import sun.reflect.generics.reflectiveObjects.NotImplementedException;
+
+/**
+ * Compares two heap dumps loaded as {@link HprofIndex}es. The instances of each class in each heap are totalled in both dumps, and the
+ * difference is added to the {@link HeapSet}s as one {@link InstanceGroup} per class, so the {@link ClassSet}s and {@link PackageSet}s
+ * report the count, shallow size and retained size deltas of each class and package.
+ *
+ * Objects are not matched across the dumps, as their ids aren't stable across garbage collections. A class whose instance count grew
+ * is reported as that many allocations, and one whose count shrank as that many deallocations. Heaps and classes are matched by name.
+ */
+public final class HeapDumpDiffCaptureObject implements CaptureObject {
+  @NotNull private final HeapDumpCaptureObject myBaseline;
+  @NotNull private final HeapDumpCaptureObject myCurrent;
+  @NotNull private final MemoryProfilerStage myStage;
+
+  @NotNull private final Map<Integer, HeapSet> myHeapSets = new HashMap<>();
+
+  private volatile boolean myIsDoneLoading = false;
+  private volatile boolean myIsLoadingError = false;
+  private boolean myIsUnloaded = false;
+
+  public HeapDumpDiffCaptureObject(@NotNull HeapDumpCaptureObject baseline,
+                                   @NotNull HeapDumpCaptureObject current,
+                                   @NotNull MemoryProfilerStage stage) {
+    myBaseline = baseline;
+    myCurrent = current;
+    myStage = stage;
+  }
+
+  @NotNull
+  @Override
+  public String getName() {
+    return "Heap Dump Diff";
+  }
+
+  @Nullable
+  @Override
+  public String getExportableExtension() {
+    return null;
+  }
+
+  @Override
+  public void saveToFile(@NotNull OutputStream outputStream) {
+    throw new NotImplementedException();
+  }
+
+  @NotNull
+  @Override
+  public List<ClassifierAttribute> getClassifierAttributes() {
+    return Arrays.asList(LABEL, ALLOCATIONS, DEALLOCATIONS, TOTAL_COUNT, SHALLOW_SIZE, RETAINED_SIZE);
+  }
+
+  @NotNull
+  @Override
+  public List<InstanceAttribute> getInstanceAttributes() {
+    return Arrays.asList(InstanceAttribute.LABEL, InstanceAttribute.DEPTH, InstanceAttribute.SHALLOW_SIZE, InstanceAttribute.RETAINED_SIZE);
+  }
+
+  @NotNull
+  @Override
+  public Collection<HeapSet> getHeapSets() {
+    return myIsDoneLoading && !myIsLoadingError ? myHeapSets.values() : Collections.emptyList();
+  }
+
+  @Nullable
+  @Override
+  public HeapSet getHeapSet(int heapId) {
+    return myHeapSets.getOrDefault(heapId, null);
+  }
+
+  @NotNull
+  @Override
+  public Stream<InstanceObject> getInstances() {
+    return getHeapSets().stream().map(ClassifierSet::getInstancesStream).flatMap(Function.identity());
+  }
+
+  @Override
+  public long getStartTimeNs() {
+    return myBaseline.getStartTimeNs();
+  }
+
+  @Override
+  public long getEndTimeNs() {
+    return myCurrent.getEndTimeNs();
+  }
+
+  @Override
+  public boolean load(@Nullable Range queryRange, @Nullable Executor queryJoiner) {
+    if (!loadDump(myBaseline, 0) || !loadDump(myCurrent, 0.5)) {
+      myIsLoadingError = true;
+      myIsDoneLoading = true;
+      return false;
+    }
+
+    HprofIndex baseline = myBaseline.getIndex();
+    HprofIndex current = myCurrent.getIndex();
+    assert baseline != null && current != null;
+    Map<String, Map<ClassDb.ClassEntry, ClassTotals>> heapTotals = new LinkedHashMap<>();
+    if (!addTotals(heapTotals, myBaseline, baseline, false) || !addTotals(heapTotals, myCurrent, current, true)) {
+      return false;
+    }
+
+    Map<String, Integer> heapIds = getHeapIds(baseline, current);
+    Map<Integer, HeapSet> heapSets = new HashMap<>();
+    heapTotals.forEach((heapName, classTotals) -> {
+      HeapSet heapSet = new HeapSet(this, heapName, heapIds.get(heapName));
+      for (ClassTotals totals : classTotals.values()) {
+        if (totals.hasChanged()) {
+          heapSet.addDeltaInstanceGroup(new DiffInstanceGroup(totals));
+        }
+      }
+      heapSets.put(heapSet.getId(), heapSet);
+    });
+
+    synchronized (this) {
+      if (myIsUnloaded) {
+        return false;
+      }
+      myHeapSets.putAll(heapSets);
+      myIsDoneLoading = true;
+    }
+    myStage.refreshSelectedHeap();
+    return true;
+  }
+
+  @Override
+  public boolean isDoneLoading() {
+    return myIsDoneLoading;
+  }
+
+  @Override
+  public boolean isError() {
+    return myIsLoadingError;
+  }
+
+  /**
+   * Unloads both dumps along with the diff, as the diff owns them, see {@link MemoryProfilerStage#selectHeapDumpDiffWithPrevious()}.
+   */
+  @Override
+  public synchronized void unload() {
+    myIsUnloaded = true;
+    myHeapSets.clear();
+    myBaseline.unload();
+    myCurrent.unload();
+  }
+
+  /**
+   * Loads a heap dump being compared as an index, unless it is already loaded. The dump isn't the selected capture, so it is loaded
+   * without the stage callbacks of {@link HeapDumpCaptureObject#load(Range, Executor)}, and its progress is reported as the diff's.
+   *
+   * @param progressStart the progress of the diff when the dump starts loading, each dump accounting for half of it
+   * @return whether the dump is loaded as an index
+   */
+  private boolean loadDump(@NotNull HeapDumpCaptureObject dump, double progressStart) {
+    if (!dump.isDoneLoading()) {
+      dump.loadIndex(fraction -> myStage.setCaptureLoadingProgress(progressStart + fraction / 2));
+    }
+    return !dump.isError() && dump.getIndex() != null;
+  }
+
+  /**
+   * Adds the instances of each class in each heap of a dump to {@code heapTotals}, which is keyed by heap name.
+   *
+   * @return false if the thread was interrupted
+   */
+  private static boolean addTotals(@NotNull Map<String, Map<ClassDb.ClassEntry, ClassTotals>> heapTotals,
+                                   @NotNull HeapDumpCaptureObject dump,
+                                   @NotNull HprofIndex index,
+                                   boolean isCurrent) {
+    int objectCount = index.getObjectCount();
+    for (int i = 0; i < objectCount; i++) {
+      if (Thread.currentThread().isInterrupted()) {
+        return false;
+      }
+      int heapId = index.getHeapId(i);
+      ClassDb.ClassEntry classEntry = dump.getIndexedClassEntry(i);
+      ClassTotals totals = heapTotals.computeIfAbsent(index.getHeapName(heapId), name -> new LinkedHashMap<>())
+        .computeIfAbsent(classEntry, entry -> new ClassTotals(entry));
+      totals.add(isCurrent, dump, heapId, i, index.getShallowSize(i), dump.getIndexedRetainedSize(i));
+    }
+    return true;
+  }
+
+  /**
+   * Heaps are matched by name, as their ids aren't guaranteed to be the same in both dumps. The heaps of the current dump keep their
+   * ids, and the heaps only found in the baseline keep theirs unless a heap of the current dump uses it.
+   */
+  @NotNull
+  private static Map<String, Integer> getHeapIds(@NotNull HprofIndex baseline, @NotNull HprofIndex current) {
+    Map<String, Integer> heapIds = new HashMap<>();
+    Set<Integer> usedIds = new HashSet<>();
+    for (int heapId : current.getHeapIds()) {
+      heapIds.put(current.getHeapName(heapId), heapId);
+      usedIds.add(heapId);
+    }
+    int nextId = usedIds.stream().mapToInt(Integer::intValue).max().orElse(HprofIndex.DEFAULT_HEAP_ID) + 1;
+    for (int heapId : baseline.getHeapIds()) {
+      String heapName = baseline.getHeapName(heapId);
+      if (!heapIds.containsKey(heapName)) {
+        int id = usedIds.contains(heapId) ? nextId++ : heapId;
+        heapIds.put(heapName, id);
+        usedIds.add(id);
+      }
+    }
+    return heapIds;
+  }
+
+  /**
+   * The instances of a class in a heap of one of the dumps.
+   */
+  private static final class DumpTotals {
+    @Nullable private HeapDumpCaptureObject myDump;
+    private int myHeapId;
+    private int myFirstObject = -1;
+    private int myCount;
+    private long myShallowSize;
+    private long myRetainedSize;
+  }
+
+  /**
+   * The instances of a class in a heap of both dumps.
+   */
+  private static final class ClassTotals {
+    @NotNull private final ClassDb.ClassEntry myClassEntry;
+    @NotNull private final DumpTotals myBaseline = new DumpTotals();
+    @NotNull private final DumpTotals myCurrent = new DumpTotals();
+
+    private ClassTotals(@NotNull ClassDb.ClassEntry classEntry) {
+      myClassEntry = classEntry;
+    }
+
+    private void add(boolean isCurrent, @NotNull HeapDumpCaptureObject dump, int heapId, int object, long shallowSize, long retainedSize) {
+      DumpTotals totals = isCurrent ? myCurrent : myBaseline;
+      if (totals.myDump == null) {
+        totals.myDump = dump;
+        totals.myHeapId = heapId;
+        totals.myFirstObject = object;
+      }
+      totals.myCount++;
+      totals.myShallowSize += shallowSize;
+      totals.myRetainedSize += retainedSize;
+    }
+
+    private boolean hasChanged() {
+      return myBaseline.myCount != myCurrent.myCount ||
+             myBaseline.myShallowSize != myCurrent.myShallowSize ||
+             myBaseline.myRetainedSize != myCurrent.myRetainedSize;
+    }
+  }
+
+  /**
+   * The difference between the instances of a class in a heap of both dumps. As objects aren't matched across the dumps, the group lists
+   * the instances of the dump that has more of them, i.e. the current one unless the class shrank.
+   */
+  private static final class DiffInstanceGroup extends InstanceGroup {
+    @NotNull private final ClassDb.ClassEntry myClassEntry;
+    @NotNull private final HeapDumpCaptureObject myDump;
+    private final int myHeapId;
+
+    private DiffInstanceGroup(@NotNull ClassTotals totals) {
+      this(totals, totals.myCurrent.myCount > 0 && totals.myCurrent.myCount >= totals.myBaseline.myCount
+                   ? totals.myCurrent
+                   : totals.myBaseline);
+    }
+
+    private DiffInstanceGroup(@NotNull ClassTotals totals, @NotNull DumpTotals listed) {
+      super(new IndexedInstanceObject(getDump(listed), listed.myFirstObject),
+            Math.max(0, totals.myCurrent.myCount - totals.myBaseline.myCount),
+            Math.max(0, totals.myBaseline.myCount - totals.myCurrent.myCount),
+            totals.myCurrent.myShallowSize - totals.myBaseline.myShallowSize,
+            totals.myCurrent.myRetainedSize - totals.myBaseline.myRetainedSize);
+      myClassEntry = totals.myClassEntry;
+      myDump = getDump(listed);
+      myHeapId = listed.myHeapId;
+    }
+
+    @NotNull
+    private static HeapDumpCaptureObject getDump(@NotNull DumpTotals totals) {
+      assert totals.myDump != null;
+      return totals.myDump;
+    }
+
+    @NotNull
+    @Override
+    public Stream<InstanceObject> getInstances() {
+      HprofIndex index = myDump.getIndex();
+      if (index == null) {
+        return Stream.empty();
+      }
+      return IntStream.range(0, index.getObjectCount())
+        .filter(this::isInGroup)
+        .mapToObj(object -> new IndexedInstanceObject(myDump, object));
+    }
+
+    @Override
+    public boolean contains(@NotNull InstanceObject instance) {
+      if (!(instance instanceof IndexedInstanceObject)) {
+        return false;
+      }
+      int object = ((IndexedInstanceObject)instance).getObject();
+      // Objects of the other dump may have the same index.
+      return new IndexedInstanceObject(myDump, object).equals(instance) && isInGroup(object);
+    }
+
+    private boolean isInGroup(int object) {
+      HprofIndex index = myDump.getIndex();
+      return index != null && index.getHeapId(object) == myHeapId && myDump.getIndexedClassEntry(object).equals(myClassEntry);
+    }
+  }
+}
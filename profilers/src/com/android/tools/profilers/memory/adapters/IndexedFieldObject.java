@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.adapters;
+
+import static com.android.tools.profilers.memory.adapters.ValueObject.ValueType.*;
+
+import com.android.tools.profilers.memory.adapters.hprof.HprofIndex;
+import java.util.Arrays;
+import java.util.Objects;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A field of an {@link IndexedInstanceObject}, or an element of an array. The value is read when the field is created.
+ */
+final class IndexedFieldObject implements FieldObject {
+  @NotNull private final String myFieldName;
+  @NotNull private final ValueObject.ValueType myValueType;
+  @Nullable private final InstanceObject myInstanceObject;
+  @Nullable private final Object myValue;
+  private final int myDepth;
+  private final int myShallowSize;
+  private final long myRetainedSize;
+
+  private final int myHashCode;
+
+  /**
+   * @param instanceObject the object the field refers to, for object fields
+   * @param value          the value of the field, for primitive fields
+   * @param size           the size of the field, for primitive fields
+   */
+  IndexedFieldObject(@NotNull String fieldName,
+                     byte type,
+                     @Nullable InstanceObject instanceObject,
+                     @Nullable Object value,
+                     int size,
+                     int parentDepth) {
+    myFieldName = fieldName;
+    myInstanceObject = instanceObject;
+    myValue = value;
+    if (type == HprofIndex.TYPE_OBJECT) {
+      myValueType = instanceObject == null ? NULL : instanceObject.getValueType();
+      myShallowSize = instanceObject == null ? 0 : instanceObject.getShallowSize();
+      myRetainedSize = instanceObject == null ? 0 : instanceObject.getRetainedSize();
+      myDepth = instanceObject == null ? Integer.MAX_VALUE : instanceObject.getDepth();
+    }
+    else {
+      myValueType = getValueType(type);
+      myShallowSize = size;
+      myRetainedSize = size;
+      myDepth = parentDepth;
+    }
+
+    myHashCode = Arrays.hashCode(new Object[]{myInstanceObject, myFieldName, myValueType, myValue});
+  }
+
+  @NotNull
+  static ValueObject.ValueType getValueType(byte type) {
+    switch (type) {
+      case HprofIndex.TYPE_OBJECT:
+        return OBJECT;
+      case HprofIndex.TYPE_BOOLEAN:
+        return BOOLEAN;
+      case HprofIndex.TYPE_CHAR:
+        return CHAR;
+      case HprofIndex.TYPE_FLOAT:
+        return FLOAT;
+      case HprofIndex.TYPE_DOUBLE:
+        return DOUBLE;
+      case HprofIndex.TYPE_BYTE:
+        return BYTE;
+      case HprofIndex.TYPE_SHORT:
+        return SHORT;
+      case HprofIndex.TYPE_INT:
+        return INT;
+      case HprofIndex.TYPE_LONG:
+        return LONG;
+      default:
+        return NULL;
+    }
+  }
+
+  @Override
+  public int hashCode() {
+    return myHashCode;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (!(obj instanceof IndexedFieldObject)) {
+      return false;
+    }
+
+    IndexedFieldObject other = (IndexedFieldObject)obj;
+    return Objects.equals(myInstanceObject, other.myInstanceObject) &&
+           myFieldName.equals(other.myFieldName) &&
+           myValueType == other.myValueType &&
+           Objects.equals(myValue, other.myValue);
+  }
+
+  @NotNull
+  @Override
+  public String getName() {
+    return getFieldName();
+  }
+
+  @Override
+  public int getShallowSize() {
+    return myShallowSize;
+  }
+
+  @Override
+  public long getRetainedSize() {
+    return myRetainedSize;
+  }
+
+  @Override
+  public int getDepth() {
+    return myDepth;
+  }
+
+  @NotNull
+  @Override
+  public String getFieldName() {
+    return myFieldName;
+  }
+
+  @Nullable
+  @Override
+  public InstanceObject getAsInstance() {
+    return myInstanceObject;
+  }
+
+  @Nullable
+  @Override
+  public Object getValue() {
+    return myInstanceObject != null ? myInstanceObject : myValue;
+  }
+
+  @NotNull
+  @Override
+  public ValueObject.ValueType getValueType() {
+    return myValueType;
+  }
+
+  @NotNull
+  @Override
+  public String getValueText() {
+    if (getValueType().getIsPrimitive()) {
+      return "";
+    }
+    else if (getValueType() == NULL || myInstanceObject == null) {
+      return "null";
+    }
+    else {
+      return String.format("{%s}", myInstanceObject.getClassEntry().getSimpleClassName());
+    }
+  }
+
+  @NotNull
+  @Override
+  public String getToStringText() {
+    if (getValueType() == NULL) {
+      return "";
+    }
+    else if (getValueType().getIsPrimitive()) {
+      return myValue == null ? "" : myValue.toString();
+    }
+    else {
+      return myInstanceObject == null ? "" : myInstanceObject.getToStringText();
+    }
+  }
+}
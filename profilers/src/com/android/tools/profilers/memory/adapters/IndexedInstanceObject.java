@@ -0,0 +1,358 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.adapters;
+
+import static com.android.tools.profilers.memory.adapters.ValueObject.ValueType.ARRAY;
+import static com.android.tools.profilers.memory.adapters.ValueObject.ValueType.CLASS;
+import static com.android.tools.profilers.memory.adapters.ValueObject.ValueType.OBJECT;
+import static com.android.tools.profilers.memory.adapters.ValueObject.ValueType.STRING;
+
+import com.android.tools.profilers.memory.adapters.hprof.HprofIndex;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A UI representation of an object of a heap dump loaded into a {@link HprofIndex}. Only the index of the object is kept, everything else
+ * is read from the {@link HprofIndex} when the object is displayed, so these are cheap to create.
+ */
+final class IndexedInstanceObject implements InstanceObject {
+  private static final String NAME_FORMATTER = "%s@%d (0x%x)";
+  private static final int MAX_VALUE_TEXT_LENGTH = 1024;
+  private static final String INVALID_STRING_VALUE = " ...<invalid string value>...";
+
+  @NotNull private final HeapDumpCaptureObject myCaptureObject;
+  private final int myObject;
+
+  IndexedInstanceObject(@NotNull HeapDumpCaptureObject captureObject, int object) {
+    myCaptureObject = captureObject;
+    myObject = object;
+  }
+
+  int getObject() {
+    return myObject;
+  }
+
+  @NotNull
+  private HprofIndex getIndex() {
+    HprofIndex index = myCaptureObject.getIndex();
+    assert index != null;
+    return index;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (!(obj instanceof IndexedInstanceObject)) {
+      return false;
+    }
+
+    IndexedInstanceObject other = (IndexedInstanceObject)obj;
+    return myCaptureObject == other.myCaptureObject && myObject == other.myObject;
+  }
+
+  @Override
+  public int hashCode() {
+    return myObject;
+  }
+
+  @NotNull
+  @Override
+  public String getName() {
+    return "";
+  }
+
+  @NotNull
+  @Override
+  public String getValueText() {
+    long id = getIndex().getObjectId(myObject);
+    return String.format(NAME_FORMATTER, getClassEntry().getSimpleClassName(), id, id);
+  }
+
+  @NotNull
+  @Override
+  public String getToStringText() {
+    if (getValueType() != STRING) {
+      return "";
+    }
+    String text = readString();
+    if (text == null) {
+      return INVALID_STRING_VALUE;
+    }
+    int textLength = text.length();
+    StringBuilder builder = new StringBuilder(6 + textLength);
+    builder.append("\"");
+    if (textLength == MAX_VALUE_TEXT_LENGTH) {
+      builder.append(text, 0, textLength - 1).append("...");
+    }
+    else {
+      builder.append(text);
+    }
+    builder.append("\"");
+    return builder.toString();
+  }
+
+  @Override
+  public int getHeapId() {
+    return getIndex().getHeapId(myObject);
+  }
+
+  @NotNull
+  @Override
+  public ClassDb.ClassEntry getClassEntry() {
+    return myCaptureObject.getIndexedClassEntry(myObject);
+  }
+
+  @Nullable
+  @Override
+  public InstanceObject getClassObject() {
+    HprofIndex index = getIndex();
+    int classIndex = index.getKind(myObject) == HprofIndex.ObjectKind.CLASS
+                     ? myCaptureObject.getIndexedJavaLangClass()
+                     : index.getClassIndex(myObject);
+    int classObject = classIndex == HprofIndex.NO_CLASS ? HprofIndex.NO_OBJECT : index.getClassObject(classIndex);
+    return classObject == HprofIndex.NO_OBJECT ? null : new IndexedInstanceObject(myCaptureObject, classObject);
+  }
+
+  @Override
+  public int getDepth() {
+    return getIndex().getDepth(myObject);
+  }
+
+  @Override
+  public int getShallowSize() {
+    return getIndex().getShallowSize(myObject);
+  }
+
+  @Override
+  public long getRetainedSize() {
+    return myCaptureObject.getIndexedRetainedSize(myObject);
+  }
+
+  @Override
+  public int getFieldCount() {
+    HprofIndex index = getIndex();
+    if (isArray(index)) {
+      return index.hasArrayData(myObject) ? index.getArrayLength(myObject) : 0;
+    }
+    int[] count = new int[1];
+    index.forEachField(myObject, (declaringClass, nameId, type, position) -> count[0]++);
+    return count[0];
+  }
+
+  @NotNull
+  @Override
+  public List<FieldObject> getFields() {
+    HprofIndex index = getIndex();
+    List<FieldObject> fields = new ArrayList<>();
+    if (isArray(index)) {
+      if (index.hasArrayData(myObject)) {
+        byte type = index.getArrayElementType(myObject);
+        int length = index.getArrayLength(myObject);
+        for (int i = 0; i < length; i++) {
+          fields.add(createField(index, Integer.toString(i), type, index.getArrayElementPosition(myObject, i)));
+        }
+      }
+    }
+    else {
+      index.forEachField(myObject, (declaringClass, nameId, type, position) -> fields.add(
+        createField(index, myCaptureObject.getIndexedFieldName(declaringClass, nameId), type, position)));
+    }
+    return fields;
+  }
+
+  @Nullable
+  @Override
+  public ArrayObject getArrayObject() {
+    HprofIndex index = getIndex();
+    if (!isArray(index)) {
+      return null;
+    }
+
+    return new ArrayObject() {
+      @NotNull
+      @Override
+      public ValueType getArrayElementType() {
+        return IndexedFieldObject.getValueType(index.getArrayElementType(myObject));
+      }
+
+      @Nullable
+      @Override
+      public byte[] getAsByteArray() {
+        if (getArrayElementType() != ValueType.BYTE || !index.hasArrayData(myObject)) {
+          return null;
+        }
+        byte[] values = new byte[getArrayLength()];
+        for (int i = 0; i < values.length; i++) {
+          values[i] = (Byte)index.readValue(HprofIndex.TYPE_BYTE, index.getArrayElementPosition(myObject, i));
+        }
+        return values;
+      }
+
+      @Nullable
+      @Override
+      public char[] getAsCharArray() {
+        if (getArrayElementType() != ValueType.CHAR || !index.hasArrayData(myObject)) {
+          return null;
+        }
+        char[] values = new char[getArrayLength()];
+        for (int i = 0; i < values.length; i++) {
+          values[i] = (Character)index.readValue(HprofIndex.TYPE_CHAR, index.getArrayElementPosition(myObject, i));
+        }
+        return values;
+      }
+
+      @NotNull
+      @Override
+      public Object[] getAsArray() {
+        if (!index.hasArrayData(myObject)) {
+          return new Object[0];
+        }
+        byte type = index.getArrayElementType(myObject);
+        Object[] values = new Object[getArrayLength()];
+        for (int i = 0; i < values.length; i++) {
+          Object value = index.readValue(type, index.getArrayElementPosition(myObject, i));
+          if (type == HprofIndex.TYPE_OBJECT) {
+            int element = index.findObject((Long)value);
+            value = element == HprofIndex.NO_OBJECT ? null : new IndexedInstanceObject(myCaptureObject, element);
+          }
+          values[i] = value;
+        }
+        return values;
+      }
+
+      @Override
+      public int getArrayLength() {
+        return index.getArrayLength(myObject);
+      }
+    };
+  }
+
+  @NotNull
+  @Override
+  public ValueType getValueType() {
+    HprofIndex index = getIndex();
+    switch (index.getKind(myObject)) {
+      case CLASS:
+        return CLASS;
+      case OBJECT_ARRAY:
+      case PRIMITIVE_ARRAY:
+        return ARRAY;
+      default:
+        return ClassDb.JAVA_LANG_STRING.equals(getClassEntry().getClassName()) ? STRING : OBJECT;
+    }
+  }
+
+  @NotNull
+  @Override
+  public List<ReferenceObject> getReferences() {
+    HprofIndex index = getIndex();
+    long id = index.getObjectId(myObject);
+    // Each referrer is listed once per reference, so group the names of the fields holding the references by referrer.
+    Map<Integer, List<String>> fieldNamesByReferrer = new LinkedHashMap<>();
+    for (int referrer : index.getReferrers(myObject)) {
+      if (fieldNamesByReferrer.containsKey(referrer)) {
+        continue;
+      }
+      List<String> fieldNames = new ArrayList<>(3);
+      if (index.getKind(referrer) == HprofIndex.ObjectKind.OBJECT_ARRAY) {
+        int length = index.getArrayLength(referrer);
+        for (int i = 0; i < length; i++) {
+          if (index.readId(index.getArrayElementPosition(referrer, i)) == id) {
+            fieldNames.add(String.valueOf(i));
+          }
+        }
+      }
+      else {
+        index.forEachField(referrer, (declaringClass, nameId, type, position) -> {
+          if (type == HprofIndex.TYPE_OBJECT && index.readId(position) == id) {
+            fieldNames.add(myCaptureObject.getIndexedFieldName(declaringClass, nameId));
+          }
+        });
+      }
+      fieldNamesByReferrer.put(referrer, fieldNames);
+    }
+
+    List<Integer> referrers = new ArrayList<>(fieldNamesByReferrer.keySet());
+    referrers.sort(Comparator.comparingInt(index::getDepth));
+    List<ReferenceObject> references = new ArrayList<>(referrers.size());
+    for (int referrer : referrers) {
+      references.add(new ReferenceObject(fieldNamesByReferrer.get(referrer), new IndexedInstanceObject(myCaptureObject, referrer)));
+    }
+    return references;
+  }
+
+  private boolean isArray(@NotNull HprofIndex index) {
+    HprofIndex.ObjectKind kind = index.getKind(myObject);
+    return kind == HprofIndex.ObjectKind.OBJECT_ARRAY || kind == HprofIndex.ObjectKind.PRIMITIVE_ARRAY;
+  }
+
+  @NotNull
+  private FieldObject createField(@NotNull HprofIndex index, @NotNull String name, byte type, int position) {
+    Object value = index.readValue(type, position);
+    if (type == HprofIndex.TYPE_OBJECT) {
+      int target = index.findObject((Long)value);
+      return new IndexedFieldObject(name, type, target == HprofIndex.NO_OBJECT ? null : new IndexedInstanceObject(myCaptureObject, target),
+                                    null, 0, getDepth());
+    }
+    return new IndexedFieldObject(name, type, null, value, index.getTypeSize(type), getDepth());
+  }
+
+  /**
+   * Reads the characters of a java.lang.String, up to {@link #MAX_VALUE_TEXT_LENGTH} of them.
+   *
+   * @return null if the characters aren't in the dump.
+   */
+  @Nullable
+  private String readString() {
+    HprofIndex index = getIndex();
+    int[] value = {HprofIndex.NO_OBJECT};
+    int[] count = {-1};
+    index.forEachField(myObject, (declaringClass, nameId, type, position) -> {
+      String name = index.getString(nameId);
+      if (type == HprofIndex.TYPE_OBJECT && "value".equals(name)) {
+        value[0] = index.findObject(index.readId(position));
+      }
+      else if (type == HprofIndex.TYPE_INT && "count".equals(name)) {
+        count[0] = (Integer)index.readValue(type, position);
+      }
+    });
+    if (value[0] == HprofIndex.NO_OBJECT ||
+        index.getKind(value[0]) != HprofIndex.ObjectKind.PRIMITIVE_ARRAY ||
+        !index.hasArrayData(value[0])) {
+      return null;
+    }
+    byte type = index.getArrayElementType(value[0]);
+    if (type != HprofIndex.TYPE_CHAR && type != HprofIndex.TYPE_BYTE) {
+      return null;
+    }
+    int length = index.getArrayLength(value[0]);
+    // Compressed strings store a flag in the count, in which case the array length is the string length.
+    if (count[0] >= 0 && count[0] <= length) {
+      length = count[0];
+    }
+    length = Math.min(length, MAX_VALUE_TEXT_LENGTH);
+    StringBuilder builder = new StringBuilder(length);
+    for (int i = 0; i < length; i++) {
+      Object character = index.readValue(type, index.getArrayElementPosition(value[0], i));
+      builder.append(type == HprofIndex.TYPE_CHAR ? (char)(Character)character : (char)((Byte)character & 0xFF));
+    }
+    return builder.toString();
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.adapters;
+
+import java.util.stream.Stream;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Instances that a {@link ClassifierSet} accounts for as a whole, for captures that can tell their counts and sizes without creating
+ * them. The instances are only created when they are listed.
+ * <p>
+ * Every instance of a group must be classified like its representative, e.g. share its class, so that {@link ClassifierSet.Classifier}s
+ * can partition the group without looking at each instance. Captures whose instances have allocation stacks either use groups with
+ * classifiers that don't look at them, or groups whose instances share their allocation stack and thread. A group accounts for its allocations and deallocations like that many delta allocation and
+ * deallocation events, and its instances are disjoint from the other instances of the capture's {@link ClassifierSet}s.
+ */
+public abstract class InstanceGroup {
+  @NotNull private final InstanceObject myRepresentative;
+  private final int myAllocationCount;
+  private final int myDeallocationCount;
+  private final long myShallowSize;
+  private final long myRetainedSize;
+
+  /**
+   * Creates a group of {@code count} allocated instances.
+   */
+  protected InstanceGroup(@NotNull InstanceObject representative, int count, long shallowSize, long retainedSize) {
+    this(representative, count, 0, shallowSize, retainedSize);
+  }
+
+  /**
+   * @param shallowSize the size of the allocated instances minus the size of the deallocated ones.
+   */
+  protected InstanceGroup(@NotNull InstanceObject representative,
+                          int allocationCount,
+                          int deallocationCount,
+                          long shallowSize,
+                          long retainedSize) {
+    myRepresentative = representative;
+    myAllocationCount = allocationCount;
+    myDeallocationCount = deallocationCount;
+    myShallowSize = shallowSize;
+    myRetainedSize = retainedSize;
+  }
+
+  /**
+   * @return an instance of the group, which classifiers look at in place of each instance.
+   */
+  @NotNull
+  public InstanceObject getRepresentative() {
+    return myRepresentative;
+  }
+
+  public int getAllocationCount() {
+    return myAllocationCount;
+  }
+
+  public int getDeallocationCount() {
+    return myDeallocationCount;
+  }
+
+  /**
+   * @return the number of instances of the group. Groups whose instances can be both allocated and deallocated override this, as
+   * these are only counted once.
+   */
+  public int getCount() {
+    return myAllocationCount + myDeallocationCount;
+  }
+
+  public int getInstancesWithStackInfoCount() {
+    return myRepresentative.getCallStackDepth() > 0 ? getCount() : 0;
+  }
+
+  public long getShallowSize() {
+    return myShallowSize;
+  }
+
+  public long getRetainedSize() {
+    return myRetainedSize;
+  }
+
+  /**
+   * Creates the instances of the group. They are not cached, so callers should only keep those they need.
+   */
+  @NotNull
+  public abstract Stream<InstanceObject> getInstances();
+
+  public boolean contains(@NotNull InstanceObject instance) {
+    return getInstances().anyMatch(instance::equals);
+  }
+}
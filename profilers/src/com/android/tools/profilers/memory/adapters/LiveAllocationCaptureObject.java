@@ -48,12 +48,15 @@ import com.android.tools.profiler.proto.MemoryServiceGrpc;
 import com.android.tools.profiler.proto.MemoryServiceGrpc.MemoryServiceBlockingStub;
 import com.android.tools.profilers.memory.MemoryProfiler;
 import com.android.tools.profilers.memory.MemoryProfilerAspect;
+import com.android.tools.profilers.memory.MemoryProfilerConfiguration;
 import com.android.tools.profilers.memory.MemoryProfilerStage;
 import com.android.tools.profilers.stacktrace.ThreadId;
 import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.intellij.openapi.diagnostic.Logger;
+import gnu.trove.TIntHashSet;
 import gnu.trove.TIntObjectHashMap;
+import gnu.trove.TLongHashSet;
 import gnu.trove.TLongObjectHashMap;
 import java.io.IOException;
 import java.io.OutputStream;
@@ -69,6 +72,7 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Stream;
 import org.jetbrains.annotations.NotNull;
@@ -92,6 +96,8 @@ public class LiveAllocationCaptureObject implements CaptureObject {
   // Mapping from unsymbolized addresses to symbolized native frames
   @NotNull private final TLongObjectHashMap<NativeCallStack.NativeFrame> myNativeFrameMap;
   private final TIntObjectHashMap<ThreadId> myThreadIdMap;
+  // Guards the maps above, as the instances of LiveAllocationInstanceGroups are created on the thread that lists them.
+  private final Object myInstanceLock = new Object();
   private final TLongObjectHashMap<StackFrameInfoResponse> myFrameInfoResponseMap;
 
   private final MemoryServiceBlockingStub myClient;
@@ -100,6 +106,14 @@ public class LiveAllocationCaptureObject implements CaptureObject {
   private final List<HeapSet> myHeapSets;
   private final AspectObserver myAspectObserver;
   private final boolean myEnableJniRefsTracking;
+  // Java allocation events queried so far, or null if the events of each range change are queried from the service.
+  @Nullable private final LiveAllocationEventIndex myEventIndex;
+  // Whether the last load accounted for the delta instances with LiveAllocationInstanceGroups, see useInstanceGroups.
+  private boolean myUsesInstanceGroups;
+  // Whether the LiveAllocationInstanceGroups of the last load are split by allocation stack and thread, see groupsByStack.
+  private boolean myGroupsByStack;
+  // The LiveAllocationInstanceGroups added to the heap sets, only used on the joiner thread.
+  @NotNull private List<LiveAllocationInstanceGroup> myInstanceGroups = new ArrayList<>();
 
   private long myEventsEndTimeNs;
   private long myContextEndTimeNs;
@@ -147,6 +161,8 @@ public class LiveAllocationCaptureObject implements CaptureObject {
     if (myEnableJniRefsTracking) {
       myHeapSets.add(new HeapSet(this, JNI_HEAP_NAME, JNI_HEAP_ID));
     }
+    myEventIndex =
+      stage.getStudioProfilers().getIdeServices().getFeatureConfig().isLiveAllocationIndexEnabled() ? new LiveAllocationEventIndex() : null;
 
     myEventsEndTimeNs = Long.MIN_VALUE;
     myContextEndTimeNs = Long.MIN_VALUE;
@@ -210,7 +226,7 @@ public class LiveAllocationCaptureObject implements CaptureObject {
   @Override
   public Collection<HeapSet> getHeapSets() {
     // Exclude DEFAULT_HEAP since it shouldn't show up in use in devices that support live allocation tracking.
-    if (myHeapSets.get(0).getInstancesCount() > 0) {
+    if (!myHeapSets.get(0).isEmpty()) {
       // But handle the unexpected, just in case....
       return myHeapSets;
     }
@@ -247,6 +263,11 @@ public class LiveAllocationCaptureObject implements CaptureObject {
     // TODO There's a problem with this, as the datastore is effectively a real-time system.
     // TODO In other words, when we query for some range, we may not get back entries that are still being inserted, and we don't re-query.
     myQueryRange.addDependency(myAspectObserver).onChange(Range.Aspect.RANGE, () -> loadTimeRange(myQueryRange, queryJoiner));
+    if (myEventIndex != null && !myEnableJniRefsTracking) {
+      // Switching to or from arranging by callstack changes whether instance groups can be used.
+      myStage.getAspect().addDependency(myAspectObserver)
+        .onChange(MemoryProfilerAspect.CLASS_GROUPING, () -> loadTimeRange(myQueryRange, queryJoiner));
+    }
 
     // Load the initial data within queryRange.
     loadTimeRange(myQueryRange, queryJoiner);
@@ -279,6 +300,7 @@ public class LiveAllocationCaptureObject implements CaptureObject {
   @Override
   public void unload() {
     myQueryRange.removeDependencies(myAspectObserver);
+    myStage.getAspect().removeDependencies(myAspectObserver);
     myExecutorService.shutdownNow();
   }
 
@@ -290,28 +312,30 @@ public class LiveAllocationCaptureObject implements CaptureObject {
     AllocationContextsResponse contextsResponse = myClient.getAllocationContexts(
       AllocationContextsRequest.newBuilder().setSession(mySession).setStartTime(myContextEndTimeNs).setEndTime(endTimeNs).build());
 
-    for (AllocatedClass klass : contextsResponse.getAllocatedClassesList()) {
-      ClassDb.ClassEntry entry = myClassDb.registerClass(DEFAULT_CLASSLOADER_ID, klass.getClassName(), klass.getClassId());
-      if (!myClassMap.containsKey(entry)) {
-        // TODO remove creation of instance object through the CLASS_DATA path. This should be handled by ALLOC_DATA.
-        // TODO pass in proper allocation time once this is handled via ALLOC_DATA.
-        LiveAllocationInstanceObject instance =
-          new LiveAllocationInstanceObject(this, entry, null, null, null, MemoryObject.INVALID_VALUE, MemoryObject.INVALID_VALUE);
-        instance.setAllocationTime(myCaptureStartTime);
-        myClassMap.put(entry, instance);
-        // TODO figure out what to do with java.lang.Class instance objects
+    synchronized (myInstanceLock) {
+      for (AllocatedClass klass : contextsResponse.getAllocatedClassesList()) {
+        ClassDb.ClassEntry entry = myClassDb.registerClass(DEFAULT_CLASSLOADER_ID, klass.getClassName(), klass.getClassId());
+        if (!myClassMap.containsKey(entry)) {
+          // TODO remove creation of instance object through the CLASS_DATA path. This should be handled by ALLOC_DATA.
+          // TODO pass in proper allocation time once this is handled via ALLOC_DATA.
+          LiveAllocationInstanceObject instance =
+            new LiveAllocationInstanceObject(this, entry, null, null, null, MemoryObject.INVALID_VALUE, MemoryObject.INVALID_VALUE);
+          instance.setAllocationTime(myCaptureStartTime);
+          myClassMap.put(entry, instance);
+          // TODO figure out what to do with java.lang.Class instance objects
+        }
       }
+      contextsResponse.getAllocationStacksList().forEach(callStack -> {
+        if (!myCallstackMap.contains(callStack.getStackId())) {
+          myCallstackMap.put(callStack.getStackId(), callStack);
+        }
+      });
+      contextsResponse.getAllocationThreadsList().forEach(thread -> {
+        if (!myThreadIdMap.contains(thread.getThreadId())) {
+          myThreadIdMap.put(thread.getThreadId(), new ThreadId(thread.getThreadName()));
+        }
+      });
     }
-    contextsResponse.getAllocationStacksList().forEach(callStack -> {
-      if (!myCallstackMap.contains(callStack.getStackId())) {
-        myCallstackMap.put(callStack.getStackId(), callStack);
-      }
-    });
-    contextsResponse.getAllocationThreadsList().forEach(thread -> {
-      if (!myThreadIdMap.contains(thread.getThreadId())) {
-        myThreadIdMap.put(thread.getThreadId(), new ThreadId(thread.getThreadName()));
-      }
-    });
     myContextEndTimeNs = Math.max(myContextEndTimeNs, contextsResponse.getTimestamp());
   }
 
@@ -327,8 +351,11 @@ public class LiveAllocationCaptureObject implements CaptureObject {
       myCurrentTask = myExecutorService.submit(() -> {
         long newStartTimeNs = TimeUnit.MICROSECONDS.toNanos((long)queryRange.getMin());
         long newEndTimeNs = TimeUnit.MICROSECONDS.toNanos((long)queryRange.getMax());
+        boolean useInstanceGroups = useInstanceGroups();
+        boolean groupsByStack = useInstanceGroups && groupsByStack();
         // Special case for max-value newEndTimeNs, as that indicates querying the latest events.
-        if (newStartTimeNs == myPreviousQueryStartTimeNs && newEndTimeNs == myPreviousQueryEndTimeNs && newEndTimeNs != Long.MAX_VALUE) {
+        if (newStartTimeNs == myPreviousQueryStartTimeNs && newEndTimeNs == myPreviousQueryEndTimeNs && newEndTimeNs != Long.MAX_VALUE &&
+            useInstanceGroups == myUsesInstanceGroups && groupsByStack == myGroupsByStack) {
           return null;
         }
 
@@ -359,42 +386,55 @@ public class LiveAllocationCaptureObject implements CaptureObject {
         List<InstanceObject> resetDeltaAllocationList = new ArrayList<>();
         List<InstanceObject> deltaFreeList = new ArrayList<>();
         List<InstanceObject> resetDeltaFreeList = new ArrayList<>();
+        List<LiveAllocationInstanceGroup> instanceGroups = new ArrayList<>();
 
-        // Clear and recreate the instance/heap sets if previous range does not intersect with the new one
-        boolean clear = myPreviousQueryEndTimeNs <= newStartTimeNs || newEndTimeNs <= myPreviousQueryStartTimeNs;
+        // Clear and recreate the instance/heap sets if previous range does not intersect with the new one, or if the delta instances
+        // switch between groups and instance objects.
+        boolean clear = myPreviousQueryEndTimeNs <= newStartTimeNs || newEndTimeNs <= myPreviousQueryStartTimeNs ||
+                        useInstanceGroups != myUsesInstanceGroups;
         if (clear) {
-          myInstanceMap.clear();
+          synchronized (myInstanceLock) {
+            myInstanceMap.clear();
+          }
           // If we are resetting, then first establish the object snapshot at the query range's start point.
           queryJavaInstanceSnapshot(newStartTimeNs, snapshotList);
           queryJniReferencesSnapshot(newStartTimeNs, snapshotList);
 
           // Update the delta allocations and deallocations within the selection range on the snapshot.
-          queryJavaInstanceDelta(newStartTimeNs, newEndTimeNs, deltaAllocationList, deltaFreeList, false);
+          if (!useInstanceGroups) {
+            queryJavaInstanceDelta(newStartTimeNs, newEndTimeNs, deltaAllocationList, deltaFreeList, false);
+          }
           queryJniReferencesDelta(newStartTimeNs, newEndTimeNs, deltaAllocationList, deltaFreeList, false);
         }
         else {
-          // Compute selection left differences.
+          // Compute selection left differences. The instances are only needed for the snapshot when using instance groups.
+          boolean queryLeftDifferences =
+            !useInstanceGroups || myStage.getStudioProfilers().getIdeServices().getFeatureConfig().isMemorySnapshotEnabled();
           List<InstanceObject> leftAllocations = new ArrayList<>();
           List<InstanceObject> leftDeallocations = new ArrayList<>();
-          if (newStartTimeNs < myPreviousQueryStartTimeNs) {
+          if (newStartTimeNs < myPreviousQueryStartTimeNs && queryLeftDifferences) {
             // Selection's min shifts left
             queryJavaInstanceDelta(newStartTimeNs, myPreviousQueryStartTimeNs, leftAllocations, leftDeallocations, false);
             queryJniReferencesDelta(newStartTimeNs, myPreviousQueryStartTimeNs, leftAllocations, leftDeallocations, false);
             // add data within this range to the deltas
-            deltaAllocationList.addAll(leftAllocations);
-            deltaFreeList.addAll(leftDeallocations);
+            if (!useInstanceGroups) {
+              deltaAllocationList.addAll(leftAllocations);
+              deltaFreeList.addAll(leftDeallocations);
+            }
             // Allocations happen after selection min: remove instance from snapshot
             resetSnapshotList.addAll(leftAllocations);
             // Deallocations happen after selection min: add instance to snapshot
             snapshotList.addAll(leftDeallocations);
           }
-          else if (newStartTimeNs > myPreviousQueryStartTimeNs) {
+          else if (newStartTimeNs > myPreviousQueryStartTimeNs && queryLeftDifferences) {
             // Selection's min shifts right
             queryJavaInstanceDelta(myPreviousQueryStartTimeNs, newStartTimeNs, leftAllocations, leftDeallocations, true);
             queryJniReferencesDelta(myPreviousQueryStartTimeNs, newStartTimeNs, leftAllocations, leftDeallocations, true);
             // Remove data within this range from the deltas
-            resetDeltaAllocationList.addAll(leftAllocations);
-            resetDeltaFreeList.addAll(leftDeallocations);
+            if (!useInstanceGroups) {
+              resetDeltaAllocationList.addAll(leftAllocations);
+              resetDeltaFreeList.addAll(leftDeallocations);
+            }
             // Allocations happen before the selection's min: add instance to snapshot
             snapshotList.addAll(leftAllocations);
             // Deallocations before the selection's min: remove instance from snapshot
@@ -404,14 +444,15 @@ public class LiveAllocationCaptureObject implements CaptureObject {
           // Compute selection right differences.
           List<InstanceObject> rightAllocations = new ArrayList<>();
           List<InstanceObject> rightDeallocations = new ArrayList<>();
-          if (newEndTimeNs < myPreviousQueryEndTimeNs) {
+          // With instance groups, the groups of the whole range replace the previous ones instead.
+          if (newEndTimeNs < myPreviousQueryEndTimeNs && !useInstanceGroups) {
             // Selection's max shifts left: remove data within this range from the deltas
             queryJavaInstanceDelta(newEndTimeNs, myPreviousQueryEndTimeNs, rightAllocations, rightDeallocations, true);
             queryJniReferencesDelta(newEndTimeNs, myPreviousQueryEndTimeNs, rightAllocations, rightDeallocations, true);
             resetDeltaAllocationList.addAll(rightAllocations);
             resetDeltaFreeList.addAll(rightDeallocations);
           }
-          else if (newEndTimeNs > myPreviousQueryEndTimeNs) {
+          else if (newEndTimeNs > myPreviousQueryEndTimeNs && !useInstanceGroups) {
             // Selection's max shifts right: add data within this range to the deltas
             queryJavaInstanceDelta(myPreviousQueryEndTimeNs, newEndTimeNs, rightAllocations, rightDeallocations, false);
             queryJniReferencesDelta(myPreviousQueryEndTimeNs, newEndTimeNs, rightAllocations, rightDeallocations, false);
@@ -420,12 +461,30 @@ public class LiveAllocationCaptureObject implements CaptureObject {
           }
         }
 
+        if (useInstanceGroups) {
+          boolean isSnapshotEnabled = myStage.getStudioProfilers().getIdeServices().getFeatureConfig().isMemorySnapshotEnabled();
+          myEventIndex.ensureRange(newStartTimeNs, newEndTimeNs, this::queryJavaInstanceEvents);
+          List<LiveAllocationEventIndex.ClassTotals> totalsList = groupsByStack
+                                                                  ? myEventIndex.getStackTotals(newStartTimeNs, newEndTimeNs)
+                                                                  : myEventIndex.getClassTotals(newStartTimeNs, newEndTimeNs);
+          for (LiveAllocationEventIndex.ClassTotals totals : totalsList) {
+            instanceGroups.add(new LiveAllocationInstanceGroup(totals, newStartTimeNs, newEndTimeNs, isSnapshotEnabled, groupsByStack));
+          }
+        }
+        if (myEventIndex != null) {
+          // Keep the events of the previous range too, as its groups are shown until the joiner replaces them.
+          myEventIndex.evictOutside(clear ? newStartTimeNs : Math.min(newStartTimeNs, myPreviousQueryStartTimeNs),
+                                    clear ? newEndTimeNs : Math.max(newEndTimeNs, myPreviousQueryEndTimeNs));
+        }
+
         myPreviousQueryStartTimeNs = newStartTimeNs;
         myPreviousQueryEndTimeNs = newEndTimeNs;
+        myUsesInstanceGroups = useInstanceGroups;
+        myGroupsByStack = groupsByStack;
 
         joiner.execute(() -> {
           myStage.getAspect().changed(MemoryProfilerAspect.CURRENT_HEAP_UPDATED);
-          if (clear ||
+          if (clear || useInstanceGroups ||
               deltaAllocationList.size() + deltaFreeList.size() + resetDeltaAllocationList.size() + resetDeltaFreeList.size() > 0) {
             if (clear) {
               myHeapSets.forEach(heap -> heap.clearClassifierSets());
@@ -433,6 +492,9 @@ public class LiveAllocationCaptureObject implements CaptureObject {
                 myStage.selectClassSet(ClassSet.EMPTY_SET);
               }
             }
+            else {
+              myInstanceGroups.forEach(group -> myHeapSets.get(group.getHeapId()).removeDeltaInstanceGroup(group));
+            }
             if (myStage.getStudioProfilers().getIdeServices().getFeatureConfig().isMemorySnapshotEnabled()) {
               snapshotList.forEach(instance -> myHeapSets.get(instance.getHeapId()).addSnapshotInstanceObject(instance));
               resetSnapshotList.forEach(instance -> myHeapSets.get(instance.getHeapId()).removeSnapshotInstanceObject(instance));
@@ -441,6 +503,8 @@ public class LiveAllocationCaptureObject implements CaptureObject {
             deltaFreeList.forEach(instance -> myHeapSets.get(instance.getHeapId()).freeDeltaInstanceObject(instance));
             resetDeltaAllocationList.forEach(instance -> myHeapSets.get(instance.getHeapId()).removeAddedDeltaInstanceObject(instance));
             resetDeltaFreeList.forEach(instance -> myHeapSets.get(instance.getHeapId()).removeFreedDeltaInstanceObject(instance));
+            instanceGroups.forEach(group -> myHeapSets.get(group.getHeapId()).addDeltaInstanceGroup(group));
+            myInstanceGroups = instanceGroups;
 
             myInfoMessage = hasNonFullTrackingRegion ? SAMPLING_INFO_MESSAGE : null;
             myStage.refreshSelectedHeap();
@@ -454,32 +518,53 @@ public class LiveAllocationCaptureObject implements CaptureObject {
     }
   }
 
+  /**
+   * Whether the delta instances are accounted for with a {@link LiveAllocationInstanceGroup} of each class, from the totals of the event
+   * index. The instance objects are still needed for the JNI references that refer to them.
+   */
+  private boolean useInstanceGroups() {
+    return myEventIndex != null && !myEnableJniRefsTracking;
+  }
+
+  /**
+   * Whether the {@link LiveAllocationInstanceGroup}s are split by allocation stack and thread, so that arranging them by callstack
+   * doesn't need the instance objects.
+   */
+  private boolean groupsByStack() {
+    return myStage.getConfiguration().getClassGrouping() == MemoryProfilerConfiguration.ClassGrouping.ARRANGE_BY_CALLSTACK;
+  }
+
   @NotNull
   private LiveAllocationInstanceObject getOrCreateInstanceObject(int tag, int classTag, int stackId, int threadId, long size, int heapId) {
-    LiveAllocationInstanceObject instance = myInstanceMap.get(tag);
-    if (instance == null) {
-      ClassDb.ClassEntry entry = myClassDb.getEntry(classTag);
-      assert myClassMap.containsKey(entry);
-      AllocationStack callstack = null;
-      if (stackId != 0) {
-        assert myCallstackMap.containsKey(stackId);
-        callstack = myCallstackMap.get(stackId);
-      }
-      ThreadId thread = null;
-      if (threadId != 0) {
-        assert myThreadIdMap.containsKey(threadId);
-        thread = myThreadIdMap.get(threadId);
+    synchronized (myInstanceLock) {
+      LiveAllocationInstanceObject instance = myInstanceMap.get(tag);
+      if (instance == null) {
+        ClassDb.ClassEntry entry = myClassDb.getEntry(classTag);
+        assert myClassMap.containsKey(entry);
+        AllocationStack callstack = null;
+        if (stackId != 0) {
+          assert myCallstackMap.containsKey(stackId);
+          callstack = myCallstackMap.get(stackId);
+        }
+        ThreadId thread = null;
+        if (threadId != 0) {
+          assert myThreadIdMap.containsKey(threadId);
+          thread = myThreadIdMap.get(threadId);
+        }
+        instance = new LiveAllocationInstanceObject(this, entry, myClassMap.get(entry), thread, callstack, size, heapId);
+        myInstanceMap.put(tag, instance);
       }
-      instance = new LiveAllocationInstanceObject(this, entry, myClassMap.get(entry), thread, callstack, size, heapId);
-      myInstanceMap.put(tag, instance);
-    }
 
-    return instance;
+      return instance;
+    }
   }
 
   @Nullable
   private JniReferenceInstanceObject getOrCreateJniRefObject(int tag, long refValue) {
-    LiveAllocationInstanceObject referencedObject = myInstanceMap.get(tag);
+    LiveAllocationInstanceObject referencedObject;
+    synchronized (myInstanceLock) {
+      referencedObject = myInstanceMap.get(tag);
+    }
     if (referencedObject == null) {
       // If a Java object can't be found by a given tag, nothing is known about the JNI reference and we can't track it.
       return null;
@@ -523,6 +608,8 @@ public class LiveAllocationCaptureObject implements CaptureObject {
       .setLiveObjectsOnly(true).setEndTime(newTimeNs).build();
     BatchJNIGlobalRefEvent jniBatch = myClient.getJNIGlobalRefsEvents(request);
 
+    List<NativeBacktrace> backtraces = new ArrayList<>();
+    List<Consumer<NativeCallStack>> callstackConsumers = new ArrayList<>();
     for (JNIGlobalReferenceEvent event : jniBatch.getEventsList()) {
       if (event.getEventType() != JNIGlobalReferenceEvent.Type.CREATE_GLOBAL_REF) {
         continue;
@@ -534,7 +621,8 @@ public class LiveAllocationCaptureObject implements CaptureObject {
         continue;
       }
       if (event.hasBacktrace()) {
-        refObject.setAllocationCallstack(resolveNativeBacktrace(event.getBacktrace()));
+        backtraces.add(event.getBacktrace());
+        callstackConsumers.add(refObject::setAllocationCallstack);
       }
       int threadId = event.getThreadId();
       ThreadId thread = ThreadId.INVALID_THREAD_ID;
@@ -546,6 +634,7 @@ public class LiveAllocationCaptureObject implements CaptureObject {
       refObject.setAllocationTime(event.getTimestamp());
       setAllocationList.add(refObject);
     }
+    resolveNativeBacktraces(backtraces, callstackConsumers);
   }
 
   /**
@@ -567,10 +656,23 @@ public class LiveAllocationCaptureObject implements CaptureObject {
       return;
     }
 
-    BatchAllocationSample sampleResponse = myClient.getAllocations(
-      AllocationSnapshotRequest.newBuilder().setSession(mySession).setStartTime(startTimeNs).setEndTime(endTimeNs).build());
+    if (myEventIndex != null) {
+      myEventIndex.ensureRange(startTimeNs, endTimeNs, this::queryJavaInstanceEvents);
+      myEventIndex.forEachEvent(startTimeNs, endTimeNs, (isAllocation, timestamp, tag, classTag, stackId, threadId, size, heapId) -> {
+        LiveAllocationInstanceObject instance = getOrCreateInstanceObject(tag, classTag, stackId, threadId, size, heapId);
+        if (isAllocation) {
+          instance.setAllocationTime(resetInstance ? Long.MIN_VALUE : timestamp);
+          allocationList.add(instance);
+        }
+        else {
+          instance.setDeallocTime(resetInstance ? Long.MAX_VALUE : timestamp);
+          deallocatoinList.add(instance);
+        }
+      });
+      return;
+    }
 
-    for (AllocationEvent event : sampleResponse.getEventsList()) {
+    for (AllocationEvent event : queryJavaInstanceEvents(startTimeNs, endTimeNs)) {
       if (event.getEventCase() == AllocationEvent.EventCase.ALLOC_DATA) {
         AllocationEvent.Allocation allocation = event.getAllocData();
         LiveAllocationInstanceObject instance =
@@ -593,6 +695,12 @@ public class LiveAllocationCaptureObject implements CaptureObject {
     }
   }
 
+  @NotNull
+  private List<AllocationEvent> queryJavaInstanceEvents(long startTimeNs, long endTimeNs) {
+    return myClient.getAllocations(
+      AllocationSnapshotRequest.newBuilder().setSession(mySession).setStartTime(startTimeNs).setEndTime(endTimeNs).build()).getEventsList();
+  }
+
   private void queryJniReferencesDelta(long startTimeNs,
                                        long endTimeNs,
                                        @NotNull List<InstanceObject> allocationList,
@@ -605,6 +713,8 @@ public class LiveAllocationCaptureObject implements CaptureObject {
       JNIGlobalRefsEventsRequest.newBuilder().setSession(mySession).setStartTime(startTimeNs).setEndTime(endTimeNs).build();
     BatchJNIGlobalRefEvent jniBatch = myClient.getJNIGlobalRefsEvents(request);
 
+    List<NativeBacktrace> backtraces = new ArrayList<>();
+    List<Consumer<NativeCallStack>> callstackConsumers = new ArrayList<>();
     for (JNIGlobalReferenceEvent event : jniBatch.getEventsList()) {
       JniReferenceInstanceObject refObject = getOrCreateJniRefObject(event.getObjectTag(), event.getRefValue());
       if (refObject == null) {
@@ -627,7 +737,8 @@ public class LiveAllocationCaptureObject implements CaptureObject {
           else {
             refObject.setAllocationTime(event.getTimestamp());
             if (event.hasBacktrace()) {
-              refObject.setAllocationCallstack(resolveNativeBacktrace(event.getBacktrace()));
+              backtraces.add(event.getBacktrace());
+              callstackConsumers.add(refObject::setAllocationCallstack);
             }
             refObject.setAllocThreadId(thread);
           }
@@ -640,7 +751,8 @@ public class LiveAllocationCaptureObject implements CaptureObject {
           else {
             refObject.setDeallocTime(event.getTimestamp());
             if (event.hasBacktrace()) {
-              refObject.setDeallocationCallstack(resolveNativeBacktrace(event.getBacktrace()));
+              backtraces.add(event.getBacktrace());
+              callstackConsumers.add(refObject::setDeallocationCallstack);
             }
             refObject.setDeallocThreadId(thread);
           }
@@ -650,30 +762,164 @@ public class LiveAllocationCaptureObject implements CaptureObject {
           assert false;
       }
     }
+    resolveNativeBacktraces(backtraces, callstackConsumers);
   }
 
-  @NotNull
-  private NativeCallStack resolveNativeBacktrace(@Nullable NativeBacktrace backtrace) {
-    if (backtrace == null || backtrace.getAddressesCount() == 0) {
-      return NativeCallStack.getDefaultInstance();
-    }
-    ResolveNativeBacktraceRequest request = ResolveNativeBacktraceRequest.newBuilder()
-      .setSession(getSession())
-      .setBacktrace(backtrace)
-      .build();
-    // The native callstack returned contains the module name and offsets, which we will use below to resolve the actual symbols.
-    NativeCallStack callstack = getClient().resolveNativeBacktrace(request);
-
-    NativeCallStack.Builder resolvedCallstack = NativeCallStack.newBuilder();
-    for (NativeCallStack.NativeFrame unsymbolizedFrame : callstack.getFramesList()) {
-      if (!myNativeFrameMap.containsKey(unsymbolizedFrame.getAddress())) {
-        NativeCallStack.NativeFrame symbolizedFrame = myStage.getStudioProfilers().getIdeServices().getNativeFrameSymbolizer()
-          .symbolize(myStage.getStudioProfilers().getSessionsManager().getSelectedSessionMetaData().getProcessAbi(), unsymbolizedFrame);
-        myNativeFrameMap.put(unsymbolizedFrame.getAddress(), symbolizedFrame);
+  /**
+   * Resolves the given backtraces and passes each resulting callstack to the consumer at the same index. The frames that haven't been
+   * seen yet are symbolized in a single batch across all the backtraces, as a single backtrace rarely has enough of them to keep the
+   * symbolizer busy.
+   */
+  private void resolveNativeBacktraces(@NotNull List<NativeBacktrace> backtraces,
+                                       @NotNull List<Consumer<NativeCallStack>> callstackConsumers) {
+    assert backtraces.size() == callstackConsumers.size();
+    if (backtraces.isEmpty()) {
+      return;
+    }
+
+    // The native callstacks returned contain the module names and offsets, which we will use below to resolve the actual symbols.
+    List<NativeCallStack> callstacks = new ArrayList<>(backtraces.size());
+    List<NativeCallStack.NativeFrame> unsymbolizedFrames = new ArrayList<>();
+    TLongHashSet unsymbolizedAddresses = new TLongHashSet();
+    for (NativeBacktrace backtrace : backtraces) {
+      NativeCallStack callstack = backtrace.getAddressesCount() == 0
+                                  ? NativeCallStack.getDefaultInstance()
+                                  : getClient().resolveNativeBacktrace(ResolveNativeBacktraceRequest.newBuilder()
+                                                                         .setSession(getSession())
+                                                                         .setBacktrace(backtrace)
+                                                                         .build());
+      callstacks.add(callstack);
+      for (NativeCallStack.NativeFrame unsymbolizedFrame : callstack.getFramesList()) {
+        if (!myNativeFrameMap.containsKey(unsymbolizedFrame.getAddress()) && unsymbolizedAddresses.add(unsymbolizedFrame.getAddress())) {
+          unsymbolizedFrames.add(unsymbolizedFrame);
+        }
+      }
+    }
+
+    if (!unsymbolizedFrames.isEmpty()) {
+      List<NativeCallStack.NativeFrame> symbolizedFrames = myStage.getStudioProfilers().getIdeServices().getNativeFrameSymbolizer()
+        .symbolize(myStage.getStudioProfilers().getSessionsManager().getSelectedSessionMetaData().getProcessAbi(), unsymbolizedFrames);
+      for (int i = 0; i < unsymbolizedFrames.size(); i++) {
+        myNativeFrameMap.put(unsymbolizedFrames.get(i).getAddress(), symbolizedFrames.get(i));
+      }
+    }
+
+    for (int i = 0; i < callstacks.size(); i++) {
+      NativeCallStack.Builder resolvedCallstack = NativeCallStack.newBuilder();
+      for (NativeCallStack.NativeFrame unsymbolizedFrame : callstacks.get(i).getFramesList()) {
+        resolvedCallstack.addFrames(myNativeFrameMap.get(unsymbolizedFrame.getAddress()));
       }
-      resolvedCallstack.addFrames(myNativeFrameMap.get(unsymbolizedFrame.getAddress()));
+      callstackConsumers.get(i).accept(resolvedCallstack.build());
+    }
+  }
+
+  /**
+   * The instances of a class in a heap that have events within a range, accounted for from the totals of the event index. The instances
+   * allocated before the range are left to the snapshot, if there is one. When arranging by callstack, a group only holds the instances
+   * allocated with one stack in one thread, and its representative carries that stack and thread.
+   */
+  private final class LiveAllocationInstanceGroup extends InstanceGroup {
+    private final int myHeapId;
+    private final int myClassTag;
+    private final int myStackId;
+    private final int myThreadId;
+    private final boolean myGroupsByStack;
+    private final long myStartTimeNs;
+    private final long myEndTimeNs;
+    private final boolean myIsSnapshotEnabled;
+    private final int myInstancesWithStackInfoCount;
+
+    private LiveAllocationInstanceGroup(@NotNull LiveAllocationEventIndex.ClassTotals totals,
+                                        long startTimeNs,
+                                        long endTimeNs,
+                                        boolean isSnapshotEnabled,
+                                        boolean groupsByStack) {
+      super(groupsByStack ? createStackObject(totals) : getClassObject(totals.getClassTag()), totals.getAllocationCount(),
+            totals.getDeallocationCount(), totals.getAllocationSize() - totals.getDeallocationSize(), 0);
+      myHeapId = totals.getHeapId();
+      myClassTag = totals.getClassTag();
+      myStackId = totals.getStackId();
+      myThreadId = totals.getThreadId();
+      myGroupsByStack = groupsByStack;
+      myStartTimeNs = startTimeNs;
+      myEndTimeNs = endTimeNs;
+      myIsSnapshotEnabled = isSnapshotEnabled;
+      myInstancesWithStackInfoCount =
+        totals.getAllocationsWithStackCount() + (isSnapshotEnabled ? 0 : totals.getDeallocationsWithStackCount());
+    }
+
+    private int getHeapId() {
+      return myHeapId;
     }
 
-    return resolvedCallstack.build();
+    @Override
+    public int getCount() {
+      // Without a snapshot, an instance allocated and deallocated within the range only counts once.
+      return myIsSnapshotEnabled ? getAllocationCount() : (int)getInstances().count();
+    }
+
+    @Override
+    public int getInstancesWithStackInfoCount() {
+      return myInstancesWithStackInfoCount;
+    }
+
+    @NotNull
+    @Override
+    public Stream<InstanceObject> getInstances() {
+      List<InstanceObject> instances = new ArrayList<>();
+      TIntHashSet allocatedTags = new TIntHashSet();
+      assert myEventIndex != null;
+      myEventIndex.forEachEvent(myStartTimeNs, myEndTimeNs, (isAllocation, timestamp, tag, classTag, stackId, threadId, size, heapId) -> {
+        if (classTag != myClassTag || heapId != myHeapId || (myGroupsByStack && (stackId != myStackId || threadId != myThreadId))) {
+          return;
+        }
+        LiveAllocationInstanceObject instance = getOrCreateInstanceObject(tag, classTag, stackId, threadId, size, heapId);
+        if (isAllocation) {
+          instance.setAllocationTime(timestamp);
+          instance.setDeallocTime(Long.MAX_VALUE);
+          allocatedTags.add(tag);
+          instances.add(instance);
+        }
+        else {
+          instance.setDeallocTime(timestamp);
+          if (!myIsSnapshotEnabled && !allocatedTags.contains(tag)) {
+            instances.add(instance);
+          }
+        }
+      });
+      return instances.stream();
+    }
+  }
+
+  @NotNull
+  private LiveAllocationInstanceObject getClassObject(int classTag) {
+    synchronized (myInstanceLock) {
+      LiveAllocationInstanceObject classObject = myClassMap.get(myClassDb.getEntry(classTag));
+      assert classObject != null;
+      return classObject;
+    }
+  }
+
+  /**
+   * @return an object standing for the instances of a class allocated with the stack and thread of the totals, see
+   * {@link LiveAllocationEventIndex#getStackTotals}.
+   */
+  @NotNull
+  private LiveAllocationInstanceObject createStackObject(@NotNull LiveAllocationEventIndex.ClassTotals totals) {
+    synchronized (myInstanceLock) {
+      ClassDb.ClassEntry entry = myClassDb.getEntry(totals.getClassTag());
+      assert myClassMap.containsKey(entry);
+      AllocationStack callstack = null;
+      if (totals.getStackId() != 0) {
+        assert myCallstackMap.containsKey(totals.getStackId());
+        callstack = myCallstackMap.get(totals.getStackId());
+      }
+      ThreadId thread = null;
+      if (totals.getThreadId() != 0) {
+        assert myThreadIdMap.containsKey(totals.getThreadId());
+        thread = myThreadIdMap.get(totals.getThreadId());
+      }
+      return new LiveAllocationInstanceObject(this, entry, myClassMap.get(entry), thread, callstack, 0, totals.getHeapId());
+    }
   }
 }
@@ -0,0 +1,538 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.adapters;
+
+import com.android.annotations.VisibleForTesting;
+import com.android.tools.profiler.proto.MemoryProfiler.AllocationEvent;
+import gnu.trove.TLongObjectHashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * In-memory index of the Java allocation and deallocation events of a live allocation capture, so that moving the selection range
+ * reads the events it adds or removes from here instead of querying them again.
+ *
+ * The events are kept in time order in primitive arrays. They are also grouped in buckets of {@link #BUCKET_SIZE} events, each with
+ * per-class counters, so that the per-class totals of a range only scan the events of the buckets at its ends.
+ *
+ * The index covers a single time interval, which grows as ranges outside of it are queried and shrinks when the events outside of the
+ * ranges in use are evicted. Only the capture's loading thread changes the index, but the events can be read from other threads, e.g.
+ * when the UI lists the instances of a class.
+ */
+final class LiveAllocationEventIndex {
+  @FunctionalInterface
+  interface EventFetcher {
+    /**
+     * @return the allocation events with timestamps in [startTimeNs, endTimeNs).
+     */
+    @NotNull
+    List<AllocationEvent> fetch(long startTimeNs, long endTimeNs);
+  }
+
+  @FunctionalInterface
+  interface EventVisitor {
+    void visit(boolean isAllocation, long timestamp, int tag, int classTag, int stackId, int threadId, long size, int heapId);
+  }
+
+  /**
+   * Allocation and deallocation counts and sizes of a class in a heap over a time range, optionally restricted to the instances allocated
+   * with a given stack in a given thread.
+   */
+  static final class ClassTotals {
+    private final int myHeapId;
+    private final int myClassTag;
+    private final int myStackId;
+    private final int myThreadId;
+    private int myAllocationCount;
+    private int myDeallocationCount;
+    private long myAllocationSize;
+    private long myDeallocationSize;
+    private int myAllocationsWithStackCount;
+    private int myDeallocationsWithStackCount;
+
+    private ClassTotals(int heapId, int classTag) {
+      this(heapId, classTag, 0, 0);
+    }
+
+    private ClassTotals(int heapId, int classTag, int stackId, int threadId) {
+      myHeapId = heapId;
+      myClassTag = classTag;
+      myStackId = stackId;
+      myThreadId = threadId;
+    }
+
+    public int getHeapId() {
+      return myHeapId;
+    }
+
+    public int getClassTag() {
+      return myClassTag;
+    }
+
+    /**
+     * @return the allocation stack of the instances, or 0 for totals that aren't split by stack, see {@link #getStackTotals}.
+     */
+    public int getStackId() {
+      return myStackId;
+    }
+
+    /**
+     * @return the allocation thread of the instances, or 0 for totals that aren't split by thread, see {@link #getStackTotals}.
+     */
+    public int getThreadId() {
+      return myThreadId;
+    }
+
+    public int getAllocationCount() {
+      return myAllocationCount;
+    }
+
+    public int getDeallocationCount() {
+      return myDeallocationCount;
+    }
+
+    public long getAllocationSize() {
+      return myAllocationSize;
+    }
+
+    public long getDeallocationSize() {
+      return myDeallocationSize;
+    }
+
+    public int getAllocationsWithStackCount() {
+      return myAllocationsWithStackCount;
+    }
+
+    public int getDeallocationsWithStackCount() {
+      return myDeallocationsWithStackCount;
+    }
+
+    private void add(boolean isAllocation, long size, boolean hasStack) {
+      if (isAllocation) {
+        myAllocationCount++;
+        myAllocationSize += size;
+        myAllocationsWithStackCount += hasStack ? 1 : 0;
+      }
+      else {
+        myDeallocationCount++;
+        myDeallocationSize += size;
+        myDeallocationsWithStackCount += hasStack ? 1 : 0;
+      }
+    }
+
+    private void add(@NotNull ClassTotals other) {
+      myAllocationCount += other.myAllocationCount;
+      myDeallocationCount += other.myDeallocationCount;
+      myAllocationSize += other.myAllocationSize;
+      myDeallocationSize += other.myDeallocationSize;
+      myAllocationsWithStackCount += other.myAllocationsWithStackCount;
+      myDeallocationsWithStackCount += other.myDeallocationsWithStackCount;
+    }
+  }
+
+  private static final int INITIAL_CAPACITY = 1 << 10;
+  @VisibleForTesting static final int BUCKET_SIZE = 1 << 12;
+
+  private long myStartTimeNs = Long.MIN_VALUE;
+  private long myEndTimeNs = Long.MIN_VALUE;
+  private int myEventCount;
+
+  @NotNull private long[] myTimestamps = new long[INITIAL_CAPACITY];
+  @NotNull private boolean[] myIsAllocations = new boolean[INITIAL_CAPACITY];
+  @NotNull private int[] myTags = new int[INITIAL_CAPACITY];
+  @NotNull private int[] myClassTags = new int[INITIAL_CAPACITY];
+  @NotNull private int[] myStackIds = new int[INITIAL_CAPACITY];
+  @NotNull private int[] myThreadIds = new int[INITIAL_CAPACITY];
+  @NotNull private long[] mySizes = new long[INITIAL_CAPACITY];
+  @NotNull private int[] myHeapIds = new int[INITIAL_CAPACITY];
+
+  /**
+   * Per-class totals of each full bucket of events, keyed by {@link #getTotalsKey}. The events after the last full bucket aren't
+   * summarized.
+   */
+  @NotNull private final List<TLongObjectHashMap<ClassTotals>> myBuckets = new ArrayList<>();
+
+  synchronized long getStartTimeNs() {
+    return myStartTimeNs;
+  }
+
+  synchronized long getEndTimeNs() {
+    return myEndTimeNs;
+  }
+
+  synchronized int getEventCount() {
+    return myEventCount;
+  }
+
+  @VisibleForTesting
+  synchronized int getCapacity() {
+    return myTimestamps.length;
+  }
+
+  /**
+   * Fetches the events of the parts of [startTimeNs, endTimeNs) the index doesn't cover yet. The fetches happen without holding the
+   * index's lock, so this must only be called from the thread that changes the index.
+   */
+  void ensureRange(long startTimeNs, long endTimeNs, @NotNull EventFetcher fetcher) {
+    if (startTimeNs >= endTimeNs) {
+      return;
+    }
+    if (myStartTimeNs == myEndTimeNs || endTimeNs < myStartTimeNs || startTimeNs > myEndTimeNs) {
+      // Nothing indexed yet, or the range doesn't touch the indexed interval: start over from the range.
+      synchronized (this) {
+        clear();
+        myStartTimeNs = startTimeNs;
+        myEndTimeNs = startTimeNs;
+      }
+    }
+    if (endTimeNs > myEndTimeNs) {
+      List<AllocationEvent> events = fetcher.fetch(myEndTimeNs, endTimeNs);
+      synchronized (this) {
+        append(events);
+        myEndTimeNs = endTimeNs;
+      }
+    }
+    if (startTimeNs < myStartTimeNs) {
+      List<AllocationEvent> events = fetcher.fetch(startTimeNs, myStartTimeNs);
+      synchronized (this) {
+        prepend(events);
+        myStartTimeNs = startTimeNs;
+      }
+    }
+  }
+
+  /**
+   * Drops the events outside of [startTimeNs, endTimeNs), so that the index doesn't keep the events of every range queried so far.
+   * The events after the range are dropped right away. The ones before it are only dropped by whole buckets, and once they make up
+   * half of the index, as that moves the remaining events.
+   */
+  synchronized void evictOutside(long startTimeNs, long endTimeNs) {
+    if (myStartTimeNs == myEndTimeNs) {
+      return;
+    }
+    if (endTimeNs <= myStartTimeNs || startTimeNs >= myEndTimeNs) {
+      clear();
+      myStartTimeNs = Long.MIN_VALUE;
+      myEndTimeNs = Long.MIN_VALUE;
+      return;
+    }
+
+    if (endTimeNs < myEndTimeNs) {
+      myEventCount = lowerBound(endTimeNs);
+      myEndTimeNs = endTimeNs;
+      int fullBuckets = myEventCount / BUCKET_SIZE;
+      myBuckets.subList(fullBuckets, myBuckets.size()).clear();
+    }
+
+    int evictedBuckets = lowerBound(startTimeNs) / BUCKET_SIZE;
+    // The time interval has to end between two buckets, so that the rest of the events of a timestamp aren't fetched again.
+    while (evictedBuckets > 0 && evictedBuckets * BUCKET_SIZE < myEventCount &&
+           myTimestamps[evictedBuckets * BUCKET_SIZE - 1] == myTimestamps[evictedBuckets * BUCKET_SIZE]) {
+      evictedBuckets--;
+    }
+    int evictedCount = evictedBuckets * BUCKET_SIZE;
+    if (evictedCount > 0 && evictedCount * 2 >= myEventCount) {
+      myStartTimeNs = myTimestamps[evictedCount - 1] + 1;
+      myEventCount -= evictedCount;
+      System.arraycopy(myTimestamps, evictedCount, myTimestamps, 0, myEventCount);
+      System.arraycopy(myIsAllocations, evictedCount, myIsAllocations, 0, myEventCount);
+      System.arraycopy(myTags, evictedCount, myTags, 0, myEventCount);
+      System.arraycopy(myClassTags, evictedCount, myClassTags, 0, myEventCount);
+      System.arraycopy(myStackIds, evictedCount, myStackIds, 0, myEventCount);
+      System.arraycopy(myThreadIds, evictedCount, myThreadIds, 0, myEventCount);
+      System.arraycopy(mySizes, evictedCount, mySizes, 0, myEventCount);
+      System.arraycopy(myHeapIds, evictedCount, myHeapIds, 0, myEventCount);
+      myBuckets.subList(0, evictedBuckets).clear();
+    }
+
+    if (myTimestamps.length > INITIAL_CAPACITY && myEventCount < myTimestamps.length / 4) {
+      resize(Math.max(INITIAL_CAPACITY, myEventCount * 2));
+    }
+  }
+
+  /**
+   * Visits the indexed events with timestamps in [startTimeNs, endTimeNs), in time order. Events of the range that the index doesn't
+   * cover, e.g. because they were evicted, aren't visited.
+   */
+  synchronized void forEachEvent(long startTimeNs, long endTimeNs, @NotNull EventVisitor visitor) {
+    int end = lowerBound(endTimeNs);
+    for (int i = lowerBound(startTimeNs); i < end; i++) {
+      visitor.visit(myIsAllocations[i], myTimestamps[i], myTags[i], myClassTags[i], myStackIds[i], myThreadIds[i], mySizes[i],
+                    myHeapIds[i]);
+    }
+  }
+
+  /**
+   * @return the allocation and deallocation totals of each class of each heap over [startTimeNs, endTimeNs), which must be covered by
+   * the index. Classes without events in the range are left out.
+   */
+  @NotNull
+  synchronized List<ClassTotals> getClassTotals(long startTimeNs, long endTimeNs) {
+    assert startTimeNs >= myStartTimeNs && endTimeNs <= myEndTimeNs;
+    TLongObjectHashMap<ClassTotals> totals = new TLongObjectHashMap<>();
+    int start = lowerBound(startTimeNs);
+    int end = lowerBound(endTimeNs);
+    int firstFullBucket = (start + BUCKET_SIZE - 1) / BUCKET_SIZE;
+    int lastFullBucket = Math.min(end / BUCKET_SIZE, myBuckets.size());
+    if (firstFullBucket >= lastFullBucket) {
+      addEvents(totals, start, end);
+    }
+    else {
+      addEvents(totals, start, firstFullBucket * BUCKET_SIZE);
+      for (int bucket = firstFullBucket; bucket < lastFullBucket; bucket++) {
+        myBuckets.get(bucket).forEachValue(bucketTotals -> {
+          getOrCreateTotals(totals, bucketTotals.myHeapId, bucketTotals.myClassTag).add(bucketTotals);
+          return true;
+        });
+      }
+      addEvents(totals, lastFullBucket * BUCKET_SIZE, end);
+    }
+
+    List<ClassTotals> result = new ArrayList<>(totals.size());
+    totals.forEachValue(result::add);
+    return result;
+  }
+
+  /**
+   * Same as {@link #getClassTotals}, but with separate totals for each allocation stack and thread of a class, so that the instances
+   * can be arranged by callstack from the totals. The buckets only hold per-class totals, so all the events of the range are scanned.
+   */
+  @NotNull
+  synchronized List<ClassTotals> getStackTotals(long startTimeNs, long endTimeNs) {
+    assert startTimeNs >= myStartTimeNs && endTimeNs <= myEndTimeNs;
+    TLongObjectHashMap<TLongObjectHashMap<ClassTotals>> totals = new TLongObjectHashMap<>();
+    List<ClassTotals> result = new ArrayList<>();
+    int end = lowerBound(endTimeNs);
+    for (int i = lowerBound(startTimeNs); i < end; i++) {
+      long classKey = getTotalsKey(myHeapIds[i], myClassTags[i]);
+      TLongObjectHashMap<ClassTotals> classTotals = totals.get(classKey);
+      if (classTotals == null) {
+        classTotals = new TLongObjectHashMap<>();
+        totals.put(classKey, classTotals);
+      }
+      long stackKey = getTotalsKey(myStackIds[i], myThreadIds[i]);
+      ClassTotals stackTotals = classTotals.get(stackKey);
+      if (stackTotals == null) {
+        stackTotals = new ClassTotals(myHeapIds[i], myClassTags[i], myStackIds[i], myThreadIds[i]);
+        classTotals.put(stackKey, stackTotals);
+        result.add(stackTotals);
+      }
+      stackTotals.add(myIsAllocations[i], mySizes[i], myStackIds[i] != 0);
+    }
+    return result;
+  }
+
+  private void addEvents(@NotNull TLongObjectHashMap<ClassTotals> totals, int start, int end) {
+    for (int i = start; i < end; i++) {
+      getOrCreateTotals(totals, myHeapIds[i], myClassTags[i]).add(myIsAllocations[i], mySizes[i], myStackIds[i] != 0);
+    }
+  }
+
+  private static long getTotalsKey(int heapId, int classTag) {
+    return ((long)heapId << 32) | (classTag & 0xFFFFFFFFL);
+  }
+
+  @NotNull
+  private static ClassTotals getOrCreateTotals(@NotNull TLongObjectHashMap<ClassTotals> totals, int heapId, int classTag) {
+    long key = getTotalsKey(heapId, classTag);
+    ClassTotals classTotals = totals.get(key);
+    if (classTotals == null) {
+      classTotals = new ClassTotals(heapId, classTag);
+      totals.put(key, classTotals);
+    }
+    return classTotals;
+  }
+
+  /**
+   * @return the index of the first event at or after the given time.
+   */
+  private int lowerBound(long timeNs) {
+    int low = 0;
+    int high = myEventCount;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (myTimestamps[mid] < timeNs) {
+        low = mid + 1;
+      }
+      else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private void append(@NotNull List<AllocationEvent> events) {
+    ensureCapacity(myEventCount + events.size());
+    int start = myEventCount;
+    for (AllocationEvent event : events) {
+      addEvent(event);
+    }
+    sortEvents(start, myEventCount);
+    updateBuckets(myBuckets.size());
+  }
+
+  /**
+   * Events before the indexed interval are rare, as ranges usually grow to the right with the capture, so prepending rebuilds the
+   * arrays.
+   */
+  private void prepend(@NotNull List<AllocationEvent> events) {
+    int previousCount = myEventCount;
+    long[] timestamps = Arrays.copyOf(myTimestamps, previousCount);
+    boolean[] isAllocations = Arrays.copyOf(myIsAllocations, previousCount);
+    int[] tags = Arrays.copyOf(myTags, previousCount);
+    int[] classTags = Arrays.copyOf(myClassTags, previousCount);
+    int[] stackIds = Arrays.copyOf(myStackIds, previousCount);
+    int[] threadIds = Arrays.copyOf(myThreadIds, previousCount);
+    long[] sizes = Arrays.copyOf(mySizes, previousCount);
+    int[] heapIds = Arrays.copyOf(myHeapIds, previousCount);
+
+    myEventCount = 0;
+    ensureCapacity(events.size() + previousCount);
+    for (AllocationEvent event : events) {
+      addEvent(event);
+    }
+    sortEvents(0, myEventCount);
+    int offset = myEventCount;
+    System.arraycopy(timestamps, 0, myTimestamps, offset, previousCount);
+    System.arraycopy(isAllocations, 0, myIsAllocations, offset, previousCount);
+    System.arraycopy(tags, 0, myTags, offset, previousCount);
+    System.arraycopy(classTags, 0, myClassTags, offset, previousCount);
+    System.arraycopy(stackIds, 0, myStackIds, offset, previousCount);
+    System.arraycopy(threadIds, 0, myThreadIds, offset, previousCount);
+    System.arraycopy(sizes, 0, mySizes, offset, previousCount);
+    System.arraycopy(heapIds, 0, myHeapIds, offset, previousCount);
+    myEventCount += previousCount;
+
+    myBuckets.clear();
+    updateBuckets(0);
+  }
+
+  private void addEvent(@NotNull AllocationEvent event) {
+    int i = myEventCount;
+    if (event.getEventCase() == AllocationEvent.EventCase.ALLOC_DATA) {
+      AllocationEvent.Allocation allocation = event.getAllocData();
+      setEvent(i, true, event.getTimestamp(), allocation.getTag(), allocation.getClassTag(), allocation.getStackId(),
+               allocation.getThreadId(), allocation.getSize(), allocation.getHeapId());
+    }
+    else if (event.getEventCase() == AllocationEvent.EventCase.FREE_DATA) {
+      AllocationEvent.Deallocation deallocation = event.getFreeData();
+      setEvent(i, false, event.getTimestamp(), deallocation.getTag(), deallocation.getClassTag(), deallocation.getStackId(),
+               deallocation.getThreadId(), deallocation.getSize(), deallocation.getHeapId());
+    }
+    else {
+      assert false;
+      return;
+    }
+    myEventCount++;
+  }
+
+  private void setEvent(int i, boolean isAllocation, long timestamp, int tag, int classTag, int stackId, int threadId, long size,
+                        int heapId) {
+    myIsAllocations[i] = isAllocation;
+    myTimestamps[i] = timestamp;
+    myTags[i] = tag;
+    myClassTags[i] = classTag;
+    myStackIds[i] = stackId;
+    myThreadIds[i] = threadId;
+    mySizes[i] = size;
+    myHeapIds[i] = heapId;
+  }
+
+  /**
+   * Sorts the events in [start, end) by timestamp, keeping the order of events with the same timestamp. The fetched events are
+   * normally already sorted, in which case this is a single pass.
+   */
+  private void sortEvents(int start, int end) {
+    boolean isSorted = true;
+    for (int i = start + 1; i < end && isSorted; i++) {
+      isSorted = myTimestamps[i - 1] <= myTimestamps[i];
+    }
+    if (isSorted) {
+      return;
+    }
+
+    Integer[] order = new Integer[end - start];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = start + i;
+    }
+    long[] timestamps = myTimestamps;
+    Arrays.sort(order, (a, b) -> Long.compare(timestamps[a], timestamps[b]));
+
+    long[] sortedTimestamps = new long[order.length];
+    boolean[] isAllocations = new boolean[order.length];
+    int[] tags = new int[order.length];
+    int[] classTags = new int[order.length];
+    int[] stackIds = new int[order.length];
+    int[] threadIds = new int[order.length];
+    long[] sizes = new long[order.length];
+    int[] heapIds = new int[order.length];
+    for (int i = 0; i < order.length; i++) {
+      int from = order[i];
+      sortedTimestamps[i] = myTimestamps[from];
+      isAllocations[i] = myIsAllocations[from];
+      tags[i] = myTags[from];
+      classTags[i] = myClassTags[from];
+      stackIds[i] = myStackIds[from];
+      threadIds[i] = myThreadIds[from];
+      sizes[i] = mySizes[from];
+      heapIds[i] = myHeapIds[from];
+    }
+    System.arraycopy(sortedTimestamps, 0, myTimestamps, start, order.length);
+    System.arraycopy(isAllocations, 0, myIsAllocations, start, order.length);
+    System.arraycopy(tags, 0, myTags, start, order.length);
+    System.arraycopy(classTags, 0, myClassTags, start, order.length);
+    System.arraycopy(stackIds, 0, myStackIds, start, order.length);
+    System.arraycopy(threadIds, 0, myThreadIds, start, order.length);
+    System.arraycopy(sizes, 0, mySizes, start, order.length);
+    System.arraycopy(heapIds, 0, myHeapIds, start, order.length);
+  }
+
+  /**
+   * Summarizes the full buckets of events from the given one on.
+   */
+  private void updateBuckets(int firstBucket) {
+    for (int bucket = firstBucket; (bucket + 1) * BUCKET_SIZE <= myEventCount; bucket++) {
+      TLongObjectHashMap<ClassTotals> totals = new TLongObjectHashMap<>();
+      addEvents(totals, bucket * BUCKET_SIZE, (bucket + 1) * BUCKET_SIZE);
+      myBuckets.add(totals);
+    }
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity <= myTimestamps.length) {
+      return;
+    }
+    resize(Math.max(capacity, myTimestamps.length * 2));
+  }
+
+  private void resize(int newCapacity) {
+    myTimestamps = Arrays.copyOf(myTimestamps, newCapacity);
+    myIsAllocations = Arrays.copyOf(myIsAllocations, newCapacity);
+    myTags = Arrays.copyOf(myTags, newCapacity);
+    myClassTags = Arrays.copyOf(myClassTags, newCapacity);
+    myStackIds = Arrays.copyOf(myStackIds, newCapacity);
+    myThreadIds = Arrays.copyOf(myThreadIds, newCapacity);
+    mySizes = Arrays.copyOf(mySizes, newCapacity);
+    myHeapIds = Arrays.copyOf(myHeapIds, newCapacity);
+  }
+
+  private void clear() {
+    myEventCount = 0;
+    myBuckets.clear();
+  }
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.adapters.hprof;
+
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Dominator tree of the objects of a {@link HprofIndex}, over hard references, and the retained size of each object.
+ *
+ * The graph is read from the index in parallel into primitive arrays, then the tree is computed with the semi-NCA variant of the
+ * Lengauer-Tarjan algorithm, which runs in near linear time without the bucket bookkeeping of the original.
+ */
+public final class DominatorTree {
+  /**
+   * Receives the progress of {@link #compute(HprofIndex, Progress)} and lets the caller cancel it.
+   */
+  public interface Progress {
+    /**
+     * Called with the fraction of the work done, from any thread.
+     */
+    void setFraction(double fraction);
+
+    /**
+     * Polled regularly, from any thread. Once it returns true, the computation throws a {@link CancellationException}.
+     */
+    boolean isCanceled();
+  }
+
+  /**
+   * Number of objects whose references are read in one task of the parallel phases.
+   */
+  private static final int CHUNK_SIZE = 1 << 14;
+
+  // Fractions of the total work at which each phase ends, for progress reporting.
+  private static final double COUNT_PHASE_END = 0.3;
+  private static final double READ_PHASE_END = 0.6;
+  private static final double SEARCH_PHASE_END = 0.7;
+  private static final double SEMI_DOMINATOR_PHASE_END = 0.9;
+
+  /**
+   * Immediate dominator of each object, or {@link HprofIndex#NO_OBJECT} for objects dominated only by the GC roots or unreachable.
+   */
+  @NotNull private final int[] myDominators;
+  @NotNull private final long[] myRetainedSizes;
+
+  private DominatorTree(@NotNull int[] dominators, @NotNull long[] retainedSizes) {
+    myDominators = dominators;
+    myRetainedSizes = retainedSizes;
+  }
+
+  /**
+   * @return the closest object every path from the GC roots to the given one goes through, or {@link HprofIndex#NO_OBJECT} if there is
+   * none or the object is unreachable.
+   */
+  public int getImmediateDominator(int object) {
+    return myDominators[object];
+  }
+
+  /**
+   * @return the total shallow size of the objects that are only reachable through the given one, including itself, or 0 if the object
+   * is unreachable.
+   */
+  public long getRetainedSize(int object) {
+    return myRetainedSizes[object];
+  }
+
+  @NotNull
+  public static DominatorTree compute(@NotNull HprofIndex index, @NotNull Progress progress) {
+    int objectCount = index.getObjectCount();
+    // The graph has an extra node, numbered objectCount, standing for the GC roots and referring to each object they hold.
+    int nodeCount = objectCount + 1;
+
+    // Read the hard references of each object in parallel, first counting them to size the arrays.
+    int[] successorStarts = new int[nodeCount + 1];
+    int[] roots = index.getRoots();
+    runInChunks(objectCount, progress, 0, COUNT_PHASE_END, object -> {
+      int[] count = new int[1];
+      index.forEachReference(object, false, target -> count[0]++);
+      successorStarts[object + 1] = count[0];
+    });
+    successorStarts[nodeCount] = roots.length;
+    for (int node = 0; node < nodeCount; node++) {
+      successorStarts[node + 1] += successorStarts[node];
+    }
+    int[] successors = new int[successorStarts[nodeCount]];
+    runInChunks(objectCount, progress, COUNT_PHASE_END, READ_PHASE_END, object -> {
+      int[] next = {successorStarts[object]};
+      index.forEachReference(object, false, target -> successors[next[0]++] = target);
+    });
+    System.arraycopy(roots, 0, successors, successorStarts[objectCount], roots.length);
+
+    // Number the nodes in depth-first order from the GC roots. Unreachable objects keep a negative number.
+    int[] preorder = new int[nodeCount];
+    Arrays.fill(preorder, -1);
+    int[] vertices = new int[nodeCount];
+    int[] parents = new int[nodeCount];
+    int reachableCount = depthFirstSearch(objectCount, successorStarts, successors, preorder, vertices, parents);
+    checkCanceled(progress);
+    progress.setFraction(SEARCH_PHASE_END);
+
+    // Predecessors of each reachable node, by DFS number.
+    int[] predecessorStarts = new int[reachableCount + 1];
+    for (int node = 0; node < nodeCount; node++) {
+      if (preorder[node] >= 0) {
+        for (int i = successorStarts[node]; i < successorStarts[node + 1]; i++) {
+          int target = preorder[successors[i]];
+          if (target >= 0) {
+            predecessorStarts[target + 1]++;
+          }
+        }
+      }
+    }
+    for (int i = 0; i < reachableCount; i++) {
+      predecessorStarts[i + 1] += predecessorStarts[i];
+    }
+    int[] predecessors = new int[predecessorStarts[reachableCount]];
+    int[] nextPredecessor = Arrays.copyOf(predecessorStarts, reachableCount);
+    for (int node = 0; node < nodeCount; node++) {
+      if (preorder[node] >= 0) {
+        for (int i = successorStarts[node]; i < successorStarts[node + 1]; i++) {
+          int target = preorder[successors[i]];
+          if (target >= 0) {
+            predecessors[nextPredecessor[target]++] = preorder[node];
+          }
+        }
+      }
+    }
+
+    int[] dominators = computeDominators(reachableCount, parents, predecessorStarts, predecessors, progress);
+    progress.setFraction(SEMI_DOMINATOR_PHASE_END);
+
+    // Dominators come before the nodes they dominate in DFS order, so a reverse pass adds each retained size to its dominator's.
+    long[] retainedSizes = new long[objectCount];
+    long[] sizesByNumber = new long[reachableCount];
+    for (int i = reachableCount - 1; i > 0; i--) {
+      sizesByNumber[i] += index.getShallowSize(vertices[i]);
+      sizesByNumber[dominators[i]] += sizesByNumber[i];
+      retainedSizes[vertices[i]] = sizesByNumber[i];
+    }
+    int[] objectDominators = new int[objectCount];
+    Arrays.fill(objectDominators, HprofIndex.NO_OBJECT);
+    for (int i = 1; i < reachableCount; i++) {
+      int dominator = vertices[dominators[i]];
+      objectDominators[vertices[i]] = dominator == objectCount ? HprofIndex.NO_OBJECT : dominator;
+    }
+    progress.setFraction(1);
+    return new DominatorTree(objectDominators, retainedSizes);
+  }
+
+  /**
+   * Iterative depth-first search from the GC roots node, which gets number 0.
+   *
+   * @return the number of reachable nodes
+   */
+  private static int depthFirstSearch(int rootNode,
+                                      @NotNull int[] successorStarts,
+                                      @NotNull int[] successors,
+                                      @NotNull int[] preorder,
+                                      @NotNull int[] vertices,
+                                      @NotNull int[] parents) {
+    int[] stack = new int[preorder.length];
+    int[] nextSuccessor = new int[preorder.length];
+    int stackSize = 0;
+    int count = 0;
+    preorder[rootNode] = count;
+    vertices[count++] = rootNode;
+    stack[stackSize++] = rootNode;
+    nextSuccessor[rootNode] = successorStarts[rootNode];
+    while (stackSize > 0) {
+      int node = stack[stackSize - 1];
+      if (nextSuccessor[node] == successorStarts[node + 1]) {
+        stackSize--;
+        continue;
+      }
+      int target = successors[nextSuccessor[node]++];
+      if (preorder[target] < 0) {
+        preorder[target] = count;
+        vertices[count] = target;
+        parents[count] = preorder[node];
+        count++;
+        nextSuccessor[target] = successorStarts[target];
+        stack[stackSize++] = target;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Semi-NCA: computes the semi-dominator of each node with the path compression of Lengauer-Tarjan, then walks up the DFS tree from
+   * each node's parent to the nearest ancestor not below its semi-dominator. All nodes are DFS numbers.
+   *
+   * @return the immediate dominator of each node, 0 being the root
+   */
+  @NotNull
+  private static int[] computeDominators(int count,
+                                         @NotNull int[] parents,
+                                         @NotNull int[] predecessorStarts,
+                                         @NotNull int[] predecessors,
+                                         @NotNull Progress progress) {
+    int[] semis = new int[count];
+    int[] labels = new int[count];
+    int[] ancestors = Arrays.copyOf(parents, count);
+    int[] stack = new int[count];
+    for (int i = 0; i < count; i++) {
+      semis[i] = i;
+      labels[i] = i;
+    }
+
+    // Nodes are processed in reverse DFS order. Nodes numbered above the current one are linked to their parent in the forest used by
+    // the path compression, the others are roots of that forest.
+    for (int node = count - 1; node > 0; node--) {
+      if ((node & (CHUNK_SIZE - 1)) == 0) {
+        checkCanceled(progress);
+        progress.setFraction(SEMI_DOMINATOR_PHASE_END -
+                             (SEMI_DOMINATOR_PHASE_END - SEARCH_PHASE_END) * node / count);
+      }
+      int semi = semis[node];
+      for (int i = predecessorStarts[node]; i < predecessorStarts[node + 1]; i++) {
+        int predecessor = predecessors[i];
+        int candidate = predecessor <= node ? predecessor : semis[evaluate(predecessor, node, ancestors, labels, semis, stack)];
+        if (candidate < semi) {
+          semi = candidate;
+        }
+      }
+      semis[node] = semi;
+    }
+
+    int[] dominators = Arrays.copyOf(parents, count);
+    for (int node = 1; node < count; node++) {
+      int dominator = dominators[node];
+      while (dominator > semis[node]) {
+        dominator = dominators[dominator];
+      }
+      dominators[node] = dominator;
+    }
+    return dominators;
+  }
+
+  /**
+   * @return the node with the smallest semi-dominator on the forest path from the given processed node up to, but excluding, the root
+   * of its tree. Compresses the path on the way.
+   */
+  private static int evaluate(int node, int current, @NotNull int[] ancestors, @NotNull int[] labels, @NotNull int[] semis,
+                              @NotNull int[] stack) {
+    int stackSize = 0;
+    for (int vertex = node; ancestors[vertex] > current; vertex = ancestors[vertex]) {
+      stack[stackSize++] = vertex;
+    }
+    while (stackSize > 0) {
+      int vertex = stack[--stackSize];
+      int ancestor = ancestors[vertex];
+      if (semis[labels[ancestor]] < semis[labels[vertex]]) {
+        labels[vertex] = labels[ancestor];
+      }
+      ancestors[vertex] = ancestors[ancestor];
+    }
+    return labels[node];
+  }
+
+  private interface ObjectTask {
+    void run(int object);
+  }
+
+  /**
+   * Runs the task on each object, with chunks of objects spread over the common fork-join pool.
+   */
+  private static void runInChunks(int objectCount, @NotNull Progress progress, double startFraction, double endFraction,
+                                  @NotNull ObjectTask task) {
+    int chunkCount = (objectCount + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    AtomicInteger doneChunks = new AtomicInteger();
+    IntStream.range(0, chunkCount).parallel().forEach(chunk -> {
+      checkCanceled(progress);
+      int end = Math.min(objectCount, (chunk + 1) * CHUNK_SIZE);
+      for (int object = chunk * CHUNK_SIZE; object < end; object++) {
+        task.run(object);
+      }
+      progress.setFraction(startFraction + (endFraction - startFraction) * doneChunks.incrementAndGet() / chunkCount);
+    });
+    checkCanceled(progress);
+  }
+
+  private static void checkCanceled(@NotNull Progress progress) {
+    if (progress.isCanceled()) {
+      throw new CancellationException();
+    }
+  }
+}
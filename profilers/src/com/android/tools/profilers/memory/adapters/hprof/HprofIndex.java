@@ -0,0 +1,1038 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.adapters.hprof;
+
+import com.intellij.util.io.ByteBufferUtil;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A compact index over an HPROF heap dump. The dump is read in a single pass, and only the position of each object in the dump is kept,
+ * along with its class and heap, in primitive arrays sorted by object id. Everything else (field values, array elements, names) is read
+ * from the dump on demand, so nothing is materialized per object.
+ * <p>
+ * Objects are identified by their index in the sorted arrays, from 0 to {@link #getObjectCount()}, and classes by their index among the
+ * CLASS_DUMP records, from 0 to {@link #getClassCount()}. The dump is memory-mapped when loaded from a file, so it is kept off the Java
+ * heap, but a single mapping can't exceed 2GB. The mapping is released by {@link #close()}, after which the index can't be used.
+ */
+public final class HprofIndex implements Closeable {
+  public static final int DEFAULT_HEAP_ID = 0;
+  public static final String DEFAULT_HEAP_NAME = "default";
+  public static final int NO_CLASS = -1;
+  public static final int NO_OBJECT = -1;
+  public static final int UNREACHABLE_DEPTH = Integer.MAX_VALUE;
+
+  public static final byte TYPE_OBJECT = 2;
+  public static final byte TYPE_BOOLEAN = 4;
+  public static final byte TYPE_CHAR = 5;
+  public static final byte TYPE_FLOAT = 6;
+  public static final byte TYPE_DOUBLE = 7;
+  public static final byte TYPE_BYTE = 8;
+  public static final byte TYPE_SHORT = 9;
+  public static final byte TYPE_INT = 10;
+  public static final byte TYPE_LONG = 11;
+
+  public enum ObjectKind {
+    CLASS,
+    INSTANCE,
+    OBJECT_ARRAY,
+    PRIMITIVE_ARRAY
+  }
+
+  /**
+   * Visits the fields of an object, see {@link #forEachField(int, FieldVisitor)}.
+   */
+  public interface FieldVisitor {
+    /**
+     * @param declaringClass the class declaring the field
+     * @param nameId         the string id of the field name, to be resolved with {@link #getString(long)}
+     * @param position       where the value is in the dump, to be read with {@link #readValue(byte, int)}
+     */
+    void visitField(int declaringClass, long nameId, byte type, int position);
+  }
+
+  private static final int TAG_STRING = 0x01;
+  private static final int TAG_LOAD_CLASS = 0x02;
+  private static final int TAG_HEAP_DUMP = 0x0C;
+  private static final int TAG_HEAP_DUMP_SEGMENT = 0x1C;
+
+  private static final int ROOT_UNKNOWN = 0xFF;
+  private static final int ROOT_JNI_GLOBAL = 0x01;
+  private static final int ROOT_JNI_LOCAL = 0x02;
+  private static final int ROOT_JAVA_FRAME = 0x03;
+  private static final int ROOT_NATIVE_STACK = 0x04;
+  private static final int ROOT_STICKY_CLASS = 0x05;
+  private static final int ROOT_THREAD_BLOCK = 0x06;
+  private static final int ROOT_MONITOR_USED = 0x07;
+  private static final int ROOT_THREAD_OBJECT = 0x08;
+  private static final int ROOT_INTERNED_STRING = 0x89;
+  private static final int ROOT_FINALIZING = 0x8A;
+  private static final int ROOT_DEBUGGER = 0x8B;
+  private static final int ROOT_REFERENCE_CLEANUP = 0x8C;
+  private static final int ROOT_VM_INTERNAL = 0x8D;
+  private static final int ROOT_JNI_MONITOR = 0x8E;
+  private static final int ROOT_UNREACHABLE = 0x90;
+  private static final int CLASS_DUMP = 0x20;
+  private static final int INSTANCE_DUMP = 0x21;
+  private static final int OBJECT_ARRAY_DUMP = 0x22;
+  private static final int PRIMITIVE_ARRAY_DUMP = 0x23;
+  private static final int PRIMITIVE_ARRAY_NODATA_DUMP = 0xC3;
+  private static final int HEAP_DUMP_INFO = 0xFE;
+
+  private static final ObjectKind[] OBJECT_KINDS = ObjectKind.values();
+  // Sizes of the primitive types, indexed by type.
+  private static final int[] TYPE_SIZES = {0, 0, 0, 0, 1, 2, 4, 8, 1, 2, 4, 8};
+
+  private static final String JAVA_LANG_REF_REFERENCE = "java.lang.ref.Reference";
+  private static final String REFERENT_FIELD_NAME = "referent";
+
+  @NotNull private ByteBuffer myBuffer;
+  private final boolean myIsMapped;
+  private final int myIdSize;
+
+  // Strings, sorted by id.
+  @NotNull private final long[] myStringIds;
+  @NotNull private final int[] myStringPositions;
+  @NotNull private final int[] myStringLengths;
+
+  // Heaps, in the order they appear in the dump. Objects refer to them by index.
+  @NotNull private final int[] myHeapIds;
+  @NotNull private final String[] myHeapNames;
+
+  // Classes, sorted by class object id.
+  @NotNull private final long[] myClassIds;
+  @NotNull private final int[] myClassObjects;
+  @NotNull private final int[] mySuperClasses;
+  @NotNull private final long[] myClassLoaderIds;
+  @NotNull private final int[] myInstanceSizes;
+  @NotNull private final String[] myClassNames;
+  // Instance fields declared by each class, flattened. The fields of class i are in [myFieldStarts[i], myFieldStarts[i + 1]).
+  @NotNull private final int[] myFieldStarts;
+  @NotNull private final long[] myFieldNameIds;
+  @NotNull private final byte[] myFieldTypes;
+  // Index of the java.lang.ref.Reference#referent field in the flattened fields, which holds a soft reference.
+  private final int myReferentField;
+  // Classes of primitive arrays, by element type.
+  @NotNull private final int[] myPrimitiveArrayClasses = new int[TYPE_LONG + 1];
+
+  // Objects, sorted by id.
+  @NotNull private final long[] myObjectIds;
+  @NotNull private final int[] myObjectPositions;
+  @NotNull private final byte[] myObjectKinds;
+  @NotNull private final byte[] myObjectHeaps;
+  @NotNull private final int[] myObjectClasses;
+
+  @NotNull private final int[] myRoots;
+  @NotNull private final int[] myDepths;
+
+  // Objects referring to each object, built the first time they are requested. Referrers of object i are in
+  // [myReferrerStarts[i], myReferrerStarts[i + 1]).
+  @Nullable private int[] myReferrerStarts;
+  @Nullable private int[] myReferrers;
+
+  /**
+   * Memory-maps the given HPROF file and indexes it. The file must not change while the index is in use.
+   */
+  @NotNull
+  public static HprofIndex load(@NotNull File file) throws IOException {
+    try (RandomAccessFile input = new RandomAccessFile(file, "r"); FileChannel channel = input.getChannel()) {
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new IOException("Heap dumps larger than 2GB are not supported: " + file);
+      }
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      try {
+        return new HprofIndex(buffer, true);
+      }
+      catch (IOException | RuntimeException e) {
+        ByteBufferUtil.cleanBuffer(buffer);
+        throw e;
+      }
+    }
+  }
+
+  @NotNull
+  public static HprofIndex load(@NotNull ByteBuffer buffer) throws IOException {
+    return new HprofIndex(buffer.duplicate(), false);
+  }
+
+  private HprofIndex(@NotNull ByteBuffer buffer, boolean isMapped) throws IOException {
+    myBuffer = buffer.order(ByteOrder.BIG_ENDIAN);
+    myIsMapped = isMapped;
+    Reader reader = new Reader(myBuffer);
+    reader.read();
+    myIdSize = reader.myIdSize;
+
+    int[] stringOrder = sortedOrder(reader.myStringIds.toArray());
+    myStringIds = reader.myStringIds.permute(stringOrder);
+    myStringPositions = reader.myStringPositions.permute(stringOrder);
+    myStringLengths = reader.myStringLengths.permute(stringOrder);
+
+    myHeapIds = reader.myHeapIds.toArray();
+    myHeapNames = new String[myHeapIds.length];
+    long[] heapNameIds = reader.myHeapNameIds.toArray();
+    for (int i = 0; i < myHeapIds.length; i++) {
+      String name = heapNameIds[i] == 0 ? null : getString(heapNameIds[i]);
+      myHeapNames[i] = name == null ? DEFAULT_HEAP_NAME : name;
+    }
+
+    int[] objectOrder = sortedOrder(reader.myObjectIds.toArray());
+    myObjectIds = reader.myObjectIds.permute(objectOrder);
+    myObjectPositions = reader.myObjectPositions.permute(objectOrder);
+    myObjectKinds = reader.myObjectKinds.permute(objectOrder);
+    myObjectHeaps = reader.myObjectHeaps.permute(objectOrder);
+    long[] objectClassIds = reader.myObjectClassIds.permute(objectOrder);
+
+    int[] classOrder = sortedOrder(reader.myClassIds.toArray());
+    myClassIds = reader.myClassIds.permute(classOrder);
+    myClassLoaderIds = reader.myClassLoaderIds.permute(classOrder);
+    myInstanceSizes = reader.myInstanceSizes.permute(classOrder);
+    long[] superClassIds = reader.myClassSuperIds.permute(classOrder);
+    int[] fieldStarts = reader.myClassFieldStarts.permute(classOrder);
+    int[] fieldCounts = reader.myClassFieldCounts.permute(classOrder);
+    long[] fieldNameIds = reader.myFieldNameIds.toArray();
+    byte[] fieldTypes = reader.myFieldTypes.toArray();
+
+    int classCount = myClassIds.length;
+    myClassObjects = new int[classCount];
+    mySuperClasses = new int[classCount];
+    myClassNames = new String[classCount];
+    myFieldStarts = new int[classCount + 1];
+    myFieldNameIds = new long[fieldNameIds.length];
+    myFieldTypes = new byte[fieldTypes.length];
+    long[] loadedClassIds = reader.myLoadedClassIds.toArray();
+    long[] loadedClassNameIds = reader.myLoadedClassNameIds.toArray();
+    for (int i = 0; i < loadedClassIds.length; i++) {
+      int classIndex = Arrays.binarySearch(myClassIds, loadedClassIds[i]);
+      if (classIndex >= 0) {
+        myClassNames[classIndex] = getString(loadedClassNameIds[i]);
+      }
+    }
+    int fieldIndex = 0;
+    int referentField = -1;
+    Arrays.fill(myPrimitiveArrayClasses, NO_CLASS);
+    for (int i = 0; i < classCount; i++) {
+      myClassObjects[i] = findObject(myClassIds[i]);
+      mySuperClasses[i] = superClassIds[i] == 0 ? NO_CLASS : findClass(superClassIds[i]);
+      if (myClassNames[i] == null) {
+        myClassNames[i] = String.format("0x%x", myClassIds[i]);
+      }
+      myFieldStarts[i] = fieldIndex;
+      System.arraycopy(fieldNameIds, fieldStarts[i], myFieldNameIds, fieldIndex, fieldCounts[i]);
+      System.arraycopy(fieldTypes, fieldStarts[i], myFieldTypes, fieldIndex, fieldCounts[i]);
+      if (JAVA_LANG_REF_REFERENCE.equals(myClassNames[i])) {
+        for (int field = fieldIndex; field < fieldIndex + fieldCounts[i]; field++) {
+          if (REFERENT_FIELD_NAME.equals(getString(myFieldNameIds[field]))) {
+            referentField = field;
+          }
+        }
+      }
+      for (byte type = TYPE_BOOLEAN; type <= TYPE_LONG; type++) {
+        if (getPrimitiveArrayClassName(type).equals(myClassNames[i])) {
+          myPrimitiveArrayClasses[type] = i;
+        }
+      }
+      fieldIndex += fieldCounts[i];
+    }
+    myFieldStarts[classCount] = fieldIndex;
+    myReferentField = referentField;
+
+    myObjectClasses = new int[myObjectIds.length];
+    for (int i = 0; i < myObjectIds.length; i++) {
+      switch (getKind(i)) {
+        case CLASS:
+          myObjectClasses[i] = findClass(myObjectIds[i]);
+          break;
+        case PRIMITIVE_ARRAY:
+          myObjectClasses[i] = myPrimitiveArrayClasses[(int)objectClassIds[i]];
+          break;
+        default:
+          myObjectClasses[i] = findClass(objectClassIds[i]);
+          break;
+      }
+    }
+
+    long[] rootIds = reader.myRootIds.toArray();
+    int[] roots = new int[rootIds.length];
+    int rootCount = 0;
+    for (long rootId : rootIds) {
+      int root = findObject(rootId);
+      if (root != NO_OBJECT) {
+        roots[rootCount++] = root;
+      }
+    }
+    myRoots = Arrays.copyOf(roots, rootCount);
+    myDepths = computeDepths();
+  }
+
+  /**
+   * Unmaps the dump, so that its file can be deleted right away. Objects can't be read from the index anymore.
+   */
+  @Override
+  public synchronized void close() {
+    ByteBuffer buffer = myBuffer;
+    // Reads after closing fail on the empty buffer instead of touching the unmapped memory.
+    myBuffer = ByteBuffer.allocate(0);
+    if (myIsMapped) {
+      ByteBufferUtil.cleanBuffer(buffer);
+    }
+  }
+
+  public int getIdSize() {
+    return myIdSize;
+  }
+
+  /**
+   * @return the number of objects of the dump, which are numbered from 0 in increasing id order.
+   */
+  public int getObjectCount() {
+    return myObjectIds.length;
+  }
+
+  public long getObjectId(int object) {
+    return myObjectIds[object];
+  }
+
+  /**
+   * @return the index of the object with the given id, or {@link #NO_OBJECT} if the dump doesn't hold it.
+   */
+  public int findObject(long id) {
+    int index = Arrays.binarySearch(myObjectIds, id);
+    return index >= 0 ? index : NO_OBJECT;
+  }
+
+  @NotNull
+  public ObjectKind getKind(int object) {
+    return OBJECT_KINDS[myObjectKinds[object]];
+  }
+
+  /**
+   * @return the class of an instance or array, or the class a class object describes. {@link #NO_CLASS} if the dump doesn't hold it.
+   */
+  public int getClassIndex(int object) {
+    return myObjectClasses[object];
+  }
+
+  public int getHeapId(int object) {
+    return myHeapIds[myObjectHeaps[object]];
+  }
+
+  @NotNull
+  public int[] getHeapIds() {
+    return myHeapIds.clone();
+  }
+
+  @NotNull
+  public String getHeapName(int heapId) {
+    for (int i = 0; i < myHeapIds.length; i++) {
+      if (myHeapIds[i] == heapId) {
+        return myHeapNames[i];
+      }
+    }
+    throw new IllegalArgumentException("Unknown heap " + heapId);
+  }
+
+  /**
+   * @return the objects held by GC roots.
+   */
+  @NotNull
+  public int[] getRoots() {
+    return myRoots.clone();
+  }
+
+  /**
+   * @return the number of hard references from a GC root to the object, or {@link #UNREACHABLE_DEPTH}.
+   */
+  public int getDepth(int object) {
+    return myDepths[object];
+  }
+
+  /**
+   * @return the size of the object itself, not counting the objects it refers to.
+   */
+  public int getShallowSize(int object) {
+    switch (getKind(object)) {
+      case INSTANCE:
+        int classIndex = myObjectClasses[object];
+        return classIndex == NO_CLASS ? 0 : myInstanceSizes[classIndex];
+      case OBJECT_ARRAY:
+        return getArrayLength(object) * myIdSize;
+      case PRIMITIVE_ARRAY:
+        return getArrayLength(object) * getTypeSize(getArrayElementType(object));
+      case CLASS:
+        int[] size = new int[1];
+        forEachField(object, (declaringClass, nameId, type, position) -> size[0] += getTypeSize(type));
+        return size[0];
+      default:
+        throw new IllegalStateException();
+    }
+  }
+
+  public int getArrayLength(int object) {
+    // Both array records start with: id, stack serial, length.
+    return myBuffer.getInt(myObjectPositions[object] + myIdSize + 4);
+  }
+
+  public byte getArrayElementType(int object) {
+    if (getKind(object) == ObjectKind.OBJECT_ARRAY) {
+      return TYPE_OBJECT;
+    }
+    return myBuffer.get(myObjectPositions[object] + myIdSize + 8);
+  }
+
+  /**
+   * @return where the element of an array is in the dump, to be read with {@link #readValue(byte, int)}.
+   */
+  public int getArrayElementPosition(int object, int element) {
+    int start = myObjectPositions[object] + myIdSize + 8;
+    if (getKind(object) == ObjectKind.OBJECT_ARRAY) {
+      return start + myIdSize + element * myIdSize;
+    }
+    return start + 1 + element * getTypeSize(getArrayElementType(object));
+  }
+
+  /**
+   * @return false for primitive arrays whose elements were left out of the dump.
+   */
+  public boolean hasArrayData(int object) {
+    // Positions start after the record tag.
+    return myBuffer.get(myObjectPositions[object] - 1) != (byte)PRIMITIVE_ARRAY_NODATA_DUMP;
+  }
+
+  public int getClassCount() {
+    return myClassIds.length;
+  }
+
+  @NotNull
+  public String getClassName(int classIndex) {
+    return myClassNames[classIndex];
+  }
+
+  public long getClassLoaderId(int classIndex) {
+    return myClassLoaderIds[classIndex];
+  }
+
+  public int getSuperClass(int classIndex) {
+    return mySuperClasses[classIndex];
+  }
+
+  /**
+   * @return the object describing the class, or {@link #NO_OBJECT} for a class the dump doesn't hold.
+   */
+  public int getClassObject(int classIndex) {
+    return myClassObjects[classIndex];
+  }
+
+  public int findClass(long classObjectId) {
+    int index = Arrays.binarySearch(myClassIds, classObjectId);
+    return index >= 0 ? index : NO_CLASS;
+  }
+
+  /**
+   * @return the class of primitive arrays of the given element type, or {@link #NO_CLASS} if the dump doesn't hold it.
+   */
+  public int getPrimitiveArrayClass(byte type) {
+    return myPrimitiveArrayClasses[type];
+  }
+
+  /**
+   * Visits the instance fields of an instance, from its own class up to java.lang.Object, or the static fields of a class object.
+   * Arrays have no fields, their elements are read with {@link #getArrayElementPosition(int, int)}.
+   */
+  public void forEachField(int object, @NotNull FieldVisitor visitor) {
+    int position = myObjectPositions[object];
+    switch (getKind(object)) {
+      case INSTANCE: {
+        position += myIdSize + 4 + myIdSize + 4;
+        for (int classIndex = myObjectClasses[object]; classIndex != NO_CLASS; classIndex = mySuperClasses[classIndex]) {
+          for (int field = myFieldStarts[classIndex]; field < myFieldStarts[classIndex + 1]; field++) {
+            visitor.visitField(classIndex, myFieldNameIds[field], myFieldTypes[field], position);
+            position += getTypeSize(myFieldTypes[field]);
+          }
+        }
+        break;
+      }
+      case CLASS: {
+        // Skip the class, super class, loader, signers, protection domain and two reserved ids, and the stack serial and instance size.
+        position += 7 * myIdSize + 8;
+        int constantCount = myBuffer.getShort(position) & 0xFFFF;
+        position += 2;
+        for (int i = 0; i < constantCount; i++) {
+          position += 3 + getTypeSize(myBuffer.get(position + 2));
+        }
+        int staticCount = myBuffer.getShort(position) & 0xFFFF;
+        position += 2;
+        for (int i = 0; i < staticCount; i++) {
+          long nameId = readId(position);
+          byte type = myBuffer.get(position + myIdSize);
+          position += myIdSize + 1;
+          visitor.visitField(myObjectClasses[object], nameId, type, position);
+          position += getTypeSize(type);
+        }
+        break;
+      }
+      default:
+        break;
+    }
+  }
+
+  /**
+   * Calls the consumer with each object referred to by the given object, once per reference.
+   *
+   * @param includeSoft whether to follow the referent of java.lang.ref.Reference instances, which doesn't keep the object alive.
+   */
+  public void forEachReference(int object, boolean includeSoft, @NotNull IntConsumer consumer) {
+    switch (getKind(object)) {
+      case INSTANCE: {
+        int position = myObjectPositions[object] + myIdSize + 4 + myIdSize + 4;
+        for (int classIndex = myObjectClasses[object]; classIndex != NO_CLASS; classIndex = mySuperClasses[classIndex]) {
+          for (int field = myFieldStarts[classIndex]; field < myFieldStarts[classIndex + 1]; field++) {
+            if (myFieldTypes[field] == TYPE_OBJECT && (includeSoft || field != myReferentField)) {
+              acceptReference(readId(position), consumer);
+            }
+            position += getTypeSize(myFieldTypes[field]);
+          }
+        }
+        break;
+      }
+      case OBJECT_ARRAY: {
+        int length = getArrayLength(object);
+        int position = getArrayElementPosition(object, 0);
+        for (int i = 0; i < length; i++, position += myIdSize) {
+          acceptReference(readId(position), consumer);
+        }
+        break;
+      }
+      case CLASS:
+        forEachField(object, (declaringClass, nameId, type, position) -> {
+          if (type == TYPE_OBJECT) {
+            acceptReference(readId(position), consumer);
+          }
+        });
+        break;
+      default:
+        break;
+    }
+  }
+
+  /**
+   * @return the objects referring to the given object, including through soft references. An object is listed once per reference.
+   */
+  @NotNull
+  public int[] getReferrers(int object) {
+    buildReferrersIfNeeded();
+    assert myReferrerStarts != null && myReferrers != null;
+    return Arrays.copyOfRange(myReferrers, myReferrerStarts[object], myReferrerStarts[object + 1]);
+  }
+
+  @NotNull
+  public String getString(long id) {
+    int index = Arrays.binarySearch(myStringIds, id);
+    if (index < 0) {
+      return String.format("0x%x", id);
+    }
+    byte[] bytes = new byte[myStringLengths[index]];
+    ByteBuffer buffer = myBuffer.duplicate();
+    buffer.position(myStringPositions[index]);
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  public long readId(int position) {
+    return myIdSize == 4 ? myBuffer.getInt(position) & 0xFFFFFFFFL : myBuffer.getLong(position);
+  }
+
+  /**
+   * @return the boxed primitive at the given position, or the id of the object for {@link #TYPE_OBJECT}.
+   */
+  @NotNull
+  public Object readValue(byte type, int position) {
+    switch (type) {
+      case TYPE_OBJECT:
+        return readId(position);
+      case TYPE_BOOLEAN:
+        return myBuffer.get(position) != 0;
+      case TYPE_CHAR:
+        return myBuffer.getChar(position);
+      case TYPE_FLOAT:
+        return myBuffer.getFloat(position);
+      case TYPE_DOUBLE:
+        return myBuffer.getDouble(position);
+      case TYPE_BYTE:
+        return myBuffer.get(position);
+      case TYPE_SHORT:
+        return myBuffer.getShort(position);
+      case TYPE_INT:
+        return myBuffer.getInt(position);
+      case TYPE_LONG:
+        return myBuffer.getLong(position);
+      default:
+        throw new IllegalArgumentException("Unknown type " + type);
+    }
+  }
+
+  public int getTypeSize(byte type) {
+    switch (type) {
+      case TYPE_OBJECT:
+        return myIdSize;
+      case TYPE_BOOLEAN:
+      case TYPE_BYTE:
+        return 1;
+      case TYPE_CHAR:
+      case TYPE_SHORT:
+        return 2;
+      case TYPE_FLOAT:
+      case TYPE_INT:
+        return 4;
+      case TYPE_DOUBLE:
+      case TYPE_LONG:
+        return 8;
+      default:
+        throw new IllegalArgumentException("Unknown type " + type);
+    }
+  }
+
+  @NotNull
+  public static String getPrimitiveArrayClassName(byte type) {
+    switch (type) {
+      case TYPE_BOOLEAN:
+        return "boolean[]";
+      case TYPE_CHAR:
+        return "char[]";
+      case TYPE_FLOAT:
+        return "float[]";
+      case TYPE_DOUBLE:
+        return "double[]";
+      case TYPE_BYTE:
+        return "byte[]";
+      case TYPE_SHORT:
+        return "short[]";
+      case TYPE_INT:
+        return "int[]";
+      case TYPE_LONG:
+        return "long[]";
+      default:
+        throw new IllegalArgumentException("Not a primitive type " + type);
+    }
+  }
+
+  private void acceptReference(long id, @NotNull IntConsumer consumer) {
+    if (id != 0) {
+      int target = findObject(id);
+      if (target != NO_OBJECT) {
+        consumer.accept(target);
+      }
+    }
+  }
+
+  /**
+   * Breadth-first search from the roots following hard references, the same distance perflib reports.
+   */
+  @NotNull
+  private int[] computeDepths() {
+    int[] depths = new int[myObjectIds.length];
+    Arrays.fill(depths, UNREACHABLE_DEPTH);
+    int[] queue = new int[myObjectIds.length];
+    int head = 0;
+    int tail = 0;
+    for (int root : myRoots) {
+      if (depths[root] == UNREACHABLE_DEPTH) {
+        depths[root] = 0;
+        queue[tail++] = root;
+      }
+    }
+    int[] queueTail = {tail};
+    while (head < queueTail[0]) {
+      int object = queue[head++];
+      int depth = depths[object] + 1;
+      forEachReference(object, false, target -> {
+        if (depths[target] == UNREACHABLE_DEPTH) {
+          depths[target] = depth;
+          queue[queueTail[0]++] = target;
+        }
+      });
+    }
+    return depths;
+  }
+
+  private synchronized void buildReferrersIfNeeded() {
+    if (myReferrers != null) {
+      return;
+    }
+    int objectCount = myObjectIds.length;
+    int[] starts = new int[objectCount + 1];
+    for (int object = 0; object < objectCount; object++) {
+      forEachReference(object, true, target -> starts[target + 1]++);
+    }
+    for (int object = 0; object < objectCount; object++) {
+      starts[object + 1] += starts[object];
+    }
+    int[] referrers = new int[starts[objectCount]];
+    int[] next = Arrays.copyOf(starts, objectCount);
+    for (int object = 0; object < objectCount; object++) {
+      int referrer = object;
+      forEachReference(object, true, target -> referrers[next[target]++] = referrer);
+    }
+    myReferrerStarts = starts;
+    myReferrers = referrers;
+  }
+
+  /**
+   * @return the indices of the given ids in ascending id order. Ids are expected to be unique, the first one wins otherwise.
+   */
+  @NotNull
+  private static int[] sortedOrder(@NotNull long[] ids) {
+    long[] sorted = ids.clone();
+    Arrays.parallelSort(sorted);
+    int uniqueCount = 0;
+    for (int i = 0; i < sorted.length; i++) {
+      if (i == 0 || sorted[i] != sorted[i - 1]) {
+        sorted[uniqueCount++] = sorted[i];
+      }
+    }
+    int[] order = new int[uniqueCount];
+    Arrays.fill(order, -1);
+    for (int i = 0; i < ids.length; i++) {
+      int position = Arrays.binarySearch(sorted, 0, uniqueCount, ids[i]);
+      if (order[position] == -1) {
+        order[position] = i;
+      }
+    }
+    return order;
+  }
+
+  /**
+   * Reads the records of a dump once, keeping the positions of the objects, classes and strings in growable arrays.
+   */
+  private static final class Reader {
+    @NotNull private final ByteBuffer myBuffer;
+    private int myIdSize;
+    private int myHeap;
+
+    private final LongList myStringIds = new LongList();
+    private final IntList myStringPositions = new IntList();
+    private final IntList myStringLengths = new IntList();
+    private final LongList myLoadedClassIds = new LongList();
+    private final LongList myLoadedClassNameIds = new LongList();
+    private final IntList myHeapIds = new IntList();
+    private final LongList myHeapNameIds = new LongList();
+    private final LongList myClassIds = new LongList();
+    private final LongList myClassSuperIds = new LongList();
+    private final LongList myClassLoaderIds = new LongList();
+    private final IntList myInstanceSizes = new IntList();
+    private final IntList myClassFieldStarts = new IntList();
+    private final IntList myClassFieldCounts = new IntList();
+    private final LongList myFieldNameIds = new LongList();
+    private final ByteList myFieldTypes = new ByteList();
+    private final LongList myObjectIds = new LongList();
+    private final IntList myObjectPositions = new IntList();
+    private final ByteList myObjectKinds = new ByteList();
+    private final ByteList myObjectHeaps = new ByteList();
+    // The class id of instances and object arrays, the element type of primitive arrays.
+    private final LongList myObjectClassIds = new LongList();
+    private final LongList myRootIds = new LongList();
+
+    Reader(@NotNull ByteBuffer buffer) {
+      myBuffer = buffer;
+    }
+
+    void read() throws IOException {
+      int position = 0;
+      int limit = myBuffer.limit();
+      // The header is a null terminated version string, followed by the id size and a timestamp.
+      while (position < limit && myBuffer.get(position) != 0) {
+        position++;
+      }
+      if (position + 13 > limit) {
+        throw new IOException("Not an HPROF file");
+      }
+      myIdSize = myBuffer.getInt(position + 1);
+      if (myIdSize != 4 && myIdSize != 8) {
+        throw new IOException("Unsupported id size " + myIdSize);
+      }
+      position += 13;
+
+      myHeapIds.add(DEFAULT_HEAP_ID);
+      myHeapNameIds.add(0);
+      while (position + 9 <= limit) {
+        int tag = myBuffer.get(position) & 0xFF;
+        int length = myBuffer.getInt(position + 5);
+        position += 9;
+        if (length < 0 || position + length > limit) {
+          throw new IOException("Truncated HPROF record at " + position);
+        }
+        switch (tag) {
+          case TAG_STRING:
+            myStringIds.add(readId(position));
+            myStringPositions.add(position + myIdSize);
+            myStringLengths.add(length - myIdSize);
+            break;
+          case TAG_LOAD_CLASS:
+            myLoadedClassIds.add(readId(position + 4));
+            myLoadedClassNameIds.add(readId(position + 4 + myIdSize + 4));
+            break;
+          case TAG_HEAP_DUMP:
+          case TAG_HEAP_DUMP_SEGMENT:
+            try {
+              readHeapDump(position, position + length);
+            }
+            catch (IndexOutOfBoundsException e) {
+              throw new IOException("Truncated HPROF record at " + position, e);
+            }
+            break;
+          default:
+            break;
+        }
+        position += length;
+      }
+    }
+
+    private void readHeapDump(int position, int end) throws IOException {
+      while (position < end) {
+        int recordStart = position;
+        int tag = myBuffer.get(position++) & 0xFF;
+        switch (tag) {
+          case ROOT_UNKNOWN:
+          case ROOT_STICKY_CLASS:
+          case ROOT_MONITOR_USED:
+          case ROOT_INTERNED_STRING:
+          case ROOT_FINALIZING:
+          case ROOT_DEBUGGER:
+          case ROOT_REFERENCE_CLEANUP:
+          case ROOT_VM_INTERNAL:
+            myRootIds.add(readId(position));
+            position += myIdSize;
+            break;
+          case ROOT_UNREACHABLE:
+            position += myIdSize;
+            break;
+          case ROOT_JNI_GLOBAL:
+            myRootIds.add(readId(position));
+            position += 2 * myIdSize;
+            break;
+          case ROOT_NATIVE_STACK:
+          case ROOT_THREAD_BLOCK:
+            myRootIds.add(readId(position));
+            position += myIdSize + 4;
+            break;
+          case ROOT_JNI_LOCAL:
+          case ROOT_JAVA_FRAME:
+          case ROOT_THREAD_OBJECT:
+          case ROOT_JNI_MONITOR:
+            myRootIds.add(readId(position));
+            position += myIdSize + 8;
+            break;
+          case HEAP_DUMP_INFO:
+            switchHeap(myBuffer.getInt(position), readId(position + 4));
+            position += 4 + myIdSize;
+            break;
+          case CLASS_DUMP:
+            position = readClass(position);
+            break;
+          case INSTANCE_DUMP:
+            addObject(position, ObjectKind.INSTANCE, readId(position + myIdSize + 4));
+            position += 2 * myIdSize + 8 + myBuffer.getInt(position + 2 * myIdSize + 4);
+            break;
+          case OBJECT_ARRAY_DUMP:
+            addObject(position, ObjectKind.OBJECT_ARRAY, readId(position + myIdSize + 8));
+            position += 2 * myIdSize + 8 + myBuffer.getInt(position + myIdSize + 4) * myIdSize;
+            break;
+          case PRIMITIVE_ARRAY_DUMP: {
+            byte type = myBuffer.get(position + myIdSize + 8);
+            addObject(position, ObjectKind.PRIMITIVE_ARRAY, type);
+            position += myIdSize + 9 + myBuffer.getInt(position + myIdSize + 4) * typeSize(type);
+            break;
+          }
+          case PRIMITIVE_ARRAY_NODATA_DUMP:
+            addObject(position, ObjectKind.PRIMITIVE_ARRAY, myBuffer.get(position + myIdSize + 8));
+            position += myIdSize + 9;
+            break;
+          default:
+            throw new IOException(String.format("Unknown heap dump record 0x%x at %d", tag, recordStart));
+        }
+        // Records can't run past their segment, and a negative length would have moved backwards.
+        if (position > end || position <= recordStart) {
+          throw new IOException(String.format("Truncated heap dump record 0x%x at %d", tag, recordStart));
+        }
+      }
+    }
+
+    private int readClass(int position) {
+      addObject(position, ObjectKind.CLASS, 0);
+      myClassIds.add(readId(position));
+      myClassSuperIds.add(readId(position + myIdSize + 4));
+      myClassLoaderIds.add(readId(position + 2 * myIdSize + 4));
+      position += 7 * myIdSize + 4;
+      myInstanceSizes.add(myBuffer.getInt(position));
+      position += 4;
+      int constantCount = myBuffer.getShort(position) & 0xFFFF;
+      position += 2;
+      for (int i = 0; i < constantCount; i++) {
+        position += 3 + typeSize(myBuffer.get(position + 2));
+      }
+      int staticCount = myBuffer.getShort(position) & 0xFFFF;
+      position += 2;
+      for (int i = 0; i < staticCount; i++) {
+        position += myIdSize + 1 + typeSize(myBuffer.get(position + myIdSize));
+      }
+      int fieldCount = myBuffer.getShort(position) & 0xFFFF;
+      position += 2;
+      myClassFieldStarts.add(myFieldTypes.size());
+      myClassFieldCounts.add(fieldCount);
+      for (int i = 0; i < fieldCount; i++) {
+        myFieldNameIds.add(readId(position));
+        myFieldTypes.add(myBuffer.get(position + myIdSize));
+        position += myIdSize + 1;
+      }
+      return position;
+    }
+
+    private void addObject(int position, @NotNull ObjectKind kind, long classIdOrType) {
+      myObjectIds.add(readId(position));
+      myObjectPositions.add(position);
+      myObjectKinds.add((byte)kind.ordinal());
+      myObjectHeaps.add((byte)myHeap);
+      myObjectClassIds.add(classIdOrType);
+    }
+
+    private void switchHeap(int heapId, long nameId) {
+      for (int i = 0; i < myHeapIds.size(); i++) {
+        if (myHeapIds.get(i) == heapId) {
+          myHeap = i;
+          if (nameId != 0) {
+            myHeapNameIds.set(i, nameId);
+          }
+          return;
+        }
+      }
+      myHeap = myHeapIds.size();
+      myHeapIds.add(heapId);
+      myHeapNameIds.add(nameId);
+    }
+
+    private long readId(int position) {
+      return myIdSize == 4 ? myBuffer.getInt(position) & 0xFFFFFFFFL : myBuffer.getLong(position);
+    }
+
+    private int typeSize(byte type) {
+      return type == TYPE_OBJECT ? myIdSize : TYPE_SIZES[type];
+    }
+  }
+
+  private static final class LongList {
+    private long[] myValues = new long[16];
+    private int mySize;
+
+    void add(long value) {
+      if (mySize == myValues.length) {
+        myValues = Arrays.copyOf(myValues, mySize * 2);
+      }
+      myValues[mySize++] = value;
+    }
+
+    void set(int index, long value) {
+      myValues[index] = value;
+    }
+
+    @NotNull
+    long[] toArray() {
+      return Arrays.copyOf(myValues, mySize);
+    }
+
+    @NotNull
+    long[] permute(@NotNull int[] order) {
+      long[] result = new long[order.length];
+      for (int i = 0; i < order.length; i++) {
+        result[i] = myValues[order[i]];
+      }
+      return result;
+    }
+  }
+
+  private static final class IntList {
+    private int[] myValues = new int[16];
+    private int mySize;
+
+    void add(int value) {
+      if (mySize == myValues.length) {
+        myValues = Arrays.copyOf(myValues, mySize * 2);
+      }
+      myValues[mySize++] = value;
+    }
+
+    int get(int index) {
+      return myValues[index];
+    }
+
+    int size() {
+      return mySize;
+    }
+
+    @NotNull
+    int[] toArray() {
+      return Arrays.copyOf(myValues, mySize);
+    }
+
+    @NotNull
+    int[] permute(@NotNull int[] order) {
+      int[] result = new int[order.length];
+      for (int i = 0; i < order.length; i++) {
+        result[i] = myValues[order[i]];
+      }
+      return result;
+    }
+  }
+
+  private static final class ByteList {
+    private byte[] myValues = new byte[16];
+    private int mySize;
+
+    void add(byte value) {
+      if (mySize == myValues.length) {
+        myValues = Arrays.copyOf(myValues, mySize * 2);
+      }
+      myValues[mySize++] = value;
+    }
+
+    int size() {
+      return mySize;
+    }
+
+    @NotNull
+    byte[] toArray() {
+      return Arrays.copyOf(myValues, mySize);
+    }
+
+    @NotNull
+    byte[] permute(@NotNull int[] order) {
+      byte[] result = new byte[order.length];
+      for (int i = 0; i < order.length; i++) {
+        result[i] = myValues[order[i]];
+      }
+      return result;
+    }
+  }
+}
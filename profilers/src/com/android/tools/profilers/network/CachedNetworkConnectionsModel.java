@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.network;
+
+import com.android.tools.adtui.model.Range;
+import com.android.tools.profiler.protobuf3jarjar.ByteString;
+import com.android.tools.profilers.network.httpdata.HttpData;
+import com.google.common.annotations.VisibleForTesting;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A {@link NetworkConnectionsModel} that keeps the payloads fetched through another model in a least recently used cache bounded by
+ * their total size in bytes, as the UI creates a new {@link com.android.tools.profilers.network.httpdata.Payload} every time a
+ * connection is selected or one of its tabs is shown.
+ */
+public final class CachedNetworkConnectionsModel implements NetworkConnectionsModel {
+  @VisibleForTesting
+  static final long DEFAULT_MAX_CACHED_BYTES = 32 * 1024 * 1024;
+
+  @NotNull private final NetworkConnectionsModel myModel;
+  private final long myMaxCachedBytes;
+
+  /**
+   * Payloads by id, from least to most recently used.
+   */
+  @NotNull private final LinkedHashMap<String, ByteString> myPayloads = new LinkedHashMap<>(16, 0.75f, true);
+  private long myCachedBytes;
+
+  public CachedNetworkConnectionsModel(@NotNull NetworkConnectionsModel model) {
+    this(model, DEFAULT_MAX_CACHED_BYTES);
+  }
+
+  @VisibleForTesting
+  CachedNetworkConnectionsModel(@NotNull NetworkConnectionsModel model, long maxCachedBytes) {
+    myModel = model;
+    myMaxCachedBytes = maxCachedBytes;
+  }
+
+  @NotNull
+  @Override
+  public List<HttpData> getData(@NotNull Range timeCurrentRangeUs) {
+    return myModel.getData(timeCurrentRangeUs);
+  }
+
+  @NotNull
+  @Override
+  public ByteString requestBytes(@NotNull String id) {
+    synchronized (myPayloads) {
+      ByteString bytes = myPayloads.get(id);
+      if (bytes != null) {
+        return bytes;
+      }
+    }
+
+    // Fetch outside of the lock, so a large payload doesn't hold up the ones already cached.
+    ByteString bytes = myModel.requestBytes(id);
+    // Empty payloads may not have been received yet, so they are fetched again. Payloads that would take more than a quarter of the
+    // cache are not kept either, so a single large download doesn't evict everything else.
+    if (bytes.isEmpty() || bytes.size() > myMaxCachedBytes / 4) {
+      return bytes;
+    }
+
+    synchronized (myPayloads) {
+      ByteString previous = myPayloads.put(id, bytes);
+      myCachedBytes += bytes.size() - (previous == null ? 0 : previous.size());
+      Iterator<Map.Entry<String, ByteString>> iterator = myPayloads.entrySet().iterator();
+      while (myCachedBytes > myMaxCachedBytes && iterator.hasNext()) {
+        myCachedBytes -= iterator.next().getValue().size();
+        iterator.remove();
+      }
+    }
+    return bytes;
+  }
+
+  @VisibleForTesting
+  long getCachedBytes() {
+    synchronized (myPayloads) {
+      return myCachedBytes;
+    }
+  }
+}
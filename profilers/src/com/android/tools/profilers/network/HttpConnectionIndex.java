@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.network;
+
+import com.android.tools.profiler.proto.Common;
+import com.android.tools.profiler.proto.Network.NetworkHttpConnectionData;
+import com.android.tools.profilers.network.httpdata.HttpData;
+import com.google.common.annotations.VisibleForTesting;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Keeps the connection and thread events of http connections fetched so far, so that {@link RpcNetworkConnectionsModel} only has to
+ * fetch the events added since its last query, and can answer range queries without going through every connection.
+ *
+ * Connections that are still open are kept apart, as there are few of them and they intersect every range after their start. Closed
+ * connections are sorted by start time, along with the latest end time of all the connections up to each of them, so a range query
+ * can binary search for the first connection that might end within the range and stop at the first one that starts after it.
+ */
+final class HttpConnectionIndex {
+  /**
+   * Events are fetched again from this long before the latest event fetched so far, as events from different threads of the app may
+   * not be stored in time order.
+   */
+  @VisibleForTesting
+  static final long FETCH_OVERLAP_NS = TimeUnit.SECONDS.toNanos(1);
+
+  private static final Comparator<Connection> START_TIME_COMPARATOR =
+    Comparator.comparingLong((Connection connection) -> connection.myStartTimeNs).thenComparingLong(connection -> connection.myId);
+
+  @NotNull private final Map<Long, Connection> myConnections = new HashMap<>();
+  @NotNull private final Set<Connection> myOpenConnections = new LinkedHashSet<>();
+  @NotNull private final List<Connection> myClosedConnections = new ArrayList<>();
+
+  /**
+   * The latest end time of the closed connections up to each index of {@link #myClosedConnections}, valid up to
+   * {@link #myValidMaxEndTimeCount}.
+   */
+  @NotNull private long[] myMaxEndTimesNs = new long[0];
+  private int myValidMaxEndTimeCount;
+
+  private long myLatestTimestampNs;
+
+  /**
+   * @return the timestamp to fetch new events from, or 0 if all the events need to be fetched
+   */
+  synchronized long getFetchFromTimestampNs() {
+    return myLatestTimestampNs == 0 ? 0 : Math.max(1, myLatestTimestampNs - FETCH_OVERLAP_NS);
+  }
+
+  /**
+   * Merges events fetched from {@code fromTimestampNs} into the index. Events that were already merged are ignored.
+   * <p>
+   * A fetch from a timestamp also returns the latest earlier event of every connection that hasn't ended. Those are skipped without
+   * being compared for the connections the index already has events of, as they were merged by an earlier fetch, so that polling
+   * doesn't go through every open connection.
+   */
+  synchronized void addEvents(long fromTimestampNs,
+                              @NotNull Map<Long, List<Common.Event>> connectionEvents,
+                              @NotNull Map<Long, List<Common.Event>> threadEvents) {
+    for (Map.Entry<Long, List<Common.Event>> entry : threadEvents.entrySet()) {
+      Connection connection = getConnection(entry.getKey());
+      boolean hasThreadEvents = !connection.myThreadEvents.isEmpty();
+      for (Common.Event event : entry.getValue()) {
+        if (hasThreadEvents && event.getTimestamp() < fromTimestampNs) {
+          continue;
+        }
+        myLatestTimestampNs = Math.max(myLatestTimestampNs, event.getTimestamp());
+        if (!connection.myThreadEvents.contains(event)) {
+          connection.myThreadEvents.add(event);
+          connection.myHttpData = null;
+        }
+      }
+    }
+
+    for (Map.Entry<Long, List<Common.Event>> entry : connectionEvents.entrySet()) {
+      Connection connection = getConnection(entry.getKey());
+      // Connections are only indexed by time once they have connection events.
+      boolean wasIndexed = !connection.myEvents.isEmpty();
+      long startTimeNs = connection.myStartTimeNs;
+      long endTimeNs = connection.myEndTimeNs;
+      boolean isEnded = connection.myIsEnded;
+      for (Common.Event event : entry.getValue()) {
+        if (wasIndexed && event.getTimestamp() < fromTimestampNs) {
+          continue;
+        }
+        myLatestTimestampNs = Math.max(myLatestTimestampNs, event.getTimestamp());
+        if (event.equals(connection.myEvents.put(event.getNetworkHttpConnection().getUnionCase(), event))) {
+          continue;
+        }
+        connection.myHttpData = null;
+        startTimeNs = Math.min(startTimeNs, event.getTimestamp());
+        endTimeNs = Math.max(endTimeNs, event.getTimestamp());
+        isEnded |= event.getIsEnded();
+      }
+      if (startTimeNs != connection.myStartTimeNs || endTimeNs != connection.myEndTimeNs || isEnded != connection.myIsEnded) {
+        if (wasIndexed && connection.myIsEnded) {
+          removeClosedConnection(connection);
+        }
+        else if (wasIndexed) {
+          myOpenConnections.remove(connection);
+        }
+        connection.myStartTimeNs = startTimeNs;
+        connection.myEndTimeNs = endTimeNs;
+        connection.myIsEnded = isEnded;
+        if (isEnded) {
+          addClosedConnection(connection);
+        }
+        else {
+          myOpenConnections.add(connection);
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the connections that have started by {@code endTimeNs}, and that are still open or ended at or after {@code startTimeNs},
+   * ordered by start time. Connections missing the request start event or thread information are left out.
+   */
+  @NotNull
+  synchronized List<HttpData> getData(long startTimeNs, long endTimeNs) {
+    updateMaxEndTimes();
+    List<Connection> connections = new ArrayList<>();
+    for (int i = findFirstMaxEndTimeAtOrAfter(startTimeNs); i < myClosedConnections.size(); i++) {
+      Connection connection = myClosedConnections.get(i);
+      if (connection.myStartTimeNs > endTimeNs) {
+        break;
+      }
+      if (connection.myEndTimeNs >= startTimeNs) {
+        connections.add(connection);
+      }
+    }
+    for (Connection connection : myOpenConnections) {
+      if (connection.myStartTimeNs <= endTimeNs) {
+        connections.add(connection);
+      }
+    }
+    connections.sort(START_TIME_COMPARATOR);
+
+    List<HttpData> httpDataList = new ArrayList<>(connections.size());
+    for (Connection connection : connections) {
+      if (connection.myHttpData == null) {
+        connection.myHttpData = RpcNetworkConnectionsModel.buildHttpData(connection.myId, connection.myEvents, connection.myThreadEvents);
+      }
+      if (connection.myHttpData != null) {
+        httpDataList.add(connection.myHttpData);
+      }
+    }
+    return httpDataList;
+  }
+
+  @VisibleForTesting
+  synchronized int getConnectionCount() {
+    return myConnections.size();
+  }
+
+  @NotNull
+  private Connection getConnection(long id) {
+    return myConnections.computeIfAbsent(id, Connection::new);
+  }
+
+  private void addClosedConnection(@NotNull Connection connection) {
+    int index = Collections.binarySearch(myClosedConnections, connection, START_TIME_COMPARATOR);
+    assert index < 0;
+    index = -index - 1;
+    myClosedConnections.add(index, connection);
+    myValidMaxEndTimeCount = Math.min(myValidMaxEndTimeCount, index);
+  }
+
+  private void removeClosedConnection(@NotNull Connection connection) {
+    int index = Collections.binarySearch(myClosedConnections, connection, START_TIME_COMPARATOR);
+    assert index >= 0;
+    myClosedConnections.remove(index);
+    myValidMaxEndTimeCount = Math.min(myValidMaxEndTimeCount, index);
+  }
+
+  private void updateMaxEndTimes() {
+    int count = myClosedConnections.size();
+    if (myMaxEndTimesNs.length < count) {
+      myMaxEndTimesNs = new long[Math.max(count, myMaxEndTimesNs.length * 2)];
+      myValidMaxEndTimeCount = 0;
+    }
+    for (int i = myValidMaxEndTimeCount; i < count; i++) {
+      long endTimeNs = myClosedConnections.get(i).myEndTimeNs;
+      myMaxEndTimesNs[i] = i == 0 ? endTimeNs : Math.max(myMaxEndTimesNs[i - 1], endTimeNs);
+    }
+    myValidMaxEndTimeCount = count;
+  }
+
+  private int findFirstMaxEndTimeAtOrAfter(long timeNs) {
+    int low = 0;
+    int high = myClosedConnections.size();
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (myMaxEndTimesNs[mid] < timeNs) {
+        low = mid + 1;
+      }
+      else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private static final class Connection {
+    private final long myId;
+    @NotNull private final Map<NetworkHttpConnectionData.UnionCase, Common.Event> myEvents =
+      new EnumMap<>(NetworkHttpConnectionData.UnionCase.class);
+    @NotNull private final List<Common.Event> myThreadEvents = new ArrayList<>();
+    private long myStartTimeNs = Long.MAX_VALUE;
+    private long myEndTimeNs = Long.MIN_VALUE;
+    private boolean myIsEnded;
+    @Nullable private HttpData myHttpData;
+
+    private Connection(long id) {
+      myId = id;
+    }
+  }
+}
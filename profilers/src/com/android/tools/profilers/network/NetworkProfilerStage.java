@@ -110,12 +110,16 @@ public class NetworkProfilerStage extends Stage implements CodeNavigator.Listene
       }
     });
 
-    myConnectionsModel =
+    NetworkConnectionsModel connectionsModel =
       profilers.getIdeServices().getFeatureConfig().isUnifiedPipelineEnabled() ?
-      new RpcNetworkConnectionsModel(profilers.getClient().getTransportClient(), profilers.getSession()) :
+      new RpcNetworkConnectionsModel(profilers.getClient().getTransportClient(), profilers.getSession(),
+                                     profilers.getIdeServices().getFeatureConfig().isNetworkConnectionIndexEnabled()) :
       new LegacyRpcNetworkConnectionsModel(profilers.getClient().getTransportClient(),
                                            profilers.getClient().getNetworkClient(),
                                            profilers.getSession());
+    myConnectionsModel = profilers.getIdeServices().getFeatureConfig().isNetworkPayloadCacheEnabled() ?
+                         new CachedNetworkConnectionsModel(connectionsModel) :
+                         connectionsModel;
 
     myHttpDataFetcher = new HttpDataFetcher(myConnectionsModel, timeline.getSelectionRange());
     myInstructionsEaseOutModel = new EaseOutModel(profilers.getUpdater(), PROFILING_INSTRUCTIONS_EASE_OUT_NS);
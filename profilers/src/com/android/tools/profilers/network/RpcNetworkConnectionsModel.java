@@ -29,12 +29,14 @@ import com.android.tools.profiler.protobuf3jarjar.ByteString;
 import com.android.tools.profilers.network.httpdata.HttpData;
 import com.intellij.openapi.util.text.StringUtil;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 /**
  * A {@link NetworkConnectionsModel} that uses the new event pipeline to fetch http connection data originated from an app.
@@ -43,10 +45,22 @@ public class RpcNetworkConnectionsModel implements NetworkConnectionsModel {
   @NotNull private final TransportServiceGrpc.TransportServiceBlockingStub myTransportService;
   @NotNull private final Common.Session mySession;
 
+  /**
+   * The connections fetched so far, if they are indexed. Otherwise all the events are fetched on every query.
+   */
+  @Nullable private final HttpConnectionIndex myConnectionIndex;
+
   public RpcNetworkConnectionsModel(@NotNull TransportServiceGrpc.TransportServiceBlockingStub transportService,
                                     @NotNull Common.Session session) {
+    this(transportService, session, false);
+  }
+
+  public RpcNetworkConnectionsModel(@NotNull TransportServiceGrpc.TransportServiceBlockingStub transportService,
+                                    @NotNull Common.Session session,
+                                    boolean indexConnections) {
     myTransportService = transportService;
     mySession = session;
+    myConnectionIndex = indexConnections ? new HttpConnectionIndex() : null;
   }
 
   @NotNull
@@ -54,20 +68,21 @@ public class RpcNetworkConnectionsModel implements NetworkConnectionsModel {
   public List<HttpData> getData(@NotNull Range timeCurrentRangeUs) {
     long queryStartTimeNs = TimeUnit.MICROSECONDS.toNanos((long)timeCurrentRangeUs.getMin());
     long queryEndTimeNs = TimeUnit.MICROSECONDS.toNanos((long)timeCurrentRangeUs.getMax());
+    if (myConnectionIndex != null) {
+      long fromTimestampNs = myConnectionIndex.getFetchFromTimestampNs();
+      myConnectionIndex.addEvents(fromTimestampNs,
+                                  getEventGroups(Common.Event.Kind.NETWORK_HTTP_CONNECTION, fromTimestampNs),
+                                  getEventGroups(Common.Event.Kind.NETWORK_HTTP_THREAD, fromTimestampNs));
+      return myConnectionIndex.getData(queryStartTimeNs, queryEndTimeNs);
+    }
+
     GetEventGroupsRequest request = GetEventGroupsRequest.newBuilder()
       .setStreamId(mySession.getStreamId())
       .setPid(mySession.getPid())
       .setKind(Common.Event.Kind.NETWORK_HTTP_CONNECTION)
       .build();
     GetEventGroupsResponse response = myTransportService.getEventGroups(request);
-
-    GetEventGroupsRequest threadRequest = GetEventGroupsRequest.newBuilder()
-      .setStreamId(mySession.getStreamId())
-      .setPid(mySession.getPid())
-      .setKind(Common.Event.Kind.NETWORK_HTTP_THREAD)
-      .build();
-    Map<Long, List<Common.Event>> connectionThreadMap = myTransportService.getEventGroups(threadRequest)
-      .getGroupsList().stream().collect(Collectors.toMap(EventGroup::getGroupId, EventGroup::getEventsList));
+    Map<Long, List<Common.Event>> connectionThreadMap = getEventGroups(Common.Event.Kind.NETWORK_HTTP_THREAD, 0);
 
     List<HttpData> httpDataList = new ArrayList<>(response.getGroupsCount());
     for (EventGroup connectionGroup : response.getGroupsList()) {
@@ -80,67 +95,98 @@ public class RpcNetworkConnectionsModel implements NetworkConnectionsModel {
 
       Map<NetworkHttpConnectionData.UnionCase, Common.Event> events = new HashMap<>();
       connectionGroup.getEventsList().forEach(e -> events.put(e.getNetworkHttpConnection().getUnionCase(), e));
-      Common.Event requestStartEvent =
-        events.getOrDefault(NetworkHttpConnectionData.UnionCase.HTTP_REQUEST_STARTED, Common.Event.getDefaultInstance());
-      Common.Event requestCompleteEvent =
-        events.getOrDefault(NetworkHttpConnectionData.UnionCase.HTTP_REQUEST_COMPLETED, Common.Event.getDefaultInstance());
-      Common.Event responseStartEvent =
-        events.getOrDefault(NetworkHttpConnectionData.UnionCase.HTTP_RESPONSE_STARTED, Common.Event.getDefaultInstance());
-      Common.Event responseCompleteEvent =
-        events.getOrDefault(NetworkHttpConnectionData.UnionCase.HTTP_RESPONSE_COMPLETED, Common.Event.getDefaultInstance());
-      Common.Event connectionEndEvent =
-        events.getOrDefault(NetworkHttpConnectionData.UnionCase.HTTP_CLOSED, Common.Event.getDefaultInstance());
-
-      // Ingore the group if we missed the starting request event.
-      if (requestStartEvent.equals(Common.Event.getDefaultInstance())) {
-        continue;
+      List<Common.Event> threadEvents = connectionThreadMap.getOrDefault(connectionGroup.getGroupId(), Collections.emptyList());
+      HttpData httpData = buildHttpData(connectionGroup.getGroupId(), events, threadEvents);
+      if (httpData != null) {
+        httpDataList.add(httpData);
       }
+    }
 
-      // We must also have thread information associated with the connection.
-      if (!connectionThreadMap.containsKey(connectionGroup.getGroupId())) {
-        continue;
-      }
+    return httpDataList;
+  }
 
-      long requestStartTimeUs = TimeUnit.NANOSECONDS.toMicros(requestStartEvent.getTimestamp());
-      long requestCompleteTimeUs = TimeUnit.NANOSECONDS.toMicros(requestCompleteEvent.getTimestamp());
-      long respondStartTimeUs = TimeUnit.NANOSECONDS.toMicros(responseStartEvent.getTimestamp());
-      long respondCompleteTimeUs = TimeUnit.NANOSECONDS.toMicros(responseCompleteEvent.getTimestamp());
-      long connectionEndTimeUs = TimeUnit.NANOSECONDS.toMicros(connectionEndEvent.getTimestamp());
-      List<HttpData.JavaThread> threadData = connectionThreadMap.get(connectionGroup.getGroupId()).stream()
-        .map(e -> e.getNetworkHttpThread()).map(proto -> new HttpData.JavaThread(proto.getId(), proto.getName()))
-        .collect(Collectors.toList());
-
-      HttpData.Builder httpBuilder =
-        new HttpData.Builder(
-          connectionGroup.getGroupId(),
-          requestStartTimeUs,
-          requestCompleteTimeUs,
-          respondStartTimeUs,
-          respondCompleteTimeUs,
-          connectionEndTimeUs,
-          threadData);
-
-      Network.NetworkHttpConnectionData.HttpRequestStarted requestStartData =
-        requestStartEvent.getNetworkHttpConnection().getHttpRequestStarted();
-      httpBuilder.setUrl(requestStartData.getUrl());
-      httpBuilder.setMethod(requestStartData.getMethod());
-      httpBuilder.setTrace(requestStartData.getTrace());
-      httpBuilder.setRequestFields(requestStartData.getFields());
-      if (!requestCompleteEvent.equals(Common.Event.getDefaultInstance())) {
-        httpBuilder.setRequestPayloadId(requestCompleteEvent.getNetworkHttpConnection().getHttpRequestCompleted().getPayloadId());
-      }
-      if (!responseStartEvent.equals(Common.Event.getDefaultInstance())) {
-        httpBuilder.setResponseFields(responseStartEvent.getNetworkHttpConnection().getHttpResponseStarted().getFields());
-      }
-      if (!responseCompleteEvent.equals(Common.Event.getDefaultInstance())) {
-        httpBuilder.setResponsePayloadId(responseCompleteEvent.getNetworkHttpConnection().getHttpResponseCompleted().getPayloadId());
-        httpBuilder.setResponsePayloadSize(responseCompleteEvent.getNetworkHttpConnection().getHttpResponseCompleted().getPayloadSize());
-      }
+  /**
+   * @param fromTimestampNs the timestamp to fetch events from, or 0 to fetch all the events
+   * @return the events of the given kind, by group id
+   */
+  @NotNull
+  private Map<Long, List<Common.Event>> getEventGroups(@NotNull Common.Event.Kind kind, long fromTimestampNs) {
+    GetEventGroupsRequest request = GetEventGroupsRequest.newBuilder()
+      .setStreamId(mySession.getStreamId())
+      .setPid(mySession.getPid())
+      .setKind(kind)
+      .setFromTimestamp(fromTimestampNs)
+      .build();
+    return myTransportService.getEventGroups(request)
+      .getGroupsList().stream().collect(Collectors.toMap(EventGroup::getGroupId, EventGroup::getEventsList));
+  }
 
-      httpDataList.add(httpBuilder.build());
+  /**
+   * Builds the {@link HttpData} of a connection from its events, keyed by the kind of connection event.
+   *
+   * @return the {@link HttpData}, or null if the connection is missing its request start event or its thread information
+   */
+  @Nullable
+  static HttpData buildHttpData(long connectionId,
+                                @NotNull Map<NetworkHttpConnectionData.UnionCase, Common.Event> events,
+                                @NotNull List<Common.Event> threadEvents) {
+    Common.Event requestStartEvent =
+      events.getOrDefault(NetworkHttpConnectionData.UnionCase.HTTP_REQUEST_STARTED, Common.Event.getDefaultInstance());
+    Common.Event requestCompleteEvent =
+      events.getOrDefault(NetworkHttpConnectionData.UnionCase.HTTP_REQUEST_COMPLETED, Common.Event.getDefaultInstance());
+    Common.Event responseStartEvent =
+      events.getOrDefault(NetworkHttpConnectionData.UnionCase.HTTP_RESPONSE_STARTED, Common.Event.getDefaultInstance());
+    Common.Event responseCompleteEvent =
+      events.getOrDefault(NetworkHttpConnectionData.UnionCase.HTTP_RESPONSE_COMPLETED, Common.Event.getDefaultInstance());
+    Common.Event connectionEndEvent =
+      events.getOrDefault(NetworkHttpConnectionData.UnionCase.HTTP_CLOSED, Common.Event.getDefaultInstance());
+
+    // Ingore the group if we missed the starting request event.
+    if (requestStartEvent.equals(Common.Event.getDefaultInstance())) {
+      return null;
     }
 
-    return httpDataList;
+    // We must also have thread information associated with the connection.
+    if (threadEvents.isEmpty()) {
+      return null;
+    }
+
+    long requestStartTimeUs = TimeUnit.NANOSECONDS.toMicros(requestStartEvent.getTimestamp());
+    long requestCompleteTimeUs = TimeUnit.NANOSECONDS.toMicros(requestCompleteEvent.getTimestamp());
+    long respondStartTimeUs = TimeUnit.NANOSECONDS.toMicros(responseStartEvent.getTimestamp());
+    long respondCompleteTimeUs = TimeUnit.NANOSECONDS.toMicros(responseCompleteEvent.getTimestamp());
+    long connectionEndTimeUs = TimeUnit.NANOSECONDS.toMicros(connectionEndEvent.getTimestamp());
+    List<HttpData.JavaThread> threadData = threadEvents.stream()
+      .map(e -> e.getNetworkHttpThread()).map(proto -> new HttpData.JavaThread(proto.getId(), proto.getName()))
+      .collect(Collectors.toList());
+
+    HttpData.Builder httpBuilder =
+      new HttpData.Builder(
+        connectionId,
+        requestStartTimeUs,
+        requestCompleteTimeUs,
+        respondStartTimeUs,
+        respondCompleteTimeUs,
+        connectionEndTimeUs,
+        threadData);
+
+    Network.NetworkHttpConnectionData.HttpRequestStarted requestStartData =
+      requestStartEvent.getNetworkHttpConnection().getHttpRequestStarted();
+    httpBuilder.setUrl(requestStartData.getUrl());
+    httpBuilder.setMethod(requestStartData.getMethod());
+    httpBuilder.setTrace(requestStartData.getTrace());
+    httpBuilder.setRequestFields(requestStartData.getFields());
+    if (!requestCompleteEvent.equals(Common.Event.getDefaultInstance())) {
+      httpBuilder.setRequestPayloadId(requestCompleteEvent.getNetworkHttpConnection().getHttpRequestCompleted().getPayloadId());
+    }
+    if (!responseStartEvent.equals(Common.Event.getDefaultInstance())) {
+      httpBuilder.setResponseFields(responseStartEvent.getNetworkHttpConnection().getHttpResponseStarted().getFields());
+    }
+    if (!responseCompleteEvent.equals(Common.Event.getDefaultInstance())) {
+      httpBuilder.setResponsePayloadId(responseCompleteEvent.getNetworkHttpConnection().getHttpResponseCompleted().getPayloadId());
+      httpBuilder.setResponsePayloadSize(responseCompleteEvent.getNetworkHttpConnection().getHttpResponseCompleted().getPayloadSize());
+    }
+    return httpBuilder.build();
   }
 
   @NotNull
@@ -17,19 +17,20 @@ package com.android.tools.profilers.network.httpdata;
 
 import com.android.tools.profiler.protobuf3jarjar.ByteString;
 import com.android.tools.profilers.network.NetworkConnectionsModel;
-import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.util.text.StringUtil;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.zip.GZIPInputStream;
 
 /**
  * A class for fetching the payload data associated with an {@link HttpData} instance.
  */
 public abstract class Payload {
+  private static final int PREVIEW_CHUNK_SIZE = 64 * 1024;
+
   @NotNull private final NetworkConnectionsModel myModel;
   @Nullable private ByteString myCachedBytes;
 
@@ -87,11 +88,11 @@ public abstract class Payload {
       return myCachedBytes;
     }
 
-    myCachedBytes = myModel.requestBytes(getId());
-    String contentEncoding = getHeader().getContentEncoding();
-    if (StringUtil.toLowerCase(contentEncoding).contains("gzip")) {
-      try (GZIPInputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(myCachedBytes.toByteArray()))) {
-        myCachedBytes = ByteString.copyFrom(FileUtil.loadBytes(inputStream));
+    ByteString bytes = myModel.requestBytes(getId());
+    myCachedBytes = bytes;
+    if (isGzipped()) {
+      try (InputStream inputStream = new GZIPInputStream(bytes.newInput())) {
+        myCachedBytes = ByteString.readFrom(inputStream);
       }
       catch (IOException ignored) {
         // If we got here, it means we failed to unzip data that was supposedly zipped. Just
@@ -102,6 +103,61 @@ public abstract class Payload {
     return myCachedBytes;
   }
 
+  /**
+   * Opens a stream over the content of this payload, decompressing it as it is read instead of holding the decompressed content in
+   * memory, so that large payloads can be previewed without being decoded whole. Prefer {@link #getBytes()} when the whole content is
+   * needed, as that is only decoded once.
+   *
+   * @throws IOException if the payload is supposedly zipped and fails to unzip while it is read
+   */
+  @NotNull
+  public final InputStream openInputStream() throws IOException {
+    if (myCachedBytes != null) {
+      return myCachedBytes.newInput();
+    }
+
+    ByteString bytes = myModel.requestBytes(getId());
+    if (isGzipped()) {
+      try {
+        return new GZIPInputStream(bytes.newInput());
+      }
+      catch (IOException ignored) {
+        // Same as in getBytes, fallback to the content itself if it doesn't even start like zipped data.
+      }
+    }
+    return bytes.newInput();
+  }
+
+  /**
+   * Get at most the first {@code maxSize} bytes of this payload, read from {@link #openInputStream()} in chunks of at most
+   * {@link #PREVIEW_CHUNK_SIZE} bytes, so that the rest of a large payload is never decoded.
+   */
+  @NotNull
+  public final ByteString getPreview(int maxSize) {
+    if (myCachedBytes != null) {
+      return myCachedBytes.substring(0, Math.min(maxSize, myCachedBytes.size()));
+    }
+
+    ByteString.Output preview = ByteString.newOutput(Math.min(maxSize, PREVIEW_CHUNK_SIZE));
+    byte[] chunk = new byte[Math.min(maxSize, PREVIEW_CHUNK_SIZE)];
+    try (InputStream inputStream = openInputStream()) {
+      int read;
+      while (preview.size() < maxSize && (read = inputStream.read(chunk, 0, Math.min(chunk.length, maxSize - preview.size()))) != -1) {
+        preview.write(chunk, 0, read);
+      }
+    }
+    catch (IOException ignored) {
+      // Same as in getBytes, fallback to the content itself if it fails to unzip.
+      ByteString bytes = getBytes();
+      return bytes.substring(0, Math.min(maxSize, bytes.size()));
+    }
+    return preview.toByteString();
+  }
+
+  private boolean isGzipped() {
+    return StringUtil.toLowerCase(getHeader().getContentEncoding()).contains("gzip");
+  }
+
   @NotNull
   public HttpData.ContentType getContentType() {
     return getHeader().getContentType();
@@ -16,6 +16,8 @@
 package com.android.tools.profilers.stacktrace;
 
 import com.android.tools.profiler.proto.MemoryProfiler.NativeCallStack;
+import java.util.List;
+import java.util.stream.Collectors;
 import org.jetbrains.annotations.NotNull;
 
 /**
@@ -24,4 +26,13 @@ import org.jetbrains.annotations.NotNull;
 public interface NativeFrameSymbolizer {
   @NotNull
   NativeCallStack.NativeFrame symbolize(String abi, NativeCallStack.NativeFrame unsymbolizedFrame);
+
+  /**
+   * Symbolizes all the given frames, returning them in the same order. Implementations should override it when symbolizing frames
+   * together is cheaper than one at a time.
+   */
+  @NotNull
+  default List<NativeCallStack.NativeFrame> symbolize(String abi, @NotNull List<NativeCallStack.NativeFrame> unsymbolizedFrames) {
+    return unsymbolizedFrames.stream().map(frame -> symbolize(abi, frame)).collect(Collectors.toList());
+  }
 }
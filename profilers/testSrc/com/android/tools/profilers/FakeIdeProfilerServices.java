@@ -67,6 +67,51 @@ public final class FakeIdeProfilerServices implements IdeProfilerServices {
    */
   private boolean myAtraceEnabled = false;
 
+  /**
+   * Can toggle for tests via {@link #enableChartDownsampling(boolean)}, but each test starts with this defaulted to false.
+   */
+  private boolean myChartDownsamplingEnabled = false;
+
+  /**
+   * Can toggle for tests via {@link #enableCpuCaptureTreeFlameChart(boolean)}, but each test starts with this defaulted to false.
+   */
+  private boolean myCpuCaptureTreeFlameChartEnabled = false;
+
+  /**
+   * Can toggle for tests via {@link #enableCpuMappedArtParser(boolean)}, but each test starts with this defaulted to false.
+   */
+  private boolean myCpuMappedArtParserEnabled = false;
+
+  /**
+   * Can toggle for tests via {@link #enableCpuParallelTreeAggregation(boolean)}, but each test starts with this defaulted to false.
+   */
+  private boolean myCpuParallelTreeAggregationEnabled = false;
+
+  /**
+   * Can toggle for tests via {@link #enableLiveAllocationIndex(boolean)}, but each test starts with this defaulted to false.
+   */
+  private boolean myLiveAllocationIndexEnabled = false;
+
+  /**
+   * Can toggle for tests via {@link #enableMemoryIndexedHeapDump(boolean)}, but each test starts with this defaulted to false.
+   */
+  private boolean myMemoryIndexedHeapDumpEnabled = false;
+
+  /**
+   * Can toggle for tests via {@link #enableNetworkConnectionIndex(boolean)}, but each test starts with this defaulted to false.
+   */
+  private boolean myNetworkConnectionIndexEnabled = false;
+
+  /**
+   * Can toggle for tests via {@link #enableNetworkPayloadCache(boolean)}, but each test starts with this defaulted to false.
+   */
+  private boolean myNetworkPayloadCacheEnabled = false;
+
+  /**
+   * Can toggle for tests via {@link #enablePerfettoDirectImport(boolean)}, but each test starts with this defaulted to false.
+   */
+  private boolean myPerfettoDirectImportEnabled = false;
+
   /**
    * Can toggle for tests via {@link #enablePerfetto(boolean)}, but each test starts with this defaulted to false. Enabling this flag
    * assumes that {@link #myAtraceEnabled} is true.
@@ -246,16 +291,36 @@ public final class FakeIdeProfilerServices implements IdeProfilerServices {
         return myAtraceEnabled;
       }
 
+      @Override
+      public boolean isChartDownsamplingEnabled() {
+        return myChartDownsamplingEnabled;
+      }
+
       @Override
       public boolean isCpuApiTracingEnabled() {
         return myIsCpuApiTracingEnabled;
       }
 
+      @Override
+      public boolean isCpuCaptureTreeFlameChartEnabled() {
+        return myCpuCaptureTreeFlameChartEnabled;
+      }
+
+      @Override
+      public boolean isCpuMappedArtParserEnabled() {
+        return myCpuMappedArtParserEnabled;
+      }
+
       @Override
       public boolean isCpuNewRecordingWorkflowEnabled() {
         return myCpuNewRecordingWorkflowEnabled;
       }
 
+      @Override
+      public boolean isCpuParallelTreeAggregationEnabled() {
+        return myCpuParallelTreeAggregationEnabled;
+      }
+
       @Override
       public boolean isEnergyProfilerEnabled() {
         return myEnergyProfilerEnabled;
@@ -279,6 +344,11 @@ public final class FakeIdeProfilerServices implements IdeProfilerServices {
       @Override
       public boolean isJniReferenceTrackingEnabled() { return myIsJniReferenceTrackingEnabled; }
 
+      @Override
+      public boolean isLiveAllocationIndexEnabled() {
+        return myLiveAllocationIndexEnabled;
+      }
+
       @Override
       public boolean isLiveAllocationsEnabled() {
         return myLiveTrackingEnabled;
@@ -294,11 +364,31 @@ public final class FakeIdeProfilerServices implements IdeProfilerServices {
         return false;
       }
 
+      @Override
+      public boolean isMemoryIndexedHeapDumpEnabled() {
+        return myMemoryIndexedHeapDumpEnabled;
+      }
+
       @Override
       public boolean isMemorySnapshotEnabled() {
         return myMemorySnapshotEnabled;
       }
 
+      @Override
+      public boolean isNetworkConnectionIndexEnabled() {
+        return myNetworkConnectionIndexEnabled;
+      }
+
+      @Override
+      public boolean isNetworkPayloadCacheEnabled() {
+        return myNetworkPayloadCacheEnabled;
+      }
+
+      @Override
+      public boolean isPerfettoDirectImportEnabled() {
+        return myPerfettoDirectImportEnabled;
+      }
+
       @Override
       public boolean isPerfettoEnabled() { return myPerfettoEnabled; }
 
@@ -443,6 +533,42 @@ public final class FakeIdeProfilerServices implements IdeProfilerServices {
     myAtraceEnabled = enabled;
   }
 
+  public void enableChartDownsampling(boolean enabled) {
+    myChartDownsamplingEnabled = enabled;
+  }
+
+  public void enableCpuCaptureTreeFlameChart(boolean enabled) {
+    myCpuCaptureTreeFlameChartEnabled = enabled;
+  }
+
+  public void enableCpuMappedArtParser(boolean enabled) {
+    myCpuMappedArtParserEnabled = enabled;
+  }
+
+  public void enableCpuParallelTreeAggregation(boolean enabled) {
+    myCpuParallelTreeAggregationEnabled = enabled;
+  }
+
+  public void enableMemoryIndexedHeapDump(boolean enabled) {
+    myMemoryIndexedHeapDumpEnabled = enabled;
+  }
+
+  public void enableLiveAllocationIndex(boolean enabled) {
+    myLiveAllocationIndexEnabled = enabled;
+  }
+
+  public void enableNetworkConnectionIndex(boolean enabled) {
+    myNetworkConnectionIndexEnabled = enabled;
+  }
+
+  public void enableNetworkPayloadCache(boolean enabled) {
+    myNetworkPayloadCacheEnabled = enabled;
+  }
+
+  public void enablePerfettoDirectImport(boolean enabled) {
+    myPerfettoDirectImportEnabled = enabled;
+  }
+
   public void enablePerfetto(boolean enabled) {
     myPerfettoEnabled = enabled;
   }
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.android.tools.perflib.vmtrace.ClockType;
+import com.android.tools.profilers.cpu.nodemodel.SingleNameModel;
+import org.junit.Test;
+
+public class CaptureTreeTest {
+  @Test
+  public void nodesAreLinkedToTheirParentAndSiblings() {
+    CaptureTree tree = new CaptureTree(1);
+    int root = tree.addNode(new SingleNameModel("root"), CaptureTree.NO_NODE);
+    int first = tree.addNode(new SingleNameModel("a"), root);
+    int second = tree.addNode(new SingleNameModel("b"), root);
+    int grandChild = tree.addNode(new SingleNameModel("c"), first);
+
+    assertThat(tree.size()).isEqualTo(4);
+    assertThat(tree.getRoot()).isEqualTo(root);
+    assertThat(tree.getChildCount(root)).isEqualTo(2);
+    assertThat(tree.getFirstChild(root)).isEqualTo(first);
+    assertThat(tree.getNextSibling(first)).isEqualTo(second);
+    assertThat(tree.getNextSibling(second)).isEqualTo(CaptureTree.NO_NODE);
+    assertThat(tree.getParent(grandChild)).isEqualTo(first);
+    assertThat(tree.getDepth(grandChild)).isEqualTo(2);
+    assertThat(tree.getParent(root)).isEqualTo(CaptureTree.NO_NODE);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void treeHasASingleRoot() {
+    CaptureTree tree = new CaptureTree();
+    tree.addNode(new SingleNameModel("root"), CaptureTree.NO_NODE);
+    tree.addNode(new SingleNameModel("other root"), CaptureTree.NO_NODE);
+  }
+
+  @Test
+  public void modelsAreDeduplicatedById() {
+    CaptureTree tree = new CaptureTree();
+    int root = tree.addNode(new SingleNameModel("root"), CaptureTree.NO_NODE);
+    int first = tree.addNode(new SingleNameModel("method"), root);
+    int second = tree.addNode(new SingleNameModel("method"), first);
+
+    assertThat(tree.getModelCount()).isEqualTo(2);
+    assertThat(tree.getModel(first)).isSameAs(tree.getModel(second));
+  }
+
+  @Test
+  public void copiesCaptureNodes() {
+    CaptureNode root = newNode("root", 0, 100, 0, 50);
+    CaptureNode first = newNode("first", 10, 20, 5, 10);
+    CaptureNode second = newNode("second", 30, 90, 15, 40);
+    CaptureNode grandChild = newNode("grandChild", 40, 50, 20, 25);
+    root.addChild(first);
+    root.addChild(second);
+    second.addChild(grandChild);
+    grandChild.setFilterType(CaptureNode.FilterType.EXACT_MATCH);
+
+    CaptureTree tree = CaptureTree.fromCaptureNode(root);
+    assertThat(tree.size()).isEqualTo(4);
+    CaptureTree.Node rootView = tree.getNode(tree.getRoot());
+    assertThat(rootView.getData().getId()).isEqualTo("root");
+    assertThat(rootView.getChildCount()).isEqualTo(2);
+    assertThat(rootView.getChildAt(0).getData().getId()).isEqualTo("first");
+    assertThat(rootView.getChildAt(1).getData().getId()).isEqualTo("second");
+
+    CaptureTree.Node grandChildView = rootView.getChildAt(1).getChildAt(0);
+    assertThat(grandChildView.getData().getId()).isEqualTo("grandChild");
+    assertThat(grandChildView.getDepth()).isEqualTo(2);
+    assertThat(grandChildView.getParent()).isEqualTo(rootView.getChildAt(1));
+    assertThat(tree.getFilterType(grandChildView.getId())).isEqualTo(CaptureNode.FilterType.EXACT_MATCH);
+    assertThat(tree.getStartThread(grandChildView.getId())).isEqualTo(20L);
+    assertThat(tree.getEndGlobal(grandChildView.getId())).isEqualTo(50L);
+  }
+
+  @Test
+  public void viewsFollowTheClockOfTheTree() {
+    CaptureTree tree = new CaptureTree();
+    int root = tree.addNode(new SingleNameModel("root"), CaptureTree.NO_NODE);
+    tree.setGlobalTime(root, 20, 50);
+    tree.setThreadTime(root, 0, 10);
+
+    CaptureTree.Node view = tree.getNode(root);
+    assertThat(view.getStart()).isEqualTo(20L);
+    assertThat(view.getDuration()).isEqualTo(30L);
+
+    tree.setClockType(ClockType.THREAD);
+    assertThat(view.getStart()).isEqualTo(0L);
+    assertThat(view.getDuration()).isEqualTo(10L);
+  }
+
+  @Test
+  public void childrenCanBeReadInAnyOrder() {
+    CaptureTree tree = new CaptureTree();
+    int root = tree.addNode(new SingleNameModel("root"), CaptureTree.NO_NODE);
+    for (int i = 0; i < 10; i++) {
+      tree.addNode(new SingleNameModel("child" + i), root);
+    }
+
+    CaptureTree.Node view = tree.getNode(root);
+    assertThat(view.getChildAt(7).getData().getId()).isEqualTo("child7");
+    assertThat(view.getChildAt(2).getData().getId()).isEqualTo("child2");
+    assertThat(view.getLastChild().getData().getId()).isEqualTo("child9");
+    assertThat(view.getFirstChild().getData().getId()).isEqualTo("child0");
+  }
+
+  private static CaptureNode newNode(String name, long startGlobal, long endGlobal, long startThread, long endThread) {
+    CaptureNode node = new CaptureNode(new SingleNameModel(name));
+    node.setStartGlobal(startGlobal);
+    node.setEndGlobal(endGlobal);
+    node.setStartThread(startThread);
+    node.setEndThread(endThread);
+    return node;
+  }
+}
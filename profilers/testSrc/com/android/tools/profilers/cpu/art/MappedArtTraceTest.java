@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.art;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.android.tools.perflib.vmtrace.VmTraceParser;
+import com.android.tools.profilers.cpu.CaptureNode;
+import com.android.tools.profilers.cpu.CpuProfilerTestUtils;
+import com.android.tools.profilers.cpu.CpuThreadInfo;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.util.Map;
+import org.junit.Test;
+
+public class MappedArtTraceTest {
+  @Test
+  public void basicTraceMatchesVmTraceParser() throws IOException {
+    assertSameAsVmTraceParser(CpuProfilerTestUtils.getTraceFile("basic.trace"));
+  }
+
+  @Test
+  public void multiThreadedTraceMatchesVmTraceParser() throws IOException {
+    assertSameAsVmTraceParser(CpuProfilerTestUtils.getTraceFile("valid_trace.trace"));
+  }
+
+  @Test
+  public void methodsWithoutSourceFileMatchVmTraceParser() throws IOException {
+    // Its methods are listed with only a name and signature, with a source file but no line number, or with only a source file and line.
+    assertSameAsVmTraceParser(CpuProfilerTestUtils.getTraceFile("art_methods_without_source.trace"));
+  }
+
+  @Test
+  public void truncatedRecordsThrowBufferUnderflow() throws IOException {
+    try {
+      MappedArtTrace.parse(CpuProfilerTestUtils.getTraceFile("corrupted_trace.trace"));
+      fail();
+    }
+    catch (BufferUnderflowException expected) {
+    }
+  }
+
+  @Test
+  public void onlyTracesWithTextHeaderAreHandled() throws IOException {
+    assertThat(MappedArtTrace.hasTextHeader(CpuProfilerTestUtils.getTraceFile("basic.trace"))).isTrue();
+    assertThat(MappedArtTrace.hasTextHeader(CpuProfilerTestUtils.getTraceFile("empty_trace.trace"))).isFalse();
+    assertThat(MappedArtTrace.hasTextHeader(CpuProfilerTestUtils.getTraceFile("simpleperf_callchain.trace"))).isFalse();
+  }
+
+  private static void assertSameAsVmTraceParser(File trace) throws IOException {
+    ArtTraceHandler handler = new ArtTraceHandler();
+    new VmTraceParser(trace, handler).parse();
+    Map<CpuThreadInfo, CaptureNode> expected = handler.getThreadsGraph();
+
+    MappedArtTrace mapped = MappedArtTrace.parse(trace);
+    assertThat(mapped.getStartTimeUs()).isEqualTo(handler.getStartTimeUs());
+    assertThat(mapped.getElapsedTimeUs()).isEqualTo(handler.getElapsedTimeUs());
+
+    Map<CpuThreadInfo, CaptureNode> actual = mapped.getThreadsGraph();
+    assertThat(actual).hasSize(expected.size());
+    for (Map.Entry<CpuThreadInfo, CaptureNode> entry : expected.entrySet()) {
+      CpuThreadInfo thread = entry.getKey();
+      CpuThreadInfo actualThread =
+        actual.keySet().stream().filter(info -> info.getId() == thread.getId()).findFirst().orElseThrow(AssertionError::new);
+      assertThat(actualThread.getName()).isEqualTo(thread.getName());
+      assertThat(actualThread.isMainThread()).isEqualTo(thread.isMainThread());
+      assertSameTree(entry.getValue(), actual.get(actualThread));
+    }
+  }
+
+  private static void assertSameTree(CaptureNode expected, CaptureNode actual) {
+    assertThat(actual.getData().getId()).isEqualTo(expected.getData().getId());
+    assertThat(actual.getStartGlobal()).isEqualTo(expected.getStartGlobal());
+    assertThat(actual.getEndGlobal()).isEqualTo(expected.getEndGlobal());
+    assertThat(actual.getStartThread()).isEqualTo(expected.getStartThread());
+    assertThat(actual.getEndThread()).isEqualTo(expected.getEndThread());
+    assertThat(actual.getDepth()).isEqualTo(expected.getDepth());
+    assertThat(actual.getChildCount()).isEqualTo(expected.getChildCount());
+    for (int i = 0; i < expected.getChildCount(); i++) {
+      assertSameTree(expected.getChildren().get(i), actual.getChildren().get(i));
+    }
+  }
+}
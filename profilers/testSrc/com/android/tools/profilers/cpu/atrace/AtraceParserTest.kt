@@ -227,6 +227,16 @@ class AtraceParserTest {
     assertThat(parser.getProcessList("")).isNotEmpty()
   }
 
+  @Test
+  fun perfettoDirectImportFindsSameProcessesAsTextImport() {
+    val textParser = AtraceParser(CpuProfilerTestUtils.getTraceFile("perfetto.trace"))
+    val directParser = AtraceParser(CpuProfilerTestUtils.getTraceFile("perfetto.trace"), true)
+    val expected = textParser.getProcessList("").map { it.id to it.processName }
+    assertThat(directParser.getProcessList("").map { it.id to it.processName }).containsExactlyElementsIn(expected)
+    // The realtime clock comes from the clock snapshot instead of being parsed back from a marker.
+    assertThat(directParser.isMissingData).isFalse()
+  }
+
   companion object {
     private val DELTA = .00000001
 
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.atrace
+
+import com.android.tools.profilers.cpu.CpuProfilerTestUtils
+import com.google.common.truth.Truth.assertThat
+import org.junit.Before
+import org.junit.Test
+import trebuchet.importers.ftrace.FtraceEventImporter.Companion.schedulingStateFor
+import trebuchet.model.Model
+import trebuchet.model.SchedulingState
+import trebuchet.model.ThreadModel
+import trebuchet.model.base.SliceGroup
+import trebuchet.task.ImportTask
+import trebuchet.util.PrintlnImportFeedback
+
+class PerfettoModelImporterTest {
+
+  private lateinit var myTextModel: Model
+  private lateinit var myDirectModel: Model
+
+  @Before
+  fun setUp() {
+    val traceFile = CpuProfilerTestUtils.getTraceFile("perfetto.trace")
+    val producer = PerfettoProducer()
+    assertThat(producer.parseFile(traceFile)).isTrue()
+    myTextModel = ImportTask(PrintlnImportFeedback()).importBuffer(producer)
+    myDirectModel = PerfettoModelImporter.importFile(traceFile)
+  }
+
+  @Test
+  fun schedulingStateDecodesKernelStateBits() {
+    assertThat(schedulingStateFor(0x0)).isEqualTo(SchedulingState.RUNNABLE)
+    assertThat(schedulingStateFor(0x1)).isEqualTo(SchedulingState.SLEEPING)
+    assertThat(schedulingStateFor(0x2)).isEqualTo(SchedulingState.UNINTR_SLEEP)
+    assertThat(schedulingStateFor(0x82)).isEqualTo(SchedulingState.UNINTR_SLEEP_WAKE_KILL)
+    assertThat(schedulingStateFor(0x102)).isEqualTo(SchedulingState.UNINTR_SLEEP_WAKING)
+    assertThat(schedulingStateFor(0x4)).isEqualTo(SchedulingState.STOPPED)
+    assertThat(schedulingStateFor(0x8)).isEqualTo(SchedulingState.DEBUG)
+    assertThat(schedulingStateFor(0x10)).isEqualTo(SchedulingState.EXIT_DEAD)
+    assertThat(schedulingStateFor(0x20)).isEqualTo(SchedulingState.ZOMBIE)
+    assertThat(schedulingStateFor(0x40)).isEqualTo(SchedulingState.TASK_DEAD)
+    assertThat(schedulingStateFor(0x80)).isEqualTo(SchedulingState.WAKE_KILL)
+    assertThat(schedulingStateFor(0x100)).isEqualTo(SchedulingState.WAKING)
+    // The preemption flag is printed as R+ by the kernel.
+    assertThat(schedulingStateFor(0x800)).isEqualTo(SchedulingState.RUNNABLE)
+  }
+
+  @Test
+  fun schedulingStatesMatchTextImport() {
+    var stateCount = 0
+    forEachThreadPair { expected, actual ->
+      assertThat(actual.schedSlices.size).isEqualTo(expected.schedSlices.size)
+      for ((expectedSlice, actualSlice) in expected.schedSlices.zip(actual.schedSlices)) {
+        assertThat(actualSlice.state).isEqualTo(expectedSlice.state)
+        assertThat(actualSlice.startTime).isWithin(TIMESTAMP_PRECISION).of(expectedSlice.startTime)
+        assertThat(actualSlice.endTime).isWithin(TIMESTAMP_PRECISION).of(expectedSlice.endTime)
+        if (expectedSlice.state != SchedulingState.UNKNOWN) {
+          stateCount++
+        }
+      }
+    }
+    // prev_state used to be written as a number, which the text import read as UNKNOWN.
+    assertThat(stateCount).isGreaterThan(0)
+  }
+
+  @Test
+  fun threadSlicesMatchTextImport() {
+    forEachThreadPair { expected, actual ->
+      assertSameSlices(expected.slices, actual.slices)
+    }
+  }
+
+  @Test
+  fun countersMatchTextImport() {
+    for ((id, expectedProcess) in myTextModel.processes) {
+      val actualProcess = myDirectModel.processes.getValue(id)
+      assertThat(actualProcess.counters.map { it.name }).containsExactlyElementsIn(expectedProcess.counters.map { it.name }).inOrder()
+      for ((expected, actual) in expectedProcess.counters.zip(actualProcess.counters)) {
+        assertThat(actual.events.map { it.count }).containsExactlyElementsIn(expected.events.map { it.count }).inOrder()
+        for ((expectedValue, actualValue) in expected.events.zip(actual.events)) {
+          assertThat(actualValue.timestamp).isWithin(TIMESTAMP_PRECISION).of(expectedValue.timestamp)
+        }
+      }
+    }
+  }
+
+  @Test
+  fun clocksMatchTextImport() {
+    // realtime_ts used to be written as a double, which the text import failed to parse.
+    assertThat(myTextModel.realtimeTimestamp).isGreaterThan(0L)
+    assertThat(myDirectModel.realtimeTimestamp).isEqualTo(myTextModel.realtimeTimestamp)
+    assertThat(myDirectModel.parentTimestamp).isWithin(TIMESTAMP_PRECISION).of(myTextModel.parentTimestamp)
+  }
+
+  private fun forEachThreadPair(check: (expected: ThreadModel, actual: ThreadModel) -> Unit) {
+    assertThat(myDirectModel.processes.keys).containsExactlyElementsIn(myTextModel.processes.keys)
+    for ((id, expectedProcess) in myTextModel.processes) {
+      val actualThreads = myDirectModel.processes.getValue(id).threads.associateBy { it.id }
+      assertThat(actualThreads.keys).containsExactlyElementsIn(expectedProcess.threads.map { it.id })
+      for (expectedThread in expectedProcess.threads) {
+        check(expectedThread, actualThreads.getValue(expectedThread.id))
+      }
+    }
+  }
+
+  private fun assertSameSlices(expected: List<SliceGroup>, actual: List<SliceGroup>) {
+    assertThat(actual.map { it.name }).containsExactlyElementsIn(expected.map { it.name }).inOrder()
+    for ((expectedSlice, actualSlice) in expected.zip(actual)) {
+      assertThat(actualSlice.startTime).isWithin(TIMESTAMP_PRECISION).of(expectedSlice.startTime)
+      assertThat(actualSlice.endTime).isWithin(TIMESTAMP_PRECISION).of(expectedSlice.endTime)
+      assertThat(actualSlice.didNotFinish).isEqualTo(expectedSlice.didNotFinish)
+      assertSameSlices(expectedSlice.children, actualSlice.children)
+    }
+  }
+
+  companion object {
+    // The text import reads timestamps back from lines that have them in seconds, with microsecond precision.
+    private const val TIMESTAMP_PRECISION = 0.000001
+  }
+}
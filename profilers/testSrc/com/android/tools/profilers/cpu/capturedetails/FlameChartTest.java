@@ -18,11 +18,13 @@ package com.android.tools.profilers.cpu.capturedetails;
 import com.android.tools.adtui.model.AspectObserver;
 import com.android.tools.adtui.model.Range;
 import com.android.tools.profilers.cpu.CaptureNode;
+import com.android.tools.profilers.cpu.CaptureTree;
 import com.android.tools.profilers.cpu.nodemodel.SingleNameModel;
 import org.jetbrains.annotations.NotNull;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 public class FlameChartTest {
@@ -79,6 +81,22 @@ public class FlameChartTest {
     assertEquals("C", nodeB.getChildAt(0).getData().getName());
   }
 
+  @Test
+  public void captureTreeMatchesCaptureNodes() {
+    CaptureNode main = newNode("main", 0, 71);
+    main.addChild(newNode("A", 0, 20));
+    main.addChild(newNode("B", 21, 30));
+    main.addChild(newNode("A", 35, 40));
+    main.addChild(newNode("C", 45, 71));
+    main.getChildren().get(1).addChild(newNode("C", 21, 25));
+    main.getChildren().get(1).addChild(newNode("C", 25, 30));
+
+    CaptureNode flameChartNode = new CaptureDetails.FlameChart(new Range(0, 71), main).getNode();
+    CaptureDetails.FlameChart flameChart = new CaptureDetails.FlameChart(new Range(0, 71), main, true);
+    assertNull(flameChart.getNode());
+    assertSameFlameChart(flameChartNode, flameChart.getTreeRoot());
+  }
+
   /**
    * The input:
    * main -> [0..60]
@@ -177,6 +195,20 @@ public class FlameChartTest {
     assertEquals(25, root.getChildAt(2).getEnd());
   }
 
+  private static void assertSameFlameChart(@NotNull CaptureNode expected, @NotNull CaptureTree.Node actual) {
+    assertEquals(expected.getData().getFullName(), actual.getData().getFullName());
+    assertEquals(expected.getStart(), actual.getStart());
+    assertEquals(expected.getEnd(), actual.getEnd());
+    assertEquals(expected.getStartThread(), actual.getStartThread());
+    assertEquals(expected.getEndThread(), actual.getEndThread());
+    assertEquals(expected.getDepth(), actual.getDepth());
+    assertEquals(expected.getFilterType(), actual.getFilterType());
+    assertEquals(expected.getChildCount(), actual.getChildCount());
+    for (int i = 0; i < expected.getChildCount(); i++) {
+      assertSameFlameChart(expected.getChildAt(i), actual.getChildAt(i));
+    }
+  }
+
   @NotNull
   private static CaptureNode newNode(String method, long start, long end) {
     CaptureNode node = new CaptureNode(new SingleNameModel(method));
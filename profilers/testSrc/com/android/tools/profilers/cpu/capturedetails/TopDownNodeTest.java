@@ -23,7 +23,14 @@ import com.android.tools.profilers.cpu.nodemodel.SingleNameModel;
 import org.jetbrains.annotations.NotNull;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 public class TopDownNodeTest {
@@ -54,6 +61,26 @@ public class TopDownNodeTest {
     assertEquals("F", topDown.getChildren().get(1).getChildren().get(0).getId());
   }
 
+  @Test
+  public void testChildrenRequestedConcurrentlyAreBuiltOnce() throws Exception {
+    TopDownNode topDown = new TopDownNode(createTree());
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<List<TopDownNode>>> results = new ArrayList<>();
+      for (int i = 0; i < 4; i++) {
+        results.add(executor.submit(() -> topDown.getChildren().get(0).getChildren()));
+      }
+      for (Future<List<TopDownNode>> result : results) {
+        // Every thread gets the same, fully built, children of B.
+        assertSame(results.get(0).get(), result.get());
+        assertEquals(3, result.get().size());
+      }
+    }
+    finally {
+      executor.shutdownNow();
+    }
+  }
+
   @Test
   public void testTreeMergeWithFilter() {
     CaptureNode root = createTree();
@@ -24,6 +24,8 @@ import org.junit.Test;
 
 import javax.swing.tree.DefaultMutableTreeNode;
 import javax.swing.tree.TreeNode;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -121,6 +123,52 @@ public class TopDownTreeModelTest {
     Truth.assertThat(treeModelChangeCount[0]).isEqualTo(1);
   }
 
+  @Test
+  public void testTreeUpdateInBackground() {
+    CaptureNode tree = TopDownNodeTest.createTree();
+    Range range = new Range(-Double.MAX_VALUE, Double.MAX_VALUE);
+    CpuTreeModel model = new TopDownTreeModel(range, new TopDownNode(tree));
+    model.setAggregationExecutors(Runnable::run, Runnable::run);
+
+    range.set(0, 10);
+    TreeNode root = (TreeNode)model.getRoot();
+    assertEquals(ImmutableSet.of("B"), getChildrenIds(root));
+    assertEquals(ImmutableSet.of("D", "E"), getChildrenIds(getChild(root, "B")));
+    assertEquals(    10, getTotal(root, "A"), 0);
+    assertEquals(     8, getTotal(root, "A", "B"), 0);
+    assertEquals(     4, getChildrenTotal(root, "A", "B"), 0);
+  }
+
+  @Test
+  public void testSupersededBackgroundUpdateIsDropped() {
+    CaptureNode tree = TopDownNodeTest.createTree();
+    Range range = new Range(-Double.MAX_VALUE, Double.MAX_VALUE);
+    CpuTreeModel model = new TopDownTreeModel(range, new TopDownNode(tree));
+    Deque<Runnable> pendingAggregations = new ArrayDeque<>();
+    model.setAggregationExecutors(pendingAggregations::add, Runnable::run);
+
+    AspectObserver observer = new AspectObserver();
+    int[] treeModelChangeCount = new int[]{0};
+    model.getAspect().addDependency(observer).onChange(CpuTreeModel.Aspect.TREE_MODEL, () -> treeModelChangeCount[0]++);
+
+    range.set(0, 10);
+    range.set(8, 25);
+    assertEquals(2, pendingAggregations.size());
+    while (!pendingAggregations.isEmpty()) {
+      pendingAggregations.poll().run();
+    }
+    // Only the latest selection is applied to the tree.
+    Truth.assertThat(treeModelChangeCount[0]).isEqualTo(1);
+
+    TreeNode root = (TreeNode)model.getRoot();
+    assertEquals(ImmutableSet.of("B", "C"), getChildrenIds(root));
+    assertEquals(ImmutableSet.of("E"), getChildrenIds(getChild(root, "B")));
+    assertEquals(    17, getTotal(root, "A"), 0);
+    assertEquals( 1 + 3, getTotal(root, "A", "B"), 0);
+    assertEquals(     6, getTotal(root, "A", "C"), 0);
+    assertEquals(    10, getChildrenTotal(root, "A"), 0);
+  }
+
   private static double getTotal(TreeNode node, String id, String... ids) {
     node = getNode(node, id, ids);
     return getTotal(node);
@@ -15,34 +15,60 @@
  */
 package com.android.tools.profilers.cpu.perfetto
 
-import com.android.tools.profilers.cpu.CpuProfilerTestUtils
-import com.android.tools.profilers.cpu.atrace.PerfettoPacketDBSorter
+import com.android.tools.profilers.cpu.atrace.ExternalMergeSorter
 import com.google.common.truth.Truth.assertThat
 import org.junit.Test
-import perfetto.protos.PerfettoTrace
-import java.io.FileInputStream
+import java.util.Random
 
 class PerfettoSorterTest {
 
   @Test
   fun formattedLinesAreReturnedOnNext() {
-    val sorter = PerfettoPacketDBSorter()
-    sorter.addLine(0, "Some line")
+    val sorter = ExternalMergeSorter()
+    sorter.add(0, "Some line".toByteArray())
     assertThat(sorter.hasNext()).isFalse()
     sorter.resetForIterator()
     assertThat(sorter.hasNext()).isTrue()
-    assertThat(sorter.next()).isEqualTo("Some line")
+    assertThat(String(sorter.next())).isEqualTo("Some line")
   }
 
   @Test
   fun hasNextCanBeCalledMultipleTimes() {
-    val sorter = PerfettoPacketDBSorter()
-    sorter.addLine(0, "Some Line")
+    val sorter = ExternalMergeSorter()
+    sorter.add(0, "Some Line".toByteArray())
     assertThat(sorter.hasNext()).isFalse()
     sorter.resetForIterator()
     assertThat(sorter.hasNext()).isTrue()
     assertThat(sorter.hasNext()).isTrue()
     assertThat(sorter.hasNext()).isTrue()
-    assertThat(sorter.next()).isEqualTo("Some Line")
+    assertThat(String(sorter.next())).isEqualTo("Some Line")
+    assertThat(sorter.hasNext()).isFalse()
+  }
+
+  @Test
+  fun linesAreSortedInMemory() {
+    assertLinesAreSorted(ExternalMergeSorter())
+  }
+
+  @Test
+  fun linesAreSortedAcrossRunsSpilledToDisk() {
+    // A budget of a few lines, so that most of them are spilled to disk.
+    assertLinesAreSorted(ExternalMergeSorter(256))
+  }
+
+  private fun assertLinesAreSorted(sorter: ExternalMergeSorter) {
+    val random = Random(1)
+    // Few distinct timestamps, so that a lot of lines share the same one.
+    val lines = (0 until 1000).map { Pair(random.nextInt(50).toLong(), "Line $it") }
+    lines.forEach { sorter.add(it.first, it.second.toByteArray()) }
+    sorter.resetForIterator()
+
+    val sortedLines = mutableListOf<String>()
+    while (sorter.hasNext()) {
+      sortedLines.add(String(sorter.next()))
+    }
+    sorter.close()
+    // sortedBy is stable, lines with the same timestamp are expected in the order they were added.
+    assertThat(sortedLines).containsExactlyElementsIn(lines.sortedBy { it.first }.map { it.second }).inOrder()
   }
 }
@@ -23,6 +23,7 @@ import static com.google.common.truth.Truth.assertThat;
 import com.android.tools.adtui.model.FakeTimer;
 import com.android.tools.adtui.model.Range;
 import com.android.tools.adtui.model.RangedContinuousSeries;
+import com.android.tools.adtui.model.SeriesData;
 import com.android.tools.adtui.model.filter.Filter;
 import com.android.tools.adtui.model.legend.SeriesLegend;
 import com.android.tools.idea.transport.faketransport.FakeGrpcChannel;
@@ -32,6 +33,7 @@ import com.android.tools.profiler.proto.Memory;
 import com.android.tools.profiler.proto.MemoryProfiler.AllocationSamplingRate;
 import com.android.tools.profiler.proto.MemoryProfiler.AllocationSamplingRateEvent;
 import com.android.tools.profiler.proto.MemoryProfiler.AllocationsInfo;
+import com.android.tools.profiler.proto.MemoryProfiler.HeapDumpInfo;
 import com.android.tools.profiler.proto.MemoryProfiler.LegacyAllocationEventsResponse;
 import com.android.tools.profiler.proto.MemoryProfiler.MemoryData;
 import com.android.tools.profiler.proto.MemoryProfiler.TrackAllocationsResponse;
@@ -46,6 +48,8 @@ import com.android.tools.profilers.memory.adapters.ClassSet;
 import com.android.tools.profilers.memory.adapters.ClassifierSet;
 import com.android.tools.profilers.memory.adapters.FakeCaptureObject;
 import com.android.tools.profilers.memory.adapters.FakeInstanceObject;
+import com.android.tools.profilers.memory.adapters.HeapDumpCaptureObject;
+import com.android.tools.profilers.memory.adapters.HeapDumpDiffCaptureObject;
 import com.android.tools.profilers.memory.adapters.HeapSet;
 import com.android.tools.profilers.memory.adapters.InstanceObject;
 import com.android.tools.profilers.memory.adapters.LegacyAllocationCaptureObject;
@@ -447,6 +451,73 @@ public class MemoryProfilerStageTest extends MemoryProfilerTestBase {
     myAspectObserver.assertAndResetCounts(0, 0, 1, 0, 0, 0, 0, 0);
   }
 
+  @Test
+  public void testCaptureLoadingProgressAndCancellation() {
+    CaptureObject mockCapture = new FakeCaptureObject.Builder()
+      .setCaptureName("DUMMY_CAPTURE")
+      .setStartTime(5)
+      .setEndTime(10)
+      .setDoneLoading(false)
+      .build();
+    int[] progressCount = {0};
+    myStage.getAspect().addDependency(myAspectObserver)
+      .onChange(MemoryProfilerAspect.CURRENT_LOADING_CAPTURE_PROGRESS, () -> ++progressCount[0]);
+
+    myStage
+      .selectCaptureDuration(new CaptureDurationData<>(1, false, false, new CaptureEntry<>(new Object(), () -> mockCapture)), null);
+    assertThat(myStage.getCaptureLoadingProgress()).isLessThan(0.0);
+    myAspectObserver.assertAndResetCounts(0, 1, 0, 0, 0, 0, 0, 0);
+
+    myStage.setCaptureLoadingProgress(0.5);
+    myStage.setCaptureLoadingProgress(0.501);
+    assertThat(myStage.getCaptureLoadingProgress()).isWithin(0.0).of(0.501);
+    // Changes smaller than a percent don't notify the UI.
+    assertThat(progressCount[0]).isEqualTo(1);
+
+    myStage.cancelCaptureLoading();
+    assertThat(myStage.getSelectedCapture()).isNull();
+    myAspectObserver.assertAndResetCounts(0, 1, 1, 0, 0, 0, 0, 0);
+
+    // The canceled task doesn't run anymore.
+    myMockLoader.runTask();
+    assertThat(myStage.getSelectedCapture()).isNull();
+    myAspectObserver.assertAndResetCounts(0, 0, 0, 0, 0, 0, 0, 0);
+  }
+
+  @Test
+  public void testSelectHeapDumpDiffWithPrevious() {
+    myIdeProfilerServices.enableMemoryIndexedHeapDump(true);
+    HeapDumpInfo dumpInfo1 =
+      HeapDumpInfo.newBuilder().setStartTime(TimeUnit.MICROSECONDS.toNanos(3)).setEndTime(TimeUnit.MICROSECONDS.toNanos(4)).build();
+    HeapDumpInfo dumpInfo2 =
+      HeapDumpInfo.newBuilder().setStartTime(TimeUnit.MICROSECONDS.toNanos(13)).setEndTime(TimeUnit.MICROSECONDS.toNanos(14)).build();
+    myService.addExplicitHeapDumpInfo(dumpInfo1).addExplicitHeapDumpInfo(dumpInfo2);
+    myProfilers.getTimeline().getDataRange().set(0, 20);
+    List<SeriesData<CaptureDurationData<CaptureObject>>> heapDumps =
+      myStage.getHeapDumpSampleDurations().getSeries().getDataSeries().getDataForXRange(myProfilers.getTimeline().getDataRange());
+    assertThat(heapDumps).hasSize(2);
+
+    // The first heap dump has nothing to be compared with.
+    myStage.selectCaptureDuration(heapDumps.get(0).value, null);
+    assertThat(myStage.getSelectedCapture()).isInstanceOf(HeapDumpCaptureObject.class);
+    assertThat(myStage.canSelectHeapDumpDiffWithPrevious()).isFalse();
+
+    myStage.selectCaptureDuration(heapDumps.get(1).value, null);
+    assertThat(myStage.canSelectHeapDumpDiffWithPrevious()).isTrue();
+    myStage.selectHeapDumpDiffWithPrevious();
+    CaptureObject diff = myStage.getSelectedCapture();
+    assertThat(diff).isInstanceOf(HeapDumpDiffCaptureObject.class);
+    assertThat(diff.getStartTimeNs()).isEqualTo(dumpInfo1.getStartTime());
+    assertThat(diff.getEndTimeNs()).isEqualTo(dumpInfo2.getEndTime());
+    // A diff isn't a heap dump itself.
+    assertThat(myStage.canSelectHeapDumpDiffWithPrevious()).isFalse();
+
+    // Diffs need the heap dumps to load as indexes.
+    myIdeProfilerServices.enableMemoryIndexedHeapDump(false);
+    myStage.selectCaptureDuration(heapDumps.get(1).value, null);
+    assertThat(myStage.canSelectHeapDumpDiffWithPrevious()).isFalse();
+  }
+
   @Test
   public void testCaptureLoadingFailure() {
     long startTimeUs = 5;
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.adapters;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.android.tools.profilers.memory.MemoryProfilerConfiguration.ClassGrouping;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ClassifierSetTest {
+  private FakeCaptureObject myCaptureObject;
+  private HeapSet myHeapSet;
+  private InstanceObject myFoo0;
+
+  @Before
+  public void setUp() {
+    myCaptureObject = new FakeCaptureObject.Builder().build();
+    myHeapSet = new HeapSet(myCaptureObject, "default", 0);
+    myFoo0 = createInstance("com.a.Foo");
+    myHeapSet.addSnapshotInstanceObject(myFoo0);
+    myHeapSet.addSnapshotInstanceObject(createInstance("com.a.Foo"));
+    myHeapSet.addSnapshotInstanceObject(createInstance("com.b.Bar"));
+    // An instance can be in both the snapshot and the delta instances of a set, but is only counted once.
+    myHeapSet.addDeltaInstanceObject(myFoo0);
+    myHeapSet.addDeltaInstanceObject(createInstance("com.b.Bar"));
+  }
+
+  @Test
+  public void testInstancesCountMatchesInstances() {
+    assertThat(myHeapSet.getInstancesCount()).isEqualTo(4);
+    assertThat(myHeapSet.getInstancesCount()).isEqualTo((int)myHeapSet.getInstancesStream().count());
+
+    ClassSet fooSet = findClassSet(myHeapSet, "com.a.Foo");
+    ClassSet barSet = findClassSet(myHeapSet, "com.b.Bar");
+    assertThat(fooSet.getInstancesCount()).isEqualTo(2);
+    assertThat(barSet.getInstancesCount()).isEqualTo(2);
+    assertThat(myHeapSet.getInstancesCount()).isEqualTo(4);
+  }
+
+  @Test
+  public void testContainsClassifierSet() {
+    myHeapSet.setClassGrouping(ClassGrouping.ARRANGE_BY_PACKAGE);
+    ClassifierSet packageA = findChild(findChild(myHeapSet, "com"), "a");
+    ClassifierSet packageB = findChild(findChild(myHeapSet, "com"), "b");
+    ClassSet fooSet = findClassSet(packageA, "com.a.Foo");
+
+    assertThat(myHeapSet.containsClassifierSet(fooSet)).isTrue();
+    assertThat(packageA.containsClassifierSet(fooSet)).isTrue();
+    assertThat(fooSet.containsClassifierSet(fooSet)).isTrue();
+    assertThat(packageB.containsClassifierSet(fooSet)).isFalse();
+    assertThat(fooSet.containsClassifierSet(packageA)).isFalse();
+
+    // A set that isn't in the tree is compared by instances.
+    HeapSet otherHeapSet = new HeapSet(myCaptureObject, "other", 1);
+    otherHeapSet.addSnapshotInstanceObject(myFoo0);
+    assertThat(myHeapSet.containsClassifierSet(otherHeapSet)).isFalse();
+    assertThat(myHeapSet.isSupersetOf(otherHeapSet)).isTrue();
+    assertThat(packageA.isSupersetOf(otherHeapSet)).isTrue();
+    assertThat(packageB.isSupersetOf(otherHeapSet)).isFalse();
+    assertThat(packageB.isSupersetOf(fooSet)).isFalse();
+  }
+
+  @Test
+  public void testInstanceGroupsArePartitionedWithoutCreatingTheirInstances() {
+    InstanceObject representative = createInstance("com.a.Baz");
+    int[] createdCount = {0};
+    myHeapSet.addDeltaInstanceGroup(new InstanceGroup(representative, 3, 3, 0) {
+      @NotNull
+      @Override
+      public Stream<InstanceObject> getInstances() {
+        return IntStream.range(0, 3).mapToObj(i -> {
+          createdCount[0]++;
+          return i == 0 ? representative : createInstance("com.a.Baz");
+        });
+      }
+    });
+    assertThat(myHeapSet.getInstancesCount()).isEqualTo(7);
+    assertThat(myHeapSet.getDeltaAllocationCount()).isEqualTo(5);
+
+    ClassSet bazSet = findClassSet(myHeapSet, "com.a.Baz");
+    assertThat(bazSet.getDeltaAllocationCount()).isEqualTo(3);
+    assertThat(bazSet.getTotalShallowSize()).isEqualTo(3);
+    assertThat(bazSet.getInstancesCount()).isEqualTo(3);
+
+    // Regrouping moves the group as a whole.
+    myHeapSet.setClassGrouping(ClassGrouping.ARRANGE_BY_PACKAGE);
+    ClassSet bazPackageSet = findClassSet(findChild(findChild(myHeapSet, "com"), "a"), "com.a.Baz");
+    assertThat(bazPackageSet.getInstancesCount()).isEqualTo(3);
+    assertThat(createdCount[0]).isEqualTo(0);
+
+    assertThat(bazPackageSet.getInstancesStream().count()).isEqualTo(3L);
+    assertThat(createdCount[0]).isEqualTo(3);
+    assertThat(myHeapSet.findContainingClassifierSet(representative)).isSameAs(bazPackageSet);
+  }
+
+  @Test
+  public void testInstanceGroupsWithDeallocationsAreRemovedFromTheirSet() {
+    InstanceObject representative = createInstance("com.a.Baz");
+    InstanceGroup group = new InstanceGroup(representative, 4, 2, 2, 0) {
+      @NotNull
+      @Override
+      public Stream<InstanceObject> getInstances() {
+        return Stream.of(representative);
+      }
+    };
+    int allocationCount = myHeapSet.getDeltaAllocationCount();
+    long shallowSize = myHeapSet.getTotalShallowSize();
+
+    myHeapSet.addDeltaInstanceGroup(group);
+    ClassSet bazSet = findClassSet(myHeapSet, "com.a.Baz");
+    assertThat(bazSet.getDeltaAllocationCount()).isEqualTo(4);
+    assertThat(bazSet.getDeltaDeallocationCount()).isEqualTo(2);
+    assertThat(bazSet.getTotalObjectCount()).isEqualTo(2);
+    assertThat(bazSet.getTotalShallowSize()).isEqualTo(2);
+
+    myHeapSet.removeDeltaInstanceGroup(group);
+    assertThat(bazSet.isEmpty()).isTrue();
+    assertThat(bazSet.getInstancesCount()).isEqualTo(0);
+    assertThat(myHeapSet.getDeltaAllocationCount()).isEqualTo(allocationCount);
+    assertThat(myHeapSet.getDeltaDeallocationCount()).isEqualTo(0);
+    assertThat(myHeapSet.getTotalShallowSize()).isEqualTo(shallowSize);
+  }
+
+  @NotNull
+  private InstanceObject createInstance(@NotNull String className) {
+    return new FakeInstanceObject.Builder(myCaptureObject, className).setShallowSize(1).build();
+  }
+
+  @NotNull
+  private static ClassifierSet findChild(@NotNull ClassifierSet parent, @NotNull String name) {
+    return parent.getChildrenClassifierSets().stream().filter(child -> name.equals(child.getName())).findFirst().orElseThrow(
+      AssertionError::new);
+  }
+
+  @NotNull
+  private static ClassSet findClassSet(@NotNull ClassifierSet parent, @NotNull String className) {
+    return (ClassSet)parent.getChildrenClassifierSets().stream()
+      .filter(child -> child instanceof ClassSet && className.equals(((ClassSet)child).getClassEntry().getClassName()))
+      .findFirst().orElseThrow(AssertionError::new);
+  }
+}
@@ -31,6 +31,7 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 
+import java.io.File;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
@@ -135,6 +136,85 @@ public class HeapDumpCaptureObjectTest {
     assertEquals(reference1.getReferenceInstance(), instance0);
   }
 
+  @Test
+  public void testIndexedHeapDumpObjectsGeneration() throws Exception {
+    myIdeProfilerServices.enableMemoryIndexedHeapDump(true);
+    MemoryProfiler.HeapDumpInfo dumpInfo = MemoryProfiler.HeapDumpInfo.newBuilder().setStartTime(3).setEndTime(8).build();
+    HeapDumpCaptureObject capture =
+      new HeapDumpCaptureObject(new ProfilerClient(myGrpcChannel.getName()).getMemoryClient(), ProfilersTestData.SESSION_DATA,
+                                dumpInfo, null, myIdeProfilerServices.getFeatureTracker(), myStage);
+
+    SnapshotBuilder snapshotBuilder = new SnapshotBuilder(2, 0, 0)
+      .addReferences(1, 2)
+      .addRoot(1);
+    myService.setExplicitSnapshotBuffer(snapshotBuilder.getByteBuffer());
+    myService.setExplicitDumpDataStatus(MemoryProfiler.DumpDataResponse.Status.SUCCESS);
+    assertTrue(capture.load(null, null));
+
+    assertTrue(capture.isDoneLoading());
+    assertFalse(capture.isError());
+    assertNotNull(capture.getIndex());
+
+    Collection<HeapSet> heaps = capture.getHeapSets();
+    assertEquals(1, heaps.size()); // default heap should not show up if it doesn't contain anything
+
+    HeapSet testHeap = heaps.stream().filter(heap -> "testHeap".equals(heap.getName())).findFirst().orElse(null);
+    assertNotNull(testHeap);
+    assertEquals(6, testHeap.getInstancesCount());
+    assertEquals(6, testHeap.getDeltaAllocationCount());
+
+    // Class sets are counted from the index, before any of their instances get created.
+    ClassifierSet class0Set = testHeap.getChildrenClassifierSets().stream()
+      .filter(classifier -> "Class0".equals(((ClassSet)classifier).getClassEntry().getClassName())).findFirst().orElse(null);
+    assertNotNull(class0Set);
+    assertEquals(1, class0Set.getDeltaAllocationCount());
+    assertEquals(1, class0Set.getInstancesCount());
+
+    ClassifierSet.Classifier classClassifier = ClassSet.createDefaultClassifier();
+    classClassifier.partition(
+      Collections.emptyList(), testHeap.getInstancesStream().collect(HashSet::new, HashSet::add, HashSet::addAll));
+    List<ClassifierSet> classSets = classClassifier.getFilteredClassifierSets();
+    assertEquals(3, classSets.size());
+    assertTrue(classSets.stream().anyMatch(classifier -> "java.lang.Class".equals(((ClassSet)classifier).getClassEntry().getClassName())));
+
+    InstanceObject instance0 = findChildClassSetWithName(classClassifier, "Class0").getInstancesStream().findFirst().orElse(null);
+    InstanceObject instance1 = findChildClassSetWithName(classClassifier, "Class1").getInstancesStream().findFirst().orElse(null);
+    verifyInstance(instance0, "Class0@1 (0x1)", 0, 1, 0);
+    verifyInstance(instance1, "Class1@2 (0x2)", 1, 0, 1);
+    // Instance 1 is only reachable through instance 0.
+    assertEquals(instance1.getShallowSize(), instance1.getRetainedSize());
+    assertEquals(instance0.getShallowSize() + instance1.getShallowSize(), instance0.getRetainedSize());
+
+    FieldObject field0 = instance0.getFields().get(0);
+    assertEquals(field0.getAsInstance(), instance1);
+    assertEquals(instance1.getRetainedSize(), field0.getRetainedSize());
+    ReferenceObject reference1 = instance1.getReferences().get(0);
+    assertEquals(reference1.getReferenceInstance(), instance0);
+  }
+
+  @Test
+  public void testUnloadReleasesIndex() throws Exception {
+    myIdeProfilerServices.enableMemoryIndexedHeapDump(true);
+    MemoryProfiler.HeapDumpInfo dumpInfo = MemoryProfiler.HeapDumpInfo.newBuilder().setStartTime(3).setEndTime(8).build();
+    HeapDumpCaptureObject capture =
+      new HeapDumpCaptureObject(new ProfilerClient(myGrpcChannel.getName()).getMemoryClient(), ProfilersTestData.SESSION_DATA,
+                                dumpInfo, null, myIdeProfilerServices.getFeatureTracker(), myStage);
+
+    myService.setExplicitSnapshotBuffer(new SnapshotBuilder(2, 0, 0).addReferences(1, 2).addRoot(1).getByteBuffer());
+    myService.setExplicitDumpDataStatus(MemoryProfiler.DumpDataResponse.Status.SUCCESS);
+    assertTrue(capture.load(null, null));
+    File indexFile = capture.getIndexFile();
+    assertNotNull(indexFile);
+    assertTrue(indexFile.exists());
+
+    capture.unload();
+    assertNull(capture.getIndex());
+    assertNull(capture.getIndexFile());
+    assertFalse(indexFile.exists());
+    assertTrue(capture.getHeapSets().isEmpty());
+    assertEquals(0, capture.getInstances().count());
+  }
+
   @Test
   public void testDefaultHeapShowsUpWhenItIsNonEmpty() throws Exception {
     long startTimeNs = 3;
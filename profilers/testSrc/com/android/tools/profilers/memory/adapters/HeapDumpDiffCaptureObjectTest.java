@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.adapters;
+
+import static com.android.tools.profilers.memory.MemoryProfilerTestUtils.findChildClassSetWithName;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.android.tools.adtui.model.FakeTimer;
+import com.android.tools.idea.transport.faketransport.FakeGrpcChannel;
+import com.android.tools.perflib.heap.SnapshotBuilder;
+import com.android.tools.profiler.proto.MemoryProfiler;
+import com.android.tools.profilers.FakeIdeProfilerServices;
+import com.android.tools.profilers.ProfilerClient;
+import com.android.tools.profilers.ProfilersTestData;
+import com.android.tools.profilers.StudioProfilers;
+import com.android.tools.profilers.memory.FakeCaptureObjectLoader;
+import com.android.tools.profilers.memory.FakeMemoryService;
+import com.android.tools.profilers.memory.MemoryProfilerConfiguration.ClassGrouping;
+import com.android.tools.profilers.memory.MemoryProfilerStage;
+import java.io.File;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class HeapDumpDiffCaptureObjectTest {
+
+  @NotNull private final FakeMemoryService myService = new FakeMemoryService();
+
+  @NotNull private final FakeIdeProfilerServices myIdeProfilerServices = new FakeIdeProfilerServices();
+
+  @Rule
+  public FakeGrpcChannel myGrpcChannel = new FakeGrpcChannel("HeapDumpDiffCaptureObjectTest", myService);
+
+  private MemoryProfilerStage myStage;
+
+  @Before
+  public void setUp() {
+    myIdeProfilerServices.enableMemoryIndexedHeapDump(true);
+    myStage = new MemoryProfilerStage(new StudioProfilers(new ProfilerClient(myGrpcChannel.getName()), myIdeProfilerServices, new FakeTimer()),
+                                      new FakeCaptureObjectLoader());
+  }
+
+  @Test
+  public void testDiffReportsAllocatedObjectsAndRetainedSizeChanges() {
+    // Baseline: 1 -> 2, current: 1 -> 2 -> 3.
+    HeapDumpCaptureObject baseline = loadDump(new SnapshotBuilder(2, 0, 0).addReferences(1, 2).addRoot(1), 3, 8);
+    HeapDumpCaptureObject current =
+      loadDump(new SnapshotBuilder(3, 0, 0).addReferences(1, 2).addReferences(2, 3).addRoot(1), 13, 18);
+
+    HeapDumpDiffCaptureObject diff = new HeapDumpDiffCaptureObject(baseline, current, myStage);
+    assertFalse(diff.isDoneLoading());
+    assertTrue(diff.load(null, null));
+    assertTrue(diff.isDoneLoading());
+    assertFalse(diff.isError());
+    assertEquals(3, diff.getStartTimeNs());
+    assertEquals(18, diff.getEndTimeNs());
+
+    HeapSet testHeap = diff.getHeapSets().stream().filter(heap -> "testHeap".equals(heap.getName())).findFirst().orElse(null);
+    assertNotNull(testHeap);
+
+    ClassSet class2 = findChildClassSetWithName(testHeap, "Class2");
+    assertEquals(1, class2.getDeltaAllocationCount());
+    assertEquals(0, class2.getDeltaDeallocationCount());
+    assertEquals(1, class2.getTotalObjectCount());
+
+    // Instance 1 is in both dumps but now also retains instance 3, so it only contributes to the retained size delta.
+    ClassSet class0 = findChildClassSetWithName(testHeap, "Class0");
+    assertEquals(0, class0.getTotalObjectCount());
+    assertTrue(class0.getTotalRetainedSize() > 0);
+
+    // Regrouping the heap keeps the deltas of each class.
+    testHeap.setClassGrouping(ClassGrouping.ARRANGE_BY_PACKAGE);
+    testHeap.setClassGrouping(ClassGrouping.ARRANGE_BY_CLASS);
+    assertEquals(1, findChildClassSetWithName(testHeap, "Class2").getTotalObjectCount());
+    assertEquals(0, findChildClassSetWithName(testHeap, "Class0").getTotalObjectCount());
+  }
+
+  @Test
+  public void testDiffReportsClassesWithFewerInstancesAsDeallocations() {
+    // Baseline: 1 -> 2 -> 3, current: 1 -> 2.
+    HeapDumpCaptureObject baseline =
+      loadDump(new SnapshotBuilder(3, 0, 0).addReferences(1, 2).addReferences(2, 3).addRoot(1), 3, 8);
+    HeapDumpCaptureObject current = loadDump(new SnapshotBuilder(2, 0, 0).addReferences(1, 2).addRoot(1), 13, 18);
+
+    HeapDumpDiffCaptureObject diff = new HeapDumpDiffCaptureObject(baseline, current, myStage);
+    assertTrue(diff.load(null, null));
+    HeapSet testHeap = diff.getHeapSets().stream().filter(heap -> "testHeap".equals(heap.getName())).findFirst().orElse(null);
+    assertNotNull(testHeap);
+
+    ClassSet class2 = findChildClassSetWithName(testHeap, "Class2");
+    assertEquals(0, class2.getDeltaAllocationCount());
+    assertEquals(1, class2.getDeltaDeallocationCount());
+    assertEquals(-1, class2.getTotalObjectCount());
+    assertTrue(class2.getTotalShallowSize() < 0);
+    // The class shrank, so its instances are listed from the baseline.
+    assertEquals(1, class2.getInstancesStream().count());
+  }
+
+  @Test
+  public void testDiffFailsWithoutIndexedDumps() {
+    myIdeProfilerServices.enableMemoryIndexedHeapDump(false);
+    HeapDumpCaptureObject baseline = loadDump(new SnapshotBuilder(2, 0, 0).addReferences(1, 2).addRoot(1), 3, 8);
+    HeapDumpCaptureObject current = loadDump(new SnapshotBuilder(2, 0, 0).addReferences(1, 2).addRoot(1), 13, 18);
+
+    HeapDumpDiffCaptureObject diff = new HeapDumpDiffCaptureObject(baseline, current, myStage);
+    assertFalse(diff.load(null, null));
+    assertTrue(diff.isDoneLoading());
+    assertTrue(diff.isError());
+    assertTrue(diff.getHeapSets().isEmpty());
+  }
+
+  @Test
+  public void testDiffLoadsDumpsAndUnloadsThemWithItself() {
+    myService.setExplicitSnapshotBuffer(new SnapshotBuilder(2, 0, 0).addReferences(1, 2).addRoot(1).getByteBuffer());
+    myService.setExplicitDumpDataStatus(MemoryProfiler.DumpDataResponse.Status.SUCCESS);
+    HeapDumpCaptureObject baseline = createDump(3, 8);
+    HeapDumpCaptureObject current = createDump(13, 18);
+
+    HeapDumpDiffCaptureObject diff = new HeapDumpDiffCaptureObject(baseline, current, myStage);
+    assertTrue(diff.load(null, null));
+    assertTrue(baseline.isDoneLoading());
+    assertTrue(current.isDoneLoading());
+    assertNotNull(baseline.getIndexFile());
+    assertNotNull(current.getIndexFile());
+    // Both dumps are the same, so nothing changed.
+    assertEquals(0, diff.getInstances().count());
+
+    File baselineFile = baseline.getIndexFile();
+    File currentFile = current.getIndexFile();
+    diff.unload();
+    assertNull(baseline.getIndex());
+    assertNull(current.getIndex());
+    assertFalse(baselineFile.exists());
+    assertFalse(currentFile.exists());
+  }
+
+  @NotNull
+  private HeapDumpCaptureObject createDump(long startTimeNs, long endTimeNs) {
+    MemoryProfiler.HeapDumpInfo dumpInfo =
+      MemoryProfiler.HeapDumpInfo.newBuilder().setStartTime(startTimeNs).setEndTime(endTimeNs).build();
+    return new HeapDumpCaptureObject(new ProfilerClient(myGrpcChannel.getName()).getMemoryClient(), ProfilersTestData.SESSION_DATA,
+                                     dumpInfo, null, myIdeProfilerServices.getFeatureTracker(), myStage);
+  }
+
+  @NotNull
+  private HeapDumpCaptureObject loadDump(@NotNull SnapshotBuilder snapshotBuilder, long startTimeNs, long endTimeNs) {
+    HeapDumpCaptureObject capture = createDump(startTimeNs, endTimeNs);
+    myService.setExplicitSnapshotBuffer(snapshotBuilder.getByteBuffer());
+    myService.setExplicitDumpDataStatus(MemoryProfiler.DumpDataResponse.Status.SUCCESS);
+    assertTrue(capture.load(null, null));
+    return capture;
+  }
+}
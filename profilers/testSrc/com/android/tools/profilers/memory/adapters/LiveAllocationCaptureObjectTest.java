@@ -93,6 +93,9 @@ public class LiveAllocationCaptureObjectTest {
     @Parameter(2)
     public Boolean myJniRefTracking;
 
+    @Parameter(3)
+    public Boolean myLiveAllocationIndex;
+
     private ProfilerClient myProfilerClient = new ProfilerClient(myGrpcChannel.getName());
 
     @Before
@@ -100,15 +103,19 @@ public class LiveAllocationCaptureObjectTest {
     public void before() {
       super.before();
       myIdeProfilerServices.enableJniReferenceTracking(myJniRefTracking);
+      myIdeProfilerServices.enableLiveAllocationIndex(myLiveAllocationIndex);
       myService.resetLatestAllocationTime();
     }
 
-    @Parameters(name = "{index}: HeapId:{0}, HeapName:{1}, JNI tracking: {2}")
+    @Parameters(name = "{index}: HeapId:{0}, HeapName:{1}, JNI tracking: {2}, Event index: {3}")
     public static Object[] getHeapParameters() {
       return new Object[]{
-        new Object[]{DEFAULT_HEAP_ID, DEFAULT_HEAP_NAME, false},
-        new Object[]{DEFAULT_HEAP_ID, DEFAULT_HEAP_NAME, true},
-        new Object[]{JNI_HEAP_ID, JNI_HEAP_NAME, true},
+        new Object[]{DEFAULT_HEAP_ID, DEFAULT_HEAP_NAME, false, false},
+        new Object[]{DEFAULT_HEAP_ID, DEFAULT_HEAP_NAME, true, false},
+        new Object[]{JNI_HEAP_ID, JNI_HEAP_NAME, true, false},
+        new Object[]{DEFAULT_HEAP_ID, DEFAULT_HEAP_NAME, false, true},
+        new Object[]{DEFAULT_HEAP_ID, DEFAULT_HEAP_NAME, true, true},
+        new Object[]{JNI_HEAP_ID, JNI_HEAP_NAME, true, true},
       };
     }
 
@@ -656,6 +663,42 @@ public class LiveAllocationCaptureObjectTest {
       expected_0_to_4.add(new ClassifierSetTestData(3, "Bar", 1, 0, 1, 1, 0, true));
       verifyClassifierResult(heapSet, new LinkedList<>(expected_0_to_4), 0);
     }
+
+    @Test
+    public void testClassDeltasComeFromEventIndexTotals() {
+      myIdeProfilerServices.enableLiveAllocationIndex(true);
+      LiveAllocationCaptureObject capture = new LiveAllocationCaptureObject(myProfilerClient.getMemoryClient(),
+                                                                            ProfilersTestData.SESSION_DATA,
+                                                                            CAPTURE_START_TIME,
+                                                                            LOAD_SERVICE,
+                                                                            myStage);
+      HeapSet heapSet = capture.getHeapSet(DEFAULT_HEAP_ID);
+      capture.load(new Range(CAPTURE_START_TIME, CAPTURE_START_TIME + 4), LOAD_JOINER);
+
+      // The deltas are accounted for by class, without creating their instances.
+      assertThat(heapSet.getDeltaInstanceStream().count()).isEqualTo(0L);
+      assertThat(heapSet.getDeltaInstanceGroupStream().count()).isEqualTo(4L);
+      assertThat(heapSet.getDeltaAllocationCount()).isEqualTo(4);
+      assertThat(heapSet.getDeltaDeallocationCount()).isEqualTo(2);
+      for (ClassifierSet classSet : heapSet.getChildrenClassifierSets()) {
+        assertThat(classSet.getInstancesStream().count()).isEqualTo((long)classSet.getInstancesCount());
+        assertThat(classSet.getInstancesStream().allMatch(instance -> instance.getAllocTime() != Long.MIN_VALUE)).isTrue();
+      }
+
+      // Arranging by callstack splits the totals by stack and thread, still without creating the instances. The fake data allocates
+      // each class with its own stack.
+      myStage.getConfiguration().setClassGrouping(MemoryProfilerConfiguration.ClassGrouping.ARRANGE_BY_CALLSTACK);
+      assertThat(heapSet.getDeltaInstanceStream().count()).isEqualTo(0L);
+      assertThat(heapSet.getDeltaInstanceGroupStream().count()).isEqualTo(4L);
+      assertThat(heapSet.getDeltaAllocationCount()).isEqualTo(4);
+      assertThat(heapSet.getDeltaDeallocationCount()).isEqualTo(2);
+      assertThat(heapSet.getChildrenClassifierSets().stream().allMatch(set -> set instanceof MethodSet)).isTrue();
+      assertThat(heapSet.getInstancesStream().allMatch(instance -> instance.getAllocationCallStack() != null)).isTrue();
+
+      myStage.getConfiguration().setClassGrouping(MemoryProfilerConfiguration.ClassGrouping.ARRANGE_BY_CLASS);
+      assertThat(heapSet.getDeltaInstanceGroupStream().count()).isEqualTo(4L);
+      assertThat(heapSet.getDeltaInstanceStream().count()).isEqualTo(0L);
+    }
   }
 
   public static class JniHeapTest extends LiveAllocationCaptureObjectTest {
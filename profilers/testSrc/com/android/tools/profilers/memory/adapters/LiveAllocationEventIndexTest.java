@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.adapters;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.android.tools.profiler.proto.MemoryProfiler.AllocationEvent;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+
+public class LiveAllocationEventIndexTest {
+  private static final int CLASS_COUNT = 3;
+  private static final int HEAP_COUNT = 2;
+
+  /**
+   * Every time unit has an allocation of an instance whose class is its time modulo {@link #CLASS_COUNT} and whose heap is its time
+   * divided by {@link #CLASS_COUNT} modulo {@link #HEAP_COUNT}, and every other time unit a deallocation of the instance allocated just
+   * before.
+   */
+  @NotNull
+  private static List<AllocationEvent> createEvents(long startTime, long endTime) {
+    List<AllocationEvent> events = new ArrayList<>();
+    for (long time = startTime; time < endTime; time++) {
+      int tag = (int)time;
+      int classTag = (int)(time % CLASS_COUNT);
+      int heapId = (int)(time / CLASS_COUNT % HEAP_COUNT);
+      events.add(AllocationEvent.newBuilder().setTimestamp(time).setAllocData(
+        AllocationEvent.Allocation.newBuilder().setTag(tag).setClassTag(classTag).setHeapId(heapId).setSize(classTag + 1)).build());
+      if (time % 2 == 1) {
+        int freedClassTag = (int)((time - 1) % CLASS_COUNT);
+        int freedHeapId = (int)((time - 1) / CLASS_COUNT % HEAP_COUNT);
+        events.add(AllocationEvent.newBuilder().setTimestamp(time).setFreeData(
+          AllocationEvent.Deallocation.newBuilder().setTag(tag - 1).setClassTag(freedClassTag).setHeapId(freedHeapId)
+            .setSize(freedClassTag + 1)).build());
+      }
+    }
+    return events;
+  }
+
+  @Test
+  public void testRangesAreOnlyFetchedOnce() {
+    List<String> fetches = new ArrayList<>();
+    LiveAllocationEventIndex.EventFetcher fetcher = (start, end) -> {
+      fetches.add(start + "-" + end);
+      return createEvents(start, end);
+    };
+
+    LiveAllocationEventIndex index = new LiveAllocationEventIndex();
+    index.ensureRange(10, 20, fetcher);
+    index.ensureRange(12, 18, fetcher);
+    index.ensureRange(15, 30, fetcher);
+    index.ensureRange(5, 25, fetcher);
+    assertThat(fetches).containsExactly("10-20", "20-30", "5-10").inOrder();
+    assertThat(index.getStartTimeNs()).isEqualTo(5);
+    assertThat(index.getEndTimeNs()).isEqualTo(30);
+
+    // A range that doesn't touch the indexed one replaces it.
+    index.ensureRange(40, 50, fetcher);
+    assertThat(fetches).containsExactly("10-20", "20-30", "5-10", "40-50").inOrder();
+    assertThat(index.getStartTimeNs()).isEqualTo(40);
+    assertThat(index.getEventCount()).isEqualTo(createEvents(40, 50).size());
+  }
+
+  @Test
+  public void testEventsAreVisitedInTimeOrder() {
+    LiveAllocationEventIndex index = new LiveAllocationEventIndex();
+    // Fetch the events out of order.
+    index.ensureRange(10, 20, (start, end) -> {
+      List<AllocationEvent> events = createEvents(start, end);
+      Collections.reverse(events);
+      return events;
+    });
+    index.ensureRange(0, 20, LiveAllocationEventIndexTest::createEvents);
+
+    List<Long> timestamps = new ArrayList<>();
+    List<Integer> allocatedTags = new ArrayList<>();
+    index.forEachEvent(8, 13, (isAllocation, timestamp, tag, classTag, stackId, threadId, size, heapId) -> {
+      timestamps.add(timestamp);
+      if (isAllocation) {
+        allocatedTags.add(tag);
+      }
+    });
+    assertThat(timestamps).isOrdered();
+    assertThat(allocatedTags).containsExactly(8, 9, 10, 11, 12).inOrder();
+    assertThat(timestamps).hasSize(createEvents(8, 13).size());
+  }
+
+  @Test
+  public void testClassTotalsMatchEvents() {
+    int eventCount = LiveAllocationEventIndex.BUCKET_SIZE * 5 / 2;
+    LiveAllocationEventIndex index = new LiveAllocationEventIndex();
+    index.ensureRange(0, eventCount, LiveAllocationEventIndexTest::createEvents);
+    assertThat(index.getEventCount()).isGreaterThan(2 * LiveAllocationEventIndex.BUCKET_SIZE);
+
+    long[][] ranges = {{0, eventCount}, {1, 2}, {7, LiveAllocationEventIndex.BUCKET_SIZE * 2 + 3}, {eventCount - 10, eventCount}};
+    for (long[] range : ranges) {
+      List<LiveAllocationEventIndex.ClassTotals> totals = index.getClassTotals(range[0], range[1]);
+      List<AllocationEvent> events = createEvents(range[0], range[1]);
+      int classesWithEvents = 0;
+      for (int heapId = 0; heapId < HEAP_COUNT; heapId++) {
+        for (int classTag = 0; classTag < CLASS_COUNT; classTag++) {
+          int allocationCount = 0;
+          int deallocationCount = 0;
+          long allocationSize = 0;
+          for (AllocationEvent event : events) {
+            if (event.getEventCase() == AllocationEvent.EventCase.ALLOC_DATA && event.getAllocData().getClassTag() == classTag &&
+                event.getAllocData().getHeapId() == heapId) {
+              allocationCount++;
+              allocationSize += event.getAllocData().getSize();
+            }
+            else if (event.getEventCase() == AllocationEvent.EventCase.FREE_DATA && event.getFreeData().getClassTag() == classTag &&
+                     event.getFreeData().getHeapId() == heapId) {
+              deallocationCount++;
+            }
+          }
+          if (allocationCount + deallocationCount == 0) {
+            continue;
+          }
+          classesWithEvents++;
+          LiveAllocationEventIndex.ClassTotals classTotals = findTotals(totals, heapId, classTag);
+          assertThat(classTotals.getAllocationCount()).isEqualTo(allocationCount);
+          assertThat(classTotals.getDeallocationCount()).isEqualTo(deallocationCount);
+          assertThat(classTotals.getAllocationSize()).isEqualTo(allocationSize);
+        }
+      }
+      assertThat(totals).hasSize(classesWithEvents);
+    }
+  }
+
+  @Test
+  public void testStackTotalsSplitClassTotalsByStackAndThread() {
+    // Instances of class 1 allocated with stacks 1 and 2 in thread 1, and with stack 1 in thread 2, and one of them freed.
+    List<AllocationEvent> events = new ArrayList<>();
+    int[][] stacksAndThreads = {{1, 1}, {2, 1}, {1, 2}, {1, 1}};
+    for (int i = 0; i < stacksAndThreads.length; i++) {
+      events.add(AllocationEvent.newBuilder().setTimestamp(i).setAllocData(
+        AllocationEvent.Allocation.newBuilder().setTag(i).setClassTag(1).setStackId(stacksAndThreads[i][0])
+          .setThreadId(stacksAndThreads[i][1]).setSize(4)).build());
+    }
+    events.add(AllocationEvent.newBuilder().setTimestamp(4).setFreeData(
+      AllocationEvent.Deallocation.newBuilder().setTag(0).setClassTag(1).setStackId(1).setThreadId(1).setSize(4)).build());
+    LiveAllocationEventIndex index = new LiveAllocationEventIndex();
+    index.ensureRange(0, 5, (start, end) -> events);
+
+    List<LiveAllocationEventIndex.ClassTotals> totals = index.getStackTotals(0, 5);
+    assertThat(totals).hasSize(3);
+    LiveAllocationEventIndex.ClassTotals stackTotals = findStackTotals(totals, 1, 1);
+    assertThat(stackTotals.getClassTag()).isEqualTo(1);
+    assertThat(stackTotals.getAllocationCount()).isEqualTo(2);
+    assertThat(stackTotals.getDeallocationCount()).isEqualTo(1);
+    assertThat(stackTotals.getAllocationsWithStackCount()).isEqualTo(2);
+    assertThat(findStackTotals(totals, 2, 1).getAllocationCount()).isEqualTo(1);
+    assertThat(findStackTotals(totals, 1, 2).getAllocationCount()).isEqualTo(1);
+
+    // Only the events of the range are accounted for.
+    assertThat(index.getStackTotals(1, 3)).hasSize(2);
+  }
+
+  @Test
+  public void testEventsOutsideOfTheWindowAreEvicted() {
+    int bucketSize = LiveAllocationEventIndex.BUCKET_SIZE;
+    long eventCount = bucketSize * 32;
+    List<String> fetches = new ArrayList<>();
+    LiveAllocationEventIndex.EventFetcher fetcher = (start, end) -> {
+      fetches.add(start + "-" + end);
+      return createEvents(start, end);
+    };
+    LiveAllocationEventIndex index = new LiveAllocationEventIndex();
+    index.ensureRange(0, eventCount, fetcher);
+    int capacity = index.getCapacity();
+
+    // The events after the window are dropped, but the ones before it are kept while they are less than half of the index.
+    long windowEnd = bucketSize * 4;
+    index.evictOutside(bucketSize / 2, windowEnd);
+    assertThat(index.getStartTimeNs()).isEqualTo(0);
+    assertThat(index.getEndTimeNs()).isEqualTo(windowEnd);
+    assertThat(index.getEventCount()).isEqualTo(createEvents(0, windowEnd).size());
+    assertThat(index.getCapacity()).isLessThan(capacity);
+
+    // Once they are, whole buckets of them are dropped.
+    long windowStart = bucketSize * 2;
+    index.evictOutside(windowStart, windowEnd);
+    assertThat(index.getStartTimeNs()).isEqualTo(windowStart);
+    assertThat(index.getEventCount()).isEqualTo(createEvents(windowStart, windowEnd).size());
+    assertTotalsMatchEvents(index, windowStart, windowEnd);
+
+    // Only the indexed events are visited, and the evicted ranges are fetched again when needed.
+    List<Long> timestamps = new ArrayList<>();
+    index.forEachEvent(0, eventCount,
+                       (isAllocation, timestamp, tag, classTag, stackId, threadId, size, heapId) -> timestamps.add(timestamp));
+    assertThat(timestamps).hasSize(index.getEventCount());
+    fetches.clear();
+    index.ensureRange(0, eventCount, fetcher);
+    assertThat(fetches).containsExactly(windowEnd + "-" + eventCount, "0-" + windowStart).inOrder();
+    assertTotalsMatchEvents(index, 0, eventCount);
+
+    // A window that doesn't touch the index empties it.
+    index.evictOutside(eventCount, eventCount * 2);
+    assertThat(index.getEventCount()).isEqualTo(0);
+  }
+
+  private static void assertTotalsMatchEvents(@NotNull LiveAllocationEventIndex index, long startTime, long endTime) {
+    int allocationCount = 0;
+    int deallocationCount = 0;
+    for (LiveAllocationEventIndex.ClassTotals totals : index.getClassTotals(startTime, endTime)) {
+      allocationCount += totals.getAllocationCount();
+      deallocationCount += totals.getDeallocationCount();
+    }
+    List<AllocationEvent> events = createEvents(startTime, endTime);
+    int expectedAllocationCount =
+      (int)events.stream().filter(event -> event.getEventCase() == AllocationEvent.EventCase.ALLOC_DATA).count();
+    assertThat(allocationCount).isEqualTo(expectedAllocationCount);
+    assertThat(deallocationCount).isEqualTo(events.size() - expectedAllocationCount);
+  }
+
+  @NotNull
+  private static LiveAllocationEventIndex.ClassTotals findTotals(@NotNull List<LiveAllocationEventIndex.ClassTotals> totals,
+                                                                 int heapId,
+                                                                 int classTag) {
+    return totals.stream().filter(classTotals -> classTotals.getHeapId() == heapId && classTotals.getClassTag() == classTag).findFirst()
+      .orElseThrow(AssertionError::new);
+  }
+
+  @NotNull
+  private static LiveAllocationEventIndex.ClassTotals findStackTotals(@NotNull List<LiveAllocationEventIndex.ClassTotals> totals,
+                                                                      int stackId,
+                                                                      int threadId) {
+    return totals.stream().filter(stackTotals -> stackTotals.getStackId() == stackId && stackTotals.getThreadId() == threadId)
+      .findFirst().orElseThrow(AssertionError::new);
+  }
+}
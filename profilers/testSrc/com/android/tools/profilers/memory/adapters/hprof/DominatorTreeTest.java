@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.adapters.hprof;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.android.tools.perflib.heap.SnapshotBuilder;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CancellationException;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+
+public class DominatorTreeTest {
+  private static final DominatorTree.Progress NO_PROGRESS = new DominatorTree.Progress() {
+    @Override
+    public void setFraction(double fraction) {
+    }
+
+    @Override
+    public boolean isCanceled() {
+      return false;
+    }
+  };
+
+  @Test
+  public void objectsReachableThroughSeveralPathsAreDominatedByTheirCommonAncestor() throws IOException {
+    // 1 -> 2 -> 4 and 1 -> 3 -> 4
+    HprofIndex index = load(new SnapshotBuilder(4, 0, 0)
+                              .addReferences(1, 2, 3)
+                              .addReferences(2, 4)
+                              .addReferences(3, 4)
+                              .addRoot(1));
+    DominatorTree tree = DominatorTree.compute(index, NO_PROGRESS);
+
+    assertThat(tree.getImmediateDominator(index.findObject(1))).isEqualTo(HprofIndex.NO_OBJECT);
+    assertThat(tree.getImmediateDominator(index.findObject(2))).isEqualTo(index.findObject(1));
+    assertThat(tree.getImmediateDominator(index.findObject(3))).isEqualTo(index.findObject(1));
+    assertThat(tree.getImmediateDominator(index.findObject(4))).isEqualTo(index.findObject(1));
+
+    assertThat(tree.getRetainedSize(index.findObject(4))).isEqualTo(shallowSize(index, 4));
+    assertThat(tree.getRetainedSize(index.findObject(2))).isEqualTo(shallowSize(index, 2));
+    assertThat(tree.getRetainedSize(index.findObject(1)))
+      .isEqualTo(shallowSize(index, 1) + shallowSize(index, 2) + shallowSize(index, 3) + shallowSize(index, 4));
+  }
+
+  @Test
+  public void chainsAreRetainedByTheirHead() throws IOException {
+    HprofIndex index = load(new SnapshotBuilder(3, 0, 0)
+                              .addReferences(1, 2)
+                              .addReferences(2, 3)
+                              .addRoot(1));
+    DominatorTree tree = DominatorTree.compute(index, NO_PROGRESS);
+
+    assertThat(tree.getImmediateDominator(index.findObject(3))).isEqualTo(index.findObject(2));
+    assertThat(tree.getRetainedSize(index.findObject(2))).isEqualTo(shallowSize(index, 2) + shallowSize(index, 3));
+  }
+
+  @Test
+  public void unreachableObjectsRetainNothing() throws IOException {
+    HprofIndex index = load(new SnapshotBuilder(3, 0, 0)
+                              .addReferences(1, 2)
+                              .addReferences(3, 2)
+                              .addRoot(1));
+    DominatorTree tree = DominatorTree.compute(index, NO_PROGRESS);
+
+    assertThat(tree.getImmediateDominator(index.findObject(3))).isEqualTo(HprofIndex.NO_OBJECT);
+    assertThat(tree.getRetainedSize(index.findObject(3))).isEqualTo(0);
+    // The unreachable object doesn't keep 2 alive, so 1 still retains it.
+    assertThat(tree.getImmediateDominator(index.findObject(2))).isEqualTo(index.findObject(1));
+  }
+
+  @Test
+  public void progressEndsAtOne() throws IOException {
+    HprofIndex index = load(new SnapshotBuilder(2, 0, 0).addReferences(1, 2).addRoot(1));
+    double[] lastFraction = {0};
+    DominatorTree.compute(index, new DominatorTree.Progress() {
+      @Override
+      public void setFraction(double fraction) {
+        assertThat(fraction).isAtLeast(0.0);
+        lastFraction[0] = fraction;
+      }
+
+      @Override
+      public boolean isCanceled() {
+        return false;
+      }
+    });
+    assertThat(lastFraction[0]).isEqualTo(1.0);
+  }
+
+  @Test(expected = CancellationException.class)
+  public void canceledComputationThrows() throws IOException {
+    HprofIndex index = load(new SnapshotBuilder(2, 0, 0).addReferences(1, 2).addRoot(1));
+    DominatorTree.compute(index, new DominatorTree.Progress() {
+      @Override
+      public void setFraction(double fraction) {
+      }
+
+      @Override
+      public boolean isCanceled() {
+        return true;
+      }
+    });
+  }
+
+  @NotNull
+  private static HprofIndex load(@NotNull SnapshotBuilder builder) throws IOException {
+    return HprofIndex.load(ByteBuffer.wrap(builder.getByteBuffer()));
+  }
+
+  private static long shallowSize(@NotNull HprofIndex index, long id) {
+    return index.getShallowSize(index.findObject(id));
+  }
+}
@@ -0,0 +1,421 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.adapters.hprof;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+
+public class HprofIndexTest {
+  private static final int TAG_STRING = 0x01;
+  private static final int TAG_LOAD_CLASS = 0x02;
+  private static final int TAG_HEAP_DUMP_SEGMENT = 0x1C;
+
+  private static final int ROOT_UNKNOWN = 0xFF;
+  private static final int ROOT_JNI_GLOBAL = 0x01;
+  private static final int ROOT_JNI_LOCAL = 0x02;
+  private static final int ROOT_JAVA_FRAME = 0x03;
+  private static final int ROOT_NATIVE_STACK = 0x04;
+  private static final int ROOT_STICKY_CLASS = 0x05;
+  private static final int ROOT_THREAD_BLOCK = 0x06;
+  private static final int ROOT_MONITOR_USED = 0x07;
+  private static final int ROOT_THREAD_OBJECT = 0x08;
+  private static final int ROOT_INTERNED_STRING = 0x89;
+  private static final int ROOT_FINALIZING = 0x8A;
+  private static final int ROOT_DEBUGGER = 0x8B;
+  private static final int ROOT_REFERENCE_CLEANUP = 0x8C;
+  private static final int ROOT_VM_INTERNAL = 0x8D;
+  private static final int ROOT_JNI_MONITOR = 0x8E;
+  private static final int ROOT_UNREACHABLE = 0x90;
+  private static final int CLASS_DUMP = 0x20;
+  private static final int INSTANCE_DUMP = 0x21;
+  private static final int OBJECT_ARRAY_DUMP = 0x22;
+  private static final int PRIMITIVE_ARRAY_DUMP = 0x23;
+  private static final int PRIMITIVE_ARRAY_NODATA_DUMP = 0xC3;
+  private static final int HEAP_DUMP_INFO = 0xFE;
+
+  // Ids that don't fit in 4 bytes, to check 8-byte ids aren't truncated.
+  private static final long LARGE_ID_BASE = 0x1_0000_0000L;
+
+  @Test
+  public void objectsAreIndexedWith4ByteIds() throws IOException {
+    checkObjects(4, 0);
+  }
+
+  @Test
+  public void objectsAreIndexedWith8ByteIds() throws IOException {
+    checkObjects(8, LARGE_ID_BASE);
+  }
+
+  private static void checkObjects(int idSize, long idBase) throws IOException {
+    long classId = idBase + 0x10;
+    long first = idBase + 0x20;
+    long second = idBase + 0x21;
+    long array = idBase + 0x30;
+    long ints = idBase + 0x40;
+    HprofWriter segment = new HprofWriter(idSize)
+      .classDump(classId, 0, 4 + idSize, new long[]{2, 3}, new byte[]{HprofIndex.TYPE_INT, HprofIndex.TYPE_OBJECT})
+      .instance(first, classId, new HprofWriter(idSize).u4(42).id(second))
+      .instance(second, classId, new HprofWriter(idSize).u4(7).id(0))
+      .objectArray(array, 0, first, second)
+      .primitiveArray(ints, HprofIndex.TYPE_INT, 3, new HprofWriter(idSize).u4(1).u4(2).u4(3))
+      .u1(ROOT_UNKNOWN).id(array);
+    HprofIndex index = load(HprofWriter.dump(idSize)
+                              .string(1, "Foo")
+                              .string(2, "value")
+                              .string(3, "next")
+                              .loadClass(classId, 1)
+                              .heapDump(segment));
+
+    assertThat(index.getIdSize()).isEqualTo(idSize);
+    assertThat(index.getObjectCount()).isEqualTo(5);
+    int classIndex = index.findClass(classId);
+    assertThat(index.getClassName(classIndex)).isEqualTo("Foo");
+    assertThat(index.getKind(index.getClassObject(classIndex))).isEqualTo(HprofIndex.ObjectKind.CLASS);
+
+    int firstObject = index.findObject(first);
+    int secondObject = index.findObject(second);
+    assertThat(index.getObjectId(firstObject)).isEqualTo(first);
+    assertThat(index.getKind(firstObject)).isEqualTo(HprofIndex.ObjectKind.INSTANCE);
+    assertThat(index.getClassIndex(firstObject)).isEqualTo(classIndex);
+    assertThat(index.getShallowSize(firstObject)).isEqualTo(4 + idSize);
+    Map<String, Object> fields = new HashMap<>();
+    index.forEachField(firstObject, (declaringClass, nameId, type, position) -> fields.put(index.getString(nameId),
+                                                                                          index.readValue(type, position)));
+    assertThat(fields.get("value")).isEqualTo(42);
+    assertThat(fields.get("next")).isEqualTo(second);
+    assertThat(getReferences(index, firstObject)).containsExactly(secondObject);
+
+    int arrayObject = index.findObject(array);
+    assertThat(index.getKind(arrayObject)).isEqualTo(HprofIndex.ObjectKind.OBJECT_ARRAY);
+    assertThat(index.getClassIndex(arrayObject)).isEqualTo(HprofIndex.NO_CLASS);
+    assertThat(index.getArrayLength(arrayObject)).isEqualTo(2);
+    assertThat(index.getArrayElementType(arrayObject)).isEqualTo(HprofIndex.TYPE_OBJECT);
+    assertThat(index.getShallowSize(arrayObject)).isEqualTo(2 * idSize);
+    assertThat(getReferences(index, arrayObject)).containsExactly(firstObject, secondObject).inOrder();
+
+    int intsObject = index.findObject(ints);
+    assertThat(index.getKind(intsObject)).isEqualTo(HprofIndex.ObjectKind.PRIMITIVE_ARRAY);
+    assertThat(index.getArrayElementType(intsObject)).isEqualTo(HprofIndex.TYPE_INT);
+    assertThat(index.hasArrayData(intsObject)).isTrue();
+    assertThat(index.getArrayLength(intsObject)).isEqualTo(3);
+    assertThat(index.readValue(HprofIndex.TYPE_INT, index.getArrayElementPosition(intsObject, 2))).isEqualTo(3);
+    assertThat(index.getShallowSize(intsObject)).isEqualTo(12);
+
+    assertThat(toIds(index, index.getRoots())).containsExactly(array);
+    assertThat(index.getDepth(arrayObject)).isEqualTo(0);
+    assertThat(index.getDepth(firstObject)).isEqualTo(1);
+    assertThat(index.getDepth(intsObject)).isEqualTo(HprofIndex.UNREACHABLE_DEPTH);
+  }
+
+  @Test
+  public void eachRootKindIsIndexed() throws IOException {
+    for (int idSize : new int[]{4, 8}) {
+      long idBase = idSize == 8 ? LARGE_ID_BASE : 0;
+      long classId = idBase + 1;
+      HprofWriter segment = new HprofWriter(idSize).classDump(classId, 0, 0, new long[0], new byte[0]);
+      int[] idOnlyRoots = {ROOT_UNKNOWN, ROOT_STICKY_CLASS, ROOT_MONITOR_USED, ROOT_INTERNED_STRING, ROOT_FINALIZING, ROOT_DEBUGGER,
+        ROOT_REFERENCE_CLEANUP, ROOT_VM_INTERNAL};
+      int[] threadRoots = {ROOT_NATIVE_STACK, ROOT_THREAD_BLOCK};
+      int[] frameRoots = {ROOT_JNI_LOCAL, ROOT_JAVA_FRAME, ROOT_THREAD_OBJECT, ROOT_JNI_MONITOR};
+      List<Long> rootIds = new ArrayList<>();
+      long id = idBase + 0x100;
+      for (int tag : idOnlyRoots) {
+        segment.u1(tag).id(id);
+        rootIds.add(id++);
+      }
+      segment.u1(ROOT_JNI_GLOBAL).id(id).id(idBase + 0xFFF);
+      rootIds.add(id++);
+      for (int tag : threadRoots) {
+        segment.u1(tag).id(id).u4(1);
+        rootIds.add(id++);
+      }
+      for (int tag : frameRoots) {
+        segment.u1(tag).id(id).u4(1).u4(2);
+        rootIds.add(id++);
+      }
+      long unreachable = id;
+      segment.u1(ROOT_UNREACHABLE).id(unreachable);
+      for (long object = idBase + 0x100; object <= unreachable; object++) {
+        segment.instance(object, classId, new HprofWriter(idSize));
+      }
+      HprofIndex index = load(HprofWriter.dump(idSize).heapDump(segment));
+
+      // The class and every object were read, so each root record had the right length.
+      assertThat(index.getObjectCount()).isEqualTo(rootIds.size() + 2);
+      assertThat(toIds(index, index.getRoots())).containsExactlyElementsIn(rootIds);
+      for (long rootId : rootIds) {
+        assertThat(index.getDepth(index.findObject(rootId))).isEqualTo(0);
+      }
+      assertThat(index.getDepth(index.findObject(unreachable))).isEqualTo(HprofIndex.UNREACHABLE_DEPTH);
+    }
+  }
+
+  @Test
+  public void heapDumpInfoSwitchesHeaps() throws IOException {
+    long classId = 0x10;
+    HprofWriter segment = new HprofWriter(4)
+      .classDump(classId, 0, 0, new long[0], new byte[0])
+      .heapDumpInfo('A', 1)
+      .instance(0x20, classId, new HprofWriter(4))
+      .heapDumpInfo('Z', 2)
+      .instance(0x21, classId, new HprofWriter(4))
+      .heapDumpInfo('A', 0)
+      .instance(0x22, classId, new HprofWriter(4));
+    HprofIndex index = load(HprofWriter.dump(4).string(1, "app").string(2, "zygote").heapDump(segment));
+
+    assertThat(Arrays.stream(index.getHeapIds()).boxed().collect(Collectors.toList()))
+      .containsExactly(HprofIndex.DEFAULT_HEAP_ID, (int)'A', (int)'Z').inOrder();
+    assertThat(index.getHeapName(HprofIndex.DEFAULT_HEAP_ID)).isEqualTo(HprofIndex.DEFAULT_HEAP_NAME);
+    // Switching back to a heap without a name keeps the name it was given first.
+    assertThat(index.getHeapName('A')).isEqualTo("app");
+    assertThat(index.getHeapName('Z')).isEqualTo("zygote");
+    assertThat(index.getHeapId(index.findObject(0x10))).isEqualTo(HprofIndex.DEFAULT_HEAP_ID);
+    assertThat(index.getHeapId(index.findObject(0x20))).isEqualTo((int)'A');
+    assertThat(index.getHeapId(index.findObject(0x21))).isEqualTo((int)'Z');
+    assertThat(index.getHeapId(index.findObject(0x22))).isEqualTo((int)'A');
+  }
+
+  @Test
+  public void primitiveArraysWithoutDataAreIndexed() throws IOException {
+    HprofWriter segment = new HprofWriter(4)
+      .primitiveArrayNoData(0x10, HprofIndex.TYPE_LONG, 5)
+      .primitiveArray(0x11, HprofIndex.TYPE_BYTE, 2, new HprofWriter(4).u1(1).u1(2));
+    HprofIndex index = load(HprofWriter.dump(4).heapDump(segment));
+
+    int noData = index.findObject(0x10);
+    assertThat(index.getKind(noData)).isEqualTo(HprofIndex.ObjectKind.PRIMITIVE_ARRAY);
+    assertThat(index.hasArrayData(noData)).isFalse();
+    assertThat(index.getArrayLength(noData)).isEqualTo(5);
+    assertThat(index.getArrayElementType(noData)).isEqualTo(HprofIndex.TYPE_LONG);
+    assertThat(index.getShallowSize(noData)).isEqualTo(40);
+
+    // The record has no data to skip, so the next record is read from the right position.
+    int bytes = index.findObject(0x11);
+    assertThat(index.hasArrayData(bytes)).isTrue();
+    assertThat(index.getArrayLength(bytes)).isEqualTo(2);
+    assertThat(index.readValue(HprofIndex.TYPE_BYTE, index.getArrayElementPosition(bytes, 1))).isEqualTo((byte)2);
+  }
+
+  @Test(expected = IOException.class)
+  public void truncatedRecordThrows() throws IOException {
+    byte[] dump = HprofWriter.dump(4).string(1, "truncated").build();
+    HprofIndex.load(ByteBuffer.wrap(Arrays.copyOf(dump, dump.length - 2)));
+  }
+
+  @Test(expected = IOException.class)
+  public void truncatedHeapDumpRecordThrows() throws IOException {
+    HprofWriter segment = new HprofWriter(4).primitiveArray(0x10, HprofIndex.TYPE_INT, 2, new HprofWriter(4).u4(1).u4(2));
+    // The segment ends in the middle of the array.
+    segment = new HprofWriter(4).bytes(Arrays.copyOf(segment.build(), segment.size() - 3));
+    load(HprofWriter.dump(4).heapDump(segment));
+  }
+
+  @Test(expected = IOException.class)
+  public void heapDumpRecordRunningPastItsSegmentThrows() throws IOException {
+    // The instance claims more data than its segment holds.
+    HprofWriter segment = new HprofWriter(4).u1(INSTANCE_DUMP).id(0x10).u4(0).id(0x20).u4(1000);
+    load(HprofWriter.dump(4).heapDump(segment));
+  }
+
+  @Test
+  public void closeUnmapsTheFile() throws IOException {
+    File file = File.createTempFile("hprof_index_test", ".hprof");
+    try (FileOutputStream out = new FileOutputStream(file)) {
+      out.write(HprofWriter.dump(4).heapDump(new HprofWriter(4).primitiveArray(0x10, HprofIndex.TYPE_BYTE, 1, new HprofWriter(4).u1(1)))
+                  .build());
+    }
+    HprofIndex index = HprofIndex.load(file);
+    assertThat(index.getArrayLength(index.findObject(0x10))).isEqualTo(1);
+
+    index.close();
+    assertThat(file.delete()).isTrue();
+    try {
+      index.getArrayLength(index.findObject(0x10));
+      throw new AssertionError("The closed index was read");
+    }
+    catch (IndexOutOfBoundsException expected) {
+    }
+  }
+
+  @NotNull
+  private static HprofIndex load(@NotNull HprofWriter writer) throws IOException {
+    return HprofIndex.load(ByteBuffer.wrap(writer.build()));
+  }
+
+  @NotNull
+  private static List<Integer> getReferences(@NotNull HprofIndex index, int object) {
+    List<Integer> references = new ArrayList<>();
+    index.forEachReference(object, true, references::add);
+    return references;
+  }
+
+  @NotNull
+  private static List<Long> toIds(@NotNull HprofIndex index, @NotNull int[] objects) {
+    List<Long> ids = new ArrayList<>();
+    for (int object : objects) {
+      ids.add(index.getObjectId(object));
+    }
+    return ids;
+  }
+
+  /**
+   * Writes HPROF records, or the content of a record, big-endian with ids of the given size.
+   */
+  private static final class HprofWriter {
+    private final int myIdSize;
+    private final ByteArrayOutputStream myBytes = new ByteArrayOutputStream();
+
+    HprofWriter(int idSize) {
+      myIdSize = idSize;
+    }
+
+    /**
+     * @return a writer for a dump, starting with its header.
+     */
+    @NotNull
+    static HprofWriter dump(int idSize) {
+      return new HprofWriter(idSize).bytes("JAVA PROFILE 1.0.3".getBytes(StandardCharsets.UTF_8)).u1(0).u4(idSize).u8(0);
+    }
+
+    @NotNull
+    HprofWriter u1(int value) {
+      return write(1, value);
+    }
+
+    @NotNull
+    HprofWriter u2(int value) {
+      return write(2, value);
+    }
+
+    @NotNull
+    HprofWriter u4(int value) {
+      return write(4, value);
+    }
+
+    @NotNull
+    HprofWriter u8(long value) {
+      return write(8, value);
+    }
+
+    @NotNull
+    HprofWriter id(long value) {
+      return write(myIdSize, value);
+    }
+
+    @NotNull
+    HprofWriter bytes(@NotNull byte[] bytes) {
+      myBytes.write(bytes, 0, bytes.length);
+      return this;
+    }
+
+    @NotNull
+    HprofWriter string(long id, @NotNull String value) {
+      return record(TAG_STRING, new HprofWriter(myIdSize).id(id).bytes(value.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @NotNull
+    HprofWriter loadClass(long classId, long nameId) {
+      return record(TAG_LOAD_CLASS, new HprofWriter(myIdSize).u4(1).id(classId).u4(0).id(nameId));
+    }
+
+    @NotNull
+    HprofWriter heapDump(@NotNull HprofWriter segment) {
+      return record(TAG_HEAP_DUMP_SEGMENT, segment);
+    }
+
+    @NotNull
+    HprofWriter heapDumpInfo(int heapId, long nameId) {
+      return u1(HEAP_DUMP_INFO).u4(heapId).id(nameId);
+    }
+
+    /**
+     * Writes a class without constants or static fields.
+     */
+    @NotNull
+    HprofWriter classDump(long classId, long superClassId, int instanceSize, @NotNull long[] fieldNameIds, @NotNull byte[] fieldTypes) {
+      u1(CLASS_DUMP).id(classId).u4(0).id(superClassId);
+      // Loader, signers, protection domain and two reserved ids.
+      for (int i = 0; i < 5; i++) {
+        id(0);
+      }
+      u4(instanceSize).u2(0).u2(0).u2(fieldNameIds.length);
+      for (int i = 0; i < fieldNameIds.length; i++) {
+        id(fieldNameIds[i]).u1(fieldTypes[i]);
+      }
+      return this;
+    }
+
+    @NotNull
+    HprofWriter instance(long id, long classId, @NotNull HprofWriter values) {
+      return u1(INSTANCE_DUMP).id(id).u4(0).id(classId).u4(values.size()).bytes(values.build());
+    }
+
+    @NotNull
+    HprofWriter objectArray(long id, long arrayClassId, @NotNull long... elements) {
+      u1(OBJECT_ARRAY_DUMP).id(id).u4(0).u4(elements.length).id(arrayClassId);
+      for (long element : elements) {
+        id(element);
+      }
+      return this;
+    }
+
+    @NotNull
+    HprofWriter primitiveArray(long id, byte type, int length, @NotNull HprofWriter elements) {
+      return u1(PRIMITIVE_ARRAY_DUMP).id(id).u4(0).u4(length).u1(type).bytes(elements.build());
+    }
+
+    @NotNull
+    HprofWriter primitiveArrayNoData(long id, byte type, int length) {
+      return u1(PRIMITIVE_ARRAY_NODATA_DUMP).id(id).u4(0).u4(length).u1(type);
+    }
+
+    int size() {
+      return myBytes.size();
+    }
+
+    @NotNull
+    byte[] build() {
+      return myBytes.toByteArray();
+    }
+
+    @NotNull
+    private HprofWriter record(int tag, @NotNull HprofWriter content) {
+      return u1(tag).u4(0).u4(content.size()).bytes(content.build());
+    }
+
+    @NotNull
+    private HprofWriter write(int size, long value) {
+      for (int shift = (size - 1) * 8; shift >= 0; shift -= 8) {
+        myBytes.write((int)(value >>> shift));
+      }
+      return this;
+    }
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.network;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.android.tools.adtui.model.Range;
+import com.android.tools.profiler.protobuf3jarjar.ByteString;
+import com.android.tools.profilers.network.httpdata.HttpData;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CachedNetworkConnectionsModelTest {
+  private CountingNetworkConnectionsModel myModel;
+  private CachedNetworkConnectionsModel myCachedModel;
+
+  @Before
+  public void setUp() {
+    myModel = new CountingNetworkConnectionsModel();
+    myModel.addBytes("a", 10);
+    myModel.addBytes("b", 10);
+    myModel.addBytes("c", 10);
+    myModel.addBytes("large", 11);
+    myCachedModel = new CachedNetworkConnectionsModel(myModel, 40);
+  }
+
+  @Test
+  public void payloadsAreOnlyRequestedOnce() {
+    assertThat(myCachedModel.requestBytes("a").size()).isEqualTo(10);
+    assertThat(myCachedModel.requestBytes("a").size()).isEqualTo(10);
+    assertThat(myCachedModel.requestBytes("b").size()).isEqualTo(10);
+    assertThat(myModel.myRequestedIds).containsExactly("a", "b").inOrder();
+    assertThat(myCachedModel.getCachedBytes()).isEqualTo(20);
+  }
+
+  @Test
+  public void leastRecentlyUsedPayloadsAreEvicted() {
+    myCachedModel.requestBytes("a");
+    myCachedModel.requestBytes("b");
+    myCachedModel.requestBytes("c");
+    // Makes "b" the least recently used payload.
+    myCachedModel.requestBytes("a");
+    myCachedModel.requestBytes("d");
+    assertThat(myCachedModel.getCachedBytes()).isEqualTo(30);
+
+    myModel.addBytes("e", 10);
+    myCachedModel.requestBytes("e");
+    assertThat(myCachedModel.getCachedBytes()).isEqualTo(40);
+    myModel.addBytes("f", 10);
+    myCachedModel.requestBytes("f");
+    assertThat(myCachedModel.getCachedBytes()).isEqualTo(40);
+
+    myModel.myRequestedIds.clear();
+    myCachedModel.requestBytes("a");
+    myCachedModel.requestBytes("b");
+    assertThat(myModel.myRequestedIds).containsExactly("b");
+  }
+
+  @Test
+  public void emptyAndLargePayloadsAreNotCached() {
+    myCachedModel.requestBytes("d");
+    myCachedModel.requestBytes("d");
+    myCachedModel.requestBytes("large");
+    myCachedModel.requestBytes("large");
+    assertThat(myModel.myRequestedIds).containsExactly("d", "d", "large", "large").inOrder();
+    assertThat(myCachedModel.getCachedBytes()).isEqualTo(0);
+  }
+
+  private static final class CountingNetworkConnectionsModel implements NetworkConnectionsModel {
+    @NotNull private final Map<String, ByteString> myBytes = new HashMap<>();
+    @NotNull private final List<String> myRequestedIds = new ArrayList<>();
+
+    void addBytes(@NotNull String id, int size) {
+      myBytes.put(id, ByteString.copyFrom(new byte[size]));
+    }
+
+    @NotNull
+    @Override
+    public List<HttpData> getData(@NotNull Range timeCurrentRangeUs) {
+      throw new UnsupportedOperationException();
+    }
+
+    @NotNull
+    @Override
+    public ByteString requestBytes(@NotNull String id) {
+      myRequestedIds.add(id);
+      return myBytes.getOrDefault(id, ByteString.EMPTY);
+    }
+  }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.network;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.android.tools.profiler.proto.Common;
+import com.android.tools.profiler.proto.Network;
+import com.android.tools.profilers.network.httpdata.HttpData;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+
+public class HttpConnectionIndexTest {
+  @Test
+  public void rangeQueriesMatchConnectionTimes() {
+    Random random = new Random(1);
+    HttpConnectionIndex index = new HttpConnectionIndex();
+    long[] startTimes = new long[200];
+    long[] endTimes = new long[startTimes.length];
+    long[] indexedEndTimes = new long[startTimes.length];
+
+    for (int id = 1; id < startTimes.length; id++) {
+      startTimes[id] = 1 + random.nextInt(1000);
+      endTimes[id] = random.nextInt(4) == 0 ? Long.MAX_VALUE : startTimes[id] + random.nextInt(100);
+      indexedEndTimes[id] = Long.MAX_VALUE;
+      index.addEvents(0, Collections.singletonMap((long)id, Collections.singletonList(createStartEvent(id, startTimes[id]))),
+                      Collections.singletonMap((long)id, Collections.singletonList(createThreadEvent(id, startTimes[id]))));
+    }
+    assertThat(index.getConnectionCount()).isEqualTo(startTimes.length - 1);
+    checkRangeQueries(random, index, startTimes, indexedEndTimes);
+
+    // Close the connections out of start time order, querying the index in between.
+    for (int id = 1; id < startTimes.length; id++) {
+      if (endTimes[id] != Long.MAX_VALUE) {
+        // Also add the events that were already merged, as the index fetches events again from a bit before the last ones.
+        List<Common.Event> events = new ArrayList<>();
+        events.add(createStartEvent(id, startTimes[id]));
+        events.add(createEndEvent(id, endTimes[id]));
+        index.addEvents(0, Collections.singletonMap((long)id, events),
+                        Collections.singletonMap((long)id, Collections.singletonList(createThreadEvent(id, startTimes[id]))));
+        indexedEndTimes[id] = endTimes[id];
+      }
+      if (id % 50 == 0) {
+        checkRangeQueries(random, index, startTimes, indexedEndTimes);
+      }
+    }
+    checkRangeQueries(random, index, startTimes, indexedEndTimes);
+  }
+
+  @Test
+  public void connectionsWithoutStartEventOrThreadAreLeftOut() {
+    HttpConnectionIndex index = new HttpConnectionIndex();
+    Map<Long, List<Common.Event>> connectionEvents = new HashMap<>();
+    connectionEvents.put(1L, Collections.singletonList(createStartEvent(1, 10)));
+    connectionEvents.put(2L, Collections.singletonList(createEndEvent(2, 10)));
+    index.addEvents(0, connectionEvents, Collections.singletonMap(2L, Collections.singletonList(createThreadEvent(2, 10))));
+    assertThat(index.getData(0, 20)).isEmpty();
+
+    // The thread information of a connection can come after its connection events.
+    index.addEvents(0, Collections.emptyMap(), Collections.singletonMap(1L, Collections.singletonList(createThreadEvent(1, 10))));
+    List<HttpData> data = index.getData(0, 20);
+    assertThat(data).hasSize(1);
+    assertThat(data.get(0).getId()).isEqualTo(1);
+    // The data is only built again when the connection changes.
+    assertThat(index.getData(0, 20).get(0)).isSameAs(data.get(0));
+    index.addEvents(0, Collections.singletonMap(1L, Collections.singletonList(createEndEvent(1, 15))), Collections.emptyMap());
+    assertThat(index.getData(0, 20).get(0)).isNotSameAs(data.get(0));
+    assertThat(index.getData(16, 20)).isEmpty();
+  }
+
+  @Test
+  public void earlierEventsOfKnownConnectionsAreSkipped() {
+    HttpConnectionIndex index = new HttpConnectionIndex();
+    index.addEvents(0, Collections.singletonMap(1L, Collections.singletonList(createStartEvent(1, 10))),
+                    Collections.singletonMap(1L, Collections.singletonList(createThreadEvent(1, 10))));
+    List<HttpData> data = index.getData(0, 100);
+    assertThat(data).hasSize(1);
+
+    // A fetch from a timestamp also returns the latest earlier event of every open connection. Those of the connections the index
+    // already has are skipped, but a connection the index doesn't have yet is merged whole.
+    Map<Long, List<Common.Event>> connectionEvents = new HashMap<>();
+    connectionEvents.put(1L, Collections.singletonList(createStartEvent(1, 5)));
+    connectionEvents.put(2L, Collections.singletonList(createStartEvent(2, 20)));
+    Map<Long, List<Common.Event>> threadEvents = new HashMap<>();
+    threadEvents.put(1L, Collections.singletonList(createThreadEvent(1, 5)));
+    threadEvents.put(2L, Collections.singletonList(createThreadEvent(2, 20)));
+    index.addEvents(50, connectionEvents, threadEvents);
+    List<HttpData> newData = index.getData(0, 100);
+    assertThat(newData).hasSize(2);
+    assertThat(newData.get(0)).isSameAs(data.get(0));
+    assertThat(newData.get(1).getId()).isEqualTo(2);
+    assertThat(newData.get(1).getJavaThreads()).hasSize(1);
+  }
+
+  private static void checkRangeQueries(@NotNull Random random,
+                                        @NotNull HttpConnectionIndex index,
+                                        @NotNull long[] startTimes,
+                                        @NotNull long[] endTimes) {
+    for (int i = 0; i < 100; i++) {
+      long queryStart = random.nextInt(1200);
+      long queryEnd = queryStart + random.nextInt(200);
+      List<Long> expectedIds = new ArrayList<>();
+      for (int id = 1; id < startTimes.length; id++) {
+        if (startTimes[id] <= queryEnd && endTimes[id] >= queryStart) {
+          expectedIds.add((long)id);
+        }
+      }
+      List<HttpData> data = index.getData(queryStart, queryEnd);
+      assertThat(data.stream().map(HttpData::getId).collect(Collectors.toList())).containsExactlyElementsIn(expectedIds);
+      for (HttpData httpData : data) {
+        assertThat(httpData.getJavaThreads()).hasSize(1);
+      }
+    }
+  }
+
+  @NotNull
+  private static Common.Event createStartEvent(long id, long timestampNs) {
+    return Common.Event.newBuilder().setGroupId(id).setTimestamp(timestampNs).setKind(Common.Event.Kind.NETWORK_HTTP_CONNECTION)
+      .setNetworkHttpConnection(Network.NetworkHttpConnectionData.newBuilder().setHttpRequestStarted(
+        Network.NetworkHttpConnectionData.HttpRequestStarted.newBuilder().setUrl("url" + id)))
+      .build();
+  }
+
+  @NotNull
+  private static Common.Event createEndEvent(long id, long timestampNs) {
+    return Common.Event.newBuilder().setGroupId(id).setTimestamp(timestampNs).setKind(Common.Event.Kind.NETWORK_HTTP_CONNECTION)
+      .setIsEnded(true)
+      .setNetworkHttpConnection(Network.NetworkHttpConnectionData.newBuilder().setHttpClosed(
+        Network.NetworkHttpConnectionData.HttpClosed.newBuilder()))
+      .build();
+  }
+
+  @NotNull
+  private static Common.Event createThreadEvent(long id, long timestampNs) {
+    return Common.Event.newBuilder().setGroupId(id).setTimestamp(timestampNs).setKind(Common.Event.Kind.NETWORK_HTTP_THREAD)
+      .setNetworkHttpThread(Network.NetworkHttpThreadData.newBuilder().setId(id).setName("thread" + id))
+      .build();
+  }
+}
@@ -23,9 +23,14 @@ import com.android.tools.profilers.network.httpdata.HttpData;
 import com.android.tools.profilers.network.httpdata.Payload;
 import com.android.tools.profilers.network.httpdata.StackTrace;
 import com.google.common.collect.ImmutableMap;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.GZIPOutputStream;
 import org.jetbrains.annotations.NotNull;
 import org.junit.Test;
 
@@ -217,6 +222,41 @@ public class HttpDataTest {
     assertThat(Payload.newResponsePayload(connectionsModel, data).getBytes().toStringUtf8()).isEqualTo(responsePayload);
   }
 
+  @Test
+  public void gzippedPayloadIsDecompressedWhenStreamed() throws IOException {
+    String responsePayload = "responsePayload";
+    ByteArrayOutputStream zipped = new ByteArrayOutputStream();
+    try (GZIPOutputStream outputStream = new GZIPOutputStream(zipped)) {
+      outputStream.write(responsePayload.getBytes(StandardCharsets.UTF_8));
+    }
+
+    FakeNetworkConnectionsModel connectionsModel = new FakeNetworkConnectionsModel();
+    connectionsModel.addBytes("zippedPayloadId", ByteString.copyFrom(zipped.toByteArray()));
+    connectionsModel.addBytes("notZippedPayloadId", ByteString.copyFromUtf8(responsePayload));
+    HttpData zippedData = TestHttpData.newBuilder(1)
+      .setResponseFields("content-encoding = gzip \n response-status-code = 200")
+      .setResponsePayloadId("zippedPayloadId")
+      .build();
+    // Content that fails to unzip is returned as is.
+    HttpData notZippedData = TestHttpData.newBuilder(2)
+      .setResponseFields("content-encoding = gzip \n response-status-code = 200")
+      .setResponsePayloadId("notZippedPayloadId")
+      .build();
+
+    for (HttpData data : new HttpData[]{zippedData, notZippedData}) {
+      Payload payload = Payload.newResponsePayload(connectionsModel, data);
+      try (InputStream inputStream = payload.openInputStream()) {
+        assertThat(ByteString.readFrom(inputStream).toStringUtf8()).isEqualTo(responsePayload);
+      }
+      assertThat(payload.getPreview(8).toStringUtf8()).isEqualTo(responsePayload.substring(0, 8));
+      assertThat(payload.getPreview(100).toStringUtf8()).isEqualTo(responsePayload);
+      assertThat(payload.getBytes().toStringUtf8()).isEqualTo(responsePayload);
+      // The decoded bytes are cached.
+      assertThat(payload.getBytes()).isSameAs(payload.getBytes());
+      assertThat(payload.getPreview(8).toStringUtf8()).isEqualTo(responsePayload.substring(0, 8));
+    }
+  }
+
   @Test
   public void getMimeTypeFromContentType() {
     assertThat(new HttpData.ContentType("text/html; charset=utf-8").getMimeType()).isEqualTo("text/html");
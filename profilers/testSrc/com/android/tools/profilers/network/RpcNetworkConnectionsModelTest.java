@@ -39,6 +39,8 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -48,8 +50,8 @@ import org.junit.runners.Parameterized;
 @RunWith(Parameterized.class)
 public class RpcNetworkConnectionsModelTest {
   @Parameterized.Parameters
-  public static Collection<Boolean> useNewEventPipelineParameter() {
-    return Arrays.asList(false, true);
+  public static Collection<Object[]> useNewEventPipelineParameter() {
+    return Arrays.asList(new Object[][]{{false, false}, {true, false}, {true, true}});
   }
 
   private static final String FAKE_REQUEST_PAYLOAD_ID = "payloadRequest";
@@ -98,10 +100,12 @@ public class RpcNetworkConnectionsModelTest {
     new FakeGrpcChannel("RpcNetworkConnectionsModelTest", myTransportService, new FakeProfilerService(myTimer),
                         FakeNetworkService.newBuilder().setHttpDataList(FAKE_DATA).build());
   private boolean myUseNewEventPipeline;
+  private boolean myIndexConnections;
   private NetworkConnectionsModel myModel;
 
-  public RpcNetworkConnectionsModelTest(boolean useNewEventPipeline) {
+  public RpcNetworkConnectionsModelTest(boolean useNewEventPipeline, boolean indexConnections) {
     myUseNewEventPipeline = useNewEventPipeline;
+    myIndexConnections = indexConnections;
   }
 
   @Before
@@ -109,7 +113,8 @@ public class RpcNetworkConnectionsModelTest {
     StudioProfilers profilers = new StudioProfilers(new ProfilerClient(myGrpcChannel.getName()), new FakeIdeProfilerServices(), myTimer);
 
     if (myUseNewEventPipeline) {
-      myModel = new RpcNetworkConnectionsModel(profilers.getClient().getTransportClient(), Common.Session.getDefaultInstance());
+      myModel = new RpcNetworkConnectionsModel(profilers.getClient().getTransportClient(), Common.Session.getDefaultInstance(),
+                                               myIndexConnections);
 
       for (HttpData data : FAKE_DATA) {
         // Add the http connection events
@@ -174,6 +179,34 @@ public class RpcNetworkConnectionsModelTest {
     checkGetData(6, 8, 1, 3, 4, 5);
   }
 
+  @Test
+  public void eventsAddedBetweenQueriesAreMerged() {
+    Assume.assumeTrue(myUseNewEventPipeline);
+    checkGetData(1000, 1001, 3, 4);
+
+    // Request 3 completes, and a new request starts.
+    HttpData completedData = TestHttpData.newBuilder(3, 3, 1000, 1001, 1002, 1003, new HttpData.JavaThread(3, "threadC"))
+      .setRequestFields(FAKE_REQUEST_HEADERS)
+      .build();
+    for (Common.Event event : generateNetworkConnectionData(completedData).getEventsList()) {
+      if (event.getTimestamp() > TimeUnit.SECONDS.toNanos(3)) {
+        myTransportService.addEventToEventGroup(0, event);
+      }
+    }
+    HttpData newData = TestHttpData.newBuilder(6, 1002, 1003, new HttpData.JavaThread(6, "threadF"))
+      .setRequestFields(FAKE_REQUEST_HEADERS)
+      .build();
+    generateNetworkConnectionData(newData).getEventsList().forEach(event -> myTransportService.addEventToEventGroup(0, event));
+    myTransportService.addEventToEventGroup(0, generateNetworkThreadData(newData).build());
+
+    List<HttpData> data = myModel.getData(new Range(TimeUnit.SECONDS.toMicros(1000), TimeUnit.SECONDS.toMicros(1002)));
+    assertThat(data.stream().map(HttpData::getId).collect(Collectors.toList())).containsExactly(3L, 4L, 6L);
+    HttpData data3 = data.stream().filter(d -> d.getId() == 3).findFirst().get();
+    assertThat(data3.getConnectionEndTimeUs()).isEqualTo(TimeUnit.SECONDS.toMicros(1003));
+    assertThat(data3.getJavaThreads()).hasSize(1);
+    checkGetData(1004, 1005, 4);
+  }
+
   private void checkGetData(long startTimeS, long endTimeS, long... expectedIds) {
     Range range = new Range(TimeUnit.SECONDS.toMicros(startTimeS), TimeUnit.SECONDS.toMicros(endTimeS));
     List<HttpData> actualData = myModel.getData(range);
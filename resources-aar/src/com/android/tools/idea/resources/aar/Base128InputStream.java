@@ -31,13 +31,13 @@ import org.jetbrains.annotations.Nullable;
  * variable-length encoding for integer values.
  * @see Base128OutputStream
  */
-class Base128InputStream extends BufferedInputStream {
+public class Base128InputStream extends BufferedInputStream {
   @Nullable private Map<String, String> myStringCache;
 
   /**
    * Wraps a given input stream.
    */
-  Base128InputStream(@NotNull InputStream stream) {
+  public Base128InputStream(@NotNull InputStream stream) {
     super(stream);
   }
 
@@ -48,7 +48,7 @@ class Base128InputStream extends BufferedInputStream {
    * @throws NoSuchFileException if the file does not exist
    * @throws IOException if any other error occurs
    */
-  Base128InputStream(@NotNull Path file) throws IOException {
+  public Base128InputStream(@NotNull Path file) throws IOException {
     super(Files.newInputStream(file));
   }
 
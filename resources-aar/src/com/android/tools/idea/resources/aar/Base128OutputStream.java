@@ -28,12 +28,12 @@ import org.jetbrains.annotations.Nullable;
  * variable-length encoding for integer values.
  * @see Base128InputStream
  */
-class Base128OutputStream extends BufferedOutputStream {
-  Base128OutputStream(@NotNull OutputStream stream) {
+public class Base128OutputStream extends BufferedOutputStream {
+  public Base128OutputStream(@NotNull OutputStream stream) {
     super(stream);
   }
 
-  Base128OutputStream(@NotNull Path file) throws IOException {
+  public Base128OutputStream(@NotNull Path file) throws IOException {
     super(Files.newOutputStream(file));
   }
 
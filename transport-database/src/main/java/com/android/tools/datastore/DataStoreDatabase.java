@@ -15,15 +15,40 @@
  */
 package com.android.tools.datastore;
 
+import com.android.tools.datastore.database.DataStoreReaderPool;
+import com.android.tools.datastore.database.DataStoreWriteQueue;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.function.Consumer;
 
 public class DataStoreDatabase {
+  /**
+   * Version of the on-disk schema, stored in the database file's user_version header. Bump this whenever a table of a
+   * {@link Characteristic#DURABLE} database changes shape, and add the statements upgrading the previous version to {@link #MIGRATIONS}.
+   * Version 0 is never written; it identifies files from before the schema was versioned.
+   */
+  public static final int SCHEMA_VERSION = 2;
+
+  /**
+   * {@code MIGRATIONS[i]} holds the statements upgrading a file from schema version {@code i + 1} to {@code i + 2}. Data that cannot be
+   * converted in SQL is moved by the tables themselves when they are initialized against a restored file.
+   */
+  private static final String[][] MIGRATIONS = {
+    // 1 -> 2: memory samples moved from serialized rows of Memory_Samples to delta-encoded chunks, see MemoryStatsTable.
+    {
+      "CREATE TABLE IF NOT EXISTS TimeSeries_Chunks ( Session INTEGER NOT NULL,Series INTEGER NOT NULL,StartTime INTEGER,EndTime INTEGER," +
+      "Count INTEGER,Data BLOB,Summary BLOB,PRIMARY KEY(Session, Series, StartTime) )",
+      "CREATE INDEX IF NOT EXISTS idx_TimeSeries_Chunks_0_pk ON TimeSeries_Chunks ( Session,Series,EndTime )"
+    }
+  };
+
   public enum Characteristic {
     // TODO handle potential db file name clashes
     DURABLE,
@@ -39,6 +64,16 @@ public class DataStoreDatabase {
 
   private final Connection myConnection;
 
+  @NotNull private final Characteristic myCharacteristic;
+
+  @Nullable private final String myUrl;
+
+  private final boolean myIsRestored;
+
+  @Nullable private DataStoreWriteQueue myWriteQueue;
+
+  @Nullable private DataStoreReaderPool myReaderPool;
+
   /**
    * @param dbPath the path to the backing DB file, if {@link Characteristic#DURABLE}.
    */
@@ -52,8 +87,24 @@ public class DataStoreDatabase {
                            @NotNull Characteristic characteristic,
                            @NotNull LogService logService,
                            @NotNull Consumer<Throwable> noPiiExceptionHandler) {
+    this(dbPath, characteristic, logService, noPiiExceptionHandler, false);
+  }
+
+  /**
+   * @param restoreExisting if true and the {@link Characteristic#DURABLE} file at {@code dbPath} was written with a compatible schema
+   *                        version, the file is migrated to {@link #SCHEMA_VERSION} and its data kept, see {@link #isRestored()}. Otherwise
+   *                        any existing file is discarded.
+   */
+  public DataStoreDatabase(@NotNull String dbPath,
+                           @NotNull Characteristic characteristic,
+                           @NotNull LogService logService,
+                           @NotNull Consumer<Throwable> noPiiExceptionHandler,
+                           boolean restoreExisting) {
     myLogService = logService;
+    myCharacteristic = characteristic;
     Connection connection = null;
+    String url = null;
+    boolean restored = false;
     try {
       // For older versions of the JDBC we need to force load the sqlite.JDBC driver to trigger static initializer's and register
       // the JDBC driver with the java DriverMangaer.
@@ -65,27 +116,39 @@ public class DataStoreDatabase {
           break;
         case DURABLE:
           File dbFile = new File(dbPath);
-          // Due to an incompatible update in SQLite we do not support loading SQL files from previous versions of studio.
-          // As a intermediate measure we delete the file until we support loading existing databases.
-          // TODO: Investigate removing this when we add a feature to restore sessions from prior Studio runs.
-          if (dbFile.exists()) {
-            dbFile.delete();
+          url = String.format("jdbc:sqlite:%s", dbFile.getPath());
+          if (restoreExisting && dbFile.exists()) {
+            connection = openExistingDatabase(url);
+            restored = connection != null;
           }
 
-          File parent = dbFile.getParentFile();
-          if (parent != null) {
-            if (!parent.mkdirs() && !parent.exists()) {
-              getLogger().error("Unable to create parent directory");
+          if (connection == null) {
+            // Files written before the schema was versioned, by a newer version of Studio, or by an incompatible version of SQLite cannot
+            // be loaded, so we start over from an empty file.
+            deleteDatabaseFiles(dbFile);
+            File parent = dbFile.getParentFile();
+            if (parent != null) {
+              if (!parent.mkdirs() && !parent.exists()) {
+                getLogger().error("Unable to create parent directory");
+              }
+            }
+            connection = DriverManager.getConnection(url);
+            try (Statement statement = connection.createStatement()) {
+              statement.execute(String.format("PRAGMA user_version = %d", SCHEMA_VERSION));
             }
           }
-          connection = DriverManager.getConnection(String.format("jdbc:sqlite:%s", dbFile.getPath()));
+          // WAL lets commits append to the log instead of rewriting pages in place, which keeps batched commits cheap. This has to be set
+          // before auto-commit is turned off, as the journal mode cannot be changed from within a transaction.
+          try (Statement statement = connection.createStatement()) {
+            statement.execute("PRAGMA journal_mode=WAL");
+            statement.execute("PRAGMA synchronous=NORMAL");
+          }
           break;
         default:
           throw new RuntimeException("Characteristic not handled!");
       }
 
-      // Performance optimization.
-      // TODO: Create a timer and commit the database transaction every X seconds.
+      // Performance optimization. Transactions are committed by the write queue (see enableWriteQueue) or on disconnect.
       connection.setAutoCommit(false);
     }
     catch (ClassNotFoundException e) {
@@ -98,9 +161,124 @@ public class DataStoreDatabase {
       noPiiExceptionHandler.accept(e);
     }
     myConnection = connection;
+    myUrl = url;
+    myIsRestored = restored;
+  }
+
+  /**
+   * Opens an existing database file and migrates it to {@link #SCHEMA_VERSION}.
+   *
+   * @return the open connection, in auto-commit mode, or null if the file cannot be read or has an unsupported schema version.
+   */
+  @Nullable
+  private Connection openExistingDatabase(@NotNull String url) {
+    Connection connection = null;
+    try {
+      connection = DriverManager.getConnection(url);
+      int version;
+      try (Statement statement = connection.createStatement();
+           ResultSet result = statement.executeQuery("PRAGMA user_version")) {
+        version = result.next() ? result.getInt(1) : 0;
+      }
+      if (version < 1 || version > SCHEMA_VERSION) {
+        getLogger().info(String.format("Discarding datastore with schema version %d", version));
+        connection.close();
+        return null;
+      }
+
+      // Apply all migrations in a single transaction, so a failure leaves the file at its original version.
+      connection.setAutoCommit(false);
+      try (Statement statement = connection.createStatement()) {
+        for (int from = version; from < SCHEMA_VERSION; from++) {
+          for (String migration : MIGRATIONS[from - 1]) {
+            statement.execute(migration);
+          }
+        }
+        statement.execute(String.format("PRAGMA user_version = %d", SCHEMA_VERSION));
+      }
+      connection.commit();
+      connection.setAutoCommit(true);
+      return connection;
+    }
+    catch (SQLException e) {
+      getLogger().warn(e);
+      if (connection != null) {
+        try {
+          connection.close();
+        }
+        catch (SQLException ignored) {
+        }
+      }
+      return null;
+    }
+  }
+
+  private static void deleteDatabaseFiles(@NotNull File dbFile) {
+    // WAL mode keeps the write-ahead log and the shared memory index next to the database file.
+    for (String suffix : new String[]{"", "-wal", "-shm"}) {
+      File file = new File(dbFile.getPath() + suffix);
+      if (file.exists()) {
+        file.delete();
+      }
+    }
+  }
+
+  /**
+   * @return true if this database was opened on a file left by a previous run, whose tables and data must be kept.
+   */
+  public boolean isRestored() {
+    return myIsRestored;
+  }
+
+  /**
+   * Starts a {@link DataStoreWriteQueue} for this database. Tables initialized through {@link
+   * com.android.tools.datastore.database.DataStoreTable#initialize(DataStoreDatabase)} afterwards route their asynchronous writes through
+   * it, and the open transaction is committed periodically instead of only on {@link #disconnect()}.
+   */
+  public void enableWriteQueue() {
+    if (myWriteQueue == null && myConnection != null) {
+      myWriteQueue = new DataStoreWriteQueue(myConnection);
+    }
+  }
+
+  @Nullable
+  public DataStoreWriteQueue getWriteQueue() {
+    return myWriteQueue;
+  }
+
+  /**
+   * Opens a pool of read-only connections that tables can use to query the database concurrently with the writer. Only supported for
+   * {@link Characteristic#DURABLE} databases, as in-memory databases cannot be shared between connections. Since readers only see
+   * committed data, this also enables the write queue so the writer's transaction is committed periodically.
+   */
+  public void enableReaderPool(int size) {
+    if (myCharacteristic != Characteristic.DURABLE || myUrl == null || myReaderPool != null) {
+      return;
+    }
+    enableWriteQueue();
+    try {
+      // Readers cannot see the writer's open transaction, so commit whatever has been written so far before they start. Tables created
+      // later commit their schema and synchronous writes themselves, see DataStoreTable#initialize(DataStoreDatabase).
+      myConnection.commit();
+      myReaderPool = new DataStoreReaderPool(myUrl, size);
+    }
+    catch (SQLException e) {
+      getLogger().error(e);
+    }
+  }
+
+  @Nullable
+  public DataStoreReaderPool getReaderPool() {
+    return myReaderPool;
   }
 
   public void disconnect() {
+    if (myReaderPool != null) {
+      myReaderPool.close();
+    }
+    if (myWriteQueue != null) {
+      myWriteQueue.shutdown();
+    }
     try {
       myConnection.commit();
     }
@@ -19,6 +19,7 @@ import static com.android.tools.datastore.DataStoreDatabase.Characteristic.DURAB
 
 import com.android.annotations.VisibleForTesting;
 import com.android.tools.analytics.UsageTracker;
+import com.android.tools.datastore.database.DataStoreReaderPool;
 import com.android.tools.datastore.database.DataStoreTable;
 import com.android.tools.datastore.service.CpuService;
 import com.android.tools.datastore.service.EnergyService;
@@ -198,7 +199,16 @@ public class DataStoreService implements DataStoreTable.DataStoreTableErrorCallb
   public DataStoreDatabase createDatabase(@NotNull String dbPath,
                                           @NotNull DataStoreDatabase.Characteristic characteristic,
                                           Consumer<Throwable> noPiiExceptionHandler) {
-    return new DataStoreDatabase(dbPath, characteristic, myLogService, noPiiExceptionHandler);
+    DataStoreDatabase database = new DataStoreDatabase(dbPath, characteristic, myLogService, noPiiExceptionHandler,
+                                                       StudioFlags.PROFILER_DATASTORE_RESTORE_SESSIONS.get());
+    // In-memory databases commit cheaply, so their writes stay on the calling thread and in the order they are issued.
+    if (characteristic == DURABLE && StudioFlags.PROFILER_DATASTORE_WRITE_QUEUE.get()) {
+      database.enableWriteQueue();
+    }
+    if (characteristic == DURABLE && StudioFlags.PROFILER_DATASTORE_READER_POOL.get()) {
+      database.enableReaderPool(DataStoreReaderPool.DEFAULT_POOL_SIZE);
+    }
+    return database;
   }
 
   /**
@@ -213,7 +223,7 @@ public class DataStoreService implements DataStoreTable.DataStoreTableErrorCallb
       assert !namespace.myNamespace.isEmpty();
       DataStoreDatabase db = myDatabases.computeIfAbsent(namespace, backingNamespace -> createDatabase(
         myDatastoreDirectory + backingNamespace.myNamespace, backingNamespace.myCharacteristic, myNoPiiExceptionHanlder));
-      service.setBackingStore(namespace, db.getConnection());
+      service.setBackingStore(namespace, db);
     });
 
     // Build server and start listening for RPC calls for the registered service
@@ -18,7 +18,6 @@ package com.android.tools.datastore;
 import io.grpc.ServerServiceDefinition;
 import org.jetbrains.annotations.NotNull;
 
-import java.sql.Connection;
 import java.util.List;
 
 /**
@@ -40,7 +39,7 @@ public interface ServicePassThrough {
 
   /**
    * @param namespace  a namespace corresponding to an entry in the list returned from {@link #getBackingNamespaces()}
-   * @param connection {@link Connection} to the backing store
+   * @param database   the {@link DataStoreDatabase} backing the namespace
    */
-  void setBackingStore(@NotNull DataStoreService.BackingNamespace namespace, @NotNull Connection connection);
+  void setBackingStore(@NotNull DataStoreService.BackingNamespace namespace, @NotNull DataStoreDatabase database);
 }
@@ -166,15 +166,15 @@ public class CpuTable extends DataStoreTable<CpuTable.CpuStatements> {
   }
 
   public void insert(Common.Session session, CpuUsageData data) {
-    execute(CpuStatements.INSERT_CPU_DATA, session.getSessionId(), data.getEndTimestamp(), data.toByteArray());
+    executeAsync(CpuStatements.INSERT_CPU_DATA, session.getSessionId(), data.getEndTimestamp(), data.toByteArray());
   }
 
   public List<CpuUsageData> getCpuDataByRequest(CpuDataRequest request) {
     List<CpuUsageData> cpuData = new ArrayList<>();
     try {
       ResultSet results =
-        executeQuery(CpuStatements.QUERY_CPU_DATA, request.getSession().getSessionId(), request.getStartTimestamp(),
-                     request.getEndTimestamp());
+        executeSnapshotQuery(CpuStatements.QUERY_CPU_DATA, request.getSession().getSessionId(), request.getStartTimestamp(),
+                             request.getEndTimestamp());
       while (results.next()) {
         CpuUsageData.Builder data = CpuUsageData.newBuilder();
         data.mergeFrom(results.getBytes(DATA_COLUMN));
@@ -194,8 +194,8 @@ public class CpuTable extends DataStoreTable<CpuTable.CpuStatements> {
     getThreadIdCacheForSession(session.getSessionId()).add(tid);
     for (GetThreadsResponse.ThreadActivity activity : activities) {
       // TODO: optimize it by adding the states in batches
-      execute(CpuStatements.INSERT_THREAD_ACTIVITY, session.getSessionId(), tid, activity.getTimestamp(), activity.getNewState().toString(),
-              name);
+      executeAsync(CpuStatements.INSERT_THREAD_ACTIVITY, session.getSessionId(), tid, activity.getTimestamp(),
+                   activity.getNewState().toString(), name);
     }
   }
 
@@ -206,8 +206,8 @@ public class CpuTable extends DataStoreTable<CpuTable.CpuStatements> {
     // For now, insert it as activity. TODO: differentiate the concepts of snapshot and activity
     for (GetThreadsResponse.ThreadSnapshot.Snapshot snapshot : snapshots) {
       idSet.add(snapshot.getTid());
-      execute(CpuStatements.INSERT_THREAD_ACTIVITY,
-              session.getSessionId(), snapshot.getTid(), timestamp, snapshot.getState().toString(), snapshot.getName());
+      executeAsync(CpuStatements.INSERT_THREAD_ACTIVITY,
+                   session.getSessionId(), snapshot.getTid(), timestamp, snapshot.getState().toString(), snapshot.getName());
     }
   }
 
@@ -237,7 +237,7 @@ public class CpuTable extends DataStoreTable<CpuTable.CpuStatements> {
       long startTimestamp = request.getStartTimestamp();
       long endTimestamp = request.getEndTimestamp();
       for (int tid : threadIds) {
-        ResultSet activities = executeQuery(
+        ResultSet activities = executeSnapshotQuery(
           CpuStatements.QUERY_THREAD_ACTIVITIES,
           // Used as the timestamp of the states that happened before the request
           startTimestamp,
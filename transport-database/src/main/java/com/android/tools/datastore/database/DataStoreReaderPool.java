@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.database;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jetbrains.annotations.NotNull;
+import org.sqlite.SQLiteConfig;
+
+/**
+ * A small, fixed set of read-only connections to a WAL-mode database file. Each reading thread is pinned to one connection of the pool,
+ * so its prepared statements can be cached per thread the same way {@link DataStoreTable} caches statements on the write connection.
+ * <p>
+ * Queries on these connections run concurrently with the writer's open transaction and only see committed data. Each query runs in its
+ * own implicit read transaction and therefore observes a consistent snapshot of the database.
+ */
+public class DataStoreReaderPool {
+  public static final int DEFAULT_POOL_SIZE = 4;
+
+  @NotNull private final List<Connection> myConnections;
+  @NotNull private final AtomicInteger myNextConnection = new AtomicInteger();
+  @NotNull private final ThreadLocal<Connection> myThreadConnection =
+    ThreadLocal.withInitial(() -> getConnectionAt(myNextConnection.getAndIncrement()));
+  private volatile boolean myIsClosed = false;
+
+  /**
+   * @param url  the JDBC url of the database file, which must already be in WAL mode.
+   * @param size the number of read-only connections to open.
+   */
+  public DataStoreReaderPool(@NotNull String url, int size) throws SQLException {
+    assert size > 0;
+    SQLiteConfig config = new SQLiteConfig();
+    config.setReadOnly(true);
+    List<Connection> connections = new ArrayList<>(size);
+    try {
+      for (int i = 0; i < size; i++) {
+        connections.add(DriverManager.getConnection(url, config.toProperties()));
+      }
+    }
+    catch (SQLException ex) {
+      for (Connection connection : connections) {
+        connection.close();
+      }
+      throw ex;
+    }
+    myConnections = Collections.unmodifiableList(connections);
+  }
+
+  /**
+   * @return the read-only connection assigned to the calling thread.
+   */
+  @NotNull
+  public Connection getConnection() {
+    return myThreadConnection.get();
+  }
+
+  public int getSize() {
+    return myConnections.size();
+  }
+
+  public boolean isClosed() {
+    return myIsClosed;
+  }
+
+  public void close() {
+    myIsClosed = true;
+    for (Connection connection : myConnections) {
+      try {
+        connection.close();
+      }
+      catch (SQLException ex) {
+        DataStoreTable.onError(ex);
+      }
+    }
+  }
+
+  @NotNull
+  private Connection getConnectionAt(int index) {
+    return myConnections.get(Math.floorMod(index, myConnections.size()));
+  }
+}
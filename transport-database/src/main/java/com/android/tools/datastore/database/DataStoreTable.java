@@ -15,7 +15,9 @@
  */
 package com.android.tools.datastore.database;
 
+import com.android.tools.datastore.DataStoreDatabase;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.sql.*;
 import java.util.*;
@@ -30,11 +32,20 @@ public abstract class DataStoreTable<T extends Enum> {
   private static final Set<DataStoreTableErrorCallback> ERROR_CALLBACKS = ConcurrentHashMap.newKeySet();
 
   private Connection myConnection;
+  @Nullable private DataStoreWriteQueue myWriteQueue;
+  @Nullable private DataStoreReaderPool myReaderPool;
+  private boolean myIsRestored = false;
   private final ThreadLocal<Map<T, PreparedStatement>> myStatementMap = new ThreadLocal<>();
 
   // Cache custom queries we have a limited number and we call the same query multiple times.
   private final ThreadLocal<Map<String, PreparedStatement>> myCustomQueryCache = new ThreadLocal<>();
 
+  // SQL of every statement created through createStatement, so queries can be re-prepared on a reader connection.
+  private final Map<T, String> myStatementSql = new ConcurrentHashMap<>();
+
+  // Statements prepared on the reader connection the current thread is pinned to, keyed by SQL.
+  private final ThreadLocal<Map<String, PreparedStatement>> mySnapshotQueryCache = new ThreadLocal<>();
+
   public interface DataStoreTableErrorCallback {
     void onDataStoreError(Throwable t);
   }
@@ -48,6 +59,40 @@ public abstract class DataStoreTable<T extends Enum> {
     myConnection = connection;
   }
 
+  /**
+   * Initializes the table against the connection of the given database. If the database has a {@link DataStoreWriteQueue}, writes issued
+   * through {@link #executeAsync} and {@link #enqueueWrite} are handed off to its writer thread. If it has a {@link DataStoreReaderPool},
+   * queries issued through {@link #executeSnapshotQuery} run on a read-only connection. If the database was restored from a previous
+   * run, {@link #createTable} keeps the existing tables and their rows.
+   */
+  public void initialize(@NotNull DataStoreDatabase database) {
+    myWriteQueue = database.getWriteQueue();
+    myReaderPool = database.getReaderPool();
+    myIsRestored = database.isRestored();
+    initialize(database.getConnection());
+    // Tables are created inside the shared connection's open transaction, so readers cannot query them until it is committed.
+    if (myReaderPool != null && myWriteQueue != null) {
+      myWriteQueue.flush();
+    }
+  }
+
+  /**
+   * Initializes a table whose storage is owned by this one, against the same connection and with the same write queue, reader pool
+   * and restore state. Call this from {@link #initialize(Connection)}.
+   */
+  protected void initializeDependentTable(@NotNull DataStoreTable<?> table, @NotNull Connection connection) {
+    table.myWriteQueue = myWriteQueue;
+    table.myReaderPool = myReaderPool;
+    table.myIsRestored = myIsRestored;
+    table.initialize(connection);
+  }
+
+  /**
+   * Called when a session stops producing data, so tables can release what they keep in memory for it. Data already stored is kept.
+   */
+  public void closeSession(long sessionId) {
+  }
+
   /**
    * Helper function called after initialize to create {@link PreparedStatement} the implementor should cache
    * the statements for later use.
@@ -99,13 +144,40 @@ public abstract class DataStoreTable<T extends Enum> {
     return myStatementMap.get();
   }
 
+  /**
+   * @return true if the table was initialized against a database restored from a previous run, see {@link DataStoreDatabase#isRestored()}.
+   */
+  protected boolean isRestored() {
+    return myIsRestored;
+  }
+
   protected void createTable(@NotNull String table, String... columns) throws SQLException {
-    myConnection.createStatement().execute(String.format("DROP TABLE IF EXISTS %s ", table));
+    if (!myIsRestored) {
+      myConnection.createStatement().execute(String.format("DROP TABLE IF EXISTS %s ", table));
+    }
     StringBuilder statement = new StringBuilder();
-    statement.append(String.format("CREATE TABLE %s", table));
+    statement.append(String.format("CREATE TABLE IF NOT EXISTS %s", table));
     executeUniqueStatement(statement, columns);
   }
 
+  protected boolean tableExists(@NotNull String table) throws SQLException {
+    try (PreparedStatement statement = myConnection.prepareStatement("SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = ?")) {
+      statement.setString(1, table);
+      try (ResultSet result = statement.executeQuery()) {
+        return result.next();
+      }
+    }
+  }
+
+  protected void executeOneTimeUpdate(@NotNull String sql, Object... params) throws SQLException {
+    awaitQueuedWrites();
+    try (PreparedStatement statement = myConnection.prepareStatement(sql)) {
+      applyParams(statement, params);
+      statement.executeUpdate();
+    }
+    commitForReaders();
+  }
+
   protected void createUniqueIndex(@NotNull String table, String... indexList) throws SQLException {
     StringBuilder statement = new StringBuilder();
     statement.append(String.format("CREATE UNIQUE INDEX IF NOT EXISTS idx_%s_pk ON %s", table, table));
@@ -123,10 +195,12 @@ public abstract class DataStoreTable<T extends Enum> {
   }
 
   protected void createStatement(@NotNull T statement, @NotNull String stmt) throws SQLException {
+    myStatementSql.put(statement, stmt);
     getStatementMap().put(statement, myConnection.prepareStatement(stmt));
   }
 
   protected void createStatement(@NotNull T statement, @NotNull String stmt, int statementFlags) throws SQLException {
+    myStatementSql.put(statement, stmt);
     getStatementMap().put(statement, myConnection.prepareStatement(stmt, statementFlags));
   }
 
@@ -142,6 +216,7 @@ public abstract class DataStoreTable<T extends Enum> {
     if (isClosed()) {
       return;
     }
+    awaitQueuedWrites();
     try {
       PreparedStatement stmt = getStatementMap().get(statement);
       batchParams.forEach((object) -> {
@@ -158,6 +233,7 @@ public abstract class DataStoreTable<T extends Enum> {
           throw new SQLException(String.format("Failed to insert batch element %d with result %d", i, results[i]));
         }
       }
+      commitForReaders();
     }
     catch (SQLException ex) {
       onError(ex);
@@ -168,6 +244,7 @@ public abstract class DataStoreTable<T extends Enum> {
     if (isClosed()) {
       return;
     }
+    awaitQueuedWrites();
     try {
       PreparedStatement stmt = getStatementMap().get(statement);
       applyParams(stmt, params);
@@ -175,25 +252,105 @@ public abstract class DataStoreTable<T extends Enum> {
       // Clear parameters on exit so cached statements don't keep potentially large objects in memory.
       // Example: Inserting a payload into the database.
       stmt.clearParameters();
+      commitForReaders();
     }
     catch (SQLException ex) {
       onError(ex);
     }
   }
 
+  /**
+   * Same as {@link #execute(Enum, Object...)}, but runs on the database's writer thread if the table has a {@link DataStoreWriteQueue}.
+   * Use this for high-frequency inserts from pollers, whose callers do not need the row to be visible when the call returns.
+   */
+  protected void executeAsync(@NotNull T statement, Object... params) {
+    enqueueWrite(1, () -> execute(statement, params));
+  }
+
+  /**
+   * Runs the given write on the database's writer thread if the table has a {@link DataStoreWriteQueue}, or synchronously otherwise.
+   *
+   * @param rowCount the number of rows the write affects, used by the queue to size transactions.
+   */
+  protected void enqueueWrite(int rowCount, @NotNull Runnable write) {
+    DataStoreWriteQueue queue = myWriteQueue;
+    if (queue == null) {
+      write.run();
+    }
+    else {
+      queue.enqueue(rowCount, write);
+    }
+  }
+
+  /**
+   * Waits for the writes already handed to the {@link DataStoreWriteQueue} to be applied, so that a synchronous statement on the shared
+   * connection neither overtakes them nor misses their rows. Does nothing on the writer thread, or if the table has no queue.
+   */
+  private void awaitQueuedWrites() {
+    DataStoreWriteQueue queue = myWriteQueue;
+    if (queue != null) {
+      queue.awaitApplied();
+    }
+  }
+
+  /**
+   * Makes a synchronous write on the shared connection visible to the {@link DataStoreReaderPool}, which only sees committed rows. The
+   * commit happens on the writer thread, so the caller does not wait for it.
+   */
+  private void commitForReaders() {
+    DataStoreWriteQueue queue = myWriteQueue;
+    if (myReaderPool != null && queue != null) {
+      queue.requestCommit();
+    }
+  }
+
   protected ResultSet executeQuery(@NotNull T statement, Object... params) throws SQLException {
     if (isClosed()) {
       return new EmptyResultSet();
     }
+    awaitQueuedWrites();
     PreparedStatement stmt = getStatementMap().get(statement);
     applyParams(stmt, params);
     return stmt.executeQuery();
   }
 
+  /**
+   * Same as {@link #executeQuery(Enum, Object...)}, but runs on a read-only connection if the table has a {@link DataStoreReaderPool}.
+   * This does not block behind, or get blocked by, the writer, at the cost of only seeing committed rows. Use this for range queries
+   * driven by the UI, which can tolerate data that is a commit window behind.
+   */
+  protected ResultSet executeSnapshotQuery(@NotNull T statement, Object... params) throws SQLException {
+    DataStoreReaderPool pool = myReaderPool;
+    if (pool == null) {
+      return executeQuery(statement, params);
+    }
+    if (isClosed() || pool.isClosed()) {
+      return new EmptyResultSet();
+    }
+    // Makes sure the statements have been created at least once so their SQL is known.
+    getStatementMap();
+    String sql = myStatementSql.get(statement);
+    if (sql == null) {
+      return executeQuery(statement, params);
+    }
+    if (mySnapshotQueryCache.get() == null) {
+      mySnapshotQueryCache.set(new HashMap<>());
+    }
+    Map<String, PreparedStatement> queryCache = mySnapshotQueryCache.get();
+    PreparedStatement stmt = queryCache.get(sql);
+    if (stmt == null) {
+      stmt = pool.getConnection().prepareStatement(sql);
+      queryCache.put(sql, stmt);
+    }
+    applyParams(stmt, params);
+    return stmt.executeQuery();
+  }
+
   protected ResultSet executeOneTimeQuery(@NotNull String sql, Object[] params) throws SQLException {
     if (isClosed()) {
       return new EmptyResultSet();
     }
+    awaitQueuedWrites();
     if (myCustomQueryCache.get() == null) {
       myCustomQueryCache.set(new HashMap<>());
     }
@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.database;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A single-writer pipeline in front of a {@link Connection}. Pollers enqueue their inserts and return immediately; a dedicated writer
+ * thread applies them in order and commits the open transaction either when the commit window elapses or when enough rows have been
+ * written, whichever comes first. Enqueueing blocks once the queue is full so a slow disk applies back pressure to the pollers instead
+ * of growing the heap.
+ * <p>
+ * Since every table shares the same connection, reads issued on that connection see rows as soon as the writer thread has applied them,
+ * regardless of whether they have been committed yet. Synchronous statements call {@link #awaitApplied()} first, so they never overtake
+ * a write that was enqueued before them.
+ */
+public class DataStoreWriteQueue {
+  public static final long DEFAULT_COMMIT_WINDOW_MS = 500;
+  public static final int DEFAULT_MAX_ROWS_PER_COMMIT = 10000;
+  public static final int DEFAULT_QUEUE_CAPACITY = 4096;
+
+  @NotNull private final Connection myConnection;
+  @NotNull private final BlockingQueue<Write> myQueue;
+  @NotNull private final Thread myWriterThread;
+  private final long myCommitWindowNs;
+  private final int myMaxRowsPerCommit;
+
+  private volatile boolean myIsShutdown = false;
+
+  // Writes that were enqueued but not applied yet, including the one the writer thread is running.
+  private final AtomicInteger myPendingWriteCount = new AtomicInteger();
+
+  // Latches of flush() callers whose marker has been dequeued but not yet committed. Only accessed by the writer thread.
+  private final List<CountDownLatch> myPendingFlushes = new ArrayList<>();
+
+  // Metrics, only updated by the writer thread.
+  private final AtomicLong myCommitCount = new AtomicLong();
+  private final AtomicLong myCommittedRowCount = new AtomicLong();
+  private final AtomicLong myTotalFlushLatencyNs = new AtomicLong();
+  private volatile long myLastFlushLatencyNs = 0;
+  private volatile int myLastRowsPerCommit = 0;
+
+  public DataStoreWriteQueue(@NotNull Connection connection) {
+    this(connection, DEFAULT_COMMIT_WINDOW_MS, DEFAULT_MAX_ROWS_PER_COMMIT, DEFAULT_QUEUE_CAPACITY);
+  }
+
+  /**
+   * @param commitWindowMs   the maximum time between the first uncommitted write and the commit that includes it.
+   * @param maxRowsPerCommit the number of rows after which the transaction is committed even if the commit window has not elapsed.
+   * @param queueCapacity    the number of pending writes after which {@link #enqueue(int, Runnable)} blocks.
+   */
+  public DataStoreWriteQueue(@NotNull Connection connection, long commitWindowMs, int maxRowsPerCommit, int queueCapacity) {
+    myConnection = connection;
+    myCommitWindowNs = TimeUnit.MILLISECONDS.toNanos(commitWindowMs);
+    myMaxRowsPerCommit = maxRowsPerCommit;
+    myQueue = new ArrayBlockingQueue<>(queueCapacity);
+    myWriterThread = new Thread(this::runWriter, "DataStoreWriter");
+    myWriterThread.setDaemon(true);
+    myWriterThread.start();
+  }
+
+  /**
+   * Schedules a write on the writer thread. Writes are applied in the order they are enqueued.
+   *
+   * @param rowCount the number of rows the write inserts or updates, used to cap the size of each transaction.
+   * @param write    the database operation to perform. It runs on the writer thread and must handle its own {@link SQLException}s.
+   */
+  public void enqueue(int rowCount, @NotNull Runnable write) {
+    if (myIsShutdown) {
+      return;
+    }
+    myPendingWriteCount.incrementAndGet();
+    try {
+      myQueue.put(new Write(rowCount, write, null));
+    }
+    catch (InterruptedException e) {
+      myPendingWriteCount.decrementAndGet();
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Blocks until every write enqueued before this call has been applied to the connection, without waiting for the transaction to be
+   * committed. Returns immediately if nothing is pending, or when called from the writer thread itself.
+   */
+  public void awaitApplied() {
+    if (myIsShutdown || Thread.currentThread() == myWriterThread || myPendingWriteCount.get() == 0) {
+      return;
+    }
+    CountDownLatch latch = new CountDownLatch(1);
+    enqueue(0, latch::countDown);
+    try {
+      latch.await();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Asks the writer thread to commit once the writes enqueued before this call have been applied, without waiting for it. Use this after
+   * writing synchronously on the shared connection, so readers on other connections see those rows even if no queued write follows.
+   * Does nothing when called from the writer thread, whose writes are committed by the regular commit window.
+   */
+  public void requestCommit() {
+    if (myIsShutdown || Thread.currentThread() == myWriterThread) {
+      return;
+    }
+    // Nobody waits on this latch. If the queue is full, the writer is busy and commits soon anyway.
+    myQueue.offer(new Write(0, null, new CountDownLatch(1)));
+  }
+
+  /**
+   * Blocks until every write enqueued before this call has been applied and committed.
+   */
+  public void flush() {
+    if (myIsShutdown || Thread.currentThread() == myWriterThread) {
+      return;
+    }
+    CountDownLatch latch = new CountDownLatch(1);
+    try {
+      myQueue.put(new Write(0, null, latch));
+      latch.await();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Applies and commits all pending writes, then stops the writer thread. Writes enqueued afterwards are dropped.
+   */
+  public void shutdown() {
+    flush();
+    myIsShutdown = true;
+    myWriterThread.interrupt();
+    try {
+      myWriterThread.join();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * @return the number of writes waiting to be applied.
+   */
+  public int getQueueDepth() {
+    return myQueue.size();
+  }
+
+  public long getCommitCount() {
+    return myCommitCount.get();
+  }
+
+  public long getLastFlushLatencyNs() {
+    return myLastFlushLatencyNs;
+  }
+
+  public long getAverageFlushLatencyNs() {
+    long commits = myCommitCount.get();
+    return commits == 0 ? 0 : myTotalFlushLatencyNs.get() / commits;
+  }
+
+  public int getLastRowsPerCommit() {
+    return myLastRowsPerCommit;
+  }
+
+  public double getAverageRowsPerCommit() {
+    long commits = myCommitCount.get();
+    return commits == 0 ? 0 : (double)myCommittedRowCount.get() / commits;
+  }
+
+  private void runWriter() {
+    while (!myIsShutdown) {
+      try {
+        Write first = myQueue.take();
+        int rows = apply(first);
+        boolean flushRequested = first.myFlushLatch != null;
+        long batchStartNs = System.nanoTime();
+        // Keep applying writes in the same transaction until the commit window elapses, the row cap is hit or somebody waits on us.
+        while (!flushRequested && rows < myMaxRowsPerCommit) {
+          long remainingNs = myCommitWindowNs - (System.nanoTime() - batchStartNs);
+          if (remainingNs <= 0) {
+            break;
+          }
+          Write next = myQueue.poll(remainingNs, TimeUnit.NANOSECONDS);
+          if (next == null) {
+            break;
+          }
+          rows += apply(next);
+          flushRequested = next.myFlushLatch != null;
+        }
+        commit(rows);
+      }
+      catch (InterruptedException e) {
+        // Interrupted by shutdown(), pending writes were already flushed.
+        break;
+      }
+    }
+  }
+
+  private int apply(@NotNull Write write) {
+    if (write.myFlushLatch != null) {
+      myPendingFlushes.add(write.myFlushLatch);
+      return 0;
+    }
+    try {
+      write.myWrite.run();
+    }
+    catch (RuntimeException ex) {
+      // Never let a single bad write take down the writer thread.
+      DataStoreTable.onError(ex);
+    }
+    finally {
+      myPendingWriteCount.decrementAndGet();
+    }
+    return write.myRowCount;
+  }
+
+  private void commit(int rows) {
+    long startNs = System.nanoTime();
+    try {
+      if (!myConnection.isClosed()) {
+        myConnection.commit();
+      }
+    }
+    catch (SQLException ex) {
+      DataStoreTable.onError(ex);
+    }
+    long latencyNs = System.nanoTime() - startNs;
+    myLastFlushLatencyNs = latencyNs;
+    myLastRowsPerCommit = rows;
+    myTotalFlushLatencyNs.addAndGet(latencyNs);
+    myCommittedRowCount.addAndGet(rows);
+    myCommitCount.incrementAndGet();
+
+    // Release everybody waiting on a flush that was applied as part of this transaction.
+    myPendingFlushes.forEach(CountDownLatch::countDown);
+    myPendingFlushes.clear();
+  }
+
+  private static final class Write {
+    private final int myRowCount;
+    @Nullable private final Runnable myWrite;
+    @Nullable private final CountDownLatch myFlushLatch;
+
+    private Write(int rowCount, @Nullable Runnable write, @Nullable CountDownLatch flushLatch) {
+      myRowCount = rowCount;
+      myWrite = write;
+      myFlushLatch = flushLatch;
+    }
+  }
+}
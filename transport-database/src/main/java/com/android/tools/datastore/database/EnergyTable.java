@@ -109,8 +109,8 @@ public final class EnergyTable extends DataStoreTable<EnergyTable.EventStatement
   @NotNull
   public List<EnergyProfiler.EnergySample> getSamples(@NotNull EnergyProfiler.EnergyRequest request) {
     try {
-      ResultSet results = executeQuery(EventStatements.QUERY_SAMPLE, request.getSession().getSessionId(), request.getStartTimestamp(),
-                                       request.getEndTimestamp());
+      ResultSet results = executeSnapshotQuery(EventStatements.QUERY_SAMPLE, request.getSession().getSessionId(),
+                                               request.getStartTimestamp(), request.getEndTimestamp());
       return getSamplesFromResultSet(results);
     }
     catch (SQLException ex) {
@@ -137,7 +137,7 @@ public final class EnergyTable extends DataStoreTable<EnergyTable.EventStatement
   @NotNull
   public List<EnergyProfiler.EnergyEvent> getEvents(@NotNull EnergyProfiler.EnergyRequest request) {
     try {
-      ResultSet results = executeQuery(
+      ResultSet results = executeSnapshotQuery(
         EventStatements.QUERY_EVENT,
         // Args for the first select statement (query recent events)
         request.getSession().getSessionId(),
@@ -494,6 +494,10 @@ public class MemoryLiveAllocationTable extends DataStoreTable<MemoryLiveAllocati
   }
 
   public void insertJniReferenceData(@NotNull Common.Session session, @NotNull BatchJNIGlobalRefEvent batch) {
+    enqueueWrite(batch.getEventsCount(), () -> writeJniReferenceData(session, batch));
+  }
+
+  private void writeJniReferenceData(@NotNull Common.Session session, @NotNull BatchJNIGlobalRefEvent batch) {
     PreparedStatement insertRefStatement = null;
     PreparedStatement updateRefStatement = null;
     PreparedStatement insertFrameStatement = null;
@@ -571,6 +575,10 @@ public class MemoryLiveAllocationTable extends DataStoreTable<MemoryLiveAllocati
   }
 
   public void insertAllocationData(Common.Session session, MemoryProfiler.BatchAllocationSample sample) {
+    enqueueWrite(sample.getEventsCount(), () -> writeAllocationData(session, sample));
+  }
+
+  private void writeAllocationData(Common.Session session, MemoryProfiler.BatchAllocationSample sample) {
     MemoryProfiler.AllocationEvent.EventCase currentCase = null;
     PreparedStatement currentStatement = null;
     int allocAndFreeCount = 0;
@@ -642,6 +650,10 @@ public class MemoryLiveAllocationTable extends DataStoreTable<MemoryLiveAllocati
   }
 
   public void insertMethodInfo(Common.Session session, List<AllocationStack.StackFrame> methods) {
+    enqueueWrite(methods.size(), () -> writeMethodInfo(session, methods));
+  }
+
+  private void writeMethodInfo(Common.Session session, List<AllocationStack.StackFrame> methods) {
     if (isClosed()) {
       return;
     }
@@ -676,6 +688,10 @@ public class MemoryLiveAllocationTable extends DataStoreTable<MemoryLiveAllocati
   }
 
   public void insertStackInfo(Common.Session session, List<EncodedAllocationStack> stacks) {
+    enqueueWrite(stacks.size(), () -> writeStackInfo(session, stacks));
+  }
+
+  private void writeStackInfo(Common.Session session, List<EncodedAllocationStack> stacks) {
     if (isClosed()) {
       return;
     }
@@ -694,6 +710,10 @@ public class MemoryLiveAllocationTable extends DataStoreTable<MemoryLiveAllocati
   }
 
   public void insertThreadInfo(Common.Session session, List<ThreadInfo> threads) {
+    enqueueWrite(threads.size(), () -> writeThreadInfo(session, threads));
+  }
+
+  private void writeThreadInfo(Common.Session session, List<ThreadInfo> threads) {
     if (isClosed()) {
       return;
     }
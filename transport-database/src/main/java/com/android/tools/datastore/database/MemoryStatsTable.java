@@ -16,6 +16,7 @@
 package com.android.tools.datastore.database;
 
 import com.android.tools.profiler.proto.Common;
+import com.android.tools.profiler.proto.Memory;
 import com.android.tools.profiler.proto.MemoryProfiler.*;
 import com.android.tools.profiler.protobuf3jarjar.ByteString;
 import com.android.tools.profiler.protobuf3jarjar.GeneratedMessageV3;
@@ -36,8 +37,6 @@ public class MemoryStatsTable extends DataStoreTable<MemoryStatsTable.MemoryStat
 
   public enum MemoryStatements {
     INSERT_SAMPLE("INSERT OR IGNORE INTO Memory_Samples (Session, Timestamp, Type, Data) VALUES (?, ?, ?, ?)"),
-    QUERY_MEMORY(String.format("SELECT Data FROM Memory_Samples WHERE Session = ? AND Type = %d AND TimeStamp > ? AND TimeStamp <= ?",
-                               MemorySamplesType.MEMORY.ordinal())),
     QUERY_ALLOC_STATS(String.format("SELECT Data FROM Memory_Samples WHERE Session = ? AND Type = %d AND TimeStamp > ? AND TimeStamp <= ?",
                                     MemorySamplesType.ALLOC_STATS.ordinal())),
 
@@ -81,14 +80,30 @@ public class MemoryStatsTable extends DataStoreTable<MemoryStatsTable.MemoryStat
   }
 
   private enum MemorySamplesType {
+    // Memory samples are stored in the time series table, but the type is kept so the ordinals of the other types stay the same.
     MEMORY,
     ALLOC_STATS,
     GC_STATS
   }
 
+  // Columns of the memory usage time series.
+  private static final int HAS_MEMORY_USAGE_COLUMN = 0;
+  private static final int JAVA_MEM_COLUMN = 1;
+  private static final int NATIVE_MEM_COLUMN = 2;
+  private static final int STACK_MEM_COLUMN = 3;
+  private static final int GRAPHICS_MEM_COLUMN = 4;
+  private static final int CODE_MEM_COLUMN = 5;
+  private static final int OTHERS_MEM_COLUMN = 6;
+  private static final int TOTAL_MEM_COLUMN = 7;
+  private static final int MEMORY_USAGE_COLUMN_COUNT = 8;
+
+  // Memory samples are the bulk of the data of a long session, so they are stored delta-encoded instead of one protobuf per row.
+  @NotNull private final TimeSeriesTable myMemoryUsageSeries = new TimeSeriesTable();
+
   @Override
   public void initialize(@NotNull Connection connection) {
     super.initialize(connection);
+    initializeDependentTable(myMemoryUsageSeries, connection);
     try {
       createTable("Memory_Samples", "Session INTEGER NOT NULL", "Timestamp INTEGER", "Type INTEGER",
                   "Data BLOB", "PRIMARY KEY(Session, Timestamp, Type)");
@@ -101,6 +116,9 @@ public class MemoryStatsTable extends DataStoreTable<MemoryStatsTable.MemoryStat
                   "PRIMARY KEY(Session, Id)");
       createTable("Memory_HeapDump", "Session INTEGER NOT NULL", "StartTime INTEGER",
                   "EndTime INTEGER", "Status INTEGER", "InfoData BLOB", "DumpData BLOB", "PRIMARY KEY(Session, StartTime)");
+      if (isRestored()) {
+        migrateLegacyMemorySamples();
+      }
     }
     catch (SQLException ex) {
       onError(ex);
@@ -121,11 +139,20 @@ public class MemoryStatsTable extends DataStoreTable<MemoryStatsTable.MemoryStat
 
   @NotNull
   public MemoryData getData(@NotNull MemoryRequest request) {
+    return getData(request, 0);
+  }
+
+  /**
+   * Same as {@link #getData(MemoryRequest)}, but a range with more than {@code maxMemorySamples} memory samples returns them as
+   * min/max buckets instead, see {@link #getMemorySampleBuckets}. The bucket samples are synthesized, so callers that cache samples
+   * must not mix them with the samples of other queries. A {@code maxMemorySamples} of 0 or less always returns every sample.
+   */
+  @NotNull
+  public MemoryData getData(@NotNull MemoryRequest request, int maxMemorySamples) {
     long sessionId = request.getSession().getSessionId();
     long startTime = request.getStartTime();
     long endTime = request.getEndTime();
-    List<MemoryData.MemorySample> memorySamples =
-      getResultsInfo(QUERY_MEMORY, sessionId, startTime, endTime, MemoryData.MemorySample.getDefaultInstance());
+    List<MemoryData.MemorySample> memorySamples = getMemorySamples(sessionId, startTime, endTime, maxMemorySamples);
     List<MemoryData.AllocStatsSample> allocStatsSamples =
       getResultsInfo(QUERY_ALLOC_STATS, sessionId, startTime, endTime, MemoryData.AllocStatsSample.getDefaultInstance());
     List<MemoryData.GcStatsSample> gcStatsSamples =
@@ -145,23 +172,35 @@ public class MemoryStatsTable extends DataStoreTable<MemoryStatsTable.MemoryStat
   }
 
   public void insertMemory(@NotNull Common.Session session, @NotNull List<MemoryData.MemorySample> samples) {
+    appendMemorySamples(session.getSessionId(), samples);
+  }
+
+  @Override
+  public void closeSession(long sessionId) {
+    myMemoryUsageSeries.closeSession(sessionId);
+  }
+
+  private void appendMemorySamples(long sessionId, @NotNull List<MemoryData.MemorySample> samples) {
+    TimeSeriesData series = new TimeSeriesData(MEMORY_USAGE_COLUMN_COUNT, samples.size());
     for (MemoryData.MemorySample sample : samples) {
-      execute(INSERT_SAMPLE, session.getSessionId(), sample.getTimestamp(), MemorySamplesType.MEMORY.ordinal(),
-              sample.toByteArray());
+      Memory.MemoryUsageData usage = sample.getMemoryUsage();
+      series.add(sample.getTimestamp(), sample.hasMemoryUsage() ? 1 : 0, usage.getJavaMem(), usage.getNativeMem(), usage.getStackMem(),
+                 usage.getGraphicsMem(), usage.getCodeMem(), usage.getOthersMem(), usage.getTotalMem());
     }
+    myMemoryUsageSeries.append(sessionId, TimeSeriesTable.MEMORY_USAGE_SERIES, series);
   }
 
   public void insertAllocStats(@NotNull Common.Session session, @NotNull List<MemoryData.AllocStatsSample> samples) {
     for (MemoryData.AllocStatsSample sample : samples) {
-      execute(INSERT_SAMPLE, session.getSessionId(), sample.getTimestamp(), MemorySamplesType.ALLOC_STATS.ordinal(),
-              sample.toByteArray());
+      executeAsync(INSERT_SAMPLE, session.getSessionId(), sample.getTimestamp(), MemorySamplesType.ALLOC_STATS.ordinal(),
+                   sample.toByteArray());
     }
   }
 
   public void insertGcStats(@NotNull Common.Session session, @NotNull List<MemoryData.GcStatsSample> samples) {
     for (MemoryData.GcStatsSample sample : samples) {
-      execute(INSERT_SAMPLE, session.getSessionId(), sample.getStartTime(), MemorySamplesType.GC_STATS.ordinal(),
-              sample.toByteArray());
+      executeAsync(INSERT_SAMPLE, session.getSessionId(), sample.getStartTime(), MemorySamplesType.GC_STATS.ordinal(),
+                   sample.toByteArray());
     }
   }
 
@@ -341,8 +380,98 @@ public class MemoryStatsTable extends DataStoreTable<MemoryStatsTable.MemoryStat
     return builder.build();
   }
 
+  @NotNull
+  private List<MemoryData.MemorySample> getMemorySamples(long sessionId, long startTime, long endTime, int maxMemorySamples) {
+    if (maxMemorySamples > 0) {
+      TimeSeriesTable.Extent extent = myMemoryUsageSeries.getExtent(sessionId, TimeSeriesTable.MEMORY_USAGE_SERIES, startTime, endTime);
+      if (extent.getSampleCount() > maxMemorySamples) {
+        return getMemorySampleBuckets(sessionId, Math.max(startTime, extent.getStartTime() - 1), Math.min(endTime, extent.getEndTime()),
+                                      maxMemorySamples);
+      }
+    }
+
+    TimeSeriesData series =
+      myMemoryUsageSeries.getSamples(sessionId, TimeSeriesTable.MEMORY_USAGE_SERIES, MEMORY_USAGE_COLUMN_COUNT, startTime, endTime);
+    List<MemoryData.MemorySample> samples = new ArrayList<>(series.size());
+    for (int i = 0; i < series.size(); i++) {
+      samples.add(toMemorySample(series.getTimestamp(i), series, i, 1, 0));
+    }
+    return samples;
+  }
+
+  /**
+   * Summarizes a range with more samples than the UI can draw as two samples per bucket: the minimum of each column of the bucket,
+   * followed by its maximum. This keeps the peaks and dips a chart of the whole range shows, without decoding every chunk of the range.
+   */
+  @NotNull
+  private List<MemoryData.MemorySample> getMemorySampleBuckets(long sessionId, long startTime, long endTime, int maxMemorySamples) {
+    int bucketCount = Math.max(1, maxMemorySamples / 2);
+    long bucketDuration = TimeSeriesTable.getBucketDuration(startTime, endTime, bucketCount);
+    TimeSeriesData buckets = myMemoryUsageSeries.getMinMaxBuckets(sessionId, TimeSeriesTable.MEMORY_USAGE_SERIES,
+                                                                  MEMORY_USAGE_COLUMN_COUNT, startTime, endTime, bucketCount);
+    List<MemoryData.MemorySample> samples = new ArrayList<>(buckets.size() * 2);
+    for (int i = 0; i < buckets.size(); i++) {
+      // Both samples must fall into the bucket, (bucketStart, bucketStart + bucketDuration].
+      long bucketStart = buckets.getTimestamp(i);
+      if (bucketDuration > 1) {
+        samples.add(toMemorySample(bucketStart + bucketDuration / 2, buckets, i, 2, 0));
+      }
+      samples.add(toMemorySample(bucketStart + bucketDuration, buckets, i, 2, 1));
+    }
+    return samples;
+  }
+
+  /**
+   * Builds a sample from the values of the memory usage columns at {@code index}, where column {@code c} is read from
+   * {@code c * stride + offset} of {@code series}.
+   */
+  @NotNull
+  private static MemoryData.MemorySample toMemorySample(long timestamp, @NotNull TimeSeriesData series, int index, int stride, int offset) {
+    MemoryData.MemorySample.Builder sample = MemoryData.MemorySample.newBuilder().setTimestamp(timestamp);
+    if (series.getValue(HAS_MEMORY_USAGE_COLUMN * stride + offset, index) != 0) {
+      sample.setMemoryUsage(Memory.MemoryUsageData.newBuilder()
+                              .setJavaMem((int)series.getValue(JAVA_MEM_COLUMN * stride + offset, index))
+                              .setNativeMem((int)series.getValue(NATIVE_MEM_COLUMN * stride + offset, index))
+                              .setStackMem((int)series.getValue(STACK_MEM_COLUMN * stride + offset, index))
+                              .setGraphicsMem((int)series.getValue(GRAPHICS_MEM_COLUMN * stride + offset, index))
+                              .setCodeMem((int)series.getValue(CODE_MEM_COLUMN * stride + offset, index))
+                              .setOthersMem((int)series.getValue(OTHERS_MEM_COLUMN * stride + offset, index))
+                              .setTotalMem((int)series.getValue(TOTAL_MEM_COLUMN * stride + offset, index)));
+    }
+    return sample.build();
+  }
+
+  /**
+   * Moves the memory samples of a file written before they were stored in {@link TimeSeriesTable} into the time series, one session at
+   * a time.
+   */
+  private void migrateLegacyMemorySamples() {
+    try {
+      ResultSet results = executeOneTimeQuery("SELECT Session, Data FROM Memory_Samples WHERE Type = ? ORDER BY Session, Timestamp",
+                                              new Object[]{MemorySamplesType.MEMORY.ordinal()});
+      long sessionId = 0;
+      List<MemoryData.MemorySample> sessionSamples = new ArrayList<>();
+      while (results.next()) {
+        if (results.getLong(1) != sessionId && !sessionSamples.isEmpty()) {
+          appendMemorySamples(sessionId, sessionSamples);
+          sessionSamples = new ArrayList<>();
+        }
+        sessionId = results.getLong(1);
+        sessionSamples.add(MemoryData.MemorySample.parseFrom(results.getBytes(2)));
+      }
+      if (!sessionSamples.isEmpty()) {
+        appendMemorySamples(sessionId, sessionSamples);
+      }
+      // Waits for the appends above, so the rows are only deleted once their samples are in the time series.
+      executeOneTimeUpdate("DELETE FROM Memory_Samples WHERE Type = ?", MemorySamplesType.MEMORY.ordinal());
+    }
+    catch (InvalidProtocolBufferException | SQLException ex) {
+      onError(ex);
+    }
+  }
+
   /**
-   * A helper method for querying samples for MemorySample, AllocStatsSample, GcStatsSample, HeapDumpInfo and AllocationsInfo
+   * A helper method for querying samples for AllocStatsSample, GcStatsSample, HeapDumpInfo and AllocationsInfo
    */
   private <T extends GeneratedMessageV3> List<T> getResultsInfo(@NotNull MemoryStatements query,
                                                                 long sessionId,
@@ -351,7 +480,7 @@ public class MemoryStatsTable extends DataStoreTable<MemoryStatsTable.MemoryStat
                                                                 @NotNull T defaultInstance) {
     List<T> datas = new ArrayList<>();
     try {
-      ResultSet resultSet = executeQuery(query, sessionId, startTime, endTime);
+      ResultSet resultSet = executeSnapshotQuery(query, sessionId, startTime, endTime);
       while (resultSet.next()) {
         Message data = defaultInstance.toBuilder().mergeFrom(resultSet.getBytes(1)).build();
         datas.add((T)data);
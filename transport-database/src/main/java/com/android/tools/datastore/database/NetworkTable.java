@@ -95,10 +95,10 @@ public class NetworkTable extends DataStoreTable<NetworkTable.NetworkStatements>
   public List<NetworkProfiler.HttpConnectionData> getNetworkConnectionDataByRequest(NetworkProfiler.HttpRangeRequest request) {
     List<NetworkProfiler.HttpConnectionData> datas = new ArrayList<>();
     try {
-      ResultSet results = executeQuery(NetworkStatements.QUERY_COMMON_CONNECTION_DATA,
-                                       request.getSession().getSessionId(),
-                                       request.getStartTimestamp(),
-                                       request.getEndTimestamp());
+      ResultSet results = executeSnapshotQuery(NetworkStatements.QUERY_COMMON_CONNECTION_DATA,
+                                               request.getSession().getSessionId(),
+                                               request.getStartTimestamp(),
+                                               request.getEndTimestamp());
       while (results.next()) {
         NetworkProfiler.HttpConnectionData.Builder data = NetworkProfiler.HttpConnectionData.newBuilder();
         data.mergeFrom(results.getBytes(1));
@@ -117,13 +117,13 @@ public class NetworkTable extends DataStoreTable<NetworkTable.NetworkStatements>
     try {
       if (request.getType() == NetworkProfiler.NetworkDataRequest.Type.ALL) {
         results =
-          executeQuery(NetworkStatements.QUERY_NETWORK_DATA, request.getSession().getSessionId(), request.getStartTimestamp(),
-                       request.getEndTimestamp());
+          executeSnapshotQuery(NetworkStatements.QUERY_NETWORK_DATA, request.getSession().getSessionId(), request.getStartTimestamp(),
+                               request.getEndTimestamp());
       }
       else {
-        results = executeQuery(NetworkStatements.QUERY_NETWORK_DATA_BY_TYPE, request.getSession().getSessionId(),
-                               request.getType().getNumber(),
-                               request.getStartTimestamp(), request.getEndTimestamp());
+        results = executeSnapshotQuery(NetworkStatements.QUERY_NETWORK_DATA_BY_TYPE, request.getSession().getSessionId(),
+                                       request.getType().getNumber(),
+                                       request.getStartTimestamp(), request.getEndTimestamp());
       }
       while (results.next()) {
         NetworkProfiler.NetworkProfilerData.Builder data = NetworkProfiler.NetworkProfilerData.newBuilder();
@@ -45,12 +45,28 @@ public class ProfilerTable extends DataStoreTable<ProfilerTable.ProfilerStatemen
                   "EndTime INTEGER", "StartTimeEpochMs INTEGER", "Name TEXT", "ProcessAbi TEXT", "JvmtiEnabled INTEGER",
                   "LiveAllocationEnabled INTEGER", "TypeId INTEGER");
       createUniqueIndex("Profiler_Sessions", "SessionId");
+      if (isRestored()) {
+        closeInterruptedSessions();
+      }
     }
     catch (SQLException ex) {
       onError(ex);
     }
   }
 
+  /**
+   * Sessions that were still ongoing when the previous run exited never received an end time. End them at their last CPU sample, which is
+   * collected for every session, so their data stays reachable; or at their start time if they have no data at all.
+   */
+  private void closeInterruptedSessions() throws SQLException {
+    String lastSample = tableExists("Cpu_Data")
+                        ? "(SELECT MAX(Timestamp) FROM Cpu_Data WHERE Cpu_Data.Session = Profiler_Sessions.SessionId)"
+                        : "NULL";
+    executeOneTimeUpdate(String.format("UPDATE Profiler_Sessions SET EndTime = MAX(StartTime, IFNULL(%s, StartTime)) WHERE EndTime = ?",
+                                       lastSample),
+                         Long.MAX_VALUE);
+  }
+
   @Override
   public void prepareStatements() {
     try {
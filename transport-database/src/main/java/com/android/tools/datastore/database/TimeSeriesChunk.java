@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.database;
+
+import java.util.Arrays;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The open chunk of a time series, and the codec of the chunks stored by {@link TimeSeriesTable}.
+ * <p>
+ * A chunk's data is column-major: first the timestamps as deltas from the previous timestamp (the first one relative to the chunk's start
+ * time), then each value column as zig-zag encoded deltas from the previous value. Every delta is a base-128 varint, so slowly changing
+ * metrics typically take one or two bytes per value. A chunk's summary holds the zig-zag encoded minimum and maximum of each column, which
+ * lets range aggregations skip decoding chunks that fall entirely within one bucket.
+ */
+final class TimeSeriesChunk {
+  /**
+   * The number of samples after which a new chunk is started.
+   */
+  static final int MAX_SAMPLES = 256;
+
+  @NotNull private final TimeSeriesData mySamples;
+
+  TimeSeriesChunk(int columnCount) {
+    mySamples = new TimeSeriesData(columnCount, MAX_SAMPLES);
+  }
+
+  /**
+   * Adds the sample at {@code index} of {@code data}, which must be newer than the last sample of this chunk.
+   */
+  void add(@NotNull TimeSeriesData data, int index) {
+    assert !isFull() && data.getColumnCount() == mySamples.getColumnCount();
+    long timestamp = data.getTimestamp(index);
+    assert mySamples.isEmpty() || timestamp > getEndTime();
+    int added = mySamples.addTimestamp(timestamp);
+    for (int column = 0; column < mySamples.getColumnCount(); column++) {
+      mySamples.setValue(column, added, data.getValue(column, index));
+    }
+  }
+
+  /**
+   * Inserts the sample at {@code index} of {@code data} at its place in timestamp order. Used for samples that arrive late, which may grow
+   * a chunk past {@link #MAX_SAMPLES}.
+   *
+   * @return false if the chunk already has a sample with the same timestamp, in which case the chunk is unchanged.
+   */
+  boolean insert(@NotNull TimeSeriesData data, int index) {
+    assert data.getColumnCount() == mySamples.getColumnCount();
+    long timestamp = data.getTimestamp(index);
+    int position = mySamples.indexOf(timestamp);
+    if (position >= 0) {
+      return false;
+    }
+    position = -position - 1;
+    mySamples.insertTimestamp(position, timestamp);
+    for (int column = 0; column < mySamples.getColumnCount(); column++) {
+      mySamples.setValue(column, position, data.getValue(column, index));
+    }
+    return true;
+  }
+
+  boolean isEmpty() {
+    return mySamples.isEmpty();
+  }
+
+  boolean isFull() {
+    return mySamples.size() >= MAX_SAMPLES;
+  }
+
+  int size() {
+    return mySamples.size();
+  }
+
+  long getStartTime() {
+    return mySamples.getTimestamp(0);
+  }
+
+  long getEndTime() {
+    return mySamples.getTimestamp(mySamples.size() - 1);
+  }
+
+  @NotNull
+  byte[] encodeData() {
+    Encoder encoder = new Encoder(mySamples.size() * (mySamples.getColumnCount() + 1) * 2);
+    long previous = getStartTime();
+    for (int i = 0; i < mySamples.size(); i++) {
+      encoder.writeVarLong(mySamples.getTimestamp(i) - previous);
+      previous = mySamples.getTimestamp(i);
+    }
+    for (int column = 0; column < mySamples.getColumnCount(); column++) {
+      previous = 0;
+      for (int i = 0; i < mySamples.size(); i++) {
+        long value = mySamples.getValue(column, i);
+        encoder.writeVarLong(zigZag(value - previous));
+        previous = value;
+      }
+    }
+    return encoder.toByteArray();
+  }
+
+  @NotNull
+  byte[] encodeSummary() {
+    Encoder encoder = new Encoder(mySamples.getColumnCount() * 4);
+    for (int column = 0; column < mySamples.getColumnCount(); column++) {
+      long min = Long.MAX_VALUE;
+      long max = Long.MIN_VALUE;
+      for (int i = 0; i < mySamples.size(); i++) {
+        min = Math.min(min, mySamples.getValue(column, i));
+        max = Math.max(max, mySamples.getValue(column, i));
+      }
+      encoder.writeVarLong(zigZag(min));
+      encoder.writeVarLong(zigZag(max));
+    }
+    return encoder.toByteArray();
+  }
+
+  /**
+   * Decodes the samples of a stored chunk whose timestamps are in (rangeStart, rangeEnd] and appends them to {@code out}.
+   */
+  static void decode(@NotNull byte[] data, long startTime, int count, long rangeStart, long rangeEnd, @NotNull TimeSeriesData out) {
+    Decoder decoder = new Decoder(data);
+    long[] timestamps = new long[count];
+    long timestamp = startTime;
+    int first = count;
+    int last = count;
+    for (int i = 0; i < count; i++) {
+      timestamp += decoder.readVarLong();
+      timestamps[i] = timestamp;
+      if (first == count && timestamp > rangeStart) {
+        first = i;
+      }
+      if (last == count && timestamp > rangeEnd) {
+        last = i;
+      }
+    }
+    if (first >= last) {
+      return;
+    }
+
+    int outStart = out.size();
+    for (int i = first; i < last; i++) {
+      out.addTimestamp(timestamps[i]);
+    }
+    for (int column = 0; column < out.getColumnCount(); column++) {
+      long value = 0;
+      for (int i = 0; i < last; i++) {
+        value += unZigZag(decoder.readVarLong());
+        if (i >= first) {
+          out.setValue(column, outStart + i - first, value);
+        }
+      }
+      // Skip the rest of the column to get to the next one.
+      for (int i = last; i < count; i++) {
+        decoder.readVarLong();
+      }
+    }
+  }
+
+  /**
+   * Decodes all samples of a stored chunk into a chunk that can be appended to or inserted into, and written back.
+   */
+  @NotNull
+  static TimeSeriesChunk decode(@NotNull byte[] data, long startTime, int count, int columnCount) {
+    TimeSeriesChunk chunk = new TimeSeriesChunk(columnCount);
+    decode(data, startTime, count, Long.MIN_VALUE, Long.MAX_VALUE, chunk.mySamples);
+    return chunk;
+  }
+
+  /**
+   * @return the minimum and maximum of each column of a stored chunk, as {min0, max0, min1, max1, ...}.
+   */
+  @NotNull
+  static long[] decodeSummary(@NotNull byte[] summary, int columnCount) {
+    Decoder decoder = new Decoder(summary);
+    long[] minMax = new long[columnCount * 2];
+    for (int i = 0; i < minMax.length; i++) {
+      minMax[i] = unZigZag(decoder.readVarLong());
+    }
+    return minMax;
+  }
+
+  private static long zigZag(long value) {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  private static long unZigZag(long value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  private static final class Encoder {
+    @NotNull private byte[] myBuffer;
+    private int mySize = 0;
+
+    private Encoder(int initialCapacity) {
+      myBuffer = new byte[Math.max(initialCapacity, 16)];
+    }
+
+    private void writeVarLong(long value) {
+      if (mySize + 10 > myBuffer.length) {
+        myBuffer = Arrays.copyOf(myBuffer, myBuffer.length * 2);
+      }
+      while ((value & ~0x7FL) != 0) {
+        myBuffer[mySize++] = (byte)((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      myBuffer[mySize++] = (byte)value;
+    }
+
+    @NotNull
+    private byte[] toByteArray() {
+      return Arrays.copyOf(myBuffer, mySize);
+    }
+  }
+
+  private static final class Decoder {
+    @NotNull private final byte[] myBuffer;
+    private int myPosition = 0;
+
+    private Decoder(@NotNull byte[] buffer) {
+      myBuffer = buffer;
+    }
+
+    private long readVarLong() {
+      long value = 0;
+      for (int shift = 0; shift < 64 && myPosition < myBuffer.length; shift += 7) {
+        byte b = myBuffer[myPosition++];
+        value |= (long)(b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return value;
+        }
+      }
+      throw new IllegalStateException("Malformed varint in time series chunk");
+    }
+  }
+}
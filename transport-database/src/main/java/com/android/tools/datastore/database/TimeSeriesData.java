@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.database;
+
+import java.util.Arrays;
+
+/**
+ * A growable batch of samples of a numeric time series, stored as one primitive array of timestamps and one primitive array per value
+ * column. This is both the input of {@link TimeSeriesTable#append} and the result of its range queries, so samples move between the
+ * database and the caller without boxing or a protobuf per row.
+ */
+public final class TimeSeriesData {
+  private static final int DEFAULT_CAPACITY = 16;
+
+  private final int myColumnCount;
+  private long[] myTimestamps;
+  private final long[][] myValues;
+  private int mySize = 0;
+
+  public TimeSeriesData(int columnCount) {
+    this(columnCount, DEFAULT_CAPACITY);
+  }
+
+  public TimeSeriesData(int columnCount, int initialCapacity) {
+    assert columnCount > 0;
+    int capacity = Math.max(initialCapacity, 1);
+    myColumnCount = columnCount;
+    myTimestamps = new long[capacity];
+    myValues = new long[columnCount][capacity];
+  }
+
+  /**
+   * Adds a sample. Samples of a series must be added in increasing timestamp order.
+   *
+   * @param values one value per column.
+   */
+  public void add(long timestamp, long... values) {
+    assert values.length == myColumnCount;
+    ensureCapacity(mySize + 1);
+    myTimestamps[mySize] = timestamp;
+    for (int column = 0; column < myColumnCount; column++) {
+      myValues[column][mySize] = values[column];
+    }
+    mySize++;
+  }
+
+  public int size() {
+    return mySize;
+  }
+
+  public boolean isEmpty() {
+    return mySize == 0;
+  }
+
+  public int getColumnCount() {
+    return myColumnCount;
+  }
+
+  public long getTimestamp(int index) {
+    assert index < mySize;
+    return myTimestamps[index];
+  }
+
+  public long getValue(int column, int index) {
+    assert index < mySize;
+    return myValues[column][index];
+  }
+
+  /**
+   * Appends a sample without going through the varargs array of {@link #add}. The caller sets the values with {@link #setValue}.
+   *
+   * @return the index of the new sample.
+   */
+  int addTimestamp(long timestamp) {
+    ensureCapacity(mySize + 1);
+    myTimestamps[mySize] = timestamp;
+    return mySize++;
+  }
+
+  /**
+   * Inserts a sample at {@code index}, shifting the later samples by one. The caller sets the values with {@link #setValue}.
+   */
+  void insertTimestamp(int index, long timestamp) {
+    assert index <= mySize;
+    ensureCapacity(mySize + 1);
+    System.arraycopy(myTimestamps, index, myTimestamps, index + 1, mySize - index);
+    myTimestamps[index] = timestamp;
+    for (int column = 0; column < myColumnCount; column++) {
+      System.arraycopy(myValues[column], index, myValues[column], index + 1, mySize - index);
+    }
+    mySize++;
+  }
+
+  /**
+   * @return the index of the sample with the given timestamp, or {@code -(insertion point) - 1} if there is none, as with
+   * {@link Arrays#binarySearch(long[], int, int, long)}.
+   */
+  int indexOf(long timestamp) {
+    return Arrays.binarySearch(myTimestamps, 0, mySize, timestamp);
+  }
+
+  void setValue(int column, int index, long value) {
+    myValues[column][index] = value;
+  }
+
+  void clear() {
+    mySize = 0;
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity <= myTimestamps.length) {
+      return;
+    }
+    int newCapacity = Math.max(capacity, myTimestamps.length * 2);
+    myTimestamps = Arrays.copyOf(myTimestamps, newCapacity);
+    for (int column = 0; column < myColumnCount; column++) {
+      myValues[column] = Arrays.copyOf(myValues[column], newCapacity);
+    }
+  }
+}
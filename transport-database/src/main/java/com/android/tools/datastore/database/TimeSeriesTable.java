@@ -0,0 +1,367 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.database;
+
+import static com.android.tools.datastore.database.TimeSeriesTable.TimeSeriesStatements.DELETE_CHUNK;
+import static com.android.tools.datastore.database.TimeSeriesTable.TimeSeriesStatements.INSERT_OR_REPLACE_CHUNK;
+import static com.android.tools.datastore.database.TimeSeriesTable.TimeSeriesStatements.QUERY_CHUNKS;
+import static com.android.tools.datastore.database.TimeSeriesTable.TimeSeriesStatements.QUERY_CHUNK_AT;
+import static com.android.tools.datastore.database.TimeSeriesTable.TimeSeriesStatements.QUERY_EXTENT;
+import static com.android.tools.datastore.database.TimeSeriesTable.TimeSeriesStatements.QUERY_FIRST_CHUNK;
+import static com.android.tools.datastore.database.TimeSeriesTable.TimeSeriesStatements.QUERY_LAST_CHUNK;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Stores numeric time series (e.g. memory usage) in delta-encoded chunks of up to {@link TimeSeriesChunk#MAX_SAMPLES} samples instead of
+ * one serialized protobuf per sample. A range query reads a handful of rows and decodes them straight into primitive arrays, and min/max
+ * aggregations use each chunk's stored summary when the whole chunk falls into one bucket.
+ * <p>
+ * Series are identified by a session and a caller-defined series id. Samples normally arrive in order and are appended to the open chunk
+ * of their series, which is kept in memory and rewritten on every append, so each committed transaction leaves the table complete
+ * without having to read the chunk back. Samples that arrive late are inserted into the chunk covering their timestamp, and samples with
+ * the timestamp of a stored sample are ignored. Open chunks are dropped by {@link #closeSession(long)} and read back from the table if the
+ * series is appended to again.
+ */
+public class TimeSeriesTable extends DataStoreTable<TimeSeriesTable.TimeSeriesStatements> {
+  // Ids of the series stored in the table. Every table of a database that stores series shares the same TimeSeries_Chunks table, so the
+  // ids must be unique across all of them.
+  public static final int MEMORY_USAGE_SERIES = 1;
+
+  public enum TimeSeriesStatements {
+    INSERT_OR_REPLACE_CHUNK(
+      "INSERT OR REPLACE INTO TimeSeries_Chunks (Session, Series, StartTime, EndTime, Count, Data, Summary) VALUES (?, ?, ?, ?, ?, ?, ?)"),
+    QUERY_CHUNKS("SELECT StartTime, EndTime, Count, Data, Summary FROM TimeSeries_Chunks " +
+                 "WHERE Session = ? AND Series = ? AND EndTime > ? AND StartTime <= ? ORDER BY StartTime"),
+    QUERY_EXTENT("SELECT SUM(Count), MIN(StartTime), MAX(EndTime) FROM TimeSeries_Chunks " +
+                 "WHERE Session = ? AND Series = ? AND EndTime > ? AND StartTime <= ?"),
+    QUERY_LAST_CHUNK("SELECT StartTime, Count, Data FROM TimeSeries_Chunks " +
+                     "WHERE Session = ? AND Series = ? ORDER BY StartTime DESC LIMIT 1"),
+    QUERY_FIRST_CHUNK("SELECT StartTime, Count, Data FROM TimeSeries_Chunks WHERE Session = ? AND Series = ? ORDER BY StartTime LIMIT 1"),
+    QUERY_CHUNK_AT("SELECT StartTime, Count, Data FROM TimeSeries_Chunks " +
+                   "WHERE Session = ? AND Series = ? AND StartTime <= ? ORDER BY StartTime DESC LIMIT 1"),
+    DELETE_CHUNK("DELETE FROM TimeSeries_Chunks WHERE Session = ? AND Series = ? AND StartTime = ?");
+
+    @NotNull private final String mySqlStatement;
+
+    TimeSeriesStatements(@NotNull String sqlStatement) {
+      mySqlStatement = sqlStatement;
+    }
+
+    @NotNull
+    public String getStatement() {
+      return mySqlStatement;
+    }
+  }
+
+  // Session id -> series id -> the chunk the series is appending to.
+  private final Map<Long, Map<Integer, TimeSeriesChunk>> myOpenChunks = new HashMap<>();
+
+  @Override
+  public void initialize(@NotNull Connection connection) {
+    super.initialize(connection);
+    try {
+      createTable("TimeSeries_Chunks", "Session INTEGER NOT NULL", "Series INTEGER NOT NULL", "StartTime INTEGER", "EndTime INTEGER",
+                  "Count INTEGER", "Data BLOB", "Summary BLOB", "PRIMARY KEY(Session, Series, StartTime)");
+      createIndex("TimeSeries_Chunks", 0, "Session", "Series", "EndTime");
+    }
+    catch (SQLException ex) {
+      onError(ex);
+    }
+  }
+
+  @Override
+  public void prepareStatements() {
+    try {
+      for (TimeSeriesStatements statement : TimeSeriesStatements.values()) {
+        createStatement(statement, statement.getStatement());
+      }
+    }
+    catch (SQLException ex) {
+      onError(ex);
+    }
+  }
+
+  /**
+   * Appends samples to a series. The samples must be sorted by timestamp and must not be modified by the caller afterwards, as they
+   * may be applied on the database's writer thread.
+   */
+  public void append(long sessionId, int seriesId, @NotNull TimeSeriesData samples) {
+    if (samples.isEmpty()) {
+      return;
+    }
+    enqueueWrite(samples.size(), () -> appendNow(sessionId, seriesId, samples));
+  }
+
+  /**
+   * Drops the open chunks of the session. They are already stored, so this only releases memory.
+   */
+  @Override
+  public void closeSession(long sessionId) {
+    // Goes through the write queue so appends enqueued before this call still find their open chunk.
+    enqueueWrite(0, () -> {
+      synchronized (this) {
+        myOpenChunks.remove(sessionId);
+      }
+    });
+  }
+
+  /**
+   * @return the number of stored samples of a series in the chunks that overlap (startTime, endTime], and the time they span. This only
+   * reads the chunk headers, so it is cheap enough to decide how to query the range.
+   */
+  @NotNull
+  public Extent getExtent(long sessionId, int seriesId, long startTime, long endTime) {
+    try {
+      ResultSet results = executeSnapshotQuery(QUERY_EXTENT, sessionId, seriesId, startTime, endTime);
+      if (results.next() && results.getLong(1) > 0) {
+        return new Extent(results.getLong(1), results.getLong(2), results.getLong(3));
+      }
+    }
+    catch (SQLException ex) {
+      onError(ex);
+    }
+    return Extent.EMPTY;
+  }
+
+  /**
+   * @return the samples of a series whose timestamps are in (startTime, endTime], in timestamp order.
+   */
+  @NotNull
+  public TimeSeriesData getSamples(long sessionId, int seriesId, int columnCount, long startTime, long endTime) {
+    TimeSeriesData samples = new TimeSeriesData(columnCount);
+    try {
+      ResultSet results = executeSnapshotQuery(QUERY_CHUNKS, sessionId, seriesId, startTime, endTime);
+      while (results.next()) {
+        TimeSeriesChunk.decode(results.getBytes(4), results.getLong(1), results.getInt(3), startTime, endTime, samples);
+      }
+    }
+    catch (IllegalStateException | SQLException ex) {
+      onError(ex);
+    }
+    return samples;
+  }
+
+  /**
+   * Splits (startTime, endTime] into {@code bucketCount} buckets of equal duration and aggregates the samples of a series that fall into
+   * each of them.
+   *
+   * @return one sample per non-empty bucket, whose timestamp is the (exclusive) start of the bucket and which has two columns per column
+   * of the series: the minimum of column {@code c} at {@code 2 * c} and its maximum at {@code 2 * c + 1}.
+   */
+  @NotNull
+  public TimeSeriesData getMinMaxBuckets(long sessionId, int seriesId, int columnCount, long startTime, long endTime, int bucketCount) {
+    TimeSeriesData buckets = new TimeSeriesData(columnCount * 2, bucketCount);
+    if (bucketCount <= 0 || endTime <= startTime) {
+      return buckets;
+    }
+    long bucketDuration = getBucketDuration(startTime, endTime, bucketCount);
+    long[] minMax = new long[bucketCount * columnCount * 2];
+    for (int i = 0; i < minMax.length; i += 2) {
+      minMax[i] = Long.MAX_VALUE;
+      minMax[i + 1] = Long.MIN_VALUE;
+    }
+    boolean[] isBucketUsed = new boolean[bucketCount];
+    TimeSeriesData chunkSamples = new TimeSeriesData(columnCount, TimeSeriesChunk.MAX_SAMPLES);
+
+    try {
+      ResultSet results = executeSnapshotQuery(QUERY_CHUNKS, sessionId, seriesId, startTime, endTime);
+      while (results.next()) {
+        long chunkStart = results.getLong(1);
+        long chunkEnd = results.getLong(2);
+        int bucket = getBucket(chunkStart, startTime, bucketDuration, bucketCount);
+        if (chunkStart > startTime && chunkEnd <= endTime && bucket == getBucket(chunkEnd, startTime, bucketDuration, bucketCount)) {
+          // The whole chunk falls into one bucket, so its summary is all we need.
+          long[] summary = TimeSeriesChunk.decodeSummary(results.getBytes(5), columnCount);
+          for (int column = 0; column < columnCount; column++) {
+            merge(minMax, isBucketUsed, bucket, columnCount, column, summary[2 * column], summary[2 * column + 1]);
+          }
+          continue;
+        }
+
+        chunkSamples.clear();
+        TimeSeriesChunk.decode(results.getBytes(4), chunkStart, results.getInt(3), startTime, endTime, chunkSamples);
+        for (int i = 0; i < chunkSamples.size(); i++) {
+          int sampleBucket = getBucket(chunkSamples.getTimestamp(i), startTime, bucketDuration, bucketCount);
+          for (int column = 0; column < columnCount; column++) {
+            long value = chunkSamples.getValue(column, i);
+            merge(minMax, isBucketUsed, sampleBucket, columnCount, column, value, value);
+          }
+        }
+      }
+    }
+    catch (IllegalStateException | SQLException ex) {
+      onError(ex);
+      return buckets;
+    }
+
+    for (int bucket = 0; bucket < bucketCount; bucket++) {
+      if (!isBucketUsed[bucket]) {
+        continue;
+      }
+      int index = buckets.addTimestamp(startTime + bucket * bucketDuration);
+      int offset = bucket * columnCount * 2;
+      for (int column = 0; column < columnCount * 2; column++) {
+        buckets.setValue(column, index, minMax[offset + column]);
+      }
+    }
+    return buckets;
+  }
+
+  private synchronized void appendNow(long sessionId, int seriesId, @NotNull TimeSeriesData samples) {
+    Map<Integer, TimeSeriesChunk> sessionChunks = myOpenChunks.computeIfAbsent(sessionId, id -> new HashMap<>());
+    TimeSeriesChunk chunk = sessionChunks.get(seriesId);
+    if (chunk == null) {
+      // The series is new, or its session was closed or restored from a previous run: continue from its last stored chunk, if any.
+      chunk = readChunk(QUERY_LAST_CHUNK, samples.getColumnCount(), sessionId, seriesId);
+      if (chunk != null) {
+        sessionChunks.put(seriesId, chunk);
+      }
+    }
+    boolean isDirty = false;
+    for (int i = 0; i < samples.size(); i++) {
+      long timestamp = samples.getTimestamp(i);
+      if (chunk != null && !chunk.isEmpty() && timestamp <= chunk.getEndTime()) {
+        if (timestamp >= chunk.getStartTime()) {
+          isDirty |= chunk.insert(samples, i);
+        }
+        else {
+          isDirty |= insertLateSample(sessionId, seriesId, chunk, samples, i);
+        }
+        continue;
+      }
+      if (chunk == null || chunk.isFull()) {
+        if (isDirty) {
+          writeChunk(sessionId, seriesId, chunk);
+        }
+        chunk = new TimeSeriesChunk(samples.getColumnCount());
+        sessionChunks.put(seriesId, chunk);
+      }
+      chunk.add(samples, i);
+      isDirty = true;
+    }
+    if (isDirty) {
+      writeChunk(sessionId, seriesId, chunk);
+    }
+  }
+
+  /**
+   * Inserts a sample older than the start of the open chunk into the stored chunk covering its timestamp, or into the first chunk of the
+   * series if it predates all of them.
+   *
+   * @return true if the sample went into {@code openChunk}, which the caller still has to write.
+   */
+  private boolean insertLateSample(long sessionId, int seriesId, @NotNull TimeSeriesChunk openChunk, @NotNull TimeSeriesData samples,
+                                   int index) {
+    int columnCount = samples.getColumnCount();
+    long timestamp = samples.getTimestamp(index);
+    TimeSeriesChunk stored = readChunk(QUERY_CHUNK_AT, columnCount, sessionId, seriesId, timestamp);
+    if (stored == null) {
+      stored = readChunk(QUERY_FIRST_CHUNK, columnCount, sessionId, seriesId);
+    }
+    if (stored == null || stored.getStartTime() == openChunk.getStartTime()) {
+      // The open chunk is the first chunk of the series, so the sample becomes its new first sample and the chunk's key changes.
+      long oldStartTime = openChunk.getStartTime();
+      if (!openChunk.insert(samples, index)) {
+        return false;
+      }
+      execute(DELETE_CHUNK, sessionId, seriesId, oldStartTime);
+      return true;
+    }
+
+    long oldStartTime = stored.getStartTime();
+    if (stored.insert(samples, index)) {
+      if (stored.getStartTime() != oldStartTime) {
+        execute(DELETE_CHUNK, sessionId, seriesId, oldStartTime);
+      }
+      writeChunk(sessionId, seriesId, stored);
+    }
+    return false;
+  }
+
+  @Nullable
+  private TimeSeriesChunk readChunk(@NotNull TimeSeriesStatements query, int columnCount, Object... params) {
+    try {
+      ResultSet results = executeQuery(query, params);
+      if (results.next()) {
+        return TimeSeriesChunk.decode(results.getBytes(3), results.getLong(1), results.getInt(2), columnCount);
+      }
+    }
+    catch (IllegalStateException | SQLException ex) {
+      onError(ex);
+    }
+    return null;
+  }
+
+  private void writeChunk(long sessionId, int seriesId, @NotNull TimeSeriesChunk chunk) {
+    execute(INSERT_OR_REPLACE_CHUNK, sessionId, seriesId, chunk.getStartTime(), chunk.getEndTime(), chunk.size(), chunk.encodeData(),
+            chunk.encodeSummary());
+  }
+
+  /**
+   * @return the duration of each of the {@code bucketCount} buckets {@link #getMinMaxBuckets} splits (startTime, endTime] into.
+   */
+  static long getBucketDuration(long startTime, long endTime, int bucketCount) {
+    return Math.max(1, (endTime - startTime + bucketCount - 1) / bucketCount);
+  }
+
+  private static int getBucket(long timestamp, long startTime, long bucketDuration, int bucketCount) {
+    return (int)Math.min((timestamp - startTime - 1) / bucketDuration, bucketCount - 1);
+  }
+
+  private static void merge(@NotNull long[] minMax, @NotNull boolean[] isBucketUsed, int bucket, int columnCount, int column, long min,
+                            long max) {
+    int offset = (bucket * columnCount + column) * 2;
+    minMax[offset] = Math.min(minMax[offset], min);
+    minMax[offset + 1] = Math.max(minMax[offset + 1], max);
+    isBucketUsed[bucket] = true;
+  }
+
+  /**
+   * The number of samples of a series within a range, and the timestamps of the first and last of them.
+   */
+  public static final class Extent {
+    private static final Extent EMPTY = new Extent(0, 0, 0);
+
+    private final long mySampleCount;
+    private final long myStartTime;
+    private final long myEndTime;
+
+    private Extent(long sampleCount, long startTime, long endTime) {
+      mySampleCount = sampleCount;
+      myStartTime = startTime;
+      myEndTime = endTime;
+    }
+
+    public long getSampleCount() {
+      return mySampleCount;
+    }
+
+    public long getStartTime() {
+      return myStartTime;
+    }
+
+    public long getEndTime() {
+      return myEndTime;
+    }
+  }
+}
@@ -61,7 +61,7 @@ public class CpuDataPoller extends PollRunner {
                        @NotNull CpuTable table,
                        @NotNull CpuServiceGrpc.CpuServiceBlockingStub pollingService,
                        @NotNull LogService logService) {
-    super(POLLING_DELAY_NS);
+    super(POLLING_DELAY_NS, MAX_POLLING_DELAY_NS);
     myCpuTable = table;
     myPollingService = pollingService;
     mySession = session;
@@ -75,6 +75,9 @@ public class CpuDataPoller extends PollRunner {
     CpuProfiler.CpuDataRequest.Builder request = CpuProfiler.CpuDataRequest
       .newBuilder().setSession(mySession).setStartTimestamp(getDataStartNs).setEndTimestamp(Long.MAX_VALUE);
     CpuProfiler.CpuDataResponse response = myPollingService.getData(request.build());
+    if (response.getDataCount() > 0) {
+      onDataReceived();
+    }
     for (Cpu.CpuUsageData data : response.getDataList()) {
       getDataStartNs = Math.max(getDataStartNs, data.getEndTimestamp());
       myCpuTable.insert(mySession, data);
@@ -85,6 +88,9 @@ public class CpuDataPoller extends PollRunner {
     CpuProfiler.GetThreadsRequest.Builder threadsRequest = CpuProfiler.GetThreadsRequest
       .newBuilder().setSession(mySession).setStartTimestamp(getThreadsStartNs).setEndTimestamp(Long.MAX_VALUE);
     CpuProfiler.GetThreadsResponse threadsResponse = myPollingService.getThreads(threadsRequest.build());
+    if (threadsResponse.getThreadsCount() > 0) {
+      onDataReceived();
+    }
 
     if (myDataRequestStartTimestampNs == Long.MIN_VALUE) {
       // Store the very first snapshot in the database.
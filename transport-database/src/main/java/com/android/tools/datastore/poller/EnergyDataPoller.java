@@ -70,7 +70,7 @@ public final class EnergyDataPoller extends PollRunner {
                           @NotNull NetworkServiceGrpc.NetworkServiceBlockingStub networkService,
                           @NotNull EnergyServiceGrpc.EnergyServiceBlockingStub energyService,
                           @NotNull LogService logService) {
-    super(POLLING_DELAY_NS);
+    super(POLLING_DELAY_NS, MAX_POLLING_DELAY_NS);
     myBatteryModel = batteryModel;
     myEnergyTable = eventTable;
     myTransportService = transportService;
@@ -117,7 +117,11 @@ public final class EnergyDataPoller extends PollRunner {
   }
 
   private void addLatestEvents(@NotNull EnergyProfiler.EnergyRequest request) {
-    for (EnergyProfiler.EnergyEvent event : myEnergyService.getEvents(request).getEventsList()) {
+    EnergyProfiler.EnergyEventsResponse eventsResponse = myEnergyService.getEvents(request);
+    if (eventsResponse.getEventsCount() > 0) {
+      onDataReceived();
+    }
+    for (EnergyProfiler.EnergyEvent event : eventsResponse.getEventsList()) {
       // Location-related events.
       if (event.hasLocationUpdateRequested()) {
         myBatteryModel.handleEvent(
@@ -154,6 +158,9 @@ public final class EnergyDataPoller extends PollRunner {
           .setEndTimestamp(request.getEndTimestamp()).setType(NetworkProfiler.NetworkDataRequest.Type.ALL).build();
 
       NetworkProfiler.NetworkDataResponse networkDataResponse = myNetworkService.getData(networkDataRequest);
+      if (networkDataResponse.getDataCount() > 0) {
+        onDataReceived();
+      }
       for (NetworkProfiler.NetworkProfilerData networkData : networkDataResponse.getDataList()) {
         switch (networkData.getDataCase()) {
           case CONNECTIVITY_DATA:
@@ -196,6 +203,9 @@ public final class EnergyDataPoller extends PollRunner {
         CpuProfiler.CpuDataRequest.newBuilder().setSession(request.getSession()).setStartTimestamp(request.getStartTimestamp())
           .setEndTimestamp(request.getEndTimestamp()).build();
       CpuProfiler.CpuDataResponse cpuDataResponse = myCpuService.getData(cpuDataRequest);
+      if (cpuDataResponse.getDataCount() > 0) {
+        onDataReceived();
+      }
       Cpu.CpuUsageData prevUsageData = myLastData;
 
       for (Cpu.CpuUsageData currUsageData : cpuDataResponse.getDataList()) {
@@ -42,7 +42,7 @@ public class MemoryDataPoller extends PollRunner {
                           @NotNull MemoryStatsTable statsTable,
                           @NotNull MemoryServiceGrpc.MemoryServiceBlockingStub pollingService,
                           @NotNull Consumer<Runnable> fetchExecutor) {
-    super(POLLING_DELAY_NS);
+    super(POLLING_DELAY_NS, MAX_POLLING_DELAY_NS);
     mySession = session;
     myMemoryStatsTable = statsTable;
     myPollingService = pollingService;
@@ -76,6 +76,10 @@ public class MemoryDataPoller extends PollRunner {
     MemoryRequest.Builder dataRequestBuilder =
       MemoryRequest.newBuilder().setSession(mySession).setStartTime(myDataRequestStartTimestampNs).setEndTime(Long.MAX_VALUE);
     MemoryData response = myPollingService.getData(dataRequestBuilder.build());
+    if (response.getMemSamplesCount() > 0 || response.getAllocStatsSamplesCount() > 0 || response.getGcStatsSamplesCount() > 0 ||
+        response.getAllocationsInfoCount() > 0 || response.getHeapDumpInfosCount() > 0) {
+      onDataReceived();
+    }
 
     // TODO: A UI request may come in while mid way through the poll, this can cause us to have partial data
     // returned to the UI. This can be solved using transactions in the DB when this class is moved fully over.
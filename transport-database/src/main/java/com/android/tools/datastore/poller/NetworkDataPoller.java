@@ -35,7 +35,7 @@ public class NetworkDataPoller extends PollRunner {
   public NetworkDataPoller(@NotNull Common.Session session,
                            @NotNull NetworkTable table,
                            @NotNull NetworkServiceGrpc.NetworkServiceBlockingStub pollingService) {
-    super(POLLING_DELAY_NS);
+    super(POLLING_DELAY_NS, MAX_POLLING_DELAY_NS);
     mySession = session;
     myNetworkTable = table;
     myPollingService = pollingService;
@@ -47,6 +47,9 @@ public class NetworkDataPoller extends PollRunner {
       .newBuilder().setSession(mySession).setStartTimestamp(myDataRequestStartTimestampNs).setEndTimestamp(Long.MAX_VALUE)
       .setType(NetworkDataRequest.Type.ALL);
     NetworkDataResponse response = myPollingService.getData(dataRequestBuilder.build());
+    if (response.getDataCount() > 0) {
+      onDataReceived();
+    }
 
     for (NetworkProfilerData data : response.getDataList()) {
       myDataRequestStartTimestampNs = Math.max(myDataRequestStartTimestampNs, data.getEndTimestamp());
@@ -59,6 +62,9 @@ public class NetworkDataPoller extends PollRunner {
     HttpRangeRequest.Builder requestBuilder = HttpRangeRequest
       .newBuilder().setSession(mySession).setStartTimestamp(myHttpRangeRequestStartTimeNs).setEndTimestamp(Long.MAX_VALUE);
     HttpRangeResponse httpRange = myPollingService.getHttpRange(requestBuilder.build());
+    if (httpRange.getDataCount() > 0) {
+      onDataReceived();
+    }
 
     for (HttpConnectionData connection : httpRange.getDataList()) {
       myHttpRangeRequestStartTimeNs = Math.max(myHttpRangeRequestStartTimeNs, connection.getStartTimestamp() + 1);
@@ -15,31 +15,85 @@
  */
 package com.android.tools.datastore.poller;
 
+import com.android.annotations.VisibleForTesting;
 import io.grpc.StatusRuntimeException;
 
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A {@link RunnableFuture} which, while running, triggers a callback at a specified period
  * (which can be used to poll a target service at some frequency).
+ * <p>
+ * Polls of all runners are timed by one shared scheduler instead of each runner holding on to the thread that called {@link #run()}, and
+ * run on a separate pool so blocking device RPCs never hold up the scheduler. Runners created with a maximum period back off
+ * exponentially while their polls come back empty (see {@link #onDataReceived()}), and return to their base period as soon as data
+ * shows up again.
  */
 public abstract class PollRunner implements RunnableFuture<Void> {
 
   public static final long POLLING_DELAY_NS = TimeUnit.MILLISECONDS.toNanos(250);
 
-  private long myPollPeriodNs;
+  /**
+   * The default upper bound on the polling period of an adaptive runner whose polls keep coming back empty.
+   */
+  public static final long MAX_POLLING_DELAY_NS = TimeUnit.SECONDS.toNanos(2);
+
+  /**
+   * Only times the polls: it hands each due poll to {@link #POLL_EXECUTOR} and never runs a blocking RPC itself, so one slow device cannot
+   * delay the polls of every other stream.
+   */
+  private static final ScheduledExecutorService SCHEDULER =
+    Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("DataStorePollScheduler-"));
+
+  /**
+   * Runs the polls and their blocking RPCs. A runner has at most one poll in flight, so each runner effectively gets its own lane, and
+   * threads of runners that back off or stop are reclaimed once idle.
+   */
+  private static final ExecutorService POLL_EXECUTOR = Executors.newCachedThreadPool(new DaemonThreadFactory("DataStorePollRunner-"));
+
+  private final long myPollPeriodNs;
+
+  private final long myMaxPollPeriodNs;
+
+  private long myCurrentPollPeriodNs;
+
+  private volatile boolean myReceivedData = false;
+
+  private final Object myLock = new Object();
 
   private boolean myIsRunning = false;
 
+  private boolean myIsPolling = false;
+
+  private ScheduledFuture<?> myNextPoll;
+
   private CountDownLatch myRunning = new CountDownLatch(1);
 
   private CountDownLatch myIsDone = new CountDownLatch(1);
 
 
   public PollRunner(long pollPeriodNs) {
+    this(pollPeriodNs, pollPeriodNs);
+  }
+
+  /**
+   * @param pollPeriodNs    the period between polls while data is flowing.
+   * @param maxPollPeriodNs the period the runner backs off to while polls return no data. Pass {@code pollPeriodNs} to poll at a fixed
+   *                        rate; subclasses passing a larger value must call {@link #onDataReceived()} from {@link #poll()}.
+   */
+  public PollRunner(long pollPeriodNs, long maxPollPeriodNs) {
+    assert maxPollPeriodNs >= pollPeriodNs;
     myPollPeriodNs = pollPeriodNs;
+    myMaxPollPeriodNs = maxPollPeriodNs;
+    myCurrentPollPeriodNs = pollPeriodNs;
   }
 
   public void stop() {
@@ -52,31 +106,95 @@ public abstract class PollRunner implements RunnableFuture<Void> {
     }
   }
 
+  /**
+   * Starts polling on the shared scheduler and returns immediately.
+   */
   @Override
   public void run() {
-    try {
+    synchronized (myLock) {
+      if (myIsRunning || isCancelled()) {
+        return;
+      }
       myIsRunning = true;
-      while (myRunning.getCount() > 0) {
-        long startTimeNs = System.nanoTime();
-        poll();
-        long sleepTime = Math.max(myPollPeriodNs - (System.nanoTime() - startTimeNs), 0L);
-        myRunning.await(sleepTime, TimeUnit.NANOSECONDS);
+      schedulePoll(0);
+    }
+  }
+
+  public abstract void poll();
+
+  /**
+   * Called by subclasses from {@link #poll()} when the poll produced new data, which resets the polling period of an adaptive runner.
+   */
+  protected void onDataReceived() {
+    myReceivedData = true;
+  }
+
+  @VisibleForTesting
+  long getCurrentPollPeriodNs() {
+    return myCurrentPollPeriodNs;
+  }
+
+  /**
+   * Updates the polling period after a poll: back to the base period if it produced data, doubled (up to the maximum) otherwise.
+   */
+  @VisibleForTesting
+  long updatePollPeriod(boolean receivedData) {
+    myCurrentPollPeriodNs = receivedData ? myPollPeriodNs : Math.min(myCurrentPollPeriodNs * 2, myMaxPollPeriodNs);
+    return myCurrentPollPeriodNs;
+  }
+
+  private void schedulePoll(long delayNs) {
+    myNextPoll = SCHEDULER.schedule(() -> POLL_EXECUTOR.execute(this::pollOnce), delayNs, TimeUnit.NANOSECONDS);
+  }
+
+  private void pollOnce() {
+    synchronized (myLock) {
+      if (isCancelled()) {
+        finish();
+        return;
       }
+      myIsPolling = true;
     }
-    catch (InterruptedException | StatusRuntimeException e) {
-      Thread.currentThread().interrupt();
+
+    boolean keepPolling = false;
+    long startTimeNs = System.nanoTime();
+    try {
+      myReceivedData = false;
+      poll();
+      keepPolling = true;
+    }
+    catch (StatusRuntimeException e) {
+      // The service went away, stop polling.
     }
     finally {
-      myIsRunning = false;
-      myIsDone.countDown();
+      synchronized (myLock) {
+        myIsPolling = false;
+        if (!keepPolling || isCancelled()) {
+          finish();
+        }
+        else {
+          long periodNs = updatePollPeriod(myReceivedData);
+          long delayNs = Math.max(periodNs - (System.nanoTime() - startTimeNs), 0L);
+          schedulePoll(delayNs);
+        }
+      }
     }
   }
 
-  public abstract void poll();
+  private void finish() {
+    myIsRunning = false;
+    myIsDone.countDown();
+  }
 
   @Override
   public boolean cancel(boolean mayInterruptIfRunning) {
-    myRunning.countDown();
+    synchronized (myLock) {
+      myRunning.countDown();
+      // If no poll is in flight, drop the scheduled one and finish right away instead of waiting for it to fire.
+      if (myIsRunning && !myIsPolling && myNextPoll != null && myNextPoll.cancel(false)) {
+        finish();
+      }
+    }
     return true;
   }
 
@@ -92,7 +210,7 @@ public abstract class PollRunner implements RunnableFuture<Void> {
 
   @Override
   public Void get() throws InterruptedException {
-    if (myIsRunning) {
+    if (isStarted()) {
       myIsDone.await();
     }
     return null;
@@ -100,9 +218,31 @@ public abstract class PollRunner implements RunnableFuture<Void> {
 
   @Override
   public Void get(long timeout, TimeUnit unit) throws InterruptedException {
-    if (myIsRunning) {
+    if (isStarted()) {
       myIsDone.await(timeout, unit);
     }
     return null;
   }
+
+  private boolean isStarted() {
+    synchronized (myLock) {
+      return myIsRunning;
+    }
+  }
+
+  private static final class DaemonThreadFactory implements ThreadFactory {
+    private final String myNamePrefix;
+    private final AtomicInteger myThreadCount = new AtomicInteger();
+
+    private DaemonThreadFactory(String namePrefix) {
+      myNamePrefix = namePrefix;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, myNamePrefix + myThreadCount.getAndIncrement());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
 }
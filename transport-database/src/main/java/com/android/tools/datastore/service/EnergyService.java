@@ -16,6 +16,7 @@
 package com.android.tools.datastore.service;
 
 import com.android.annotations.VisibleForTesting;
+import com.android.tools.datastore.DataStoreDatabase;
 import com.android.tools.datastore.DataStoreService;
 import com.android.tools.datastore.LogService;
 import com.android.tools.datastore.ServicePassThrough;
@@ -35,7 +36,6 @@ import com.android.tools.profiler.proto.EnergyServiceGrpc;
 import com.android.tools.profiler.proto.NetworkServiceGrpc;
 import com.android.tools.profiler.proto.TransportServiceGrpc;
 import io.grpc.stub.StreamObserver;
-import java.sql.Connection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -159,8 +159,8 @@ public class EnergyService extends EnergyServiceGrpc.EnergyServiceImplBase imple
   }
 
   @Override
-  public void setBackingStore(@NotNull DataStoreService.BackingNamespace namespace, @NotNull Connection connection) {
+  public void setBackingStore(@NotNull DataStoreService.BackingNamespace namespace, @NotNull DataStoreDatabase database) {
     assert namespace == DataStoreService.BackingNamespace.DEFAULT_SHARED_NAMESPACE;
-    myEnergyTable.initialize(connection);
+    myEnergyTable.initialize(database);
   }
 }
@@ -17,6 +17,7 @@ package com.android.tools.datastore.service;
 
 import static com.android.tools.datastore.DataStoreDatabase.Characteristic.PERFORMANT;
 
+import com.android.tools.datastore.DataStoreDatabase;
 import com.android.tools.datastore.DataStoreService;
 import com.android.tools.datastore.DataStoreService.BackingNamespace;
 import com.android.tools.datastore.LogService;
@@ -69,7 +70,6 @@ import com.android.tools.profiler.proto.MemoryProfiler.TriggerHeapDumpResponse;
 import com.android.tools.profiler.proto.MemoryServiceGrpc;
 import com.android.tools.profiler.protobuf3jarjar.ByteString;
 import io.grpc.stub.StreamObserver;
-import java.sql.Connection;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
@@ -130,6 +130,7 @@ public class MemoryService extends MemoryServiceGrpc.MemoryServiceImplBase imple
     if (runner != null) {
       runner.stop();
     }
+    myStatsTable.closeSession(sessionId);
     // Our polling service can get shutdown if we unplug the device.
     // This should be the only function that gets called as StudioProfilers attempts
     // to stop monitoring the last app it was monitoring.
@@ -422,13 +423,13 @@ public class MemoryService extends MemoryServiceGrpc.MemoryServiceImplBase imple
   }
 
   @Override
-  public void setBackingStore(@NotNull BackingNamespace namespace, @NotNull Connection connection) {
+  public void setBackingStore(@NotNull BackingNamespace namespace, @NotNull DataStoreDatabase database) {
     assert getBackingNamespaces().contains(namespace);
     if (namespace.equals(BackingNamespace.DEFAULT_SHARED_NAMESPACE)) {
-      myStatsTable.initialize(connection);
+      myStatsTable.initialize(database);
     }
     else {
-      myAllocationsTable.initialize(connection);
+      myAllocationsTable.initialize(database);
     }
   }
 }
\ No newline at end of file
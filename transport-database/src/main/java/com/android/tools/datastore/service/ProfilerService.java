@@ -15,6 +15,7 @@
  */
 package com.android.tools.datastore.service;
 
+import com.android.tools.datastore.DataStoreDatabase;
 import com.android.tools.datastore.DataStoreService;
 import com.android.tools.datastore.LogService;
 import com.android.tools.datastore.ServicePassThrough;
@@ -34,7 +35,6 @@ import com.android.tools.profiler.proto.Profiler.ImportSessionRequest;
 import com.android.tools.profiler.proto.Profiler.ImportSessionResponse;
 import com.android.tools.profiler.proto.ProfilerServiceGrpc;
 import io.grpc.stub.StreamObserver;
-import java.sql.Connection;
 import java.util.Collections;
 import java.util.List;
 import org.jetbrains.annotations.NotNull;
@@ -138,8 +138,8 @@ public class ProfilerService extends ProfilerServiceGrpc.ProfilerServiceImplBase
   }
 
   @Override
-  public void setBackingStore(@NotNull DataStoreService.BackingNamespace namespace, @NotNull Connection connection) {
+  public void setBackingStore(@NotNull DataStoreService.BackingNamespace namespace, @NotNull DataStoreDatabase database) {
     assert namespace == DataStoreService.BackingNamespace.DEFAULT_SHARED_NAMESPACE;
-    myTable.initialize(connection);
+    myTable.initialize(database);
   }
 }
@@ -17,6 +17,7 @@ package com.android.tools.datastore.service;
 
 import static com.android.tools.idea.flags.StudioFlags.PROFILER_UNIFIED_PIPELINE;
 
+import com.android.tools.datastore.DataStoreDatabase;
 import com.android.tools.datastore.DataStoreService;
 import com.android.tools.datastore.ServicePassThrough;
 import com.android.tools.datastore.database.DataStoreTable;
@@ -51,7 +52,6 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.Maps;
 import io.grpc.Channel;
 import io.grpc.stub.StreamObserver;
-import java.sql.Connection;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
@@ -98,12 +98,12 @@ public class TransportService extends TransportServiceGrpc.TransportServiceImplB
   }
 
   @Override
-  public void setBackingStore(@NotNull DataStoreService.BackingNamespace namespace, @NotNull Connection connection) {
+  public void setBackingStore(@NotNull DataStoreService.BackingNamespace namespace, @NotNull DataStoreDatabase database) {
     assert namespace == DataStoreService.BackingNamespace.DEFAULT_SHARED_NAMESPACE;
-    myTable.initialize(connection);
+    myTable.initialize(database);
 
     if (!PROFILER_UNIFIED_PIPELINE.get()) {
-      myLegacyTable.initialize(connection);
+      myLegacyTable.initialize(database);
     }
   }
 
@@ -304,7 +304,8 @@ public class DataStoreServiceTest extends DataStorePollerTest {
     }
 
     @Override
-    public void setBackingStore(@NotNull BackingNamespace namespace, @NotNull Connection connection) {
+    public void setBackingStore(@NotNull BackingNamespace namespace, @NotNull DataStoreDatabase database) {
+      Connection connection = database.getConnection();
       assert myNamespaces.contains(namespace) && !myReceivedBackingStores.containsKey(namespace) && !myReceivedBackingStores
         .containsValue(connection);
       myReceivedBackingStores.put(namespace, connection);
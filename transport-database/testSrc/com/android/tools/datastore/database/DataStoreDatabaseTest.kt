@@ -15,6 +15,9 @@ package com.android.tools.datastore.database
 
 import com.android.tools.datastore.DataStoreDatabase
 import com.android.tools.datastore.FakeLogService
+import com.android.tools.profiler.proto.Common
+import com.android.tools.profiler.proto.Memory
+import com.android.tools.profiler.proto.MemoryProfiler
 import com.google.common.truth.Truth.assertThat
 import org.junit.Test
 import java.io.BufferedOutputStream
@@ -40,7 +43,8 @@ class DataStoreDatabaseTest {
     outputStream.close()
     assertThat(myDatabaseFile.length()).isEqualTo(1024)
     val db = DataStoreDatabase(myDatabaseFile.absolutePath, DataStoreDatabase.Characteristic.DURABLE, FakeLogService())
-    assertThat(myDatabaseFile.length()).isEqualTo(0)
+    // Switching to WAL writes a fresh database header, so the file is no longer empty, but the old content must be gone.
+    assertThat(myDatabaseFile.readBytes()).isNotEqualTo(ByteArray(1024))
     db.disconnect()
     assertThat(myDatabaseFile.exists()).isTrue()
   }
@@ -63,4 +67,110 @@ class DataStoreDatabaseTest {
     db.disconnect()
     assertThat(db.connection.isClosed).isTrue()
   }
+
+  @Test
+  fun testRestoringKeepsCompatibleFile() {
+    var db = openDatabase(true)
+    db.connection.createStatement().use { it.execute("CREATE TABLE Rows (Value INTEGER)") }
+    db.connection.createStatement().use { it.execute("INSERT INTO Rows (Value) VALUES (1)") }
+    assertThat(db.isRestored).isFalse()
+    db.disconnect()
+
+    db = openDatabase(true)
+    assertThat(db.isRestored).isTrue()
+    assertThat(userVersion(db)).isEqualTo(DataStoreDatabase.SCHEMA_VERSION)
+    db.connection.createStatement().use { statement ->
+      statement.executeQuery("SELECT COUNT(*) FROM Rows").use { assertThat(it.getInt(1)).isEqualTo(1) }
+    }
+    db.disconnect()
+  }
+
+  @Test
+  fun testRestoringDiscardsIncompatibleFile() {
+    var db = openDatabase(false)
+    db.connection.createStatement().use { it.execute("CREATE TABLE Rows (Value INTEGER)") }
+    db.connection.commit()
+    db.connection.autoCommit = true
+    db.connection.createStatement().use { it.execute("PRAGMA user_version = ${DataStoreDatabase.SCHEMA_VERSION + 1}") }
+    db.disconnect()
+
+    db = openDatabase(true)
+    assertThat(db.isRestored).isFalse()
+    assertThat(userVersion(db)).isEqualTo(DataStoreDatabase.SCHEMA_VERSION)
+    db.connection.metaData.getTables(null, null, "Rows", null).use { assertThat(it.next()).isFalse() }
+    db.disconnect()
+  }
+
+  @Test
+  fun testRestoringDiscardsUnreadableFile() {
+    myDatabaseFile.writeBytes(ByteArray(1024) { 0x7f })
+    val db = openDatabase(true)
+    assertThat(db.isRestored).isFalse()
+    assertThat(userVersion(db)).isEqualTo(DataStoreDatabase.SCHEMA_VERSION)
+    db.disconnect()
+  }
+
+  @Test
+  fun testRestoredTablesCloseInterruptedSessions() {
+    var db = openDatabase(true)
+    var table = ProfilerTable()
+    table.initialize(db)
+    val ended = Common.Session.newBuilder().setSessionId(1).setStartTimestamp(10).setEndTimestamp(20).build()
+    val ongoing = Common.Session.newBuilder().setSessionId(2).setStartTimestamp(30).setEndTimestamp(Long.MAX_VALUE).build()
+    table.insertOrUpdateSession(ended, "Ended", 0, "x86", true, true, Common.SessionMetaData.SessionType.FULL)
+    table.insertOrUpdateSession(ongoing, "Ongoing", 0, "x86", true, true, Common.SessionMetaData.SessionType.FULL)
+    db.disconnect()
+
+    db = openDatabase(true)
+    table = ProfilerTable()
+    table.initialize(db)
+    assertThat(table.getSessionById(1).endTimestamp).isEqualTo(20)
+    // There is no CPU data to tell how long the session went on for, so it ends where it started.
+    assertThat(table.getSessionById(2).endTimestamp).isEqualTo(30)
+    db.disconnect()
+  }
+
+  @Test
+  fun testRestoringVersion1FileMigratesMemorySamples() {
+    var db = openDatabase(false)
+    val sample = MemoryProfiler.MemoryData.MemorySample.newBuilder()
+      .setTimestamp(5)
+      .setMemoryUsage(Memory.MemoryUsageData.newBuilder().setJavaMem(1).setTotalMem(2))
+      .build()
+    // Version 1 stored each memory sample as a serialized row of type 0.
+    db.connection.createStatement().use {
+      it.execute("CREATE TABLE Memory_Samples (Session INTEGER NOT NULL, Timestamp INTEGER, Type INTEGER, Data BLOB, " +
+                 "PRIMARY KEY(Session, Timestamp, Type))")
+    }
+    db.connection.prepareStatement("INSERT INTO Memory_Samples (Session, Timestamp, Type, Data) VALUES (1, 5, 0, ?)").use {
+      it.setBytes(1, sample.toByteArray())
+      it.execute()
+    }
+    db.connection.commit()
+    db.connection.autoCommit = true
+    db.connection.createStatement().use { it.execute("PRAGMA user_version = 1") }
+    db.disconnect()
+
+    db = openDatabase(true)
+    assertThat(db.isRestored).isTrue()
+    assertThat(userVersion(db)).isEqualTo(DataStoreDatabase.SCHEMA_VERSION)
+    val table = MemoryStatsTable()
+    table.initialize(db)
+    val session = Common.Session.newBuilder().setSessionId(1).build()
+    val data = table.getData(MemoryProfiler.MemoryRequest.newBuilder().setSession(session).setStartTime(0).setEndTime(10).build())
+    assertThat(data.memSamplesList).containsExactly(sample)
+    db.connection.createStatement().use { statement ->
+      statement.executeQuery("SELECT COUNT(*) FROM Memory_Samples").use { assertThat(it.getInt(1)).isEqualTo(0) }
+    }
+    db.disconnect()
+  }
+
+  private fun openDatabase(restoreExisting: Boolean) =
+    DataStoreDatabase(myDatabaseFile.absolutePath, DataStoreDatabase.Characteristic.DURABLE, FakeLogService(), {}, restoreExisting)
+
+  private fun userVersion(db: DataStoreDatabase): Int {
+    db.connection.createStatement().use { statement ->
+      statement.executeQuery("PRAGMA user_version").use { return it.getInt(1) }
+    }
+  }
 }
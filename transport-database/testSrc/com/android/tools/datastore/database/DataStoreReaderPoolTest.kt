@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.database
+
+import com.android.tools.datastore.DataStoreDatabase
+import com.android.tools.datastore.FakeLogService
+import com.google.common.truth.Truth.assertThat
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import java.io.File
+import java.sql.Connection
+import java.sql.SQLException
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.atomic.AtomicReference
+
+class DataStoreReaderPoolTest {
+  private lateinit var dbFile: File
+  private lateinit var database: DataStoreDatabase
+
+  @Before
+  fun setUp() {
+    dbFile = File.createTempFile("DataStoreReaderPoolTest", "sql")
+    dbFile.deleteOnExit()
+    database = DataStoreDatabase(dbFile.absolutePath, DataStoreDatabase.Characteristic.DURABLE, FakeLogService())
+    database.connection.createStatement().use { it.execute("CREATE TABLE Rows (Value INTEGER)") }
+    database.enableReaderPool(2)
+  }
+
+  @After
+  fun tearDown() {
+    database.disconnect()
+  }
+
+  @Test
+  fun enablingReaderPoolEnablesWriteQueue() {
+    assertThat(database.readerPool).isNotNull()
+    assertThat(database.readerPool!!.size).isEqualTo(2)
+    assertThat(database.writeQueue).isNotNull()
+  }
+
+  @Test
+  fun readersOnlySeeCommittedRows() {
+    database.connection.createStatement().use { it.execute("INSERT INTO Rows (Value) VALUES (1)") }
+    assertThat(countRows()).isEqualTo(0)
+
+    database.writeQueue!!.flush()
+    assertThat(countRows()).isEqualTo(1)
+  }
+
+  @Test
+  fun readersAreNotBlockedByOpenWriteTransaction() {
+    // Leave the writer's transaction open with pending changes while reading from another thread.
+    database.connection.createStatement().use { it.execute("INSERT INTO Rows (Value) VALUES (1)") }
+    val count = AtomicReference<Int>()
+    val done = CountDownLatch(1)
+    Thread {
+      count.set(countRows())
+      done.countDown()
+    }.start()
+    done.await()
+    assertThat(count.get()).isEqualTo(0)
+  }
+
+  @Test(expected = SQLException::class)
+  fun readerConnectionsAreReadOnly() {
+    database.readerPool!!.connection.createStatement().use { it.execute("INSERT INTO Rows (Value) VALUES (1)") }
+  }
+
+  @Test
+  fun threadIsPinnedToOneConnection() {
+    val pool = database.readerPool!!
+    assertThat(pool.connection).isSameAs(pool.connection)
+  }
+
+  @Test
+  fun tableIsReadableRightAfterInitialize() {
+    val table = SnapshotTestTable()
+    table.initialize(database)
+    assertThat(table.countSnapshot()).isEqualTo(0)
+  }
+
+  @Test
+  fun synchronousBatchIsCommittedForReaders() {
+    val table = SnapshotTestTable()
+    table.initialize(database)
+    table.insertBatch(listOf(1L, 2L, 3L))
+    // The commit is requested, not awaited, so give the writer thread time to get to it.
+    val deadline = System.currentTimeMillis() + 5_000
+    while (table.countSnapshot() < 3 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10)
+    }
+    assertThat(table.countSnapshot()).isEqualTo(3)
+  }
+
+  @Test
+  fun inMemoryDatabaseHasNoReaderPool() {
+    val memoryDatabase = DataStoreDatabase(dbFile.absolutePath, DataStoreDatabase.Characteristic.PERFORMANT, FakeLogService())
+    memoryDatabase.enableReaderPool(2)
+    assertThat(memoryDatabase.readerPool).isNull()
+    memoryDatabase.disconnect()
+  }
+
+  private fun countRows(): Int {
+    database.readerPool!!.connection.createStatement().use { statement ->
+      statement.executeQuery("SELECT COUNT(*) FROM Rows").use { return it.getInt(1) }
+    }
+  }
+
+  private class SnapshotTestTable : DataStoreTable<SnapshotTestTable.Statements>() {
+    enum class Statements { INSERT, COUNT }
+
+    override fun initialize(connection: Connection) {
+      super.initialize(connection)
+      createTable("Snapshot", "Value INTEGER")
+    }
+
+    override fun prepareStatements() {
+      createStatement(Statements.INSERT, "INSERT INTO Snapshot (Value) VALUES (?)")
+      createStatement(Statements.COUNT, "SELECT COUNT(*) FROM Snapshot")
+    }
+
+    fun insertBatch(values: List<Long>) = executeBatch(Statements.INSERT, values) { arrayOf<Any>(it) }
+
+    fun countSnapshot(): Int = executeSnapshotQuery(Statements.COUNT).use { it.getInt(1) }
+  }
+}
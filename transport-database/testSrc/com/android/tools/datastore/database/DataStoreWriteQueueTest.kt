@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.database
+
+import com.android.tools.datastore.DataStoreDatabase
+import com.android.tools.datastore.FakeLogService
+import com.google.common.truth.Truth.assertThat
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import java.io.File
+
+class DataStoreWriteQueueTest {
+  private lateinit var dbFile: File
+  private lateinit var database: DataStoreDatabase
+
+  @Before
+  fun setUp() {
+    dbFile = File.createTempFile("DataStoreWriteQueueTest", "sql")
+    dbFile.deleteOnExit()
+    database = DataStoreDatabase(dbFile.absolutePath, DataStoreDatabase.Characteristic.DURABLE, FakeLogService())
+    database.connection.createStatement().use { it.execute("CREATE TABLE Rows (Value INTEGER)") }
+  }
+
+  @After
+  fun tearDown() {
+    database.disconnect()
+  }
+
+  @Test
+  fun writesAreAppliedInOrderAndCommitted() {
+    val queue = DataStoreWriteQueue(database.connection, 10_000, 1000, 16)
+    val applied = mutableListOf<Int>()
+    for (i in 0 until 100) {
+      queue.enqueue(1) {
+        applied.add(i)
+        database.connection.createStatement().use { it.execute("INSERT INTO Rows (Value) VALUES ($i)") }
+      }
+    }
+    // The commit window is far longer than the test, so only flush() can trigger the commit.
+    queue.flush()
+    assertThat(applied).isEqualTo((0 until 100).toList())
+    assertThat(queue.queueDepth).isEqualTo(0)
+    assertThat(queue.commitCount).isEqualTo(1L)
+    assertThat(queue.lastRowsPerCommit).isEqualTo(100)
+    queue.shutdown()
+  }
+
+  @Test
+  fun commitsWhenRowCapIsReached() {
+    val queue = DataStoreWriteQueue(database.connection, 10_000, 10, 64)
+    for (i in 0 until 25) {
+      queue.enqueue(1) {}
+    }
+    queue.flush()
+    // Two full transactions of 10 rows, then the remaining 5 rows committed by the flush.
+    assertThat(queue.commitCount).isEqualTo(3L)
+    assertThat(queue.averageRowsPerCommit).isWithin(0.001).of(25.0 / 3)
+    queue.shutdown()
+  }
+
+  @Test
+  fun awaitAppliedWaitsForQueuedWritesWithoutCommitting() {
+    val queue = DataStoreWriteQueue(database.connection, 10_000, 1000, 16)
+    val applied = mutableListOf<Int>()
+    for (i in 0 until 10) {
+      queue.enqueue(1) { applied.add(i) }
+    }
+    queue.awaitApplied()
+    // A synchronous statement issued now runs after every queued write, while the transaction is still open.
+    assertThat(applied).isEqualTo((0 until 10).toList())
+    assertThat(queue.commitCount).isEqualTo(0L)
+    queue.shutdown()
+  }
+
+  @Test
+  fun writesAfterShutdownAreDropped() {
+    val queue = DataStoreWriteQueue(database.connection)
+    queue.shutdown()
+    var ran = false
+    queue.enqueue(1) { ran = true }
+    queue.flush()
+    assertThat(ran).isFalse()
+  }
+
+  @Test
+  fun writeQueueIsOptIn() {
+    assertThat(database.writeQueue).isNull()
+    database.enableWriteQueue()
+    assertThat(database.writeQueue).isNotNull()
+  }
+
+  @Test
+  fun durableDatabaseUsesWriteAheadLog() {
+    database.connection.createStatement().use { statement ->
+      statement.executeQuery("PRAGMA journal_mode").use { result ->
+        assertThat(result.getString(1)).isEqualToIgnoringCase("wal")
+      }
+    }
+  }
+}
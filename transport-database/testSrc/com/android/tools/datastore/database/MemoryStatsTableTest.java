@@ -16,6 +16,7 @@
 package com.android.tools.datastore.database;
 
 import com.android.tools.profiler.proto.Common;
+import com.android.tools.profiler.proto.Memory;
 import com.android.tools.profiler.proto.MemoryProfiler.*;
 import com.android.tools.profiler.protobuf3jarjar.ByteString;
 import org.jetbrains.annotations.NotNull;
@@ -165,6 +166,40 @@ public class MemoryStatsTableTest extends DatabaseTest<MemoryStatsTable> {
     verifyMemoryDataResultCounts(result, 0, 0, 0, 0, 0);
   }
 
+  @Test
+  public void testLongRangesReturnMinMaxBucketsOnlyWhenRequested() {
+    int maxSampleCount = 1024;
+    int sampleCount = maxSampleCount * 3;
+    List<MemoryData.MemorySample> samples = new ArrayList<>(sampleCount);
+    for (int i = 1; i <= sampleCount; i++) {
+      samples.add(MemoryData.MemorySample.newBuilder().setTimestamp(i)
+                    .setMemoryUsage(Memory.MemoryUsageData.newBuilder().setJavaMem(i % 2).setTotalMem(i)).build());
+    }
+    getTable().insertMemory(VALID_SESSION, samples);
+    MemoryRequest request =
+      MemoryRequest.newBuilder().setSession(VALID_SESSION).setStartTime(Long.MIN_VALUE).setEndTime(Long.MAX_VALUE).build();
+
+    // The default query returns the real samples, however many there are.
+    MemoryData result = getTable().getData(request);
+    assertThat(result.getMemSamplesList()).isEqualTo(samples);
+
+    result = getTable().getData(request, maxSampleCount);
+    assertThat(result.getMemSamplesCount()).isAtMost(maxSampleCount);
+    // Every bucket spans several samples, so each one reports both values of the alternating java memory.
+    for (int i = 0; i < result.getMemSamplesCount(); i += 2) {
+      assertThat(result.getMemSamples(i).getMemoryUsage().getJavaMem()).isEqualTo(0);
+      assertThat(result.getMemSamples(i + 1).getMemoryUsage().getJavaMem()).isEqualTo(1);
+    }
+    MemoryData.MemorySample last = result.getMemSamples(result.getMemSamplesCount() - 1);
+    assertThat(last.getTimestamp()).isEqualTo(sampleCount);
+    assertThat(last.getMemoryUsage().getTotalMem()).isEqualTo(sampleCount);
+
+    // Ranges with fewer samples than requested still return every sample.
+    result = getTable().getData(MemoryRequest.newBuilder().setSession(VALID_SESSION).setStartTime(0).setEndTime(100).build(),
+                                maxSampleCount);
+    assertThat(result.getMemSamplesCount()).isEqualTo(100);
+  }
+
   @Test
   public void testHeapDumpQueriesAfterInsertion() {
     HeapDumpInfo sample = HeapDumpInfo.newBuilder().setStartTime(0).setEndTime(0).build();
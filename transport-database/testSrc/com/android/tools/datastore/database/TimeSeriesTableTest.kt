@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.database
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import java.util.function.Consumer
+
+class TimeSeriesTableTest : DatabaseTest<TimeSeriesTable>() {
+  companion object {
+    const val SESSION_ID = 1L
+    const val SERIES_ID = 7
+  }
+
+  override fun createTable(): TimeSeriesTable {
+    return TimeSeriesTable()
+  }
+
+  override fun getTableQueryMethodsForVerification(): List<Consumer<TimeSeriesTable>> {
+    return mutableListOf(
+      (Consumer { it.append(SESSION_ID, SERIES_ID, TimeSeriesData(1).apply { add(1, 1) }) }),
+      (Consumer { assertThat(it.getSamples(SESSION_ID, SERIES_ID, 1, 0, 10).isEmpty).isTrue() }),
+      (Consumer { assertThat(it.getMinMaxBuckets(SESSION_ID, SERIES_ID, 1, 0, 10, 2).isEmpty).isTrue() }),
+      (Consumer { assertThat(it.getExtent(SESSION_ID, SERIES_ID, 0, 10).sampleCount).isEqualTo(0) }))
+  }
+
+  @Test
+  fun samplesRoundTripAcrossChunks() {
+    val count = TimeSeriesChunk.MAX_SAMPLES * 2 + 10
+    val samples = TimeSeriesData(2)
+    for (i in 1..count) {
+      samples.add(i * 10L, i.toLong(), -i * 1000L)
+    }
+    table.append(SESSION_ID, SERIES_ID, samples)
+
+    val result = table.getSamples(SESSION_ID, SERIES_ID, 2, 0, Long.MAX_VALUE)
+    assertThat(result.size()).isEqualTo(count)
+    for (i in 0 until count) {
+      assertThat(result.getTimestamp(i)).isEqualTo((i + 1) * 10L)
+      assertThat(result.getValue(0, i)).isEqualTo(i + 1L)
+      assertThat(result.getValue(1, i)).isEqualTo(-(i + 1) * 1000L)
+    }
+  }
+
+  @Test
+  fun rangeIsStartExclusiveAndEndInclusive() {
+    table.append(SESSION_ID, SERIES_ID, TimeSeriesData(1).apply {
+      add(1, 10)
+      add(2, 20)
+      add(3, 30)
+    })
+
+    val result = table.getSamples(SESSION_ID, SERIES_ID, 1, 1, 2)
+    assertThat(result.size()).isEqualTo(1)
+    assertThat(result.getTimestamp(0)).isEqualTo(2)
+    assertThat(result.getValue(0, 0)).isEqualTo(20)
+  }
+
+  @Test
+  fun appendsExtendTheOpenChunkAndIgnoreDuplicateSamples() {
+    table.append(SESSION_ID, SERIES_ID, TimeSeriesData(1).apply { add(1, 10) })
+    table.append(SESSION_ID, SERIES_ID, TimeSeriesData(1).apply {
+      add(1, 99)
+      add(2, 20)
+    })
+
+    val result = table.getSamples(SESSION_ID, SERIES_ID, 1, 0, 10)
+    assertThat(result.size()).isEqualTo(2)
+    assertThat(result.getValue(0, 0)).isEqualTo(10)
+    assertThat(result.getValue(0, 1)).isEqualTo(20)
+  }
+
+  @Test
+  fun lateSamplesAreInsertedInOrder() {
+    val samples = TimeSeriesData(1)
+    for (i in 1..TimeSeriesChunk.MAX_SAMPLES * 2) {
+      samples.add(i * 10L, i.toLong())
+    }
+    table.append(SESSION_ID, SERIES_ID, samples)
+    table.append(SESSION_ID, SERIES_ID, TimeSeriesData(1).apply {
+      // Before every chunk, in the first stored chunk, in the open chunk, and a duplicate.
+      add(5, -1)
+      add(15, -2)
+      add(TimeSeriesChunk.MAX_SAMPLES * 20L - 5, -3)
+      add(20, -4)
+    })
+
+    val result = table.getSamples(SESSION_ID, SERIES_ID, 1, 0, Long.MAX_VALUE)
+    assertThat(result.size()).isEqualTo(TimeSeriesChunk.MAX_SAMPLES * 2 + 3)
+    for (i in 1 until result.size()) {
+      assertThat(result.getTimestamp(i)).isGreaterThan(result.getTimestamp(i - 1))
+    }
+    assertThat(result.getValue(0, 0)).isEqualTo(-1)
+    assertThat(result.getValue(0, 2)).isEqualTo(-2)
+    assertThat(result.getValue(0, 3)).isEqualTo(2)
+  }
+
+  @Test
+  fun closedSessionContinuesFromItsLastStoredChunk() {
+    table.append(SESSION_ID, SERIES_ID, TimeSeriesData(1).apply {
+      add(1, 10)
+      add(3, 30)
+    })
+    table.closeSession(SESSION_ID)
+    table.append(SESSION_ID, SERIES_ID, TimeSeriesData(1).apply {
+      add(2, 20)
+      add(3, 99)
+      add(4, 40)
+    })
+
+    val result = table.getSamples(SESSION_ID, SERIES_ID, 1, 0, 10)
+    assertThat(result.size()).isEqualTo(4)
+    assertThat((0 until 4).map { result.getValue(0, it) }).containsExactly(10L, 20L, 30L, 40L).inOrder()
+    assertThat(table.getExtent(SESSION_ID, SERIES_ID, 0, 10).sampleCount).isEqualTo(4)
+  }
+
+  @Test
+  fun extentCountsTheOverlappingChunks() {
+    val samples = TimeSeriesData(1)
+    for (i in 1..TimeSeriesChunk.MAX_SAMPLES + 10) {
+      samples.add(i.toLong(), 0)
+    }
+    table.append(SESSION_ID, SERIES_ID, samples)
+
+    val all = table.getExtent(SESSION_ID, SERIES_ID, Long.MIN_VALUE, Long.MAX_VALUE)
+    assertThat(all.sampleCount).isEqualTo(TimeSeriesChunk.MAX_SAMPLES + 10L)
+    assertThat(all.startTime).isEqualTo(1)
+    assertThat(all.endTime).isEqualTo(TimeSeriesChunk.MAX_SAMPLES + 10L)
+    // Only the second chunk overlaps the range.
+    assertThat(table.getExtent(SESSION_ID, SERIES_ID, TimeSeriesChunk.MAX_SAMPLES + 1L, Long.MAX_VALUE).sampleCount).isEqualTo(10)
+  }
+
+  @Test
+  fun seriesAndSessionsAreIsolated() {
+    table.append(SESSION_ID, SERIES_ID, TimeSeriesData(1).apply { add(1, 10) })
+    table.append(SESSION_ID + 1, SERIES_ID, TimeSeriesData(1).apply { add(1, 20) })
+    table.append(SESSION_ID, SERIES_ID + 1, TimeSeriesData(1).apply { add(1, 30) })
+
+    val result = table.getSamples(SESSION_ID, SERIES_ID, 1, 0, 10)
+    assertThat(result.size()).isEqualTo(1)
+    assertThat(result.getValue(0, 0)).isEqualTo(10)
+  }
+
+  @Test
+  fun minMaxBucketsAggregateSamples() {
+    val samples = TimeSeriesData(1)
+    for (i in 1..1000) {
+      samples.add(i.toLong(), (i % 7).toLong() * i)
+    }
+    table.append(SESSION_ID, SERIES_ID, samples)
+
+    val buckets = table.getMinMaxBuckets(SESSION_ID, SERIES_ID, 1, 0, 1000, 4)
+    assertThat(buckets.size()).isEqualTo(4)
+    assertThat(buckets.columnCount).isEqualTo(2)
+    for (bucket in 0 until 4) {
+      val values = (bucket * 250 + 1..(bucket + 1) * 250).map { (it % 7).toLong() * it }
+      assertThat(buckets.getTimestamp(bucket)).isEqualTo(bucket * 250L)
+      assertThat(buckets.getValue(0, bucket)).isEqualTo(values.min())
+      assertThat(buckets.getValue(1, bucket)).isEqualTo(values.max())
+    }
+  }
+
+  @Test
+  fun emptyBucketsAreSkipped() {
+    table.append(SESSION_ID, SERIES_ID, TimeSeriesData(1).apply {
+      add(10, 1)
+      add(90, 5)
+    })
+
+    val buckets = table.getMinMaxBuckets(SESSION_ID, SERIES_ID, 1, 0, 100, 10)
+    assertThat(buckets.size()).isEqualTo(2)
+    assertThat(buckets.getTimestamp(0)).isEqualTo(0)
+    assertThat(buckets.getTimestamp(1)).isEqualTo(80)
+    assertThat(buckets.getValue(1, 1)).isEqualTo(5)
+  }
+}
@@ -17,9 +17,13 @@ package com.android.tools.datastore.poller;
 
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class PollRunnerTest {
 
@@ -42,6 +46,86 @@ public class PollRunnerTest {
     assertEquals(runner.get(1, TimeUnit.SECONDS), null); // For code completion
   }
 
+  @Test
+  public void testAdaptivePeriodBacksOffWhileEmpty() {
+    PollRunner runner = new PollRunner(TEST_PERIOD_NS, TEST_PERIOD_NS * 8) {
+      @Override
+      public void poll() {
+      }
+    };
+    assertEquals(TEST_PERIOD_NS, runner.getCurrentPollPeriodNs());
+    assertEquals(TEST_PERIOD_NS * 2, runner.updatePollPeriod(false));
+    assertEquals(TEST_PERIOD_NS * 4, runner.updatePollPeriod(false));
+    assertEquals(TEST_PERIOD_NS * 8, runner.updatePollPeriod(false));
+    // Capped at the maximum period.
+    assertEquals(TEST_PERIOD_NS * 8, runner.updatePollPeriod(false));
+    // Data resets the period right away.
+    assertEquals(TEST_PERIOD_NS, runner.updatePollPeriod(true));
+  }
+
+  @Test
+  public void testFixedPeriodDoesNotBackOff() {
+    PollRunner runner = new PollRunner(TEST_PERIOD_NS) {
+      @Override
+      public void poll() {
+      }
+    };
+    assertEquals(TEST_PERIOD_NS, runner.updatePollPeriod(false));
+    assertEquals(TEST_PERIOD_NS, runner.updatePollPeriod(true));
+  }
+
+  @Test
+  public void testStopBeforeNextPollReturnsImmediately() throws Exception {
+    PollRunner runner = new PollRunner(TimeUnit.HOURS.toNanos(1)) {
+      @Override
+      public void poll() {
+      }
+    };
+    runner.run();
+    // Whether or not the first poll has happened yet, stopping must not wait an hour for the next one.
+    runner.stop();
+    assertEquals(runner.isDone(), true);
+    assertEquals(runner.isCancelled(), true);
+  }
+
+  @Test
+  public void testBlockedPollsDoNotStallOtherRunners() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    List<PollRunner> blockedRunners = new ArrayList<>();
+    // More runners blocked in their RPC than the scheduler has threads.
+    for (int i = 0; i < 8; i++) {
+      PollRunner blocked = new PollRunner(TEST_PERIOD_NS) {
+        @Override
+        public void poll() {
+          try {
+            release.await();
+          }
+          catch (InterruptedException ignored) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      };
+      blocked.run();
+      blockedRunners.add(blocked);
+    }
+
+    CountDownLatch polled = new CountDownLatch(3);
+    PollRunner runner = new PollRunner(TEST_PERIOD_NS) {
+      @Override
+      public void poll() {
+        polled.countDown();
+      }
+    };
+    runner.run();
+    assertTrue(polled.await(5, TimeUnit.SECONDS));
+
+    runner.stop();
+    release.countDown();
+    for (PollRunner blocked : blockedRunners) {
+      blocked.stop();
+    }
+  }
+
   private static class PollRunnerMinimalImpl extends PollRunner {
     private long myLastCallbackTime = 0;
     private long myTickCallCount = 0;